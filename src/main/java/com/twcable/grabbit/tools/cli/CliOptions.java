@@ -15,6 +15,8 @@
  */
 package com.twcable.grabbit.tools.cli;
 
+import com.twcable.grabbit.tools.jobstarter.LaunchSettings;
+import com.twcable.grabbit.tools.jobstarter.RetryPolicy;
 import com.twcable.grabbit.tools.util.Either;
 import lombok.Value;
 import lombok.val;
@@ -43,6 +45,34 @@ final class CliOptions {
     String envConfFile;
     String environmentName;
     @Nullable String idsFile;
+    LaunchSettings launchSettings;
+
+    /**
+     * The most jobs to have running on each host at once, starting each path as its own job; 0 to start
+     * everything at once.
+     */
+    int maxJobsPerHost;
+
+    /**
+     * If more than 0, the jobs per host start at {@link #maxJobsPerHost()} and adapt to how the hosts keep up, up
+     * to this many.
+     */
+    int adaptiveMaxJobsPerHost;
+
+    /**
+     * If more than 0, the number of shards to split the paths into, balanced by their node counts.
+     */
+    int shards;
+
+    /**
+     * The file of node counts to balance the shards by, which is updated as jobs complete.
+     */
+    @Nullable String nodeCountsFile;
+
+    /**
+     * How to resubmit the paths of failed jobs; {@link RetryPolicy#NONE} to leave them failed.
+     */
+    RetryPolicy retryPolicy;
 
 
     /**
@@ -56,11 +86,47 @@ final class CliOptions {
         val help = new Option("h", "help", false, "Show usage information");
         val start = new Option("s", "start", false, "Start Grabbit");
         val monitor = new Option("m", "monitor", false, "Monitor Grabbit");
+        val launchRate = Option.builder().longOpt("launch-rate").hasArg().argName("starts/second").
+            desc("Make no more than this many job starts per second").build();
+        val launchBurst = Option.builder().longOpt("launch-burst").hasArg().argName("starts").
+            desc("Make up to this many job starts at once before the launch rate applies (default 1)").build();
+        val launchRampUp = Option.builder().longOpt("launch-ramp-up").hasArg().argName("seconds").
+            desc("Climb from a tenth of the launch rate to the full rate over this many seconds").build();
+        val launchJitter = Option.builder().longOpt("launch-jitter").hasArg().argName("ms").
+            desc("Delay each start by a random amount of up to this many milliseconds").build();
+        val maxJobsPerHost = Option.builder().longOpt("max-jobs-per-host").hasArg().argName("jobs").
+            desc("Start each path as its own job, with no more than this many running on a host at once " +
+                "(needs --monitor)").build();
+        val adaptiveMaxJobsPerHost = Option.builder().longOpt("adaptive-max-jobs-per-host").hasArg().argName("jobs").
+            desc("Adjust the jobs per host to the hosts' throughput, from --max-jobs-per-host up to this many").
+            build();
+        val shards = Option.builder().longOpt("shards").hasArg().argName("shards").
+            desc("Split the paths into this many jobs of about the same size on each host").build();
+        val nodeCounts = Option.builder().longOpt("node-counts").hasArg().argName("file").
+            desc("A JSON file of paths to node counts to balance the shards by; updated when monitoring").build();
+        val retries = Option.builder().longOpt("retries").hasArg().argName("retries").
+            desc("Resubmit the path of a failed job to its host up to this many times (needs --monitor)").build();
+        val retryBudget = Option.builder().longOpt("retry-budget").hasArg().argName("retries").
+            desc("The most retries across all of the jobs (default " + RetryPolicy.MAX_RETRIES + ")").build();
+        val retryBackoff = Option.builder().longOpt("retry-backoff").hasArg().argName("seconds").
+            desc("Wait this long before the first retry of a path, doubling for each retry after (default 30)").
+            build();
 
         val options = new Options();
         options.addOption(help);
         options.addOption(start);
         options.addOption(monitor);
+        options.addOption(launchRate);
+        options.addOption(launchBurst);
+        options.addOption(launchRampUp);
+        options.addOption(launchJitter);
+        options.addOption(maxJobsPerHost);
+        options.addOption(adaptiveMaxJobsPerHost);
+        options.addOption(shards);
+        options.addOption(nodeCounts);
+        options.addOption(retries);
+        options.addOption(retryBudget);
+        options.addOption(retryBackoff);
 
         val parser = new DefaultParser();
         try {
@@ -80,16 +146,112 @@ final class CliOptions {
             val argList = line.getArgList();
 
             if (line.hasOption('s')) {
+                val maxJobs = maxJobsPerHost(line);
                 return Either.right(new CliOptions(true, line.hasOption('m'), argList.get(0),
-                    argList.get(1), argList.get(2), null));
+                    argList.get(1), argList.get(2), null, launchSettings(line), maxJobs,
+                    adaptiveMaxJobsPerHost(line, maxJobs), shards(line), nodeCountsFile(line), retryPolicy(line)));
             }
             else {
-                return Either.right(new CliOptions(false, true, null, argList.get(0), argList.get(1), argList.get(2)));
+                return Either.right(new CliOptions(false, true, null, argList.get(0), argList.get(1), argList.get(2),
+                    LaunchSettings.UNLIMITED, 0, 0, 0, null, RetryPolicy.NONE));
             }
         }
         catch (ParseException exp) {
             return Either.left("Parsing failed.  Reason: " + exp.getMessage());
         }
+        catch (IllegalArgumentException exp) {
+            return Either.left("Invalid option value.  Reason: " + exp.getMessage());
+        }
+    }
+
+
+    /**
+     * @throws NumberFormatException    if one of the launch options is not a number
+     * @throws IllegalArgumentException if the launch options are out of range
+     */
+    private static LaunchSettings launchSettings(CommandLine line) {
+        val startsPerSecond = Double.parseDouble(line.getOptionValue("launch-rate", "0"));
+        val burst = Integer.parseInt(line.getOptionValue("launch-burst", "1"));
+        val rampUpMs = (long)(Double.parseDouble(line.getOptionValue("launch-ramp-up", "0")) * 1000);
+        val jitterMs = Long.parseLong(line.getOptionValue("launch-jitter", "0"));
+        return new LaunchSettings(startsPerSecond, burst, rampUpMs, jitterMs);
+    }
+
+
+    /**
+     * @throws NumberFormatException    if the option is not a number
+     * @throws IllegalArgumentException if it's negative, or set without monitoring
+     */
+    private static int maxJobsPerHost(CommandLine line) {
+        val maxJobsPerHost = Integer.parseInt(line.getOptionValue("max-jobs-per-host", "0"));
+        if (maxJobsPerHost < 0) {
+            throw new IllegalArgumentException("--max-jobs-per-host can not be negative: " + maxJobsPerHost);
+        }
+        if (maxJobsPerHost > 0 && !line.hasOption('m')) {
+            throw new IllegalArgumentException("--max-jobs-per-host needs --monitor to know when jobs finish");
+        }
+        return maxJobsPerHost;
+    }
+
+
+    /**
+     * @throws NumberFormatException    if the option is not a number
+     * @throws IllegalArgumentException if it's set without --max-jobs-per-host, or is less than it
+     */
+    private static int adaptiveMaxJobsPerHost(CommandLine line, int maxJobsPerHost) {
+        val adaptiveMax = Integer.parseInt(line.getOptionValue("adaptive-max-jobs-per-host", "0"));
+        if (adaptiveMax != 0 && (maxJobsPerHost == 0 || adaptiveMax < maxJobsPerHost)) {
+            throw new IllegalArgumentException("--adaptive-max-jobs-per-host needs --max-jobs-per-host, and can " +
+                "not be less than it: " + adaptiveMax);
+        }
+        return adaptiveMax;
+    }
+
+
+    /**
+     * @throws NumberFormatException    if the option is not a number
+     * @throws IllegalArgumentException if it's negative
+     */
+    private static int shards(CommandLine line) {
+        val shards = Integer.parseInt(line.getOptionValue("shards", "0"));
+        if (shards < 0) {
+            throw new IllegalArgumentException("--shards can not be negative: " + shards);
+        }
+        return shards;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException if it's set without --shards
+     */
+    private static @Nullable String nodeCountsFile(CommandLine line) {
+        val nodeCountsFile = line.getOptionValue("node-counts");
+        if (nodeCountsFile != null && !line.hasOption("shards")) {
+            throw new IllegalArgumentException("--node-counts needs --shards");
+        }
+        return nodeCountsFile;
+    }
+
+
+    /**
+     * @throws NumberFormatException    if one of the retry options is not a number
+     * @throws IllegalArgumentException if they are out of range, or set without --retries or monitoring
+     */
+    private static RetryPolicy retryPolicy(CommandLine line) {
+        if (!line.hasOption("retries")) {
+            if (line.hasOption("retry-budget") || line.hasOption("retry-backoff")) {
+                throw new IllegalArgumentException("--retry-budget and --retry-backoff need --retries");
+            }
+            return RetryPolicy.NONE;
+        }
+        if (!line.hasOption('m')) {
+            throw new IllegalArgumentException("--retries needs --monitor to know when jobs fail");
+        }
+        val retriesPerJob = Integer.parseInt(line.getOptionValue("retries"));
+        val retryBudget =
+            Integer.parseInt(line.getOptionValue("retry-budget", String.valueOf(RetryPolicy.MAX_RETRIES)));
+        val backoffMs = (long)(Double.parseDouble(line.getOptionValue("retry-backoff", "30")) * 1000);
+        return new RetryPolicy(retriesPerJob, retryBudget, backoffMs, Math.max(backoffMs, RetryPolicy.MAX_BACKOFF_MS));
     }
 
 
@@ -18,26 +18,47 @@ package com.twcable.grabbit.tools.cli;
 import com.twcable.grabbit.tools.environment.Environment;
 import com.twcable.grabbit.tools.environment.HostInfo;
 import com.twcable.grabbit.tools.environment.MapSourcedEnvironment;
+import com.twcable.grabbit.tools.http.HttpTransport;
 import com.twcable.grabbit.tools.jobstarter.HostAndJobIds;
+import com.twcable.grabbit.tools.jobstarter.JobQueue;
+import com.twcable.grabbit.tools.jobstarter.JobRetrier;
+import com.twcable.grabbit.tools.jobstarter.JobsConfig;
+import com.twcable.grabbit.tools.jobstarter.JobsConfigSharder;
 import com.twcable.grabbit.tools.jobstarter.JobStarter;
 import com.twcable.grabbit.tools.jobstarter.JobsConfigFileReader;
+import com.twcable.grabbit.tools.jobstarter.LaunchScheduler;
+import com.twcable.grabbit.tools.jobstarter.LaunchSettings;
+import com.twcable.grabbit.tools.jobstarter.NodeCountHistory;
+import com.twcable.grabbit.tools.jobstarter.RetryPolicy;
+import com.twcable.grabbit.tools.monitor.AimdConcurrencyController;
+import com.twcable.grabbit.tools.monitor.GroupCommitPolicy;
 import com.twcable.grabbit.tools.monitor.JobStatusCache;
+import com.twcable.grabbit.tools.monitor.JournaledFileJobStatusCache;
+import com.twcable.grabbit.tools.monitor.MappedJobStatusCache;
 import com.twcable.grabbit.tools.monitor.PollingJobMonitor;
 import com.twcable.grabbit.tools.monitor.SimpleFileJobStatusCache;
+import com.twcable.grabbit.tools.monitor.event.CompletedJobsMonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.FailedJobsMonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.MonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.RetryMonitoringEvent;
 import com.twcable.grabbit.tools.util.Utils;
 import lombok.val;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.reactivestreams.Publisher;
 import reactor.core.publisher.Flux;
 import reactor.core.util.Exceptions;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.twcable.grabbit.tools.monitor.JobState.RUNNING;
@@ -58,6 +79,24 @@ public final class GrabbitCli {
      */
     public static final String DEFAULT_JOB_STATUS_CACHE_FILENAME = "grabbitIds.out";
 
+    /**
+     * How the job status cache file is written: "simple" rewrites the whole file on every change, "journal"
+     * appends a line for each change and compacts the file now and then. Both are read the same way. Can change
+     * by setting the "jobCacheFormat" system property, otherwise defaults to "simple".
+     *
+     * @see SimpleFileJobStatusCache
+     * @see JournaledFileJobStatusCache
+     */
+    public static final String JOB_STATUS_CACHE_FORMAT = System.getProperty("jobCacheFormat", "simple");
+
+    /**
+     * Whether to write how the HTTP connections were used to STDERR once the command is done. Can turn on by
+     * setting the "poolMetrics" system property to "true", otherwise it's off.
+     *
+     * @see HttpTransport#metrics()
+     */
+    public static final boolean PRINT_POOL_METRICS = Boolean.getBoolean("poolMetrics");
+
 
     private GrabbitCli() {
     }
@@ -118,7 +157,16 @@ public final class GrabbitCli {
      * ....
      * :CliOptions.create(argv);
      * if (start) then (true)
-     *     if (monitor) then (true)
+     *     if (maxJobsPerHost, shards, jobGroups or retries) then (set)
+     *         if (monitor) then (true)
+     *             :startQueuedWithMonitor(..);
+     *         elseif (jobGroups) then (set)
+     *             :error;
+     *             end
+     *         else (false)
+     *             :startShardedWithNoMonitor(..);
+     *         endif
+     *     elseif (monitor) then (true)
      *         :startWithMonitor(..);
      *     else (false)
      *         :startWithNoMonitor(..);
@@ -128,8 +176,12 @@ public final class GrabbitCli {
      * endif
      * ....
      *
-     * @see #startWithMonitor(String, String, String, PrintStream)
-     * @see #startWithNoMonitor(String, String, String, PrintStream)
+     * @see #startQueuedWithMonitor(JobsConfigFileReader, String, String, LaunchSettings, int, int,
+     * JobsConfigSharder, RetryPolicy, PrintStream)
+     * @see #startShardedWithNoMonitor(JobsConfigFileReader, String, String, LaunchSettings, JobsConfigSharder,
+     * PrintStream)
+     * @see #startWithMonitor(JobsConfigFileReader, String, String, LaunchSettings, PrintStream)
+     * @see #startWithNoMonitor(JobsConfigFileReader, String, String, LaunchSettings, PrintStream)
      * @see #monitorJobs(String, String, String, PrintStream)
      */
     public static void run(CliOptions options) throws IOException {
@@ -139,46 +191,306 @@ public final class GrabbitCli {
         val start = options.start();
         val printStream = System.out;
 
-        if (start) {
-            val jobsConfFile = (@NonNull String)options.jobsConfFile();
-            if (monitor) {
-                startWithMonitor(jobsConfFile, envConfFile, environmentName, printStream);
+        try {
+            if (start) {
+                val jobsConfFile = (@NonNull String)options.jobsConfFile();
+                val launchSettings = options.launchSettings();
+                val sharder = sharder(options);
+                val jobsConfigFileReader = jobsConfigFileReader(jobsConfFile);
+                val hasJobGroups = !jobsConfigFileReader.jobsConfig().jobGroups().isEmpty();
+                val retryPolicy = options.retryPolicy();
+                if (options.maxJobsPerHost() > 0 || sharder != null || hasJobGroups || retryPolicy.isEnabled()) {
+                    if (monitor) {
+                        startQueuedWithMonitor(jobsConfigFileReader, envConfFile, environmentName, launchSettings,
+                            options.maxJobsPerHost(), options.adaptiveMaxJobsPerHost(), sharder, retryPolicy,
+                            printStream);
+                    }
+                    else if (hasJobGroups) {
+                        throw new IllegalArgumentException("The \"jobGroups\" in \"" + jobsConfFile + "\" need " +
+                            "--monitor to know when each group has completed");
+                    }
+                    else {
+                        startShardedWithNoMonitor(jobsConfigFileReader, envConfFile, environmentName, launchSettings,
+                            (@NonNull JobsConfigSharder)sharder, printStream);
+                    }
+                }
+                else if (monitor) {
+                    startWithMonitor(jobsConfigFileReader, envConfFile, environmentName, launchSettings, printStream);
+                }
+                else {
+                    startWithNoMonitor(jobsConfigFileReader, envConfFile, environmentName, launchSettings,
+                        printStream);
+                }
             }
             else {
-                startWithNoMonitor(jobsConfFile, envConfFile, environmentName, printStream);
+                val jobIdsFile = (@NonNull String)options.idsFile();
+                monitorJobs(envConfFile, environmentName, jobIdsFile, printStream);
             }
         }
-        else {
-            val jobIdsFile = (@NonNull String)options.idsFile();
-            monitorJobs(envConfFile, environmentName, jobIdsFile, printStream);
+        finally {
+            if (PRINT_POOL_METRICS) {
+                System.err.println(HttpTransport.shared().metrics().summary());
+            }
         }
     }
 
 
+    private static @Nullable JobsConfigSharder sharder(CliOptions options) {
+        if (options.shards() < 1) {
+            return null;
+        }
+        val nodeCountsFile = options.nodeCountsFile();
+        val history = (nodeCountsFile != null) ? NodeCountHistory.load(new File(nodeCountsFile)) :
+            NodeCountHistory.empty();
+        return new JobsConfigSharder(history, options.shards());
+    }
+
+
     /**
-     * Start the jobs, them monitor their progress.
+     * Start the jobs, them monitor their progress. Each host's jobs are monitored as soon as they have started,
+     * while the jobs on the other hosts are still starting.
      *
      * @param jobsConfFile    the file name for the jobs configuration
      * @param envConfFile     file name for AEM environment configuration
      * @param environmentName the name of the environment to use from the environment config file
      * @param out             where to send output while monitoring the jobs
      * @throws IOException
-     * @see #startJobs(String, String, String)
-     * @see #monitor(JobStatusCache, String, String)
+     * @see #startWithMonitor(JobsConfigFileReader, String, String, LaunchSettings, PrintStream)
      */
     public static void startWithMonitor(String jobsConfFile,
                                         String envConfFile, String environmentName,
                                         PrintStream out) throws IOException {
-        val startedJobs = startJobs(envConfFile, environmentName, jobsConfFile);
+        startWithMonitor(jobsConfigFileReader(jobsConfFile), envConfFile, environmentName, LaunchSettings.UNLIMITED,
+            out);
+    }
 
-        val jobStatusCache = startedJobsToCache(startedJobs);
 
-        val monitorEvents = monitor(jobStatusCache, envConfFile, environmentName);
+    /**
+     * Start the jobs at the pace allowed by the launch settings, then monitor their progress. Each host's jobs
+     * are monitored as soon as they have started, while the jobs on the other hosts are still starting.
+     *
+     * @param jobsConfigFileReader the jobs configuration
+     * @param envConfFile          file name for AEM environment configuration
+     * @param environmentName      the name of the environment to use from the environment config file
+     * @param launchSettings       how quickly jobs may be started across the hosts
+     * @param out                  where to send output while monitoring the jobs
+     * @throws IOException
+     * @see #startJobs(String, String, JobsConfigFileReader, LaunchSettings, PrintStream)
+     * @see #monitorAsStarted(Publisher, String, String)
+     */
+    public static void startWithMonitor(JobsConfigFileReader jobsConfigFileReader,
+                                        String envConfFile, String environmentName,
+                                        LaunchSettings launchSettings, PrintStream out) throws IOException {
+        val startedJobs = startJobs(envConfFile, environmentName, jobsConfigFileReader, launchSettings, out);
+
+        val monitorEvents = monitorAsStarted(startedJobs, envConfFile, environmentName);
 
         printMonitoringEvents(monitorEvents, out);
     }
 
 
+    /**
+     * Start each of the paths in the jobs configuration as its own job, keeping no more than `maxJobsPerHost`
+     * running on each host, and monitor their progress. As the monitor sees a host's job finish, the next path
+     * is started on that host.
+     * <p>
+     * With a sharder, the {@link JobsConfigSharder#shard(JobsConfig) shards} are submitted instead of the paths
+     * (all at once if there's no `maxJobsPerHost`), and the node counts of the completed jobs are saved to its
+     * history when monitoring ends.
+     * <p>
+     * With an `adaptiveMaxJobsPerHost`, an {@link AimdConcurrencyController} moves each host's limit between 1 and
+     * that many (starting at `maxJobsPerHost`) as the host's throughput and responsiveness change.
+     * <p>
+     * If the jobs configuration has {@link JobsConfig#jobGroups() job groups}, each group's paths are started on a
+     * host once the monitor has seen the groups it depends on complete there.
+     *
+     * @param jobsConfigFileReader   the jobs configuration
+     * @param envConfFile            file name for AEM environment configuration
+     * @param environmentName        the name of the environment to use from the environment config file
+     * @param launchSettings         how quickly jobs may be started across the hosts
+     * @param maxJobsPerHost         the most jobs to have running on a host at once
+     * @param adaptiveMaxJobsPerHost if more than 0, the most jobs the limit can adapt up to
+     * @param sharder                if not null, what to split the jobs configuration into shards with
+     * @param out                    where to send output while monitoring the jobs
+     * @throws IOException
+     * @throws IllegalArgumentException if the jobs configuration has job groups and there is a sharder
+     * @see #startQueuedWithMonitor(JobsConfigFileReader, String, String, LaunchSettings, int, int, JobsConfigSharder,
+     * RetryPolicy, PrintStream)
+     */
+    public static void startQueuedWithMonitor(JobsConfigFileReader jobsConfigFileReader,
+                                              String envConfFile, String environmentName,
+                                              LaunchSettings launchSettings, int maxJobsPerHost,
+                                              int adaptiveMaxJobsPerHost, @Nullable JobsConfigSharder sharder,
+                                              PrintStream out) throws IOException {
+        startQueuedWithMonitor(jobsConfigFileReader, envConfFile, environmentName, launchSettings, maxJobsPerHost,
+            adaptiveMaxJobsPerHost, sharder, RetryPolicy.NONE, out);
+    }
+
+
+    /**
+     * Start each of the paths in the jobs configuration as its own job, as
+     * {@link #startQueuedWithMonitor(JobsConfigFileReader, String, String, LaunchSettings, int, int, JobsConfigSharder,
+     * PrintStream)} does, and resubmit the path of each job the monitor sees fail to the host it failed on, as
+     * allowed by the retry policy. A retry's jobs are recorded in the job status cache alongside the failed job,
+     * and take over its place on the host.
+     *
+     * @param jobsConfigFileReader   the jobs configuration
+     * @param envConfFile            file name for AEM environment configuration
+     * @param environmentName        the name of the environment to use from the environment config file
+     * @param launchSettings         how quickly jobs may be started across the hosts
+     * @param maxJobsPerHost         the most jobs to have running on a host at once
+     * @param adaptiveMaxJobsPerHost if more than 0, the most jobs the limit can adapt up to
+     * @param sharder                if not null, what to split the jobs configuration into shards with
+     * @param retryPolicy            how many times to retry failed jobs, and how long to wait
+     * @param out                    where to send output while monitoring the jobs
+     * @throws IOException
+     * @throws IllegalArgumentException if the jobs configuration has job groups and there is a sharder
+     * @see JobQueue
+     * @see JobRetrier
+     * @see #monitorAsStarted(Publisher, String, String, AimdConcurrencyController)
+     */
+    public static void startQueuedWithMonitor(JobsConfigFileReader jobsConfigFileReader,
+                                              String envConfFile, String environmentName,
+                                              LaunchSettings launchSettings, int maxJobsPerHost,
+                                              int adaptiveMaxJobsPerHost, @Nullable JobsConfigSharder sharder,
+                                              RetryPolicy retryPolicy, PrintStream out) throws IOException {
+        val env = environment(envConfFile, environmentName);
+        val hosts = hosts(env, jobsConfigFileReader);
+
+        val jobsConfig = jobsConfigFileReader.jobsConfig();
+        val launchScheduler = new LaunchScheduler(launchSettings);
+        final JobQueue jobQueue;
+        final List<JobsConfig> submissions;
+        final int maxRunning;
+        if (!jobsConfig.jobGroups().isEmpty()) {
+            if (sharder != null) {
+                throw new IllegalArgumentException("The \"jobGroups\" in \"" + jobsConfig.source() + "\" can not be " +
+                    "used with shards");
+            }
+            submissions = jobsConfig.splitByPath();
+            maxRunning = (maxJobsPerHost > 0) ? maxJobsPerHost : Math.max(1, submissions.size());
+            jobQueue = JobQueue.forJobGroups(jobsConfigFileReader, hosts, maxRunning, launchScheduler);
+        }
+        else {
+            submissions = (sharder != null) ? sharder.shard(jobsConfig) : jobsConfig.splitByPath();
+            maxRunning = (maxJobsPerHost > 0) ? maxJobsPerHost : submissions.size();
+            jobQueue = JobQueue.forHosts(jobsConfigFileReader, hosts, submissions, maxRunning, launchScheduler);
+        }
+        val startedJobs = Flux.from(jobQueue.startJobs()).
+            doOnComplete(() -> out.println(launchScheduler.summary()));
+
+        final @Nullable JobRetrier retrier = retryPolicy.isEnabled() ?
+            JobRetrier.forQueue(jobQueue, hosts, submissions, retryPolicy) : null;
+        val monitoredJobs = (retrier != null) ? retrier.withRetries(startedJobs) : startedJobs;
+
+        val concurrencyController = (adaptiveMaxJobsPerHost > 0) ?
+            new AimdConcurrencyController(maxRunning, adaptiveMaxJobsPerHost, jobQueue::maxRunning) : null;
+
+        val monitorEvents = Flux.from(monitorAsStarted(monitoredJobs, envConfFile, environmentName,
+            concurrencyController)).
+            concatMap(event -> Flux.fromIterable(releaseFinishedJobs(jobQueue, retrier, event)));
+
+        if (sharder == null) {
+            printMonitoringEvents(monitorEvents, out);
+            return;
+        }
+
+        printMonitoringEvents(monitorEvents.
+            doOnNext(event -> recordNodeCounts(sharder, event)).
+            doOnComplete(() -> saveNodeCounts(sharder)), out);
+    }
+
+
+    /**
+     * Start the shards of the jobs configuration as separate jobs on each host and output their hosts and ids,
+     * followed by the rate the jobs were actually launched at.
+     *
+     * @param jobsConfigFileReader the jobs configuration
+     * @param envConfFile          file name for AEM environment configuration
+     * @param environmentName      the name of the environment to use from the environment config file
+     * @param launchSettings       how quickly jobs may be started across the hosts
+     * @param sharder              what to split the jobs configuration into shards with
+     * @param out                  where to send output of the started jobs
+     * @throws IOException
+     * @see JobsConfigSharder
+     */
+    public static void startShardedWithNoMonitor(JobsConfigFileReader jobsConfigFileReader,
+                                                 String envConfFile, String environmentName,
+                                                 LaunchSettings launchSettings, JobsConfigSharder sharder,
+                                                 PrintStream out) throws IOException {
+        val env = environment(envConfFile, environmentName);
+        val hosts = hosts(env, jobsConfigFileReader);
+
+        // with every shard started at once the queue completes without needing to hear about finished jobs
+        val submissions = sharder.shard(jobsConfigFileReader.jobsConfig());
+        val launchScheduler = new LaunchScheduler(launchSettings);
+        val jobQueue = JobQueue.forHosts(jobsConfigFileReader, hosts, submissions, submissions.size(),
+            launchScheduler);
+        val startedJobs = Flux.from(jobQueue.startJobs()).
+            doOnComplete(() -> out.println(launchScheduler.summary()));
+
+        printStartedJobs(startedJobs, out);
+    }
+
+
+    /**
+     * Records the node counts of the jobs the monitor has seen complete in the sharder's history.
+     */
+    static void recordNodeCounts(JobsConfigSharder sharder, MonitoringEvent event) {
+        if (event instanceof CompletedJobsMonitoringEvent) {
+            ((CompletedJobsMonitoringEvent)event).completedJobs.forEach(jobStatus ->
+                sharder.recordCompleted(jobStatus.path(), jobStatus.jcrNodesWritten()));
+        }
+    }
+
+
+    private static void saveNodeCounts(JobsConfigSharder sharder) {
+        try {
+            sharder.history().save();
+        }
+        catch (IOException e) {
+            System.err.println("Could not save the node counts: " + e);
+        }
+    }
+
+
+    /**
+     * Tells the {@link JobQueue} about any jobs the monitor has seen complete or fail, so it can start the next
+     * ones. Only completed jobs count towards a job group completing.
+     * <p>
+     * With a retrier, each failed job is retried if it can be, in which case the queue isn't told about it.
+     *
+     * @return the event, followed by a {@link RetryMonitoringEvent} for each retry
+     */
+    static List<MonitoringEvent> releaseFinishedJobs(JobQueue jobQueue, @Nullable JobRetrier retrier,
+                                                     MonitoringEvent event) {
+        val events = new ArrayList<MonitoringEvent>();
+        events.add(event);
+        if (event instanceof CompletedJobsMonitoringEvent) {
+            ((CompletedJobsMonitoringEvent)event).completedJobs.forEach(jobStatus -> {
+                if (retrier != null) {
+                    retrier.jobCompleted(jobStatus.uri(), jobStatus.jobExecutionId());
+                }
+                jobQueue.jobFinished(jobStatus.uri(), jobStatus.jobExecutionId());
+            });
+        }
+        else if (event instanceof FailedJobsMonitoringEvent) {
+            ((FailedJobsMonitoringEvent)event).failedJobs.forEach(jobStatus -> {
+                val retry = (retrier != null) ?
+                    retrier.jobFailed(jobStatus.uri(), jobStatus.jobExecutionId(), jobStatus.path()) : null;
+                if (retry != null) {
+                    events.add(new RetryMonitoringEvent(retry.location(), retry.path(), retry.failedJobId(),
+                        retry.attempt(), retry.maxAttempts(), retry.backoffMs()));
+                }
+                else {
+                    jobQueue.jobFinished(jobStatus.uri(), jobStatus.jobExecutionId(), false);
+                }
+            });
+        }
+        return events;
+    }
+
+
     /**
      * Start the jobs and output their hosts and ids.
      *
@@ -187,12 +499,32 @@ public final class GrabbitCli {
      * @param environmentName the name of the environment to use from the environment config file
      * @param out             where to send output of the started jobs
      * @throws IOException
-     * @see #startJobs(String, String, String)
+     * @see #startWithNoMonitor(JobsConfigFileReader, String, String, LaunchSettings, PrintStream)
      */
     public static void startWithNoMonitor(String jobsConfFile,
                                           String envConfFile, String environmentName,
                                           PrintStream out) throws IOException {
-        val startedJobs = startJobs(envConfFile, environmentName, jobsConfFile);
+        startWithNoMonitor(jobsConfigFileReader(jobsConfFile), envConfFile, environmentName,
+            LaunchSettings.UNLIMITED, out);
+    }
+
+
+    /**
+     * Start the jobs at the pace allowed by the launch settings and output their hosts and ids, followed by
+     * the rate the jobs were actually launched at.
+     *
+     * @param jobsConfigFileReader the jobs configuration
+     * @param envConfFile          file name for AEM environment configuration
+     * @param environmentName      the name of the environment to use from the environment config file
+     * @param launchSettings       how quickly jobs may be started across the hosts
+     * @param out                  where to send output of the started jobs
+     * @throws IOException
+     * @see #startJobs(String, String, JobsConfigFileReader, LaunchSettings, PrintStream)
+     */
+    public static void startWithNoMonitor(JobsConfigFileReader jobsConfigFileReader,
+                                          String envConfFile, String environmentName,
+                                          LaunchSettings launchSettings, PrintStream out) throws IOException {
+        val startedJobs = startJobs(envConfFile, environmentName, jobsConfigFileReader, launchSettings, out);
 
         printStartedJobs(startedJobs, out);
     }
@@ -211,22 +543,39 @@ public final class GrabbitCli {
     public static void monitorJobs(String envConfFile, String environmentName,
                                    String jobIdsFile, PrintStream out) throws IOException {
         val jobStatusCache = openJobStatusCache(jobIdsFile);
+        try {
+            val monitorEvents = monitor(jobStatusCache, envConfFile, environmentName);
 
-        val monitorEvents = monitor(jobStatusCache, envConfFile, environmentName);
-
-        printMonitoringEvents(monitorEvents, out);
+            printMonitoringEvents(monitorEvents, out);
+        }
+        finally {
+            closeJobStatusCache(jobStatusCache);
+        }
     }
 
 
     /**
      * Print the started jobs to the PrintStream, waiting up to 30 minutes for the jobs
-     * to finish starting across all the hosts.
+     * to finish starting across all the hosts. A host that could not start its jobs is reported to STDERR, and
+     * the other hosts carry on.
+     *
+     * @throws IllegalStateException once all the hosts have finished, if any of them could not start its jobs
      */
     static void printStartedJobs(Publisher<HostAndJobIds> startedJobs, PrintStream out) {
+        val failedHosts = new AtomicInteger();
         Flux.from(startedJobs).
-            flatMap(GrabbitCli::hostAndJobIdsToStrings).
+            flatMap(hostAndJobIds -> Flux.from(hostAndJobIdsToStrings(hostAndJobIds)).
+                onErrorResumeWith(e -> {
+                    reportStartFailure(hostAndJobIds, e);
+                    failedHosts.incrementAndGet();
+                    return Flux.<String>empty();
+                })).
             doOnNext(out::println).
             then().block(Duration.ofMinutes(30));
+
+        if (failedHosts.get() > 0) {
+            throw new IllegalStateException("Could not start the jobs on " + failedHosts.get() + " host(s)");
+        }
     }
 
 
@@ -246,6 +595,31 @@ public final class GrabbitCli {
     }
 
 
+    /**
+     * Using the provided configuration, start jobs no faster than the launch settings allow and publish the
+     * results. Once every host has been launched, the effective launch rate is written to the PrintStream.
+     *
+     * @see JobStarter#startJobsForHosts(JobsConfigFileReader, Iterable, LaunchScheduler)
+     * @see LaunchScheduler#summary()
+     */
+    public static Publisher<HostAndJobIds> startJobs(String envConfFile, String environmentName,
+                                                     JobsConfigFileReader jobsConfigFileReader,
+                                                     LaunchSettings launchSettings,
+                                                     PrintStream out) throws IOException {
+        val env = environment(envConfFile, environmentName);
+        val hosts = hosts(env, jobsConfigFileReader);
+
+        val launchScheduler = new LaunchScheduler(launchSettings);
+        return Flux.from(JobStarter.startJobsForHosts(jobsConfigFileReader, hosts, launchScheduler)).
+            doOnComplete(() -> out.println(launchScheduler.summary()));
+    }
+
+
+    private static void reportStartFailure(HostAndJobIds hostAndJobIds, Throwable e) {
+        System.err.println("Could not start the jobs on " + hostAndJobIds.uri() + ": " + e);
+    }
+
+
     /**
      * "Denormalize" the host and its job ids.
      * <p>
@@ -257,9 +631,49 @@ public final class GrabbitCli {
     }
 
 
+    /**
+     * Opens the job ids file, which can be either CSV, written as {@link #JOB_STATUS_CACHE_FORMAT} says, or a
+     * {@link MappedJobStatusCache} file.
+     */
     private static JobStatusCache openJobStatusCache(String jobIdsFile) throws IOException {
         val jobStatusCacheFile = new File(jobIdsFile);
-        return SimpleFileJobStatusCache.open(jobStatusCacheFile);
+        if (MappedJobStatusCache.isMappedFile(jobStatusCacheFile)) {
+            return MappedJobStatusCache.open(jobStatusCacheFile);
+        }
+        return isJournaled() ? JournaledFileJobStatusCache.open(jobStatusCacheFile, GroupCommitPolicy.DEFAULT) :
+            SimpleFileJobStatusCache.open(jobStatusCacheFile, GroupCommitPolicy.DEFAULT);
+    }
+
+
+    /**
+     * Creates an empty job ids file, written as {@link #JOB_STATUS_CACHE_FORMAT} says.
+     */
+    private static JobStatusCache createJobStatusCache(File jobStatusCacheFile) throws IOException {
+        return isJournaled() ? JournaledFileJobStatusCache.createEmpty(jobStatusCacheFile, GroupCommitPolicy.DEFAULT) :
+            SimpleFileJobStatusCache.createEmpty(jobStatusCacheFile, GroupCommitPolicy.DEFAULT);
+    }
+
+
+    private static void closeJobStatusCache(JobStatusCache jobStatusCache) {
+        if (jobStatusCache instanceof Closeable) {
+            Utils.close((Closeable)jobStatusCache);
+        }
+    }
+
+
+    /**
+     * @throws IllegalArgumentException if {@link #JOB_STATUS_CACHE_FORMAT} isn't a known format
+     */
+    private static boolean isJournaled() {
+        switch (JOB_STATUS_CACHE_FORMAT) {
+            case "simple":
+                return false;
+            case "journal":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown jobCacheFormat \"" + JOB_STATUS_CACHE_FORMAT +
+                    "\"; expected \"simple\" or \"journal\"");
+        }
     }
 
 
@@ -301,26 +715,6 @@ public final class GrabbitCli {
     }
 
 
-    /**
-     * Creates a {@link SimpleFileJobStatusCache} with the default filename, waiting up to 30 minutes for the jobs
-     * to finish starting across all the hosts.
-     *
-     * @param startedJobs the job information
-     * @see GrabbitCli#DEFAULT_JOB_STATUS_CACHE_FILENAME
-     * @see GrabbitCli#putInJobCache(JobStatusCache, HostAndJobIds)
-     */
-    static JobStatusCache startedJobsToCache(Publisher<HostAndJobIds> startedJobs) throws IOException {
-        val file = new File(DEFAULT_JOB_STATUS_CACHE_FILENAME);
-        val jobStatusCache = SimpleFileJobStatusCache.createEmpty(file);
-
-        Flux.from(startedJobs).
-            doOnNext(hj -> putInJobCache(jobStatusCache, hj)).
-            then().block(Duration.ofMinutes(30));
-
-        return jobStatusCache;
-    }
-
-
     /**
      * Copy the host and its job ids into the monitoring cache, waiting up to 5 minutes for the jobs to finish
      * starting for the host.
@@ -362,6 +756,55 @@ public final class GrabbitCli {
     }
 
 
+    /**
+     * Creates a {@link PollingJobMonitor} that monitors each host's jobs as soon as they have started, recording
+     * them in a job status cache file with the default filename.
+     *
+     * @param startedJobs     the jobs as they are started
+     * @param envConfFile     the environment configuration file name
+     * @param environmentName the name of the environment to monitor
+     * @see PollingJobMonitor.B.Build#startedJobs(Publisher)
+     * @see GrabbitCli#DEFAULT_JOB_STATUS_CACHE_FILENAME
+     * @see GrabbitCli#JOB_STATUS_CACHE_FORMAT
+     */
+    public static Publisher<MonitoringEvent> monitorAsStarted(Publisher<HostAndJobIds> startedJobs,
+                                                              String envConfFile,
+                                                              String environmentName) throws IOException {
+        return monitorAsStarted(startedJobs, envConfFile, environmentName, null);
+    }
+
+
+    /**
+     * Creates a {@link PollingJobMonitor} that monitors each host's jobs as soon as they have started, recording
+     * them in a job status cache file with the default filename.
+     *
+     * @param startedJobs           the jobs as they are started
+     * @param envConfFile           the environment configuration file name
+     * @param environmentName       the name of the environment to monitor
+     * @param concurrencyController if not null, what to tell about the polls so it can adjust the hosts' limits
+     * @see PollingJobMonitor.B.Build#concurrencyController(AimdConcurrencyController)
+     */
+    public static Publisher<MonitoringEvent> monitorAsStarted(Publisher<HostAndJobIds> startedJobs,
+                                                              String envConfFile, String environmentName,
+                                                              @Nullable AimdConcurrencyController
+                                                                  concurrencyController) throws IOException {
+        val env = environment(envConfFile, environmentName);
+        val file = new File(DEFAULT_JOB_STATUS_CACHE_FILENAME);
+        val jobStatusCache = createJobStatusCache(file);
+
+        val builder = PollingJobMonitor.builder().
+            jobStatusCache(jobStatusCache).
+            environment(env).
+            startedJobs(startedJobs);
+        if (concurrencyController != null) {
+            builder.concurrencyController(concurrencyController);
+        }
+
+        // the cache is closed however monitoring ends, which writes out anything it still has buffered
+        return Flux.using(() -> jobStatusCache, cache -> builder.build().monitor(), GrabbitCli::closeJobStatusCache);
+    }
+
+
     /**
      * Send the monitoring events to the PrintStream, waiting up to 30 days for it to complete.
      *
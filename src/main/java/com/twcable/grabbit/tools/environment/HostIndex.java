@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.environment;
+
+import lombok.val;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable lookup of the hosts in an {@link Environment} by their base URI, with the "Authorization" header
+ * for each host encoded up front.
+ * <p>
+ * Lookups are a single hash probe, so this is meant to be built once and then used on every request.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class HostIndex {
+    private final Map<URI, HostInfo> hosts;
+    private final Map<URI, String> authorizations;
+
+
+    private HostIndex(Map<URI, HostInfo> hosts, Map<URI, String> authorizations) {
+        this.hosts = hosts;
+        this.authorizations = authorizations;
+    }
+
+
+    /**
+     * Indexes every host in the environment. If more than one host has the same base URI, the first one wins.
+     */
+    public static HostIndex of(Environment environment) {
+        val hosts = new HashMap<URI, HostInfo>();
+        val authorizations = new HashMap<URI, String>();
+        for (HostInfo hostInfo : environment) {
+            if (hosts.putIfAbsent(hostInfo.baseUri(), hostInfo) == null) {
+                authorizations.put(hostInfo.baseUri(), hostInfo.credentials().basicAuthorizationHeader());
+            }
+        }
+        return new HostIndex(Collections.unmodifiableMap(hosts), Collections.unmodifiableMap(authorizations));
+    }
+
+
+    /**
+     * The host with the given base URI.
+     *
+     * @throws IllegalStateException if there's no such host
+     */
+    public HostInfo hostFor(URI baseUri) {
+        val hostInfo = hosts.get(baseUri);
+        if (hostInfo == null) {
+            throw noMatch(baseUri);
+        }
+        return hostInfo;
+    }
+
+
+    /**
+     * The value of the "Authorization" header to send to the host with the given base URI.
+     *
+     * @throws IllegalStateException if there's no such host
+     * @see UsernameAndPassword#basicAuthorizationHeader()
+     */
+    public String authorizationFor(URI baseUri) {
+        val authorization = authorizations.get(baseUri);
+        if (authorization == null) {
+            throw noMatch(baseUri);
+        }
+        return authorization;
+    }
+
+
+    private static IllegalStateException noMatch(URI baseUri) {
+        return new IllegalStateException("Could not find a match for " + baseUri);
+    }
+
+}
@@ -38,4 +38,14 @@ public class UsernameAndPassword {
     public String basicAuthEncode() {
         return Base64.getEncoder().encodeToString((username + ':' + password).getBytes(Charset.defaultCharset()));
     }
+
+
+    /**
+     * The full value of an HTTP Basic Authentication "Authorization" header, such as "Basic dXNlcjpwYXNz".
+     *
+     * @see #basicAuthEncode()
+     */
+    public String basicAuthorizationHeader() {
+        return "Basic " + basicAuthEncode();
+    }
 }
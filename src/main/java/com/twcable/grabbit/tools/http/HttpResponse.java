@@ -0,0 +1,279 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.http;
+
+import lombok.Value;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A complete HTTP/1.1 response, with its body already read.
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier",
+    "checkstyle:MultipleStringLiterals", "PMD.AvoidLiteralsInIfCondition"})
+public class HttpResponse {
+    private static final int HTTP_SWITCHING_PROTOCOLS = 101;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_NO_CONTENT = 204;
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    int statusCode;
+
+    /**
+     * The headers, keyed by their lower-cased names. Repeated headers are joined with commas.
+     */
+    Map<String, String> headers;
+
+    byte[] body;
+
+    /**
+     * Whether the connection the response was read from can be used for another request.
+     */
+    boolean keepAlive;
+
+
+    /**
+     * Returns the value of the header, ignoring the case of its name.
+     */
+    public @Nullable String header(String name) {
+        return headers.get(name.toLowerCase(Locale.ROOT));
+    }
+
+
+    /**
+     * Returns the body if the status is 2xx.
+     *
+     * @param description what was requested, for error messages
+     * @throws FileNotFoundException if the status is 404, to match what {@link java.net.HttpURLConnection} does
+     * @throws IOException           if the status is anything else other than 2xx
+     */
+    public byte[] successBody(String description) throws IOException {
+        if (statusCode == HTTP_NOT_FOUND) {
+            throw new FileNotFoundException(description + " was not found");
+        }
+        if (statusCode / 100 != 2) {
+            throw new IOException("Server returned HTTP response code: " + statusCode + " for " + description);
+        }
+        return body;
+    }
+
+
+    /**
+     * Returns the body as a stream if the status is 2xx.
+     *
+     * @see #successBody(String)
+     */
+    public InputStream successBodyStream(String description) throws IOException {
+        return new ByteArrayInputStream(successBody(description));
+    }
+
+
+    /**
+     * Reads the response to a request other than HEAD off of the stream.
+     *
+     * @see #read(InputStream, String, String)
+     */
+    public static HttpResponse read(InputStream in, String description) throws IOException {
+        return read(in, "GET", description);
+    }
+
+
+    /**
+     * Reads a response off of the stream, leaving the stream positioned at the start of the next response.
+     * <p>
+     * The body is framed by "Transfer-Encoding: chunked", then "Content-Length", and otherwise runs until the end
+     * of the stream (in which case the connection can't be kept alive). A response to HEAD never has a body, even
+     * though its headers describe the one a GET would have returned.
+     *
+     * @param in          where to read the response from
+     * @param method      the method of the request it's the response to, such as "GET"
+     * @param description what was requested, for error messages
+     * @throws IOException if the stream ends early or the response is malformed
+     */
+    public static HttpResponse read(InputStream in, String method, String description) throws IOException {
+        String statusLine = readLine(in, description);
+        int statusCode = statusCode(statusLine, description);
+        Map<String, String> headers = readHeaders(in, description);
+
+        // interim responses, such as "100 Continue", come before the real one and have no body
+        while (statusCode / 100 == 1) {
+            if (statusCode == HTTP_SWITCHING_PROTOCOLS) {
+                throw new IOException("Unexpected switch of protocols for " + description);
+            }
+            statusLine = readLine(in, description);
+            statusCode = statusCode(statusLine, description);
+            headers = readHeaders(in, description);
+        }
+        val version = statusLine.split(" ", 2)[0];
+
+        val connection = headers.getOrDefault("connection", "").toLowerCase(Locale.ROOT);
+        boolean keepAlive = "HTTP/1.1".equals(version) ? !connection.contains("close") :
+            connection.contains("keep-alive");
+
+        val transferEncoding = headers.getOrDefault("transfer-encoding", "").toLowerCase(Locale.ROOT);
+        val contentLength = headers.get("content-length");
+        final byte[] body;
+        if ("HEAD".equals(method) || statusCode == HTTP_NO_CONTENT || statusCode == HTTP_NOT_MODIFIED) {
+            body = new byte[0];
+        }
+        else if (transferEncoding.contains("chunked")) {
+            body = readChunked(in, description);
+        }
+        else if (contentLength != null) {
+            body = readFully(in, parseLength(contentLength, description), description);
+        }
+        else {
+            body = readToEnd(in);
+            keepAlive = false;
+        }
+
+        return new HttpResponse(statusCode, Collections.unmodifiableMap(headers), body, keepAlive);
+    }
+
+
+    /**
+     * Reads just the status line and headers of a response, such as a proxy's answer to CONNECT, returning the
+     * status code.
+     */
+    static int readHead(InputStream in, String description) throws IOException {
+        val statusCode = statusCode(readLine(in, description), description);
+        readHeaders(in, description);
+        return statusCode;
+    }
+
+
+    private static Map<String, String> readHeaders(InputStream in, String description) throws IOException {
+        val headers = new HashMap<String, String>();
+        String line = readLine(in, description);
+        while (!line.isEmpty()) {
+            val colon = line.indexOf(':');
+            if (colon > 0) {
+                val name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                val value = line.substring(colon + 1).trim();
+                headers.merge(name, value, (first, second) -> first + "," + second);
+            }
+            line = readLine(in, description);
+        }
+        return headers;
+    }
+
+
+    private static int statusCode(String statusLine, String description) throws IOException {
+        // e.g., "HTTP/1.1 200 OK"
+        val parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Malformed HTTP status line \"" + statusLine + "\" for " + description);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Malformed HTTP status line \"" + statusLine + "\" for " + description, e);
+        }
+    }
+
+
+    private static int parseLength(String length, String description) throws IOException {
+        try {
+            return Integer.parseInt(length.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IOException("Malformed HTTP length \"" + length + "\" for " + description, e);
+        }
+    }
+
+
+    private static byte[] readChunked(InputStream in, String description) throws IOException {
+        val body = new ByteArrayOutputStream();
+        while (true) {
+            // ignore any chunk extensions
+            val sizeLine = readLine(in, description).split(";", 2)[0].trim();
+            final int size;
+            try {
+                size = Integer.parseInt(sizeLine, 16);
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Malformed HTTP chunk size \"" + sizeLine + "\" for " + description, e);
+            }
+            if (size == 0) {
+                // skip any trailers
+                String trailer = readLine(in, description);
+                while (!trailer.isEmpty()) {
+                    trailer = readLine(in, description);
+                }
+                return body.toByteArray();
+            }
+            body.write(readFully(in, size, description));
+            readLine(in, description);
+        }
+    }
+
+
+    private static byte[] readFully(InputStream in, int length, String description) throws IOException {
+        val data = new byte[length];
+        int pos = 0;
+        while (pos < length) {
+            val count = in.read(data, pos, length - pos);
+            if (count < 0) {
+                throw new EOFException("Truncated HTTP response for " + description);
+            }
+            pos += count;
+        }
+        return data;
+    }
+
+
+    @SuppressWarnings("PMD.AssignmentInOperand")
+    private static byte[] readToEnd(InputStream in) throws IOException {
+        val data = new ByteArrayOutputStream();
+        final byte[] buf = new byte[8 * 1024];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            data.write(buf, 0, n);
+        }
+        return data.toByteArray();
+    }
+
+
+    private static String readLine(InputStream in, String description) throws IOException {
+        val line = new ByteArrayOutputStream(64);
+        int b = in.read();
+        while (b != '\n') {
+            if (b < 0) {
+                throw new EOFException("Truncated HTTP response for " + description);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+            b = in.read();
+        }
+        return new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+
+}
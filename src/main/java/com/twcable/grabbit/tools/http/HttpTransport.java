@@ -0,0 +1,657 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.http;
+
+import lombok.Value;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small HTTP/1.1 client that keeps its connections open between requests, pooled per host.
+ * <p>
+ * Each response is read completely before a request returns, so a connection is always either back in the pool
+ * ready for its next request or closed; nothing depends on the caller draining or closing a stream. Connections
+ * that sit idle for longer than the idle timeout are closed by a background thread. "https" connections keep
+ * their TLS session for as long as they stay in the pool.
+ * <p>
+ * If the server has closed a pooled connection by the time it's used, a GET or HEAD is sent again on a new
+ * connection. Other requests, such as the PUT that starts jobs, could have already been acted on, so they are
+ * never sent twice; they always go out on a new connection instead of one that might have gone stale.
+ * <p>
+ * Proxies are used the same way as {@link java.net.HttpURLConnection} uses them, through the default
+ * {@link ProxySelector} (so the "http.proxyHost", "https.proxyHost" and "http.nonProxyHosts" system properties
+ * apply). "https" requests go through the proxy with a CONNECT tunnel.
+ * <p>
+ * Instances are thread-safe. {@link #shared()} is the instance used by the job starter and the job status pollers.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+public final class HttpTransport implements AutoCloseable {
+
+    /**
+     * The most connections to have open to a single host at one time. Can change by setting the
+     * "httpMaxConnectionsPerHost" system property, otherwise defaults to 8.
+     */
+    public static final int HTTP_MAX_CONNECTIONS_PER_HOST =
+        Integer.parseInt(System.getProperty("httpMaxConnectionsPerHost", "8"));
+
+    /**
+     * How long to wait for a connection to be established (and for a free connection when the host is at
+     * {@link #HTTP_MAX_CONNECTIONS_PER_HOST}). Can change by setting the "httpConnectTimeout" system property,
+     * otherwise defaults to 10 seconds.
+     */
+    public static final int HTTP_CONNECT_TIMEOUT = Integer.parseInt(System.getProperty("httpConnectTimeout", "10000"));
+
+    /**
+     * How long to wait for data from the server before giving up on a request. Can change by setting the
+     * "httpReadTimeout" system property, otherwise defaults to 60 seconds.
+     */
+    public static final int HTTP_READ_TIMEOUT = Integer.parseInt(System.getProperty("httpReadTimeout", "60000"));
+
+    /**
+     * How long a connection can sit unused in the pool before it's closed. Can change by setting the
+     * "httpIdleTimeout" system property, otherwise defaults to 30 seconds.
+     */
+    public static final long HTTP_IDLE_TIMEOUT = Long.parseLong(System.getProperty("httpIdleTimeout", "30000"));
+
+    private final int maxConnectionsPerHost;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final long idleTimeoutMs;
+    private final @Nullable ProxySelector proxySelector;
+    private final ScheduledExecutorService evictor;
+
+    // all guarded by "this"
+    private final Map<Endpoint, HostPool> pools = new HashMap<>();
+    private long connectionsOpened;
+    private long connectionsReused;
+    private boolean closed;
+
+
+    /**
+     * @param maxConnectionsPerHost the most connections to have open to a single host at one time
+     * @param connectTimeoutMs      how long to wait for a connection, either new or from the pool
+     * @param readTimeoutMs         how long to wait for data from the server
+     * @param idleTimeoutMs         how long a connection can sit unused in the pool before it's closed
+     */
+    public HttpTransport(int maxConnectionsPerHost, int connectTimeoutMs, int readTimeoutMs, long idleTimeoutMs) {
+        this(maxConnectionsPerHost, connectTimeoutMs, readTimeoutMs, idleTimeoutMs, ProxySelector.getDefault());
+    }
+
+
+    /**
+     * @param proxySelector what proxy, if any, to use for each host; null to always connect directly
+     */
+    HttpTransport(int maxConnectionsPerHost, int connectTimeoutMs, int readTimeoutMs, long idleTimeoutMs,
+                  @Nullable ProxySelector proxySelector) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1: " + maxConnectionsPerHost);
+        }
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.proxySelector = proxySelector;
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            val thread = new Thread(runnable, "HttpTransport idle connection evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        val evictionPeriodMs = Math.max(idleTimeoutMs / 2, 1L);
+        evictor.scheduleWithFixedDelay(this::evictIdle, evictionPeriodMs, evictionPeriodMs, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * The transport shared by everything in the process, configured by the "http..." system properties.
+     *
+     * @see #HTTP_MAX_CONNECTIONS_PER_HOST
+     * @see #HTTP_CONNECT_TIMEOUT
+     * @see #HTTP_READ_TIMEOUT
+     * @see #HTTP_IDLE_TIMEOUT
+     */
+    public static HttpTransport shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+
+    /**
+     * Sends a GET request.
+     *
+     * @param url           what to retrieve
+     * @param authorization the value of the "Authorization" header
+     */
+    public HttpResponse get(URL url, String authorization) throws IOException {
+        return execute("GET", url, Collections.singletonMap("Authorization", authorization), null);
+    }
+
+
+    /**
+     * Sends a PUT request.
+     *
+     * @param url           where to send the content
+     * @param authorization the value of the "Authorization" header
+     * @param contentType   the value of the "Content-Type" header
+     * @param content       what to send
+     */
+    public HttpResponse put(URL url, String authorization, String contentType, byte[] content) throws IOException {
+        return put(url, authorization, contentType, content, readTimeoutMs);
+    }
+
+
+    /**
+     * Sends a PUT request, waiting for the response for as long as given, such as for as long as it takes the
+     * server to act on it.
+     *
+     * @param url           where to send the content
+     * @param authorization the value of the "Authorization" header
+     * @param contentType   the value of the "Content-Type" header
+     * @param content       what to send
+     * @param readTimeoutMs how long to wait for data from the server; 0 to wait for as long as it takes
+     */
+    public HttpResponse put(URL url, String authorization, String contentType, byte[] content,
+                            int readTimeoutMs) throws IOException {
+        val headers = new HashMap<String, String>();
+        headers.put("Authorization", authorization);
+        headers.put("Content-Type", contentType);
+        return execute("PUT", url, headers, content, readTimeoutMs);
+    }
+
+
+    /**
+     * Sends the request and reads the complete response.
+     *
+     * @param method  the HTTP method, such as "GET"
+     * @param url     the "http" or "https" URL to send the request to
+     * @param headers any headers other than "Host" and "Content-Length", which are added automatically
+     * @param content the body of the request, if there is one
+     * @throws ConnectException       if a connection can't be made to the host
+     * @throws SocketTimeoutException if the server takes too long to respond
+     */
+    public HttpResponse execute(String method, URL url, Map<String, String> headers,
+                                byte @Nullable [] content) throws IOException {
+        return execute(method, url, headers, content, readTimeoutMs);
+    }
+
+
+    /**
+     * Sends the request and reads the complete response.
+     *
+     * @param method        the HTTP method, such as "GET"
+     * @param url           the "http" or "https" URL to send the request to
+     * @param headers       any headers other than "Host" and "Content-Length", which are added automatically
+     * @param content       the body of the request, if there is one
+     * @param readTimeoutMs how long to wait for data from the server; 0 to wait for as long as it takes
+     * @throws ConnectException       if a connection can't be made to the host
+     * @throws SocketTimeoutException if the server takes too long to respond
+     */
+    @SuppressWarnings("PMD.PreserveStackTrace")
+    public HttpResponse execute(String method, URL url, Map<String, String> headers,
+                                byte @Nullable [] content, int readTimeoutMs) throws IOException {
+        val endpoint = Endpoint.of(url);
+        val description = method + " " + url;
+        val request = new Request(method, url, endpoint, headers, content, readTimeoutMs, description);
+        // only requests that are safe to send twice may go out on a pooled connection that could be stale
+        val repeatable = "GET".equals(method) || "HEAD".equals(method);
+
+        try {
+            try {
+                return exchange(acquire(endpoint, repeatable), request);
+            }
+            catch (StaleConnectionException e) {
+                closeIdle(endpoint);
+                return exchange(acquire(endpoint, true), request);
+            }
+        }
+        catch (ConnectException e) {
+            val newExp = new ConnectException(e.getMessage() + " when trying to connect to " + url);
+            newExp.setStackTrace(e.getStackTrace());
+            throw newExp;
+        }
+    }
+
+
+    /**
+     * Closes every connection that has been idle for longer than the idle timeout. This is done periodically in the
+     * background, so normally there's no need to call it.
+     */
+    public synchronized void evictIdle() {
+        val oldestAllowed = System.currentTimeMillis() - idleTimeoutMs;
+        for (HostPool pool : pools.values()) {
+            val iterator = pool.idle.iterator();
+            while (iterator.hasNext()) {
+                val connection = iterator.next();
+                if (connection.lastUsedMs < oldestAllowed) {
+                    iterator.remove();
+                    pool.open--;
+                    connection.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A snapshot of how the pool has been used so far.
+     */
+    public synchronized PoolMetrics metrics() {
+        int open = 0;
+        int idle = 0;
+        for (HostPool pool : pools.values()) {
+            open += pool.open;
+            idle += pool.idle.size();
+        }
+        return new PoolMetrics(connectionsOpened, connectionsReused, open, idle);
+    }
+
+
+    /**
+     * Closes the idle connections and stops the eviction thread. Connections in use are closed when their
+     * requests finish, and any further requests fail.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (HostPool pool : pools.values()) {
+            pool.idle.forEach(Connection::close);
+            pool.open -= pool.idle.size();
+            pool.idle.clear();
+        }
+        notifyAll();
+    }
+
+
+    private HttpResponse exchange(Connection connection, Request request) throws IOException {
+        val description = request.description;
+        boolean reusable = false;
+        try {
+            try {
+                connection.socket.setSoTimeout(request.readTimeoutMs);
+                connection.out.write(requestHead(request, connection.absoluteForm));
+                if (request.content != null) {
+                    connection.out.write(request.content);
+                }
+                connection.out.flush();
+
+                // if a pooled connection was closed by the server, it shows up when trying to read the response
+                connection.in.mark(1);
+                if (connection.in.read() < 0) {
+                    throw new EOFException("Connection closed before any response for " + description);
+                }
+                connection.in.reset();
+            }
+            catch (SocketTimeoutException e) {
+                throw e;
+            }
+            catch (IOException e) {
+                if (connection.reused) {
+                    throw new StaleConnectionException(e);
+                }
+                throw e;
+            }
+
+            val response = HttpResponse.read(connection.in, request.method, description);
+            reusable = response.keepAlive();
+            return response;
+        }
+        finally {
+            release(connection, reusable);
+        }
+    }
+
+
+    /**
+     * @param absoluteForm whether the request goes to an HTTP proxy, which needs the whole URL
+     */
+    private static byte[] requestHead(Request request, boolean absoluteForm) {
+        val endpoint = request.endpoint;
+        val path = (request.url.getFile().isEmpty()) ? "/" : request.url.getFile();
+        val defaultPort = "https".equals(endpoint.scheme()) ? 443 : 80;
+        val host = (endpoint.port() == defaultPort) ? endpoint.host() : (endpoint.host() + ":" + endpoint.port());
+        val target = absoluteForm ? (endpoint.scheme() + "://" + host + path) : path;
+
+        val head = new StringBuilder(256);
+        head.append(request.method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        request.headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        val content = request.content;
+        if (content != null) {
+            head.append("Content-Length: ").append(content.length).append("\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    /**
+     * Returns an idle pooled connection to the endpoint, otherwise opens a new one once the endpoint is under its
+     * connection limit.
+     *
+     * @param reuseIdle whether an idle pooled connection can be used; if not, one is closed to make room when the
+     *                  endpoint is at its limit
+     */
+    private Connection acquire(Endpoint endpoint, boolean reuseIdle) throws IOException {
+        final HostPool pool;
+        synchronized (this) {
+            pool = pools.computeIfAbsent(endpoint, ignored -> new HostPool());
+            val deadline = System.currentTimeMillis() + connectTimeoutMs;
+            while (true) {
+                if (closed) {
+                    throw new IOException("The HTTP transport has been closed");
+                }
+                if (reuseIdle) {
+                    val idle = pool.idle.pollLast();
+                    if (idle != null) {
+                        connectionsReused++;
+                        idle.reused = true;
+                        return idle;
+                    }
+                }
+                else if (pool.open >= maxConnectionsPerHost && !pool.idle.isEmpty()) {
+                    pool.idle.removeFirst().close();
+                    pool.open--;
+                }
+                if (pool.open < maxConnectionsPerHost) {
+                    pool.open++;
+                    break;
+                }
+                val remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new ConnectException("Timed out after " + connectTimeoutMs +
+                        "ms waiting for a free connection to " + endpoint);
+                }
+                try {
+                    wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a connection to " + endpoint, e);
+                }
+            }
+        }
+
+        try {
+            val connection = open(endpoint);
+            synchronized (this) {
+                connectionsOpened++;
+            }
+            return connection;
+        }
+        catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                pool.open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+
+    private synchronized void release(Connection connection, boolean reusable) {
+        val pool = pools.get(connection.endpoint);
+        if (reusable && !closed && pool != null) {
+            connection.lastUsedMs = System.currentTimeMillis();
+            pool.idle.addLast(connection);
+        }
+        else {
+            if (pool != null) {
+                pool.open--;
+            }
+            connection.close();
+        }
+        notifyAll();
+    }
+
+
+    /**
+     * Once one pooled connection to a host turns out to be closed, the rest most likely are as well.
+     */
+    private synchronized void closeIdle(Endpoint endpoint) {
+        val pool = pools.get(endpoint);
+        if (pool != null) {
+            pool.idle.forEach(Connection::close);
+            pool.open -= pool.idle.size();
+            pool.idle.clear();
+            notifyAll();
+        }
+    }
+
+
+    private Connection open(Endpoint endpoint) throws IOException {
+        val proxy = proxyFor(endpoint);
+        val socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(readTimeoutMs);
+            socket.connect((proxy != null) ? proxy : new InetSocketAddress(endpoint.host(), endpoint.port()),
+                connectTimeoutMs);
+            if ("https".equals(endpoint.scheme())) {
+                if (proxy != null) {
+                    tunnel(socket, endpoint);
+                }
+                val sslSocket = (SSLSocket)((SSLSocketFactory)SSLSocketFactory.getDefault()).
+                    createSocket(socket, endpoint.host(), endpoint.port(), true);
+                val parameters = sslSocket.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslSocket.setSSLParameters(parameters);
+                sslSocket.startHandshake();
+                return new Connection(endpoint, sslSocket, false);
+            }
+            return new Connection(endpoint, socket, proxy != null);
+        }
+        catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * The address of the HTTP proxy to go through to the endpoint, or null to connect to it directly.
+     */
+    private @Nullable InetSocketAddress proxyFor(Endpoint endpoint) {
+        if (proxySelector == null) {
+            return null;
+        }
+        final URI uri;
+        try {
+            uri = new URI(endpoint.scheme(), null, endpoint.host(), endpoint.port(), null, null, null);
+        }
+        catch (URISyntaxException e) {
+            return null;
+        }
+        for (Proxy proxy : proxySelector.select(uri)) {
+            if (proxy.type() == Proxy.Type.HTTP && proxy.address() instanceof InetSocketAddress) {
+                val address = (InetSocketAddress)proxy.address();
+                return address.isUnresolved() ? new InetSocketAddress(address.getHostString(), address.getPort()) :
+                    address;
+            }
+            if (proxy.type() == Proxy.Type.DIRECT) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Asks the proxy the socket is connected to for a tunnel to the endpoint.
+     */
+    private static void tunnel(Socket socket, Endpoint endpoint) throws IOException {
+        val target = endpoint.host() + ":" + endpoint.port();
+        val out = socket.getOutputStream();
+        out.write(("CONNECT " + target + " HTTP/1.1\r\nHost: " + target + "\r\n\r\n").
+            getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        // read byte by byte, so nothing past the proxy's response is taken from the tunnel
+        val statusCode = HttpResponse.readHead(socket.getInputStream(), "CONNECT " + target);
+        if (statusCode / 100 != 2) {
+            throw new ConnectException("The proxy would not connect to " + target + ": HTTP " + statusCode);
+        }
+    }
+
+    // **********************************************************************
+    //
+    // HELPER CLASSES
+    //
+    // **********************************************************************
+
+    /**
+     * Where a connection goes to: the scheme, host and port of a URL.
+     */
+    @Value
+    @SuppressWarnings({"checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+    static class Endpoint {
+        String scheme;
+        String host;
+        int port;
+
+
+        static Endpoint of(URL url) {
+            val scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+            if (!"http".equals(scheme) && !"https".equals(scheme)) {
+                throw new IllegalArgumentException("Only http and https are supported: " + url);
+            }
+            val port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+            return new Endpoint(scheme, url.getHost(), port);
+        }
+
+
+        @Override
+        public String toString() {
+            return scheme + "://" + host + ":" + port;
+        }
+    }
+
+
+    /**
+     * Everything about a request except the connection it goes out on.
+     */
+    private static final class Request {
+        final String method;
+        final URL url;
+        final Endpoint endpoint;
+        final Map<String, String> headers;
+        final byte @Nullable [] content;
+        final int readTimeoutMs;
+        final String description;
+
+
+        Request(String method, URL url, Endpoint endpoint, Map<String, String> headers, byte @Nullable [] content,
+                int readTimeoutMs, String description) {
+            this.method = method;
+            this.url = url;
+            this.endpoint = endpoint;
+            this.headers = headers;
+            this.content = content;
+            this.readTimeoutMs = readTimeoutMs;
+            this.description = description;
+        }
+    }
+
+
+    private static final class HostPool {
+        // most recently used last, so the connections most likely to still be good are handed out first
+        final Deque<Connection> idle = new ArrayDeque<>();
+        int open;
+    }
+
+
+    private static final class Connection {
+        final Endpoint endpoint;
+        final Socket socket;
+        final BufferedInputStream in;
+        final OutputStream out;
+        // whether the connection is to an HTTP proxy, rather than the endpoint or a tunnel to it
+        final boolean absoluteForm;
+        long lastUsedMs;
+        boolean reused;
+
+
+        Connection(Endpoint endpoint, Socket socket, boolean absoluteForm) throws IOException {
+            this.endpoint = endpoint;
+            this.socket = socket;
+            this.absoluteForm = absoluteForm;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+
+        void close() {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {
+                // nothing useful to do; the connection is being thrown away
+            }
+        }
+    }
+
+
+    /**
+     * A pooled connection turned out to have been closed before the request could be sent.
+     */
+    private static final class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+
+        StaleConnectionException(IOException cause) {
+            super(cause);
+        }
+
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException)super.getCause();
+        }
+    }
+
+
+    private static final class SharedHolder {
+        static final HttpTransport INSTANCE = new HttpTransport(HTTP_MAX_CONNECTIONS_PER_HOST,
+            HTTP_CONNECT_TIMEOUT, HTTP_READ_TIMEOUT, HTTP_IDLE_TIMEOUT);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.http;
+
+import lombok.Value;
+
+/**
+ * A snapshot of how an {@link HttpTransport}'s connection pool has been used.
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class PoolMetrics {
+    /**
+     * How many connections have been opened in total.
+     */
+    long connectionsOpened;
+
+    /**
+     * How many requests were sent on a connection that had already been used.
+     */
+    long connectionsReused;
+
+    /**
+     * How many connections are currently open, whether in use or idle.
+     */
+    int openConnections;
+
+    /**
+     * How many of the open connections are idle in the pool.
+     */
+    int idleConnections;
+
+
+    /**
+     * The fraction of requests that were sent on an already-open connection, between 0 and 1.
+     */
+    public double reuseRatio() {
+        final long requests = connectionsOpened + connectionsReused;
+        return (requests == 0) ? 0.0 : ((double)connectionsReused / requests);
+    }
+
+
+    /**
+     * A one-line description of the metrics, such as "Opened 1 connections and reused them for 3 requests (75%)".
+     */
+    public String summary() {
+        return String.format("Opened %d connections and reused them for %d requests (%.0f%%)", connectionsOpened,
+            connectionsReused, reuseRatio() * 100);
+    }
+
+}
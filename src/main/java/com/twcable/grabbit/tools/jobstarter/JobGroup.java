@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import lombok.Value;
+import lombok.val;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A named set of paths in a job configuration that are started together, once every group it depends on has
+ * completed.
+ * <p>
+ * Groups are declared under "jobGroups" at the top level of the configuration, for example:
+ * <pre>
+ * "jobGroups": {
+ *   "config": { "paths": ["/conf", "/etc/tags"] },
+ *   "content": { "paths": ["/content"], "dependsOn": ["config"] }
+ * }
+ * </pre>
+ *
+ * @see JobsConfig#jobGroups()
+ * @see JobQueue#forJobGroups(JobsConfigFileReader, Iterable, int, LaunchScheduler)
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class JobGroup {
+    /**
+     * The name of the group {@link JobQueue} puts the paths that aren't in any group in, which a configuration
+     * can't use for one of its own.
+     */
+    public static final String UNGROUPED = "(no group)";
+
+    String name;
+
+    /**
+     * The "path" of each of the path configurations in the group.
+     */
+    List<String> paths;
+
+    /**
+     * The names of the groups that have to complete before this one starts.
+     */
+    List<String> dependsOn;
+
+
+    /**
+     * The length of the longest chain of groups that starts with each group, counting a group's length as its
+     * number of paths. The groups at the start of the longest chains are the ones holding everything else up.
+     *
+     * @param groups groups that only depend on each other, with no cycles
+     * @return each group's name mapped to its critical path length
+     */
+    public static Map<String, Integer> criticalPathLengths(Collection<JobGroup> groups) {
+        val dependents = new HashMap<String, List<JobGroup>>();
+        for (JobGroup group : groups) {
+            for (String dependency : group.dependsOn) {
+                dependents.computeIfAbsent(dependency, name -> new ArrayList<>()).add(group);
+            }
+        }
+
+        val lengths = new HashMap<String, Integer>();
+        for (JobGroup group : groups) {
+            criticalPathLength(group, dependents, lengths);
+        }
+        return lengths;
+    }
+
+
+    private static int criticalPathLength(JobGroup group, Map<String, List<JobGroup>> dependents,
+                                          Map<String, Integer> lengths) {
+        val known = lengths.get(group.name);
+        if (known != null) {
+            return known;
+        }
+        int longestAfter = 0;
+        for (JobGroup dependent : dependents.getOrDefault(group.name, Collections.emptyList())) {
+            longestAfter = Math.max(longestAfter, criticalPathLength(dependent, dependents, lengths));
+        }
+        val length = Math.max(1, group.paths.size()) + longestAfter;
+        lengths.put(group.name, length);
+        return length;
+    }
+}
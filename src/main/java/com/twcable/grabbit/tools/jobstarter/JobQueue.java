@@ -0,0 +1,556 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import com.twcable.grabbit.tools.environment.HostInfo;
+import com.twcable.grabbit.tools.http.HttpTransport;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxEmitter;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Starts a job configuration's paths as separate jobs, keeping no more than a set number of them running on each
+ * host at once.
+ * <p>
+ * The configuration is {@link JobsConfig#splitByPath() split by path}, and every host gets its own queue of the
+ * paths. Each host is sent paths until it has its limit of jobs running (or starting), then the
+ * next path is sent as soon as one of its jobs is reported {@link #jobFinished(URI, long) finished}, such as by a
+ * job monitor. A path that fails to start frees its place straight away. Each host's limit can be changed while
+ * the jobs run with {@link #maxRunning(URI, int)}, such as by an adaptive controller.
+ * <p>
+ * When the configuration has {@link JobsConfig#jobGroups() job groups} ({@link #forJobGroups}), a group's paths
+ * are only queued on a host once every group it depends on has had all of its jobs there reported
+ * {@link #jobFinished(URI, long, boolean) completed}. If one of a group's jobs fails, or doesn't start, the groups
+ * that depend on it are skipped on that host. Queued paths start in order of their group's
+ * {@link JobGroup#criticalPathLengths critical path length}, longest first, so the groups holding up the most
+ * work get going soonest.
+ * <p>
+ * {@link #startJobs()} publishes a {@link HostAndJobIds} for each path as it starts, and for each group that is
+ * skipped, and completes once every path on every host has been started or skipped. Because of that it should be
+ * given to something that reports the jobs finishing, or it will never complete.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JobQueue {
+    private static final Comparator<Queued> LONGEST_CRITICAL_PATH_FIRST =
+        Comparator.comparingInt((Queued queued) -> -queued.group.group.priority).
+            thenComparingLong(queued -> queued.order);
+
+    private final JobStarter jobStarter;
+    private final int maxRunningPerHost;
+    private final Map<URI, HostQueue> hostQueues = new LinkedHashMap<>();
+    private @MonotonicNonNull FluxEmitter<HostAndJobIds> emitter;
+    private boolean completed;
+    private long queuedCount;
+
+
+    /**
+     * @param jobStarter        what to start each path's jobs with
+     * @param hosts             the hosts to start the jobs on
+     * @param submissions       the configurations to start on every host, in order
+     * @param maxRunningPerHost the most jobs to have running or starting on a host at once
+     */
+    public JobQueue(JobStarter jobStarter, Iterable<@NonNull HostInfo> hosts, List<JobsConfig> submissions,
+                    int maxRunningPerHost) {
+        this(jobStarter, hosts, maxRunningPerHost, Collections.singletonList(
+            new SubmissionGroup("all", submissions, Collections.emptyList(), 0)));
+    }
+
+
+    private JobQueue(JobStarter jobStarter, Iterable<@NonNull HostInfo> hosts, int maxRunningPerHost,
+                     List<SubmissionGroup> groups) {
+        if (maxRunningPerHost < 1) {
+            throw new IllegalArgumentException("maxRunningPerHost must be at least 1: " + maxRunningPerHost);
+        }
+        this.jobStarter = jobStarter;
+        this.maxRunningPerHost = maxRunningPerHost;
+        for (HostInfo hostInfo : hosts) {
+            hostQueues.put(hostInfo.baseUri(), new HostQueue(hostInfo, groups, maxRunningPerHost));
+        }
+    }
+
+
+    /**
+     * Splits the configuration by path and queues every path for each of the hosts.
+     */
+    public static JobQueue forHosts(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                                    int maxRunningPerHost, LaunchScheduler launchScheduler) {
+        return new JobQueue(jobStarter(jobsConfigFileReader, hosts, launchScheduler), hosts,
+            jobsConfigFileReader.jobsConfig().splitByPath(), maxRunningPerHost);
+    }
+
+
+    /**
+     * Queues the given configurations, such as from a {@link JobsConfigSharder}, for each of the hosts.
+     */
+    public static JobQueue forHosts(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                                    List<JobsConfig> submissions, int maxRunningPerHost,
+                                    LaunchScheduler launchScheduler) {
+        return new JobQueue(jobStarter(jobsConfigFileReader, hosts, launchScheduler), hosts, submissions,
+            maxRunningPerHost);
+    }
+
+
+    /**
+     * Splits the configuration by path, and queues each of its {@link JobsConfig#jobGroups() job groups} on each
+     * host once the groups it depends on have completed there.
+     */
+    public static JobQueue forJobGroups(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                                        int maxRunningPerHost, LaunchScheduler launchScheduler) {
+        return forJobGroups(jobStarter(jobsConfigFileReader, hosts, launchScheduler), hosts,
+            jobsConfigFileReader.jobsConfig(), maxRunningPerHost);
+    }
+
+
+    /**
+     * Splits the configuration by path, and queues each of its {@link JobsConfig#jobGroups() job groups} on each
+     * host once the groups it depends on have completed there. Paths that are not in a group are queued straight
+     * away, after the groups that are ready.
+     *
+     * @param jobStarter        what to start each path's jobs with
+     * @param hosts             the hosts to start the jobs on
+     * @param jobsConfig        the configuration with the groups
+     * @param maxRunningPerHost the most jobs to have running or starting on a host at once
+     */
+    public static JobQueue forJobGroups(JobStarter jobStarter, Iterable<@NonNull HostInfo> hosts,
+                                        JobsConfig jobsConfig, int maxRunningPerHost) {
+        val jobGroups = jobsConfig.jobGroups();
+        val criticalPathLengths = JobGroup.criticalPathLengths(jobGroups);
+
+        val pathConfigurationsByPath = new LinkedHashMap<String, Map<String, ?>>();
+        for (Map<String, ?> pathConfiguration : jobsConfig.pathConfigurations()) {
+            pathConfigurationsByPath.put(String.valueOf(pathConfiguration.get("path")), pathConfiguration);
+        }
+
+        val groups = new ArrayList<SubmissionGroup>();
+        for (JobGroup jobGroup : jobGroups) {
+            val submissions = new ArrayList<JobsConfig>();
+            for (String path : jobGroup.paths()) {
+                val pathConfiguration = pathConfigurationsByPath.remove(path);
+                if (pathConfiguration != null) {
+                    submissions.add(jobsConfig.withPathConfigurations(jobGroup.name() + ": " + path,
+                        Collections.singletonList(pathConfiguration)));
+                }
+            }
+            groups.add(new SubmissionGroup(jobGroup.name(), submissions, jobGroup.dependsOn(),
+                criticalPathLengths.getOrDefault(jobGroup.name(), 0)));
+        }
+
+        if (!pathConfigurationsByPath.isEmpty()) {
+            val submissions = new ArrayList<JobsConfig>();
+            for (Map.Entry<String, Map<String, ?>> entry : pathConfigurationsByPath.entrySet()) {
+                submissions.add(jobsConfig.withPathConfigurations(entry.getKey(),
+                    Collections.singletonList(entry.getValue())));
+            }
+            groups.add(new SubmissionGroup(JobGroup.UNGROUPED, submissions, Collections.emptyList(), 0));
+        }
+
+        return new JobQueue(jobStarter, hosts, maxRunningPerHost, groups);
+    }
+
+
+    private static JobStarter jobStarter(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                                         LaunchScheduler launchScheduler) {
+        return new JobStarter(jobsConfigFileReader, hosts, HttpTransport.shared(),
+            JobStarter.JOB_START_PARALLELISM, JobStarter.JOB_START_TIMEOUT, launchScheduler);
+    }
+
+
+    /**
+     * What the paths are started with.
+     */
+    public JobStarter jobStarter() {
+        return jobStarter;
+    }
+
+
+    /**
+     * The limit each host starts out with.
+     */
+    public int maxRunningPerHost() {
+        return maxRunningPerHost;
+    }
+
+
+    /**
+     * Starts the first paths on each host when subscribed to, publishing each path's jobs as they start. Can only
+     * be subscribed to once.
+     */
+    public Publisher<HostAndJobIds> startJobs() {
+        return Flux.create(this::start, FluxEmitter.BackpressureHandling.BUFFER);
+    }
+
+
+    /**
+     * Frees the job's place on its host, starting the next queued path there if there is one. Jobs this didn't
+     * start are ignored.
+     *
+     * @param location the base URI of the host the job was running on
+     * @param jobId    the id of the job that is no longer running
+     */
+    public void jobFinished(URI location, long jobId) {
+        jobFinished(location, jobId, true);
+    }
+
+
+    /**
+     * Frees the job's place on its host, starting the next queued path there if there is one. Once every job of
+     * a job group has completed on the host, the groups that were waiting on it there are queued; if any of them
+     * failed, those groups are skipped instead. Jobs this didn't start are ignored.
+     *
+     * @param location  the base URI of the host the job was running on
+     * @param jobId     the id of the job that is no longer running
+     * @param completed whether the job completed, rather than failed
+     */
+    public synchronized void jobFinished(URI location, long jobId, boolean completed) {
+        val hostQueue = hostQueues.get(location);
+        if (hostQueue == null) {
+            return;
+        }
+        val group = hostQueue.running.remove(jobId);
+        if (group == null) {
+            return;
+        }
+        group.runningJobs--;
+        if (!completed) {
+            group.failed = true;
+        }
+        if (emitter != null) {
+            progress(hostQueue, emitter);
+        }
+    }
+
+
+    /**
+     * Hands a job's place on its host, and in its job group, to the jobs that replace it, such as when a
+     * {@link JobRetrier} resubmits its path. Jobs this didn't start are ignored.
+     *
+     * @param location  the base URI of the host the job was running on
+     * @param jobId     the id of the job that is being replaced
+     * @param newJobIds the ids of the jobs replacing it
+     */
+    public synchronized void jobReplaced(URI location, long jobId, List<Long> newJobIds) {
+        val hostQueue = hostQueues.get(location);
+        if (hostQueue == null) {
+            return;
+        }
+        val group = hostQueue.running.remove(jobId);
+        if (group == null) {
+            return;
+        }
+        group.runningJobs--;
+        for (Long newJobId : newJobIds) {
+            if (hostQueue.running.put(newJobId, group) == null) {
+                group.runningJobs++;
+            }
+        }
+        if (emitter != null) {
+            progress(hostQueue, emitter);
+        }
+    }
+
+
+    /**
+     * Changes the most jobs to have running or starting on the host. Raising it starts more queued paths straight
+     * away; lowering it lets the running jobs finish before more are started.
+     *
+     * @param location          the base URI of the host
+     * @param maxRunningPerHost the new limit
+     */
+    public synchronized void maxRunning(URI location, int maxRunningPerHost) {
+        if (maxRunningPerHost < 1) {
+            throw new IllegalArgumentException("maxRunningPerHost must be at least 1: " + maxRunningPerHost);
+        }
+        val hostQueue = hostQueues.get(location);
+        if (hostQueue != null) {
+            hostQueue.limit = maxRunningPerHost;
+            if (emitter != null) {
+                admit(hostQueue);
+            }
+        }
+    }
+
+
+    /**
+     * The most jobs to have running or starting on the host.
+     */
+    public synchronized int maxRunning(URI location) {
+        val hostQueue = hostQueues.get(location);
+        return (hostQueue == null) ? maxRunningPerHost : hostQueue.limit;
+    }
+
+
+    /**
+     * The number of paths still waiting to be started on the host, not counting those in job groups that are
+     * still waiting on other groups.
+     */
+    public synchronized int queued(URI location) {
+        val hostQueue = hostQueues.get(location);
+        return (hostQueue == null) ? 0 : hostQueue.queued.size();
+    }
+
+
+    /**
+     * The number of jobs running, or being started, on the host.
+     */
+    public synchronized int running(URI location) {
+        val hostQueue = hostQueues.get(location);
+        return (hostQueue == null) ? 0 : hostQueue.running.size() + hostQueue.starting;
+    }
+
+
+    /**
+     * The names of the job groups on the host that have not yet been queued because of the groups they depend on.
+     */
+    public synchronized List<String> waiting(URI location) {
+        val hostQueue = hostQueues.get(location);
+        if (hostQueue == null) {
+            return Collections.emptyList();
+        }
+        val waiting = new ArrayList<String>();
+        for (GroupProgress group : hostQueue.groups.values()) {
+            if (group.state == GroupState.WAITING) {
+                waiting.add(group.group.name);
+            }
+        }
+        return waiting;
+    }
+
+
+    private synchronized void start(FluxEmitter<HostAndJobIds> emitter) {
+        if (this.emitter != null) {
+            emitter.fail(new IllegalStateException("The jobs have already been started"));
+            return;
+        }
+        this.emitter = emitter;
+        for (HostQueue hostQueue : hostQueues.values()) {
+            progress(hostQueue, emitter);
+        }
+        completeIfDone();
+    }
+
+
+    /**
+     * Settles the groups that have nothing left to run, queues or skips the groups waiting on them, and starts
+     * whatever there is room for.
+     */
+    private void progress(HostQueue hostQueue, FluxEmitter<HostAndJobIds> emitter) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (GroupProgress group : hostQueue.groups.values()) {
+                if (group.state == GroupState.QUEUED && group.unstarted == 0 && group.runningJobs == 0) {
+                    group.state = group.failed ? GroupState.FAILED : GroupState.COMPLETED;
+                    changed = true;
+                }
+                else if (group.state == GroupState.WAITING) {
+                    val blocker = blocker(hostQueue, group);
+                    if (blocker != null) {
+                        group.state = GroupState.SKIPPED;
+                        emitter.next(new HostAndJobIds(hostQueue.hostInfo.baseUri(),
+                            Flux.<Long>error(new IllegalStateException("Skipped job group \"" + group.group.name +
+                                "\" because \"" + blocker + "\" did not complete"))));
+                        changed = true;
+                    }
+                    else if (ready(hostQueue, group)) {
+                        group.state = GroupState.QUEUED;
+                        for (JobsConfig submission : group.group.submissions) {
+                            hostQueue.queued.add(new Queued(submission, group, queuedCount++));
+                        }
+                        changed = true;
+                    }
+                }
+            }
+        }
+        admit(hostQueue);
+        completeIfDone();
+    }
+
+
+    private static @Nullable String blocker(HostQueue hostQueue, GroupProgress group) {
+        for (String dependency : group.group.dependsOn) {
+            val progress = hostQueue.groups.get(dependency);
+            if (progress == null || progress.state == GroupState.FAILED || progress.state == GroupState.SKIPPED) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+
+
+    private static boolean ready(HostQueue hostQueue, GroupProgress group) {
+        for (String dependency : group.group.dependsOn) {
+            val progress = hostQueue.groups.get(dependency);
+            if (progress == null || progress.state != GroupState.COMPLETED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void admit(HostQueue hostQueue) {
+        while (hostQueue.running.size() + hostQueue.starting < hostQueue.limit && !hostQueue.queued.isEmpty()) {
+            val queued = hostQueue.queued.remove();
+            hostQueue.starting++;
+            jobStarter.startJobs(hostQueue.hostInfo, queued.jobsConfig).
+                whenComplete((jobIds, error) -> started(hostQueue, queued.group, jobIds, error));
+        }
+    }
+
+
+    private synchronized void started(HostQueue hostQueue, GroupProgress group, @Nullable List<Long> jobIds,
+                                      @Nullable Throwable error) {
+        hostQueue.starting--;
+        group.unstarted--;
+        val emitter = this.emitter;
+        if (emitter == null) {
+            // should be impossible: nothing is started before subscribing
+            throw new IllegalStateException("Jobs started before being subscribed to");
+        }
+
+        val location = hostQueue.hostInfo.baseUri();
+        if (jobIds != null) {
+            for (Long jobId : jobIds) {
+                if (hostQueue.running.put(jobId, group) == null) {
+                    group.runningJobs++;
+                }
+            }
+            emitter.next(new HostAndJobIds(location, Flux.fromIterable(jobIds)));
+        }
+        else {
+            group.failed = true;
+            emitter.next(new HostAndJobIds(location, Flux.<Long>error(unwrap(error))));
+        }
+
+        progress(hostQueue, emitter);
+    }
+
+
+    private void completeIfDone() {
+        if (completed || emitter == null) {
+            return;
+        }
+        val done = hostQueues.values().stream().
+            allMatch(hostQueue -> hostQueue.queued.isEmpty() && hostQueue.starting == 0 &&
+                hostQueue.groups.values().stream().noneMatch(group -> group.state == GroupState.WAITING));
+        if (done) {
+            completed = true;
+            emitter.complete();
+        }
+    }
+
+
+    private static Throwable unwrap(@Nullable Throwable error) {
+        if (error == null) {
+            return new IllegalStateException("No job ids were returned");
+        }
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+
+    private enum GroupState {
+        WAITING, QUEUED, COMPLETED, FAILED, SKIPPED
+    }
+
+
+    /**
+     * Configurations that are queued together once the groups they depend on have completed.
+     */
+    private static final class SubmissionGroup {
+        final String name;
+        final List<JobsConfig> submissions;
+        final List<String> dependsOn;
+        final int priority;
+
+
+        SubmissionGroup(String name, List<JobsConfig> submissions, List<String> dependsOn, int priority) {
+            this.name = name;
+            this.submissions = submissions;
+            this.dependsOn = dependsOn;
+            this.priority = priority;
+        }
+    }
+
+
+    /**
+     * How far along a group is on a host.
+     */
+    private static final class GroupProgress {
+        final SubmissionGroup group;
+        GroupState state = GroupState.WAITING;
+        int unstarted;
+        int runningJobs;
+        boolean failed;
+
+
+        GroupProgress(SubmissionGroup group) {
+            this.group = group;
+            this.unstarted = group.submissions.size();
+        }
+    }
+
+
+    private static final class Queued {
+        final JobsConfig jobsConfig;
+        final GroupProgress group;
+        final long order;
+
+
+        Queued(JobsConfig jobsConfig, GroupProgress group, long order) {
+            this.jobsConfig = jobsConfig;
+            this.group = group;
+            this.order = order;
+        }
+    }
+
+
+    /**
+     * The paths still to start on a host, the jobs it has running, and how far along each group is there.
+     */
+    private static final class HostQueue {
+        final HostInfo hostInfo;
+        final PriorityQueue<Queued> queued = new PriorityQueue<>(LONGEST_CRITICAL_PATH_FIRST);
+        final Map<Long, GroupProgress> running = new HashMap<>();
+        final Map<String, GroupProgress> groups = new LinkedHashMap<>();
+        int starting;
+        int limit;
+
+
+        HostQueue(HostInfo hostInfo, List<SubmissionGroup> groups, int limit) {
+            this.hostInfo = hostInfo;
+            this.limit = limit;
+            for (SubmissionGroup group : groups) {
+                this.groups.put(group.name, new GroupProgress(group));
+            }
+        }
+    }
+
+}
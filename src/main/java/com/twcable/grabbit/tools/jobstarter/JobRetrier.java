@@ -0,0 +1,290 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import com.twcable.grabbit.tools.environment.HostInfo;
+import lombok.Value;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxEmitter;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resubmits the path of a failed job to the host it failed on, waiting longer before each retry of the same path,
+ * until the {@link RetryPolicy}'s budgets run out.
+ * <p>
+ * {@link #withRetries(Publisher)} passes the started jobs through, adding the jobs of each retry as it starts, so
+ * a job monitor records the new job ids alongside the failed ones and monitors them too. Whatever is monitoring
+ * the jobs tells this about each one that {@link #jobCompleted(URI, long) completes} or
+ * {@link #jobFailed(URI, long, String) fails}, and the published jobs only complete once every job has done one
+ * or the other and no retries are waiting.
+ * <p>
+ * If the jobs were started by a {@link JobQueue}, a retry keeps the failed job's place on its host (and in its
+ * job group), so the queue only hears about the failure if the path can't be retried.
+ */
+@SuppressWarnings("WeakerAccess")
+public class JobRetrier {
+    private static final ScheduledExecutorService BACKOFF =
+        Executors.newSingleThreadScheduledExecutor(JobStarter.daemonThreads("JobRetrier backoff"));
+
+    private final JobStarter jobStarter;
+    private final RetryPolicy retryPolicy;
+    private final @Nullable JobQueue jobQueue;
+    private final ScheduledExecutorService scheduler;
+    private final Map<URI, HostInfo> hosts = new LinkedHashMap<>();
+    private final Map<String, JobsConfig> configsByPath = new HashMap<>();
+    private final Map<URI, Set<Long>> outstanding = new HashMap<>();
+    private final Map<String, Integer> retriesByPath = new HashMap<>();
+    private @MonotonicNonNull FluxEmitter<HostAndJobIds> emitter;
+    private int retries;
+    private int pendingRetries;
+    private int hostsPublishing;
+    private boolean allHostsPublished;
+    private boolean completed;
+
+
+    /**
+     * @param jobStarter  what to start the retries with
+     * @param hosts       the hosts the jobs were started on
+     * @param submissions the configurations the jobs were started from, to find each failed path's settings in
+     * @param retryPolicy how many times to retry, and how long to wait
+     * @param jobQueue    if not null, the queue the jobs were started by
+     * @param scheduler   what to wait out the backoff with
+     */
+    public JobRetrier(JobStarter jobStarter, Iterable<@NonNull HostInfo> hosts, List<JobsConfig> submissions,
+                      RetryPolicy retryPolicy, @Nullable JobQueue jobQueue, ScheduledExecutorService scheduler) {
+        this.jobStarter = jobStarter;
+        this.retryPolicy = retryPolicy;
+        this.jobQueue = jobQueue;
+        this.scheduler = scheduler;
+        for (HostInfo hostInfo : hosts) {
+            this.hosts.put(hostInfo.baseUri(), hostInfo);
+        }
+        for (JobsConfig submission : submissions) {
+            for (Map<String, ?> pathConfiguration : submission.pathConfigurations()) {
+                val path = String.valueOf(pathConfiguration.get("path"));
+                if (!configsByPath.containsKey(path)) {
+                    configsByPath.put(path, submission.pathConfigurations().size() == 1 ? submission :
+                        submission.withPathConfigurations(path, Collections.singletonList(pathConfiguration)));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Retries the jobs started by the queue, through the same {@link JobQueue#jobStarter() job starter}.
+     */
+    public static JobRetrier forQueue(JobQueue jobQueue, Iterable<@NonNull HostInfo> hosts,
+                                      List<JobsConfig> submissions, RetryPolicy retryPolicy) {
+        return new JobRetrier(jobQueue.jobStarter(), hosts, submissions, retryPolicy, jobQueue, BACKOFF);
+    }
+
+
+    /**
+     * The started jobs, followed by the jobs of each retry as it starts. Can only be subscribed to once.
+     */
+    public Publisher<HostAndJobIds> withRetries(Publisher<HostAndJobIds> startedJobs) {
+        return Flux.create(emitter -> subscribe(emitter, startedJobs), FluxEmitter.BackpressureHandling.BUFFER);
+    }
+
+
+    /**
+     * Notes that the job has completed, so it won't be retried.
+     *
+     * @param location the base URI of the host the job ran on
+     * @param jobId    the id of the job
+     */
+    public synchronized void jobCompleted(URI location, long jobId) {
+        removeOutstanding(location, jobId);
+        completeIfDone();
+    }
+
+
+    /**
+     * Schedules the job's path to be resubmitted to its host after the backoff, if neither the path's nor the
+     * overall retry budget has run out.
+     *
+     * @param location the base URI of the host the job ran on
+     * @param jobId    the id of the job that failed
+     * @param path     the path of the job that failed
+     * @return the scheduled retry, or null if the job won't be retried
+     */
+    public synchronized @Nullable Retry jobFailed(URI location, long jobId, String path) {
+        if (!removeOutstanding(location, jobId)) {
+            return null;
+        }
+        val hostInfo = hosts.get(location);
+        val jobsConfig = configsByPath.get(path);
+        val key = location + " " + path;
+        val attempt = retriesByPath.getOrDefault(key, 0) + 1;
+        if (hostInfo == null || jobsConfig == null || emitter == null ||
+            attempt > retryPolicy.maxRetriesPerJob() || retries >= retryPolicy.maxRetries()) {
+            completeIfDone();
+            return null;
+        }
+
+        retriesByPath.put(key, attempt);
+        retries++;
+        pendingRetries++;
+        val retry = new Retry(location, path, jobId, attempt, retryPolicy.maxRetriesPerJob(),
+            retryPolicy.backoffMs(attempt));
+        scheduler.schedule(() -> resubmit(hostInfo, jobsConfig, retry), retry.backoffMs, TimeUnit.MILLISECONDS);
+        return retry;
+    }
+
+
+    /**
+     * The number of retries scheduled so far, across every host.
+     */
+    public synchronized int retries() {
+        return retries;
+    }
+
+
+    private synchronized void subscribe(FluxEmitter<HostAndJobIds> emitter, Publisher<HostAndJobIds> startedJobs) {
+        if (this.emitter != null) {
+            emitter.fail(new IllegalStateException("The jobs are already being retried"));
+            return;
+        }
+        this.emitter = emitter;
+        Flux.from(startedJobs).subscribe(this::hostPublished, emitter::fail, this::allHostsPublished);
+    }
+
+
+    private synchronized void hostPublished(HostAndJobIds hostAndJobIds) {
+        val location = hostAndJobIds.uri();
+        hostsPublishing++;
+        ((@NonNull FluxEmitter<HostAndJobIds>)emitter).next(new HostAndJobIds(location,
+            Flux.from(hostAndJobIds.jobIds()).
+                doOnNext(jobId -> addOutstanding(location, jobId)).
+                doOnTerminate(this::hostJobIdsPublished)));
+    }
+
+
+    private synchronized void addOutstanding(URI location, long jobId) {
+        outstanding.computeIfAbsent(location, uri -> new HashSet<>()).add(jobId);
+    }
+
+
+    private boolean removeOutstanding(URI location, long jobId) {
+        val jobIds = outstanding.get(location);
+        return jobIds != null && jobIds.remove(jobId);
+    }
+
+
+    private synchronized void hostJobIdsPublished() {
+        hostsPublishing--;
+        completeIfDone();
+    }
+
+
+    private synchronized void allHostsPublished() {
+        allHostsPublished = true;
+        completeIfDone();
+    }
+
+
+    private void resubmit(HostInfo hostInfo, JobsConfig jobsConfig, Retry retry) {
+        jobStarter.startJobs(hostInfo, jobsConfig).
+            whenComplete((jobIds, error) -> retryStarted(retry, jobIds, error));
+    }
+
+
+    private void retryStarted(Retry retry, @Nullable List<Long> jobIds, @Nullable Throwable error) {
+        // the queue publishes its jobs to this while holding its own lock, so to keep the locks in the same order
+        // it's never called while holding this one; it hears about the new jobs before the monitor can
+        if (jobQueue != null) {
+            if (jobIds != null) {
+                jobQueue.jobReplaced(retry.location, retry.failedJobId, jobIds);
+            }
+            else {
+                jobQueue.jobFinished(retry.location, retry.failedJobId, false);
+            }
+        }
+        publishRetry(retry, jobIds, error);
+    }
+
+
+    private synchronized void publishRetry(Retry retry, @Nullable List<Long> jobIds, @Nullable Throwable error) {
+        pendingRetries--;
+        val emitter = (@NonNull FluxEmitter<HostAndJobIds>)this.emitter;
+        if (jobIds != null) {
+            jobIds.forEach(jobId -> addOutstanding(retry.location, jobId));
+            emitter.next(new HostAndJobIds(retry.location, Flux.fromIterable(jobIds)));
+        }
+        else {
+            val cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            emitter.next(new HostAndJobIds(retry.location, Flux.<Long>error(cause != null ? cause :
+                new IllegalStateException("No job ids were returned"))));
+        }
+        completeIfDone();
+    }
+
+
+    private void completeIfDone() {
+        if (completed || emitter == null || !allHostsPublished || hostsPublishing > 0 || pendingRetries > 0) {
+            return;
+        }
+        if (outstanding.values().stream().allMatch(Set::isEmpty)) {
+            completed = true;
+            emitter.complete();
+        }
+    }
+
+
+    /**
+     * A scheduled resubmission of a failed job's path.
+     */
+    @Value
+    @SuppressWarnings({"checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+    public static class Retry {
+        /**
+         * The base URI of the host the path is retried on.
+         */
+        URI location;
+        String path;
+        long failedJobId;
+
+        /**
+         * 1 for the first retry of the path on the host, 2 for the second, and so on.
+         */
+        int attempt;
+        int maxAttempts;
+
+        /**
+         * How many milliseconds until the path is resubmitted.
+         */
+        long backoffMs;
+    }
+
+}
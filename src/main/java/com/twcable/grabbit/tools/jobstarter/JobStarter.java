@@ -17,61 +17,166 @@ package com.twcable.grabbit.tools.jobstarter;
 
 import com.twcable.grabbit.tools.environment.HostInfo;
 import com.twcable.grabbit.tools.environment.UsernameAndPassword;
+import com.twcable.grabbit.tools.http.HttpTransport;
 import com.twcable.grabbit.tools.util.Utils;
 import lombok.val;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.regex.qual.Regex;
-import org.reactivestreams.Processor;
 import org.reactivestreams.Publisher;
-import org.reactivestreams.Subscriber;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.WorkQueueProcessor;
+import reactor.core.publisher.Mono;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.net.ConnectException;
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 /**
  * Interface to start jobs on a Grabbit client.
+ * <p>
+ * The jobs are started on up to {@link #JOB_START_PARALLELISM} hosts at a time, and each host is published as soon
+ * as its jobs have started, so a slow host doesn't hold up the others. If starting the jobs on a host fails or
+ * takes longer than {@link #JOB_START_TIMEOUT}, that host's {@link HostAndJobIds#jobIds()} publishes the error; the
+ * other hosts are not affected.
+ * <p>
+ * A {@link LaunchScheduler} can space the starts out, so the hosts don't all start pulling content at once.
  */
 @SuppressWarnings({"WeakerAccess", "RedundantTypeArguments"})
 public class JobStarter {
+    /**
+     * The default number of hosts to start jobs on at the same time. Can change by setting the
+     * "jobStartParallelism" system property, otherwise defaults to 8.
+     */
+    public static final int JOB_START_PARALLELISM =
+        Integer.parseInt(System.getProperty("jobStartParallelism", "8"));
+
+    /**
+     * The default longest time in milliseconds to wait for a host to start its jobs. Can change by setting the
+     * "jobStartTimeout" system property, otherwise defaults to 5 minutes.
+     */
+    public static final long JOB_START_TIMEOUT =
+        Long.parseLong(System.getProperty("jobStartTimeout", String.valueOf(TimeUnit.MINUTES.toMillis(5))));
+
     private static final Pattern JOB_IDS_PATTERN =
         Pattern.compile((@Regex(1) String)"^\\s*\\[(?<jobIds>[\\d,\\s]*)\\]\\s*$", Pattern.MULTILINE);
 
+    /**
+     * How long an idle start thread waits for more work before it goes away, so a starter that's no longer used
+     * doesn't keep its threads.
+     */
+    private static final long IDLE_THREAD_KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final ScheduledExecutorService TIMEOUTS =
+        Executors.newSingleThreadScheduledExecutor(daemonThreads("JobStarter timeouts"));
+
     private final JobsConfigFileReader jobsConfigFileReader;
     private final Iterable<HostInfo> hosts;
     private final ExecutorService executorService;
+    private final HttpTransport transport;
+    private final long startTimeoutMs;
+    private final LaunchScheduler launchScheduler;
 
 
+    /**
+     * Uses the {@link HttpTransport#shared() shared} transport.
+     */
     public JobStarter(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts) {
+        this(jobsConfigFileReader, hosts, HttpTransport.shared());
+    }
+
+
+    public JobStarter(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                      HttpTransport transport) {
+        this(jobsConfigFileReader, hosts, transport, JOB_START_PARALLELISM, JOB_START_TIMEOUT);
+    }
+
+
+    /**
+     * @param parallelism    the number of hosts to start jobs on at the same time
+     * @param startTimeoutMs the longest time to wait for a host to start its jobs
+     */
+    public JobStarter(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                      HttpTransport transport, int parallelism, long startTimeoutMs) {
+        this(jobsConfigFileReader, hosts, transport, parallelism, startTimeoutMs,
+            new LaunchScheduler(LaunchSettings.UNLIMITED));
+    }
+
+
+    /**
+     * @param parallelism    the number of hosts to start jobs on at the same time
+     * @param startTimeoutMs  the longest time to wait for a host to start its jobs, once it's allowed to start
+     * @param launchScheduler how quickly hosts may be started
+     */
+    public JobStarter(JobsConfigFileReader jobsConfigFileReader, Iterable<@NonNull HostInfo> hosts,
+                      HttpTransport transport, int parallelism, long startTimeoutMs,
+                      LaunchScheduler launchScheduler) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
         this.jobsConfigFileReader = jobsConfigFileReader;
         this.hosts = hosts;
+        this.transport = transport;
+        this.startTimeoutMs = startTimeoutMs;
+        this.launchScheduler = launchScheduler;
 
-        this.executorService = Executors.newSingleThreadExecutor();
+        val pool = new ThreadPoolExecutor(parallelism, parallelism, IDLE_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), daemonThreads("JobStarter"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executorService = pool;
     }
 
 
     /**
-     * Start the jobs on the Grabbit clients, returning the hosts and the jobs ids.
+     * Start the jobs on the Grabbit clients, returning the hosts and the jobs ids. Hosts are published in the
+     * order their jobs finish starting.
      */
     public Publisher<HostAndJobIds> startJobs() {
-        return Flux.fromIterable(hosts).
-            map(this::startJobsForHost);
+        return Flux.defer(() -> Flux.merge(
+            StreamSupport.stream(hosts.spliterator(), false).
+                map(hostInfo -> Mono.fromFuture(startJobsForHost(hostInfo))).
+                collect(Collectors.<@NonNull Mono<HostAndJobIds>>toList())));
+    }
+
+
+    private CompletableFuture<HostAndJobIds> startJobsForHost(HostInfo hostInfo) {
+        val baseUri = hostInfo.baseUri();
+        val credentials = hostInfo.credentials();
+        return startJobsOnHost(baseUri, url -> startJobOnClient(url, credentials)).
+            handle((jobIds, error) -> new HostAndJobIds(baseUri,
+                error == null ? Flux.fromIterable(jobIds) : Flux.<Long>error(unwrap(error))));
     }
 
 
-    private HostAndJobIds startJobsForHost(HostInfo hostInfo) {
-        val jobIds = startJobsOnHost(hostInfo.baseUri(), hostInfo.credentials());
-        return new HostAndJobIds(hostInfo.baseUri(), jobIds);
+    /**
+     * Start the jobs for a single job configuration, rather than the whole configuration file, on one Grabbit
+     * client. It's subject to the same parallelism, launch scheduling and timeout as starting all the hosts.
+     *
+     * @param hostInfo   the Grabbit client to start the jobs on
+     * @param jobsConfig the configuration to send, such as one from {@link JobsConfig#splitByPath()}
+     * @return the ids of the jobs that were started
+     */
+    public CompletableFuture<List<Long>> startJobs(HostInfo hostInfo, JobsConfig jobsConfig) {
+        val credentials = hostInfo.credentials();
+        return startJobsOnHost(hostInfo.baseUri(), url -> startJobOnClient(url, credentials, jobsConfig));
     }
 
 
@@ -82,38 +187,81 @@ public class JobStarter {
      */
     public static Publisher<HostAndJobIds> startJobsForHosts(JobsConfigFileReader jobsConfigFileReader,
                                                              Iterable<@NonNull HostInfo> hosts) throws IOException {
-        return new JobStarter(jobsConfigFileReader, hosts).startJobs();
+        return startAndShutDown(new JobStarter(jobsConfigFileReader, hosts));
     }
 
 
     /**
-     * Start a process on {@link #executorService} that connects to the Grabbit client at `baseUri` and publishes the
-     * job ids.
-     *
-     * @param baseUri     the URI of the Grabbit client host to connect to
-     * @param credentials the credentials to use to create the jobs
+     * Start the jobs on the Grabbit clients no faster than the {@link LaunchScheduler} allows, returning the hosts
+     * and the jobs ids.
      */
-    private Publisher<Long> startJobsOnHost(final URI baseUri, UsernameAndPassword credentials) {
-        final Processor<Long, Long> processor = WorkQueueProcessor.share(executorService);
+    public static Publisher<HostAndJobIds> startJobsForHosts(JobsConfigFileReader jobsConfigFileReader,
+                                                             Iterable<@NonNull HostInfo> hosts,
+                                                             LaunchScheduler launchScheduler) {
+        return startAndShutDown(new JobStarter(jobsConfigFileReader, hosts, HttpTransport.shared(),
+            JOB_START_PARALLELISM, JOB_START_TIMEOUT, launchScheduler));
+    }
 
-        executorService.execute(() -> startJobsOnHostWithSubscriber(processor, baseUri, credentials));
 
-        return processor;
+    /**
+     * Starts all the hosts' jobs, shutting the starter's threads down once nothing else can be started with it.
+     */
+    private static Publisher<HostAndJobIds> startAndShutDown(JobStarter jobStarter) {
+        return Flux.from(jobStarter.startJobs()).
+            doAfterTerminate(jobStarter::shutdown).
+            doOnCancel(jobStarter::shutdown);
     }
 
 
-    private void startJobsOnHostWithSubscriber(Subscriber<Long> jobIdSubscriber, URI baseUri,
-                                               UsernameAndPassword credentials) {
-        try {
-            val clientUrl = grabbitClientUrl(baseUri);
-            val inputStream = startJobOnClient(clientUrl, credentials);
-            val output = Utils.toString(inputStream).trim();
+    /**
+     * Stops the threads used to start jobs. Starts that are already running are allowed to finish, but nothing
+     * more can be started.
+     */
+    public void shutdown() {
+        executorService.shutdown();
+    }
 
-            parseStartJobsOutput(output, jobIdSubscriber);
-        }
-        catch (IOException e) {
-            jobIdSubscriber.onError(e);
-        }
+
+    /**
+     * Start a process on {@link #executorService} that waits for the {@link #launchScheduler} to allow it, then
+     * connects to the Grabbit client at `baseUri` and completes with the job ids, or with a
+     * {@link TimeoutException} if that takes longer than {@link #startTimeoutMs}.
+     *
+     * @param baseUri   the URI of the Grabbit client host to connect to
+     * @param startCall sends the configuration to the Grabbit client's job URL
+     */
+    private CompletableFuture<List<Long>> startJobsOnHost(final URI baseUri, ClientCall startCall) {
+        final CompletableFuture<List<Long>> jobIds = new CompletableFuture<>();
+        final AtomicReference<@Nullable Future<?>> task = new AtomicReference<>();
+
+        task.set(executorService.submit(() -> {
+            try {
+                launchScheduler.acquire();
+
+                // the timeout only starts once the launch is allowed
+                val timeout = TIMEOUTS.schedule(() -> {
+                    if (jobIds.completeExceptionally(new TimeoutException("Starting the jobs on " + baseUri +
+                        " took longer than " + startTimeoutMs + "ms"))) {
+                        val running = task.get();
+                        if (running != null) {
+                            running.cancel(true);
+                        }
+                    }
+                }, startTimeoutMs, TimeUnit.MILLISECONDS);
+                jobIds.whenComplete((ids, error) -> timeout.cancel(false));
+
+                val clientUrl = grabbitClientUrl(baseUri);
+                val inputStream = startCall.call(clientUrl);
+                val output = Utils.toString(inputStream).trim();
+
+                jobIds.complete(parseStartJobsOutput(output));
+            }
+            catch (IOException | RuntimeException e) {
+                jobIds.completeExceptionally(e);
+            }
+        }));
+
+        return jobIds;
     }
 
 
@@ -122,41 +270,58 @@ public class JobStarter {
     }
 
 
-    @SuppressWarnings({"RedundantCast", "Convert2MethodRef"})
-    private void parseStartJobsOutput(String startJobsOutput, Subscriber<Long> jobIdSub) {
+    @SuppressWarnings("RedundantCast")
+    private static List<Long> parseStartJobsOutput(String startJobsOutput) {
         // the output from starting a job looks like "[123,125]"
         val matcher = JOB_IDS_PATTERN.matcher(startJobsOutput);
         if (matcher.matches()) {
             val jobIdsStr = (@NonNull String)matcher.group("jobIds");
-            Arrays.stream(jobIdsStr.split(",")).
+            return Arrays.stream(jobIdsStr.split(",")).
                 map(String::trim).
                 map(Long::valueOf).
-                forEach(jobId -> jobIdSub.onNext(jobId));
-            jobIdSub.onComplete();
+                collect(Collectors.<@NonNull Long>toList());
         }
         else {
-            jobIdSub.onError(new IllegalStateException("Could not parse job ids from: " + startJobsOutput));
+            throw new IllegalStateException("Could not parse job ids from: " + startJobsOutput);
         }
     }
 
 
-    @SuppressWarnings("PMD.PreserveStackTrace")
     protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials) throws IOException {
-        val httpCon = (HttpURLConnection)url.openConnection();
-        httpCon.setDoOutput(true);
-        httpCon.setRequestMethod("PUT");
-        httpCon.setRequestProperty("Content-Type", "application/json");
-        httpCon.setRequestProperty("Authorization", "Basic " + credentials.basicAuthEncode());
-
-        try {
-            Utils.copy(jobsConfigFileReader.inputStream(), httpCon.getOutputStream());
-        }
-        catch (ConnectException e) {
-            val newExp = new ConnectException(e.getMessage() + " when trying to connect to " + url);
-            newExp.setStackTrace(e.getStackTrace());
-            throw newExp;
-        }
-        return new BufferedInputStream(httpCon.getInputStream());
+        // the same bytes are sent to every host
+        return startJobOnClient(url, credentials, jobsConfigFileReader.jobsConfig());
+    }
+
+
+    protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials,
+                                                   JobsConfig jobsConfig) throws IOException {
+        // the client can take a while to act on the request, so only the start timeout applies
+        val response = transport.put(url, credentials.basicAuthorizationHeader(), "application/json",
+            jobsConfig.payloadBytes(), (int)Math.min(startTimeoutMs, Integer.MAX_VALUE));
+        return new BufferedInputStream(response.successBodyStream(url.toString()));
+    }
+
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+
+    /**
+     * Sends a job configuration to a Grabbit client's job URL.
+     */
+    @FunctionalInterface
+    private interface ClientCall {
+        BufferedInputStream call(URL url) throws IOException;
+    }
+
+
+    static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            val thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
 }
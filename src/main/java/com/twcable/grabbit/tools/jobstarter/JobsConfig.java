@@ -0,0 +1,409 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import com.twcable.grabbit.tools.environment.HostInfo;
+import com.twcable.grabbit.tools.util.JsonWriter;
+import com.twcable.grabbit.tools.util.Utils;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.AUTHOR;
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A Grabbit Client job configuration, parsed and validated once.
+ * <p>
+ * Along with the parsed values it keeps the exact bytes it was read from, which is what gets sent to each Grabbit
+ * Client. Those bytes are never copied or changed, so the same payload can be sent to any number of hosts.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+public final class JobsConfig {
+    private final String source;
+    private final byte[] payload;
+    private final Map<String, ?> settings;
+    private final HostInfo.NodeType clientNodeType;
+    private final List<Map<String, ?>> pathConfigurations;
+    private final List<JobGroup> jobGroups;
+
+
+    private JobsConfig(String source, byte[] payload, Map<String, ?> settings, HostInfo.NodeType clientNodeType,
+                       List<Map<String, ?>> pathConfigurations) {
+        this.source = source;
+        this.payload = payload;
+        this.settings = settings;
+        this.clientNodeType = clientNodeType;
+        this.pathConfigurations = pathConfigurations;
+        this.jobGroups = jobGroups(source, settings, pathConfigurations);
+    }
+
+
+    /**
+     * Parses and validates a job configuration.
+     *
+     * @param source  where the configuration came from, for error messages
+     * @param payload the JSON (or YAML) configuration; it is kept as is, so must not be changed afterwards
+     * @throws IllegalStateException if the configuration is not a map, does not have a valid "clientNodeType", or
+     *                               has "jobGroups" that are not valid
+     */
+    @SuppressWarnings("unchecked")
+    public static JobsConfig parse(String source, byte[] payload) {
+        final @Nullable Object parsed =
+            new Yaml().load(new InputStreamReader(new ByteArrayInputStream(payload), UTF_8));
+        if (!(parsed instanceof Map)) {
+            throw new IllegalStateException("Expected \"" + source + "\" to contain a map of settings");
+        }
+        val settings = (Map<String, ?>)parsed;
+
+        return new JobsConfig(source, payload, Collections.unmodifiableMap(new LinkedHashMap<>(settings)),
+            nodeType(source, settings.get("clientNodeType")), pathConfigurations(source, settings));
+    }
+
+
+    /**
+     * Where the configuration came from.
+     */
+    public String source() {
+        return source;
+    }
+
+
+    /**
+     * The {@link HostInfo.NodeType} that corresponds to the "clientNodeType" key at the top level of the
+     * configuration.
+     */
+    public HostInfo.NodeType clientNodeType() {
+        return clientNodeType;
+    }
+
+
+    /**
+     * The "pathConfigurations" at the top level of the configuration, or an empty list if there are none.
+     */
+    public List<Map<String, ?>> pathConfigurations() {
+        return pathConfigurations;
+    }
+
+
+    /**
+     * The "jobGroups" at the top level of the configuration, in the order they were declared, or an empty list if
+     * there are none. Every group's paths are path configurations in this, no path is in more than one group, and
+     * the groups only depend on each other with no cycles.
+     */
+    public List<JobGroup> jobGroups() {
+        return jobGroups;
+    }
+
+
+    /**
+     * All of the top level settings, as a read-only map.
+     */
+    public Map<String, ?> settings() {
+        return settings;
+    }
+
+
+    /**
+     * A read-only view of the bytes to send to a Grabbit Client.
+     */
+    public ByteBuffer payload() {
+        return ByteBuffer.wrap(payload).asReadOnlyBuffer();
+    }
+
+
+    /**
+     * A stream of the bytes to send to a Grabbit Client.
+     */
+    public InputStream inputStream() {
+        return new ByteArrayInputStream(payload);
+    }
+
+
+    /**
+     * The bytes to send to a Grabbit Client, without copying them. They must not be changed.
+     */
+    byte[] payloadBytes() {
+        return payload;
+    }
+
+
+    /**
+     * Splits this into a configuration per path configuration, each with all of the other top level settings, so
+     * the paths can be started as separate jobs. The new configurations are sent as JSON. If there is no more than
+     * one path configuration, this is the only one returned.
+     *
+     * @see JobQueue
+     */
+    public List<JobsConfig> splitByPath() {
+        if (pathConfigurations.size() <= 1) {
+            return Collections.singletonList(this);
+        }
+
+        val configs = new ArrayList<JobsConfig>(pathConfigurations.size());
+        for (Map<String, ?> pathConfiguration : pathConfigurations) {
+            configs.add(withPathConfigurations(String.valueOf(pathConfiguration.get("path")),
+                Collections.singletonList(pathConfiguration)));
+        }
+        return Collections.unmodifiableList(configs);
+    }
+
+
+    /**
+     * A copy of this with different path configurations, and all of the same top level settings, which is sent as
+     * JSON. The copy has no "jobGroups", since those are about the paths of the whole configuration.
+     *
+     * @param label              added to the {@link #source()} to tell the copy apart
+     * @param pathConfigurations the path configurations for the copy; each must have a "path"
+     * @throws IllegalStateException if one of the path configurations does not have a "path"
+     */
+    public JobsConfig withPathConfigurations(String label, List<? extends Map<String, ?>> pathConfigurations) {
+        val newSource = source + " (" + label + ")";
+        val pathSettings = new LinkedHashMap<String, Object>(settings);
+        pathSettings.remove("jobGroups");
+        pathSettings.put("pathConfigurations", Collections.unmodifiableList(new ArrayList<>(pathConfigurations)));
+
+        return new JobsConfig(newSource, toJson(pathSettings), Collections.unmodifiableMap(pathSettings),
+            clientNodeType, pathConfigurations(newSource, pathSettings));
+    }
+
+
+    @Override
+    public String toString() {
+        return "JobsConfig(" + source + ", " + clientNodeType + ", " + pathConfigurations.size() +
+            " path configurations)";
+    }
+
+
+    private static HostInfo.NodeType nodeType(String source, @Nullable Object clientNodeType) {
+        if (clientNodeType == null) {
+            throw new IllegalStateException("Could not find key \"clientNodeType\" at the top level of \"" +
+                source + "\"");
+        }
+
+        switch (clientNodeType.toString().toLowerCase(Locale.ROOT)) {
+            case "author":
+                return AUTHOR;
+            case "publish":
+            case "publisher":
+                return PUBLISHER;
+            default:
+                throw new IllegalStateException("Could not map \"" + clientNodeType + "\" to a NodeType");
+        }
+    }
+
+
+    private static byte[] toJson(Map<String, ?> settings) {
+        val bytes = new ByteArrayOutputStream();
+        try {
+            val json = JsonWriter.utf8(bytes);
+            writeJson(json, settings);
+            json.flush();
+        }
+        catch (IOException e) {
+            // not possible writing to memory
+            throw Utils.softened(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    private static void writeJson(JsonWriter json, @Nullable Object value) throws IOException {
+        if (value == null) {
+            json.nullValue();
+        }
+        else if (value instanceof Map) {
+            json.beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet()) {
+                json.name(String.valueOf(entry.getKey()));
+                writeJson(json, entry.getValue());
+            }
+            json.endObject();
+        }
+        else if (value instanceof Iterable) {
+            json.beginArray();
+            for (Object element : (Iterable<?>)value) {
+                writeJson(json, element);
+            }
+            json.endArray();
+        }
+        else if (value instanceof Boolean) {
+            json.value((boolean)(Boolean)value);
+        }
+        else if (value instanceof Long || value instanceof Integer || value instanceof Short ||
+            value instanceof Byte) {
+            json.value(((Number)value).longValue());
+        }
+        else if (value instanceof Number) {
+            json.value(((Number)value).doubleValue());
+        }
+        else {
+            json.value(value.toString());
+        }
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, ?>> pathConfigurations(String source, Map<String, ?> settings) {
+        val pathConfigurations = settings.get("pathConfigurations");
+        if (pathConfigurations == null) {
+            return Collections.emptyList();
+        }
+        if (!(pathConfigurations instanceof List)) {
+            throw new IllegalStateException("Expected \"pathConfigurations\" in \"" + source + "\" to be a list");
+        }
+
+        val result = new ArrayList<Map<String, ?>>();
+        for (Object pathConfiguration : (List<?>)pathConfigurations) {
+            if (!(pathConfiguration instanceof Map) || ((Map<String, ?>)pathConfiguration).get("path") == null) {
+                throw new IllegalStateException("Expected each of the \"pathConfigurations\" in \"" + source +
+                    "\" to have a \"path\", but found " + pathConfiguration);
+            }
+            result.add(Collections.unmodifiableMap(new LinkedHashMap<>((Map<String, ?>)pathConfiguration)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+
+    private static List<JobGroup> jobGroups(String source, Map<String, ?> settings,
+                                            List<Map<String, ?>> pathConfigurations) {
+        val jobGroups = settings.get("jobGroups");
+        if (jobGroups == null) {
+            return Collections.emptyList();
+        }
+        if (!(jobGroups instanceof Map)) {
+            throw new IllegalStateException("Expected \"jobGroups\" in \"" + source + "\" to be a map of names " +
+                "to groups");
+        }
+
+        val knownPaths = new HashSet<String>();
+        for (Map<String, ?> pathConfiguration : pathConfigurations) {
+            knownPaths.add(String.valueOf(pathConfiguration.get("path")));
+        }
+
+        val groupsByName = new LinkedHashMap<String, JobGroup>();
+        val groupOfPath = new HashMap<String, String>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>)jobGroups).entrySet()) {
+            val name = String.valueOf(entry.getKey());
+            if (JobGroup.UNGROUPED.equals(name)) {
+                throw new IllegalStateException("\"" + name + "\" in \"" + source + "\" is reserved for the " +
+                    "paths that aren't in a job group");
+            }
+            if (!(entry.getValue() instanceof Map)) {
+                throw new IllegalStateException("Expected job group \"" + name + "\" in \"" + source +
+                    "\" to be a map with \"paths\"");
+            }
+            val group = (Map<?, ?>)entry.getValue();
+            val paths = strings(source, name, "paths", group.get("paths"));
+            if (paths.isEmpty()) {
+                throw new IllegalStateException("Expected job group \"" + name + "\" in \"" + source +
+                    "\" to have at least one of \"paths\"");
+            }
+            for (String path : paths) {
+                if (!knownPaths.contains(path)) {
+                    throw new IllegalStateException("Job group \"" + name + "\" in \"" + source + "\" has \"" +
+                        path + "\", which is not the \"path\" of any of the \"pathConfigurations\"");
+                }
+                val otherGroup = groupOfPath.putIfAbsent(path, name);
+                if (otherGroup != null) {
+                    throw new IllegalStateException("\"" + path + "\" is in both job group \"" + otherGroup +
+                        "\" and \"" + name + "\" in \"" + source + "\"");
+                }
+            }
+            val dependsOn = strings(source, name, "dependsOn", group.get("dependsOn"));
+            groupsByName.put(name, new JobGroup(name, paths, dependsOn));
+        }
+
+        for (JobGroup group : groupsByName.values()) {
+            for (String dependency : group.dependsOn()) {
+                if (!groupsByName.containsKey(dependency)) {
+                    throw new IllegalStateException("Job group \"" + group.name() + "\" in \"" + source +
+                        "\" depends on \"" + dependency + "\", which is not a job group");
+                }
+            }
+        }
+        checkForCycles(source, groupsByName);
+
+        return Collections.unmodifiableList(new ArrayList<>(groupsByName.values()));
+    }
+
+
+    private static List<String> strings(String source, String groupName, String key, @Nullable Object value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalStateException("Expected \"" + key + "\" of job group \"" + groupName + "\" in \"" +
+                source + "\" to be a list");
+        }
+        val strings = new ArrayList<String>();
+        for (Object element : (List<?>)value) {
+            strings.add(String.valueOf(element));
+        }
+        return Collections.unmodifiableList(strings);
+    }
+
+
+    /**
+     * Depth-first search that throws on reaching a group that is still being visited.
+     */
+    private static void checkForCycles(String source, Map<String, JobGroup> groupsByName) {
+        val visiting = new LinkedHashSet<String>();
+        val visited = new HashSet<String>();
+        for (String name : groupsByName.keySet()) {
+            checkForCycles(source, groupsByName, name, visiting, visited);
+        }
+    }
+
+
+    private static void checkForCycles(String source, Map<String, JobGroup> groupsByName, String name,
+                                       Set<String> visiting, Set<String> visited) {
+        if (visited.contains(name)) {
+            return;
+        }
+        if (!visiting.add(name)) {
+            val cycle = new ArrayList<String>(visiting);
+            cycle.subList(0, cycle.indexOf(name)).clear();
+            cycle.add(name);
+            throw new IllegalStateException("The job groups in \"" + source + "\" depend on each other in a " +
+                "cycle: " + String.join(" -> ", cycle));
+        }
+        for (String dependency : groupsByName.get(name).dependsOn()) {
+            checkForCycles(source, groupsByName, dependency, visiting, visited);
+        }
+        visiting.remove(name);
+        visited.add(name);
+    }
+
+}
@@ -17,25 +17,26 @@ package com.twcable.grabbit.tools.jobstarter;
 
 import com.twcable.grabbit.tools.environment.HostInfo;
 import com.twcable.grabbit.tools.util.Utils;
-import lombok.val;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
-
-import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.AUTHOR;
-import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER;
+import java.nio.file.Files;
 
 /**
  * Reads and parses the Grabbit Client configuration file.
  *
  * For the most part, this is used "raw" to be passed to the Grabbit Client. However this also parses the file
  * to determine what {@link HostInfo.NodeType} this is for.
+ *
+ * The file is read and parsed only once, the first time it's needed, into a {@link JobsConfig}.
  */
-@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+@SuppressWarnings("WeakerAccess")
 public class JobsConfigFileReader {
     private final File grabbitJobConfigFile;
+    private @MonotonicNonNull JobsConfig jobsConfig;
 
 
     public JobsConfigFileReader(File grabbitJobConfigFile) throws FileNotFoundException {
@@ -46,43 +47,44 @@ public class JobsConfigFileReader {
     }
 
 
+    /**
+     * The parsed configuration, reading the file the first time this is called. If there is an
+     * {@link IOException} it is "softened."
+     *
+     * @see Utils#softened(Throwable)
+     */
+    public synchronized JobsConfig jobsConfig() {
+        if (jobsConfig == null) {
+            try {
+                jobsConfig = JobsConfig.parse(grabbitJobConfigFile.getAbsolutePath(),
+                    Files.readAllBytes(grabbitJobConfigFile.toPath()));
+            }
+            catch (IOException e) {
+                // only possible if the file disappears or can't be read while this is running
+                throw Utils.softened(e);
+            }
+        }
+        return jobsConfig;
+    }
+
+
     /**
      * Returns the {@link HostInfo.NodeType} that corresponds to the "clientNodeType" key at the top level
      * of the configuration.
      */
     public HostInfo.NodeType configNodeType() {
-        val clientNodeType = (String)Utils.configAsMap(grabbitJobConfigFile).get("clientNodeType");
-        if (clientNodeType == null) {
-            throw new IllegalStateException("Could not find key \"clientNodeType\" at the top level of \"" +
-                grabbitJobConfigFile.getAbsolutePath() + "\"");
-        }
-
-        switch (clientNodeType.toLowerCase()) {
-            case "author":
-                return AUTHOR;
-            case "publish":
-            case "publisher":
-                return PUBLISHER;
-            default:
-                throw new IllegalStateException("Could not map \"" + clientNodeType + "\" to a NodeType");
-        }
+        return jobsConfig().clientNodeType();
     }
 
 
     /**
-     * Returns an {@link InputStream} for the configuration file. If there is a {@link FileNotFoundException} it is
-     * "softened."
+     * Returns an {@link InputStream} for the configuration file. If there is an {@link IOException} reading the
+     * file it is "softened."
      *
      * @see Utils#softened(Throwable)
      */
     public InputStream inputStream() {
-        try {
-            return new FileInputStream(grabbitJobConfigFile);
-        }
-        catch (FileNotFoundException e) {
-            // only possible if the file disappears while this is running
-            throw Utils.softened(e);
-        }
+        return jobsConfig().inputStream();
     }
 
 }
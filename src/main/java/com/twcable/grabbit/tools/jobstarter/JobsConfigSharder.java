@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Splits a job configuration's paths into a number of shards of about the same size, each started as its own
+ * submission on every host, so the largest path no longer decides how long the copy takes.
+ * <p>
+ * Each path configuration is weighed by its node count in the {@link NodeCountHistory}. A path the history doesn't
+ * know is given the average weight of those it does, or a weight of 1 if it knows none of them. Then:
+ * <ol>
+ * <li>While a piece weighs more than a shard's fair share of the total and the history knows of subtrees under it,
+ * it's split: each subtree becomes a piece of its own, and the rest of the path becomes a piece that excludes those
+ * subtrees. A path that deletes before writing is never split, since its delete could remove what the subtrees'
+ * jobs write.</li>
+ * <li>The pieces are dealt out heaviest first, each to the shard with the least weight so far (longest processing
+ * time first), which keeps the heaviest shard within 4/3 of the best possible.</li>
+ * </ol>
+ * <p>
+ * Thread-safe.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+public final class JobsConfigSharder {
+    private static final String PATH = "path";
+    private static final String EXCLUDE_PATHS = "excludePaths";
+
+    // heaviest first, then in the order they were made so the shards come out the same every time
+    private static final Comparator<Piece> HEAVIEST_FIRST =
+        Comparator.comparingLong((@NonNull Piece piece) -> piece.weight).reversed().
+            thenComparingInt(piece -> piece.order);
+
+    private final NodeCountHistory history;
+    private final int shards;
+
+    // the subtrees that were split off from each path, which its job didn't copy
+    private final Map<String, List<String>> splitOff = new HashMap<>();
+
+
+    /**
+     * @param history where to get the node counts from
+     * @param shards  the most shards to split a configuration into
+     */
+    public JobsConfigSharder(NodeCountHistory history, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1: " + shards);
+        }
+        this.history = history;
+        this.shards = shards;
+    }
+
+
+    public NodeCountHistory history() {
+        return history;
+    }
+
+
+    public int shards() {
+        return shards;
+    }
+
+
+    /**
+     * Splits the configuration into no more than {@link #shards()} configurations, all with the same top level
+     * settings. There are fewer if there are fewer pieces than shards.
+     */
+    public synchronized List<JobsConfig> shard(JobsConfig jobsConfig) {
+        val pieces = split(jobsConfig.pathConfigurations());
+        if (pieces.isEmpty()) {
+            return Collections.singletonList(jobsConfig);
+        }
+
+        pieces.sort(HEAVIEST_FIRST);
+        val bins = new ArrayList<List<Map<String, ?>>>();
+        val binWeights = new long[Math.min(shards, pieces.size())];
+        for (int i = 0; i < binWeights.length; i++) {
+            bins.add(new ArrayList<>());
+        }
+        for (Piece piece : pieces) {
+            // ties go to the bin with the fewest pieces, so pieces with no weight still fill the empty bins
+            int lightest = 0;
+            for (int i = 1; i < binWeights.length; i++) {
+                if (binWeights[i] < binWeights[lightest] ||
+                    (binWeights[i] == binWeights[lightest] && bins.get(i).size() < bins.get(lightest).size())) {
+                    lightest = i;
+                }
+            }
+            bins.get(lightest).add(piece.pathConfiguration);
+            binWeights[lightest] += piece.weight;
+        }
+
+        val configs = new ArrayList<JobsConfig>(bins.size());
+        for (int i = 0; i < bins.size(); i++) {
+            configs.add(jobsConfig.withPathConfigurations("shard " + (i + 1) + " of " + bins.size() + ", " +
+                binWeights[i] + " nodes", bins.get(i)));
+        }
+        return Collections.unmodifiableList(configs);
+    }
+
+
+    /**
+     * Records how many nodes a completed job wrote in the {@link #history()}. If subtrees were split off from the
+     * job's path, their counts are added in, so the path's count still covers everything under it.
+     *
+     * @param path         the path the job copied
+     * @param nodesWritten the number of nodes the job wrote
+     */
+    public synchronized void recordCompleted(String path, long nodesWritten) {
+        long nodeCount = nodesWritten;
+        for (String subtree : splitOff.getOrDefault(path, Collections.emptyList())) {
+            nodeCount += Math.max(0L, history.nodeCount(subtree));
+        }
+        history.record(path, nodeCount);
+    }
+
+
+    private List<Piece> split(List<Map<String, ?>> pathConfigurations) {
+        val defaultWeight = defaultWeight(pathConfigurations);
+
+        final PriorityQueue<Piece> toSplit = new PriorityQueue<>(HEAVIEST_FIRST);
+        long total = 0L;
+        for (Map<String, ?> pathConfiguration : pathConfigurations) {
+            val path = String.valueOf(pathConfiguration.get(PATH));
+            val subtreeTotal = history.subtrees(path).stream().mapToLong(history::nodeCount).sum();
+            val nodeCount = history.nodeCount(path);
+            val weight = (nodeCount >= 0) ? nodeCount : Math.max(defaultWeight, subtreeTotal);
+            toSplit.add(new Piece(toSplit.size(), path, pathConfiguration, weight,
+                !deletesBeforeWrite(pathConfiguration)));
+            total += weight;
+        }
+        val fairShare = (total + shards - 1) / shards;
+
+        val pieces = new ArrayList<Piece>();
+        int order = toSplit.size();
+        while (!toSplit.isEmpty()) {
+            val piece = toSplit.poll();
+            val subtrees = (piece.splittable && piece.weight > fairShare) ? subtrees(piece) : null;
+            if (subtrees == null || subtrees.isEmpty()) {
+                pieces.add(piece);
+                continue;
+            }
+
+            long subtreesWeight = 0L;
+            for (String subtree : subtrees) {
+                val weight = history.nodeCount(subtree);
+                toSplit.add(new Piece(order++, subtree,
+                    withPath(piece.pathConfiguration, piece.path, subtree, subtrees), weight, true));
+                subtreesWeight += weight;
+            }
+            pieces.add(new Piece(piece.order, piece.path,
+                withPath(piece.pathConfiguration, piece.path, piece.path, subtrees),
+                Math.max(0L, piece.weight - subtreesWeight), false));
+            splitOff.put(piece.path, subtrees);
+        }
+        return pieces;
+    }
+
+
+    /**
+     * The subtrees the history knows under the piece's path that the piece doesn't already exclude.
+     */
+    private List<String> subtrees(Piece piece) {
+        val excluded = excludedPaths(piece.pathConfiguration, piece.path);
+        val subtrees = new ArrayList<String>();
+        for (String subtree : history.subtrees(piece.path)) {
+            if (excluded.stream().noneMatch(exclude -> isAtOrUnder(subtree, exclude))) {
+                subtrees.add(subtree);
+            }
+        }
+        return subtrees;
+    }
+
+
+    /**
+     * A copy of the path configuration for `newPath`, keeping the original excludes that fall under it and
+     * excluding the split off subtrees (other than `newPath` itself) that do. Excludes are relative to the path.
+     */
+    private static Map<String, ?> withPath(Map<String, ?> pathConfiguration, String originalPath, String newPath,
+                                           List<String> subtrees) {
+        val excludes = new ArrayList<String>();
+        for (String exclude : excludedPaths(pathConfiguration, originalPath)) {
+            if (isAtOrUnder(exclude, newPath) && !exclude.equals(newPath)) {
+                excludes.add(exclude.substring(newPath.length() + 1));
+            }
+        }
+        for (String subtree : subtrees) {
+            if (!subtree.equals(newPath) && isAtOrUnder(subtree, newPath)) {
+                excludes.add(subtree.substring(newPath.length() + 1));
+            }
+        }
+
+        val copy = new LinkedHashMap<String, Object>(pathConfiguration);
+        copy.put(PATH, newPath);
+        if (excludes.isEmpty()) {
+            copy.remove(EXCLUDE_PATHS);
+        }
+        else {
+            copy.put(EXCLUDE_PATHS, Collections.unmodifiableList(excludes));
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+
+    /**
+     * The path configuration's excludes, as absolute paths.
+     */
+    private static List<String> excludedPaths(Map<String, ?> pathConfiguration, String path) {
+        final @Nullable Object excludes = pathConfiguration.get(EXCLUDE_PATHS);
+        val excludedPaths = new ArrayList<String>();
+        if (excludes instanceof Iterable) {
+            for (Object exclude : (Iterable<?>)excludes) {
+                val excludeStr = String.valueOf(exclude);
+                excludedPaths.add(excludeStr.startsWith("/") ? excludeStr : path + "/" + excludeStr);
+            }
+        }
+        return excludedPaths;
+    }
+
+
+    private static boolean isAtOrUnder(String path, String ancestor) {
+        return path.equals(ancestor) || path.startsWith(ancestor + "/");
+    }
+
+
+    private static boolean deletesBeforeWrite(Map<String, ?> pathConfiguration) {
+        return Boolean.parseBoolean(String.valueOf(pathConfiguration.get("deleteBeforeWrite")));
+    }
+
+
+    private long defaultWeight(List<Map<String, ?>> pathConfigurations) {
+        long known = 0L;
+        int count = 0;
+        for (Map<String, ?> pathConfiguration : pathConfigurations) {
+            val nodeCount = history.nodeCount(String.valueOf(pathConfiguration.get(PATH)));
+            if (nodeCount >= 0) {
+                known += nodeCount;
+                count++;
+            }
+        }
+        return (count == 0) ? 1L : Math.max(1L, known / count);
+    }
+
+
+    /**
+     * Part of a path configuration, and how many nodes it's expected to write.
+     */
+    private static final class Piece {
+        final int order;
+        final String path;
+        final Map<String, ?> pathConfiguration;
+        final long weight;
+        final boolean splittable;
+
+
+        Piece(int order, String path, Map<String, ?> pathConfiguration, long weight, boolean splittable) {
+            this.order = order;
+            this.path = path;
+            this.pathConfiguration = pathConfiguration;
+            this.weight = weight;
+            this.splittable = splittable;
+        }
+    }
+
+}
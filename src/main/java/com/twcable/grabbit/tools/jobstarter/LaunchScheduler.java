@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import lombok.val;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.twcable.grabbit.tools.util.Utils.softened;
+
+/**
+ * Spaces out job starts with a token bucket, as set out by {@link LaunchSettings}.
+ * <p>
+ * The bucket holds up to {@link LaunchSettings#burst()} tokens and refills at
+ * {@link LaunchSettings#startsPerSecond()}. Each start takes a token, waiting for one if the bucket is empty.
+ * During the {@link LaunchSettings#rampUpMs() ramp-up}, which begins with the first start, the refill rate climbs
+ * linearly from a tenth of the full rate. Each start is then delayed by a random
+ * {@link LaunchSettings#jitterMs() jitter}.
+ * <p>
+ * Thread-safe. Callers are given their start times in the order they ask for them.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MagicNumber"})
+public class LaunchScheduler {
+    private static final double RAMP_UP_START_FRACTION = 0.1;
+
+    private final LaunchSettings settings;
+    private long firstReservationMs = -1;
+    private long lastRefillMs;
+    private double tokens;
+    private int launches;
+    private long firstLaunchMs = -1;
+    private long lastLaunchMs;
+
+
+    public LaunchScheduler(LaunchSettings settings) {
+        this.settings = settings;
+        this.tokens = settings.burst();
+    }
+
+
+    public LaunchSettings settings() {
+        return settings;
+    }
+
+
+    /**
+     * Waits until the next start is allowed.
+     */
+    public void acquire() {
+        if (!settings.isLimited()) {
+            recordLaunch(System.currentTimeMillis());
+            return;
+        }
+        val startAt = reserve(System.currentTimeMillis());
+        try {
+            val waitMs = startAt - System.currentTimeMillis();
+            if (waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw softened(e);
+        }
+        recordLaunch(startAt);
+    }
+
+
+    /**
+     * Takes a token, returning when the start it's for may happen.
+     *
+     * @param nowMs the current time, in epoch milliseconds
+     */
+    public synchronized long reserve(long nowMs) {
+        if (firstReservationMs < 0) {
+            firstReservationMs = nowMs;
+            lastRefillMs = nowMs;
+        }
+
+        long startAt = nowMs;
+        if (settings.startsPerSecond() > 0) {
+            val rate = rateAt(nowMs);
+            tokens = Math.min(settings.burst(), tokens + (nowMs - lastRefillMs) * rate / 1000.0);
+            lastRefillMs = nowMs;
+            if (tokens < 1.0) {
+                // borrow the token, so the next caller waits behind this one
+                startAt += (long)Math.ceil((1.0 - tokens) * 1000.0 / rate);
+            }
+            tokens -= 1.0;
+        }
+
+        if (settings.jitterMs() > 0) {
+            startAt += ThreadLocalRandom.current().nextLong(settings.jitterMs() + 1);
+        }
+        return startAt;
+    }
+
+
+    /**
+     * The rate tokens are added to the bucket at the given time, allowing for any ramp-up.
+     */
+    double rateAt(long nowMs) {
+        val fullRate = settings.startsPerSecond();
+        val elapsedMs = nowMs - firstReservationMs;
+        if (settings.rampUpMs() <= 0 || firstReservationMs < 0 || elapsedMs >= settings.rampUpMs()) {
+            return fullRate;
+        }
+        val fraction = RAMP_UP_START_FRACTION + (1.0 - RAMP_UP_START_FRACTION) * elapsedMs / settings.rampUpMs();
+        return fullRate * fraction;
+    }
+
+
+    private synchronized void recordLaunch(long launchMs) {
+        if (firstLaunchMs < 0 || launchMs < firstLaunchMs) {
+            firstLaunchMs = launchMs;
+        }
+        lastLaunchMs = Math.max(lastLaunchMs, launchMs);
+        launches++;
+    }
+
+
+    /**
+     * The number of starts so far.
+     */
+    public synchronized int launches() {
+        return launches;
+    }
+
+
+    /**
+     * The average number of starts per second between the first start and the last, or 0 if there have been fewer
+     * than two.
+     */
+    public synchronized double effectiveRate() {
+        if (launches < 2 || lastLaunchMs <= firstLaunchMs) {
+            return 0.0;
+        }
+        return (launches - 1) * 1000.0 / (lastLaunchMs - firstLaunchMs);
+    }
+
+
+    /**
+     * A description of the starts so far, such as "Made 20 job starts at 2.01 starts/second (limit 2.00)". Each
+     * start is one call to {@link #acquire()}, which may be for a host's jobs or a single queued job.
+     */
+    public synchronized String summary() {
+        val limit = (settings.startsPerSecond() > 0) ?
+            String.format(Locale.ROOT, " (limit %.2f)", settings.startsPerSecond()) : " (no limit)";
+        return String.format(Locale.ROOT, "Made %d job starts at %.2f starts/second", launches,
+            effectiveRate()) + limit;
+    }
+
+}
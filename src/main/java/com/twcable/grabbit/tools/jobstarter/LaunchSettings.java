@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import lombok.Value;
+
+/**
+ * How quickly {@link JobStarter} may start jobs on hosts, to avoid every Grabbit Client pulling from the same
+ * server at once.
+ *
+ * @see LaunchScheduler
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class LaunchSettings {
+    /**
+     * No limit: jobs are started on every host as soon as possible.
+     */
+    public static final LaunchSettings UNLIMITED = new LaunchSettings(0, 1, 0, 0);
+
+    /**
+     * The most hosts to start jobs on per second, once any ramp-up is over. 0 means no limit.
+     */
+    double startsPerSecond;
+
+    /**
+     * How many hosts can be started at once before the rate applies.
+     */
+    int burst;
+
+    /**
+     * Over how many milliseconds the rate climbs from a tenth of {@link #startsPerSecond()} to the full rate.
+     * 0 for no ramp-up.
+     */
+    long rampUpMs;
+
+    /**
+     * Up to how many milliseconds of random delay to add to each start, so starts don't line up exactly.
+     */
+    long jitterMs;
+
+
+    public LaunchSettings(double startsPerSecond, int burst, long rampUpMs, long jitterMs) {
+        if (!(startsPerSecond >= 0) || Double.isInfinite(startsPerSecond)) {
+            throw new IllegalArgumentException("starts per second must be a positive number, or 0 for no limit: " +
+                startsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+        if (rampUpMs < 0 || jitterMs < 0) {
+            throw new IllegalArgumentException("ramp-up and jitter can not be negative");
+        }
+        this.startsPerSecond = startsPerSecond;
+        this.burst = burst;
+        this.rampUpMs = rampUpMs;
+        this.jitterMs = jitterMs;
+    }
+
+
+    /**
+     * Whether starts are limited at all.
+     */
+    public boolean isLimited() {
+        return startsPerSecond > 0 || jitterMs > 0;
+    }
+}
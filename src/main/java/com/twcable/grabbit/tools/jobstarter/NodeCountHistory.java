@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import com.twcable.grabbit.tools.util.JsonWriter;
+import com.twcable.grabbit.tools.util.Utils;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How many JCR nodes were written for a path the last time it was copied, including everything under it.
+ * <p>
+ * The counts are kept in a JSON (or YAML) file of paths to node counts, such as
+ * <pre>
+ * { "/content/dam": 1250000, "/content/dam/products": 800000, "/content/site": 40000 }
+ * </pre>
+ * Entries for paths under a configured path are what allow {@link JobsConfigSharder} to split it into subtrees, so
+ * the file can be seeded with counts from the server as well as added to as jobs complete.
+ * <p>
+ * Thread-safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class NodeCountHistory {
+    private final @Nullable File file;
+    private final TreeMap<String, Long> nodeCounts = new TreeMap<>();
+
+
+    private NodeCountHistory(@Nullable File file) {
+        this.file = file;
+    }
+
+
+    /**
+     * A history with no counts that is never saved.
+     */
+    public static NodeCountHistory empty() {
+        return new NodeCountHistory(null);
+    }
+
+
+    /**
+     * Reads the counts from the file, if it exists. {@link #save()} writes them back to it.
+     *
+     * @throws IllegalStateException if the file does not map paths to numbers
+     */
+    public static NodeCountHistory load(File file) {
+        val history = new NodeCountHistory(file);
+        if (file.exists()) {
+            final @Nullable Map<String, ?> counts = Utils.configAsMap(file);
+            if (counts != null) {
+                counts.forEach((path, count) -> {
+                    if (!(count instanceof Number)) {
+                        throw new IllegalStateException("Expected a node count for \"" + path + "\" in \"" +
+                            file.getAbsolutePath() + "\" but found " + count);
+                    }
+                    history.nodeCounts.put(normalize(path), ((Number)count).longValue());
+                });
+            }
+        }
+        return history;
+    }
+
+
+    /**
+     * The number of nodes under the path, including the path itself, or -1 if it's not known.
+     */
+    public synchronized long nodeCount(String path) {
+        return nodeCounts.getOrDefault(normalize(path), -1L);
+    }
+
+
+    /**
+     * The paths under the given one that have counts, without any that are under each other. For example, if
+     * there are counts for "/a/b", "/a/b/c" and "/a/d", the subtrees of "/a" are "/a/b" and "/a/d".
+     */
+    public synchronized List<String> subtrees(String path) {
+        val root = normalize(path);
+        val prefix = root + "/";
+        val subtrees = new ArrayList<String>();
+        for (String candidate : nodeCounts.tailMap(prefix).keySet()) {
+            if (!candidate.startsWith(prefix)) {
+                break;
+            }
+            if (!hasCountedAncestorBelow(candidate, root)) {
+                subtrees.add(candidate);
+            }
+        }
+        return subtrees;
+    }
+
+
+    private boolean hasCountedAncestorBelow(String path, String root) {
+        for (int slash = path.lastIndexOf('/'); slash > root.length(); slash = path.lastIndexOf('/', slash - 1)) {
+            if (nodeCounts.containsKey(path.substring(0, slash))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Records the number of nodes under the path, replacing what was known before.
+     */
+    public synchronized void record(String path, long nodeCount) {
+        nodeCounts.put(normalize(path), nodeCount);
+    }
+
+
+    /**
+     * Writes the counts to the file they were loaded from, replacing it. Does nothing for an {@link #empty()}
+     * history.
+     */
+    public synchronized void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        val tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tempFile)) {
+            val json = JsonWriter.utf8(out);
+            json.beginObject();
+            for (Map.Entry<String, Long> entry : nodeCounts.entrySet()) {
+                json.name(entry.getKey()).value((long)entry.getValue());
+            }
+            json.endObject();
+            json.flush();
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+
+    private static String normalize(String path) {
+        return (path.length() > 1 && path.endsWith("/")) ? path.substring(0, path.length() - 1) : path;
+    }
+
+}
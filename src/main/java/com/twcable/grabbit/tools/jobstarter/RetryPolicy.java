@@ -0,0 +1,102 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter;
+
+import lombok.Value;
+
+/**
+ * How {@link JobRetrier} resubmits failed jobs: how many times, and how long it waits before each retry.
+ * <p>
+ * The wait doubles with each retry of the same path on the same host, starting from {@link #initialBackoffMs()}
+ * and going no higher than {@link #maxBackoffMs()}.
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class RetryPolicy {
+    /**
+     * Failed jobs are not retried.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, 0);
+
+    /**
+     * The default number of retries across all of the jobs. Can change by setting the "maxJobRetries" system
+     * property, otherwise defaults to 10.
+     */
+    public static final int MAX_RETRIES = Integer.parseInt(System.getProperty("maxJobRetries", "10"));
+
+    /**
+     * The longest to wait before a retry, in milliseconds. Can change by setting the "maxRetryBackoffMs" system
+     * property, otherwise defaults to 15 minutes.
+     */
+    public static final long MAX_BACKOFF_MS = Long.parseLong(System.getProperty("maxRetryBackoffMs", "900000"));
+
+    /**
+     * The most times to retry the same path on the same host.
+     */
+    int maxRetriesPerJob;
+
+    /**
+     * The most retries across all of the paths and hosts.
+     */
+    int maxRetries;
+
+    /**
+     * How many milliseconds to wait before the first retry of a path.
+     */
+    long initialBackoffMs;
+
+    /**
+     * The most milliseconds to wait before any retry.
+     */
+    long maxBackoffMs;
+
+
+    public RetryPolicy(int maxRetriesPerJob, int maxRetries, long initialBackoffMs, long maxBackoffMs) {
+        if (maxRetriesPerJob < 0 || maxRetries < 0) {
+            throw new IllegalArgumentException("the number of retries can not be negative");
+        }
+        if (initialBackoffMs < 0 || maxBackoffMs < initialBackoffMs) {
+            throw new IllegalArgumentException("the backoff can not be negative, or more than its maximum of " +
+                maxBackoffMs + "ms: " + initialBackoffMs);
+        }
+        this.maxRetriesPerJob = maxRetriesPerJob;
+        this.maxRetries = maxRetries;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+
+    /**
+     * Whether any jobs are retried at all.
+     */
+    public boolean isEnabled() {
+        return maxRetriesPerJob > 0 && maxRetries > 0;
+    }
+
+
+    /**
+     * How many milliseconds to wait before the given retry of a path.
+     *
+     * @param attempt 1 for the first retry, 2 for the second, and so on
+     */
+    public long backoffMs(int attempt) {
+        long backoffMs = initialBackoffMs;
+        for (int i = 1; i < attempt && backoffMs < maxBackoffMs; i++) {
+            backoffMs *= 2;
+        }
+        return Math.min(backoffMs, maxBackoffMs);
+    }
+}
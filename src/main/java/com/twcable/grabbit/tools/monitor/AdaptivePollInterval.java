@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A {@link PollIntervalStrategy} that polls jobs that look to be wrapping up often, and backs off on jobs that
+ * have a long way to go.
+ * <p>
+ * Grabbit does not say how much work is left in a job, so this works from how the job's write rate is trending:
+ * <ul>
+ * <li>A job seen for the first time is polled again after the minimum delay.</li>
+ * <li>A job that has stopped writing nodes, or whose write rate has dropped to less than half of what it was, is
+ * likely finishing up and is polled again after the minimum delay.</li>
+ * <li>Otherwise the delay grows with how long the job has been running (a job that has been running for an hour
+ * is unlikely to finish in the next few seconds), up to the maximum delay.</li>
+ * </ul>
+ */
+@SuppressWarnings({"WeakerAccess", "PMD.AvoidLiteralsInIfCondition"})
+public final class AdaptivePollInterval implements PollIntervalStrategy {
+    /**
+     * The fraction of a job's running time to wait before polling it again, before clamping.
+     */
+    public static final double DEFAULT_BACKOFF_FRACTION = 0.1;
+
+    private static final double SLOWDOWN_RATIO = 0.5;
+
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final double backoffFraction;
+
+
+    public AdaptivePollInterval(long minDelayMs, long maxDelayMs) {
+        this(minDelayMs, maxDelayMs, DEFAULT_BACKOFF_FRACTION);
+    }
+
+
+    /**
+     * @param minDelayMs      the shortest time to wait before polling a job again
+     * @param maxDelayMs      the longest time to wait before polling a job again
+     * @param backoffFraction the fraction of a job's running time to wait before polling it again
+     */
+    public AdaptivePollInterval(long minDelayMs, long maxDelayMs, double backoffFraction) {
+        if (minDelayMs < 1 || maxDelayMs < minDelayMs) {
+            throw new IllegalArgumentException("Need 0 < minDelayMs <= maxDelayMs: " + minDelayMs + ", " + maxDelayMs);
+        }
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.backoffFraction = backoffFraction;
+    }
+
+
+    @Override
+    public long nextPollDelayMs(@Nullable JobProgress previous, JobProgress current) {
+        if (previous == null || looksToBeFinishing(previous, current)) {
+            return minDelayMs;
+        }
+
+        val runningMs = runningMs(current);
+        val delayMs = (long)(runningMs * backoffFraction);
+        return Math.max(minDelayMs, Math.min(maxDelayMs, delayMs));
+    }
+
+
+    private static boolean looksToBeFinishing(JobProgress previous, JobProgress current) {
+        if (!current.hasRate()) {
+            return false;
+        }
+        if (current.nodesPerMs() <= 0.0) {
+            // had been writing, but nothing since the last poll
+            return previous.jobStatus().jcrNodesWritten() > 0;
+        }
+        return previous.hasRate() && current.nodesPerMs() < previous.nodesPerMs() * SLOWDOWN_RATIO;
+    }
+
+
+    private static long runningMs(JobProgress current) {
+        val jobStatus = current.jobStatus();
+        if (jobStatus.timeTaken() > 0) {
+            return jobStatus.timeTaken();
+        }
+        val observedAt = Instant.ofEpochMilli(current.observedAtMs());
+        return Math.max(0L, Duration.between(jobStatus.startTime().toInstant(), observedAt).toMillis());
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action;
+import lombok.val;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.DECREASE;
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.HOLD;
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.INCREASE;
+
+/**
+ * Works out how many jobs each host should run at once using additive increase, multiplicative decrease (AIMD),
+ * based on what {@link PollingJobMonitor} sees when it polls the host's jobs.
+ * <p>
+ * Every {@link #AIMD_WINDOW window} a decision is made for each host that was polled during it, from the JCR nodes
+ * written per second across the host's jobs and the average time its polls took:
+ * <ul>
+ * <li>If polls took more than twice as long as the best window so far, the host is struggling and its limit is
+ * multiplied by the decrease factor.</li>
+ * <li>After an increase, if the throughput went up by at least 5% the limit goes up by one again; otherwise the
+ * extra job didn't help and the limit is multiplied by the decrease factor.</li>
+ * <li>Otherwise (the first window, or after a decrease or a hold) the limit goes up by one to see if it helps,
+ * unless the host hasn't written anything yet.</li>
+ * </ul>
+ * The limit always stays between the minimum and maximum. Every decision, including holding the limit where it is,
+ * is returned from {@link #decide(long)} as a {@link ConcurrencyMonitoringEvent}, and a changed limit is passed on
+ * to the callback given when this was created.
+ * <p>
+ * Thread-safe.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MagicNumber", "PMD.AvoidLiteralsInIfCondition"})
+public final class AimdConcurrencyController {
+    /**
+     * The default period in milliseconds between decisions. Can change by setting the "aimdWindow" system property,
+     * otherwise defaults to 60,000ms.
+     */
+    public static final long AIMD_WINDOW = Long.parseLong(System.getProperty("aimdWindow", "60000"));
+
+    /**
+     * The default amount to multiply the limit by when cutting it back. Can change by setting the
+     * "aimdDecreaseFactor" system property, otherwise defaults to 0.5.
+     */
+    public static final double AIMD_DECREASE_FACTOR =
+        Double.parseDouble(System.getProperty("aimdDecreaseFactor", "0.5"));
+
+    private static final double MIN_IMPROVEMENT = 1.05;
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    // small latencies swing a lot relative to each other, so a rise has to be at least this much to count
+    private static final long MIN_LATENCY_RISE_MS = 100L;
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final long windowMs;
+    private final double decreaseFactor;
+    private final ObjIntConsumer<URI> limitChanged;
+    private final Map<URI, HostWindow> hosts = new LinkedHashMap<>();
+    private final Map<HostJobKey, Long> lastNodesWritten = new HashMap<>();
+
+
+    /**
+     * Allows from 1 to `maxLimit` jobs per host, using the default window and decrease factor.
+     */
+    public AimdConcurrencyController(int initialLimit, int maxLimit, ObjIntConsumer<URI> limitChanged) {
+        this(initialLimit, 1, maxLimit, AIMD_WINDOW, AIMD_DECREASE_FACTOR, limitChanged);
+    }
+
+
+    /**
+     * @param initialLimit   the number of jobs each host starts out allowed to run
+     * @param minLimit       the fewest jobs a host is allowed to run
+     * @param maxLimit       the most jobs a host is allowed to run
+     * @param windowMs       how long to collect measurements for before each decision
+     * @param decreaseFactor what to multiply the limit by when cutting it back
+     * @param limitChanged   called with the host and its new limit whenever the limit changes
+     */
+    public AimdConcurrencyController(int initialLimit, int minLimit, int maxLimit, long windowMs,
+                                     double decreaseFactor, ObjIntConsumer<URI> limitChanged) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Need 1 <= minLimit <= initialLimit <= maxLimit: " + minLimit +
+                ", " + initialLimit + ", " + maxLimit);
+        }
+        if (windowMs < 1 || !(decreaseFactor > 0.0 && decreaseFactor < 1.0)) {
+            throw new IllegalArgumentException("Need a positive window and 0 < decreaseFactor < 1: " + windowMs +
+                ", " + decreaseFactor);
+        }
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowMs = windowMs;
+        this.decreaseFactor = decreaseFactor;
+        this.limitChanged = limitChanged;
+    }
+
+
+    /**
+     * Records a poll of a job.
+     *
+     * @param jobStatus     what the poll returned
+     * @param pollLatencyMs how long the poll took
+     * @param nowMs         the current time, in epoch milliseconds
+     */
+    public synchronized void observe(JobStatus jobStatus, long pollLatencyMs, long nowMs) {
+        val location = jobStatus.uri();
+        val host = hosts.computeIfAbsent(location, uri -> new HostWindow(initialLimit));
+        if (host.windowStartMs < 0) {
+            host.windowStartMs = nowMs;
+        }
+
+        val key = new HostJobKey(location, jobStatus.jobExecutionId());
+        val previous = lastNodesWritten.getOrDefault(key, 0L);
+        host.nodesWritten += Math.max(0L, jobStatus.jcrNodesWritten() - previous);
+        host.latencyTotalMs += pollLatencyMs;
+        host.polls++;
+
+        if (jobStatus.state() == JobState.RUNNING) {
+            lastNodesWritten.put(key, jobStatus.jcrNodesWritten());
+        }
+        else {
+            lastNodesWritten.remove(key);
+        }
+    }
+
+
+    /**
+     * Makes a decision for every host whose window has ended, passing any new limits to the callback.
+     *
+     * @param nowMs the current time, in epoch milliseconds
+     * @return the decisions that were made; usually empty
+     */
+    public synchronized List<ConcurrencyMonitoringEvent> decide(long nowMs) {
+        val decisions = new ArrayList<ConcurrencyMonitoringEvent>();
+        hosts.forEach((location, host) -> {
+            if (host.polls > 0 && nowMs - host.windowStartMs >= windowMs) {
+                decisions.add(decide(location, host, nowMs));
+            }
+        });
+
+        for (ConcurrencyMonitoringEvent decision : decisions) {
+            if (decision.limit != decision.previousLimit) {
+                limitChanged.accept(decision.location, decision.limit);
+            }
+        }
+        return decisions;
+    }
+
+
+    /**
+     * The number of jobs the host is currently allowed to run.
+     */
+    public synchronized int limit(URI location) {
+        val host = hosts.get(location);
+        return (host == null) ? initialLimit : host.limit;
+    }
+
+
+    private ConcurrencyMonitoringEvent decide(URI location, HostWindow host, long nowMs) {
+        val throughput = host.nodesWritten * 1000.0 / Math.max(1L, nowMs - host.windowStartMs);
+        val latencyMs = host.latencyTotalMs / host.polls;
+        val previousLimit = host.limit;
+
+        final Action action;
+        final String reason;
+        if (host.bestLatencyMs != Long.MAX_VALUE && latencyMs > host.bestLatencyMs * LATENCY_TOLERANCE &&
+            latencyMs - host.bestLatencyMs >= MIN_LATENCY_RISE_MS) {
+            action = DECREASE;
+            reason = "polls slowed from " + host.bestLatencyMs + "ms";
+        }
+        else if (host.lastAction == INCREASE) {
+            if (throughput >= host.lastThroughput * MIN_IMPROVEMENT && throughput > 0.0) {
+                action = INCREASE;
+                reason = String.format(Locale.ROOT, "throughput up from %.1f", host.lastThroughput);
+            }
+            else {
+                action = DECREASE;
+                reason = String.format(Locale.ROOT, "throughput flat compared to %.1f", host.lastThroughput);
+            }
+        }
+        else if (throughput > 0.0) {
+            action = INCREASE;
+            reason = "probing for more throughput";
+        }
+        else {
+            action = HOLD;
+            reason = "nothing written yet";
+        }
+
+        host.limit = (action == INCREASE) ? Math.min(maxLimit, previousLimit + 1) :
+            (action == DECREASE) ? Math.max(minLimit, (int)(previousLimit * decreaseFactor)) : previousLimit;
+
+        val applied = (host.limit == previousLimit) ? HOLD : action;
+        val appliedReason = (applied == action) ? reason : reason + ", but already at the " +
+            (action == INCREASE ? "maximum" : "minimum");
+
+        host.lastAction = applied;
+        host.lastThroughput = throughput;
+        host.bestLatencyMs = Math.min(host.bestLatencyMs, latencyMs);
+        host.windowStartMs = nowMs;
+        host.nodesWritten = 0L;
+        host.latencyTotalMs = 0L;
+        host.polls = 0;
+
+        return new ConcurrencyMonitoringEvent(location, applied, previousLimit, host.limit, throughput, latencyMs,
+            appliedReason);
+    }
+
+
+    /**
+     * A host's limit, what happened in the last window, and the measurements for the current one.
+     */
+    private static final class HostWindow {
+        int limit;
+        Action lastAction = HOLD;
+        double lastThroughput;
+        long bestLatencyMs = Long.MAX_VALUE;
+        long windowStartMs = -1L;
+        long nodesWritten;
+        long latencyTotalMs;
+        int polls;
+
+
+        HostWindow(int limit) {
+            this.limit = limit;
+        }
+    }
+
+}
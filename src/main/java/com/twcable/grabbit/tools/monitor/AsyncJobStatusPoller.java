@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Polls the Grabbit instance for the current status of a job without blocking the calling thread.
+ *
+ * @see JobStatusPoller
+ * @see NioJobStatusPoller
+ */
+@SuppressWarnings("WeakerAccess")
+public interface AsyncJobStatusPoller {
+
+    /**
+     * Request the current status of a job on the given host.
+     *
+     * @param location the base URI for the host to poll
+     * @param jobId    the job ID to get the status of
+     * @return completes with the status, or exceptionally if the status could not be retrieved
+     */
+    CompletableFuture<JobStatus> pollJobStatusAsync(URI location, long jobId);
+
+
+    /**
+     * Adapts a blocking {@link JobStatusPoller}, running each poll on the given {@link Executor}.
+     */
+    static AsyncJobStatusPoller fromBlocking(JobStatusPoller jobStatusPoller, Executor executor) {
+        return (location, jobId) ->
+            CompletableFuture.supplyAsync(() -> jobStatusPoller.pollJobStatus(location, jobId), executor);
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import java.net.URI;
+import java.util.Collection;
+
+/**
+ * A {@link JobStatusPoller} that can also retrieve the status of every job on a host in a single request.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface BatchJobStatusPoller extends JobStatusPoller {
+
+    /**
+     * Retrieve the current status of every job the Grabbit instance on the given host knows about.
+     *
+     * @param location the base URI for the host to poll
+     * @throws UnsupportedOperationException if the host can not report on all of its jobs at once; the caller
+     *                                       should fall back to {@link #pollJobStatus(URI, long)}
+     */
+    Collection<JobStatus> pollAllJobStatuses(URI location);
+
+}
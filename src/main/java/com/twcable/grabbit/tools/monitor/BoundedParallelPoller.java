@@ -0,0 +1,276 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import static com.twcable.grabbit.tools.util.Utils.softened;
+
+/**
+ * Fans {@link AsyncJobStatusPoller#pollJobStatusAsync(URI, long)} calls out, bounding both the total number of
+ * polls in flight and the number of polls in flight against any single host.
+ * <p>
+ * Hosts are served round-robin, so a host with many jobs can not starve the others of the global limit.
+ *
+ * @see #pollAll(Collection, Consumer)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class BoundedParallelPoller {
+    private final AsyncJobStatusPoller jobStatusPoller;
+    private final int maxInFlight;
+    private final int maxInFlightPerHost;
+
+
+    /**
+     * @param jobStatusPoller    the poller to fan calls out to; must be safe to call from multiple threads
+     * @param executor           the worker pool to run the polls on
+     * @param maxInFlight        the maximum number of polls running at once across all hosts
+     * @param maxInFlightPerHost the maximum number of polls running at once against a single host
+     */
+    public BoundedParallelPoller(JobStatusPoller jobStatusPoller, Executor executor,
+                                 int maxInFlight, int maxInFlightPerHost) {
+        this(AsyncJobStatusPoller.fromBlocking(jobStatusPoller, executor), maxInFlight, maxInFlightPerHost);
+    }
+
+
+    /**
+     * @param jobStatusPoller    the non-blocking poller to fan calls out to
+     * @param maxInFlight        the maximum number of polls outstanding at once across all hosts
+     * @param maxInFlightPerHost the maximum number of polls outstanding at once against a single host
+     */
+    public BoundedParallelPoller(AsyncJobStatusPoller jobStatusPoller, int maxInFlight, int maxInFlightPerHost) {
+        if (maxInFlight < 1 || maxInFlightPerHost < 1) {
+            throw new IllegalArgumentException("The in-flight limits must be positive: " +
+                maxInFlight + ", " + maxInFlightPerHost);
+        }
+        this.jobStatusPoller = jobStatusPoller;
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerHost = maxInFlightPerHost;
+    }
+
+
+    /**
+     * Poll every entry, blocking until all of the polls have finished.
+     *
+     * @param entries    the jobs to poll
+     * @param onDispatch called on the calling thread just before an entry's poll is handed to a worker
+     * @return the statuses, in the same order as the entries
+     * @throws RuntimeException the first failure from any of the polls, once all of the polls have finished
+     */
+    public List<JobStatus> pollAll(Collection<HostJobState> entries, Consumer<HostJobState> onDispatch) {
+        return pollAll(entries, onDispatch, (entry, jobStatus) -> { });
+    }
+
+
+    /**
+     * Poll every entry, blocking until all of the polls have finished, and handing each status on as soon as its
+     * poll returns.
+     *
+     * @param entries    the jobs to poll
+     * @param onDispatch called on the calling thread just before an entry's poll is handed to a worker
+     * @param onPolled   called with an entry and its status on whatever thread its poll returned on, so it must be
+     *                   safe to call from multiple threads at once
+     * @return the statuses, in the same order as the entries
+     * @throws RuntimeException the first failure from any of the polls or `onPolled`, once all of the polls have
+     *                          finished
+     */
+    public List<JobStatus> pollAll(Collection<HostJobState> entries, Consumer<HostJobState> onDispatch,
+                                   BiConsumer<HostJobState, JobStatus> onPolled) {
+        val cycle = new Cycle(entries, onPolled);
+        cycle.dispatchAll(onDispatch);
+        return cycle.results();
+    }
+
+
+    // **********************************************************************
+    //
+    // HELPER CLASSES
+    //
+    // **********************************************************************
+
+    /**
+     * The bookkeeping for a single call to {@link #pollAll(Collection, Consumer)}.
+     */
+    private final class Cycle {
+        private final Map<URI, Deque<Indexed>> pending = new LinkedHashMap<>();
+        private final Map<URI, Integer> inFlightPerHost = new HashMap<>();
+        private final JobStatus[] results;
+        private final BiConsumer<HostJobState, JobStatus> onPolled;
+        private int inFlight;
+        private @Nullable Throwable failure;
+
+
+        Cycle(Collection<HostJobState> entries, BiConsumer<HostJobState, JobStatus> onPolled) {
+            this.results = new JobStatus[entries.size()];
+            this.onPolled = onPolled;
+            int index = 0;
+            for (HostJobState entry : entries) {
+                pending.computeIfAbsent(entry.location(), l -> new ArrayDeque<>()).add(new Indexed(index++, entry));
+            }
+        }
+
+
+        void dispatchAll(Consumer<HostJobState> onDispatch) {
+            while (true) {
+                val ready = nextReady();
+                if (ready.isEmpty()) {
+                    break;
+                }
+                for (Indexed indexed : ready) {
+                    onDispatch.accept(indexed.entry);
+                    poll(indexed);
+                }
+            }
+            awaitInFlight();
+        }
+
+
+        /**
+         * Blocks until at least one entry can be dispatched within the limits, returning those that can be.
+         *
+         * @return an empty list only when nothing is left to dispatch
+         */
+        private synchronized List<Indexed> nextReady() {
+            try {
+                while (!pending.isEmpty()) {
+                    val ready = new ArrayList<Indexed>();
+                    for (Iterator<Map.Entry<URI, Deque<Indexed>>> it = pending.entrySet().iterator();
+                         it.hasNext() && inFlight < maxInFlight; ) {
+                        val hostQueue = it.next();
+                        val host = hostQueue.getKey();
+                        val hostInFlight = inFlightPerHost.getOrDefault(host, 0);
+                        if (hostInFlight < maxInFlightPerHost) {
+                            ready.add(hostQueue.getValue().remove());
+                            inFlightPerHost.put(host, hostInFlight + 1);
+                            inFlight++;
+                            if (hostQueue.getValue().isEmpty()) {
+                                it.remove();
+                            }
+                        }
+                    }
+                    if (!ready.isEmpty()) {
+                        return ready;
+                    }
+                    wait();
+                }
+                return new ArrayList<>();
+            }
+            catch (InterruptedException e) {
+                throw softened(e);
+            }
+        }
+
+
+        private void poll(Indexed indexed) {
+            val entry = indexed.entry;
+            try {
+                jobStatusPoller.pollJobStatusAsync(entry.location(), entry.jobId()).
+                    whenComplete((jobStatus, exp) -> polled(indexed, jobStatus, unwrap(exp)));
+            }
+            catch (RuntimeException e) {
+                // e.g., the executor rejected it; reported along with any other failures at the end of the cycle
+                finished(indexed, null, e);
+            }
+        }
+
+
+        private void polled(Indexed indexed, @Nullable JobStatus jobStatus, @Nullable Throwable exp) {
+            if (jobStatus != null) {
+                try {
+                    onPolled.accept(indexed.entry, jobStatus);
+                }
+                catch (RuntimeException e) {
+                    finished(indexed, null, e);
+                    return;
+                }
+            }
+            finished(indexed, jobStatus, exp);
+        }
+
+
+        private @Nullable Throwable unwrap(@Nullable Throwable exp) {
+            return (exp instanceof CompletionException && exp.getCause() != null) ? exp.getCause() : exp;
+        }
+
+
+        private synchronized void finished(Indexed indexed, @Nullable JobStatus jobStatus,
+                                           @Nullable Throwable exp) {
+            if (jobStatus != null) {
+                results[indexed.index] = jobStatus;
+            }
+            if (exp != null && failure == null) {
+                failure = exp;
+            }
+            inFlight--;
+            inFlightPerHost.merge(indexed.entry.location(), -1, Integer::sum);
+            notifyAll();
+        }
+
+
+        private synchronized void awaitInFlight() {
+            try {
+                while (inFlight > 0) {
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                throw softened(e);
+            }
+        }
+
+
+        synchronized List<JobStatus> results() {
+            if (failure != null) {
+                throw softened(failure);
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+
+    /**
+     * An entry along with its position in the collection passed to {@link #pollAll(Collection, Consumer)}.
+     */
+    @SuppressWarnings("checkstyle:VisibilityModifier")
+    private static final class Indexed {
+        final int index;
+        final HostJobState entry;
+
+
+        Indexed(int index, HostJobState entry) {
+            this.index = index;
+            this.entry = entry;
+        }
+    }
+
+}
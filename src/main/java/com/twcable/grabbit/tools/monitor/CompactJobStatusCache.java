@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link JobStatusCache} that keeps its entries in primitive arrays, for tracking millions of jobs in a small
+ * amount of memory.
+ * <p>
+ * Each distinct host URI is stored once, in a table of hosts. An entry is then a job id in a {@code long[]}, the
+ * index of its host in an {@code int[]}, and its state in a {@code byte[]}, with an open-addressed hash table of
+ * {@code int}s to find an entry by location and job id. That comes to around 25 bytes per job, where a
+ * {@link HostJobState} in a map takes several times that. {@link HostJobState} instances are only created when the
+ * entries are read.
+ * <p>
+ * {@link #entries()} is in the order the jobs were first added, and the entries in each state are tracked so
+ * {@link #withState(JobState)} and {@link #running()} don't have to look at every job.
+ * <p>
+ * It only lives in memory, so the command line, which keeps its job ids in a file that can be monitored later,
+ * does not use it. It's for programs that give a {@link PollingJobMonitor} their own cache.
+ * <p>
+ * It explicitly is NOT designed for thread-safety.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MagicNumber"})
+public class CompactJobStatusCache implements JobStatusCache {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final JobState[] STATES = JobState.values();
+
+    private final List<URI> hosts = new ArrayList<>();
+    private final Map<URI, Integer> hostIndexes = new HashMap<>();
+
+    private long[] jobIds = new long[INITIAL_CAPACITY];
+    private int[] jobHosts = new int[INITIAL_CAPACITY];
+    private byte[] states = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Open-addressed with linear probing. Each slot is an entry's index plus one, or zero if the slot is empty.
+     * Kept at most half full.
+     */
+    private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+    private final IndexedEntries entries = new IndexedEntries(() -> size, this::entryAt);
+
+
+    public CompactJobStatusCache() {
+    }
+
+
+    /**
+     * @param initialEntries {@link #put(HostJobState) put} into the cache in order
+     */
+    public CompactJobStatusCache(Iterable<HostJobState> initialEntries) {
+        this();
+        initialEntries.forEach(this::put);
+    }
+
+
+    /**
+     * A read-only, live view of the entries, in the order they were first added. Each entry is created when it's
+     * asked for.
+     */
+    @Override
+    public Collection<HostJobState> entries() {
+        return entries.all();
+    }
+
+
+    /**
+     * A read-only, live view of the entries in the given state, in the order they were first added.
+     */
+    @Override
+    public Collection<HostJobState> withState(JobState state) {
+        return entries.withState(state);
+    }
+
+
+    /**
+     * Puts the given entry in the cache, returning the value it's replacing.
+     *
+     * @return null if it's a new location/jobId combination
+     */
+    @Override
+    public @Nullable HostJobState put(HostJobState entry) {
+        val hostIndex = hostIndex(entry.location());
+        val state = (byte)entry.state().ordinal();
+
+        val slot = slotFor(hostIndex, entry.jobId());
+        if (slots[slot] != 0) {
+            val index = slots[slot] - 1;
+            val oldState = STATES[states[index]];
+            if (states[index] != state) {
+                entries.changed(index, oldState, entry.state());
+                states[index] = state;
+            }
+            return new HostJobState(entry.location(), entry.jobId(), oldState);
+        }
+
+        if (size == jobIds.length) {
+            grow();
+        }
+        val index = size++;
+        jobIds[index] = entry.jobId();
+        jobHosts[index] = hostIndex;
+        states[index] = state;
+        entries.added(index, entry.state());
+
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        else {
+            slots[slot] = index + 1;
+        }
+        return null;
+    }
+
+
+    /**
+     * The entry for the job, if it's in the cache.
+     */
+    public @Nullable HostJobState get(HostJobKey key) {
+        val hostIndex = hostIndexes.get(key.location());
+        if (hostIndex == null) {
+            return null;
+        }
+        val slot = slots[slotFor(hostIndex, key.jobId())];
+        return slot == 0 ? null : entryAt(slot - 1);
+    }
+
+
+    @Override
+    public String toString() {
+        return "CompactJobStatusCache(" + size + " jobs on " + hosts.size() + " hosts)";
+    }
+
+
+    private int hostIndex(URI location) {
+        val existing = hostIndexes.get(location);
+        if (existing != null) {
+            return existing;
+        }
+        val index = hosts.size();
+        hosts.add(location);
+        hostIndexes.put(location, index);
+        return index;
+    }
+
+
+    /**
+     * The slot that holds the entry for the job, or the empty slot it would go in.
+     */
+    private int slotFor(int hostIndex, long jobId) {
+        val mask = slots.length - 1;
+        int slot = hash(hostIndex, jobId) & mask;
+        while (slots[slot] != 0) {
+            val index = slots[slot] - 1;
+            if (jobIds[index] == jobId && jobHosts[index] == hostIndex) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+
+    private static int hash(int hostIndex, long jobId) {
+        // spread the bits so sequential job ids don't cluster (the finalizer of MurmurHash3)
+        long h = jobId * 31 + hostIndex;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+
+
+    private void grow() {
+        val capacity = jobIds.length * 2;
+        jobIds = Arrays.copyOf(jobIds, capacity);
+        jobHosts = Arrays.copyOf(jobHosts, capacity);
+        states = Arrays.copyOf(states, capacity);
+    }
+
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        val mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hash(jobHosts[index], jobIds[index]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = index + 1;
+        }
+    }
+
+
+    private HostJobState entryAt(int index) {
+        return new HostJobState(hosts.get(jobHosts[index]), jobIds[index], STATES[states[index]]);
+    }
+
+}
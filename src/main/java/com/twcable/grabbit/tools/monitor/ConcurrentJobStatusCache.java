@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.net.URI;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A thread-safe {@link JobStatusCache}, so any number of pollers can update it at once without locking.
+ * <p>
+ * {@link #compareAndSet(HostJobKey, JobState, JobState)} changes a job's state only if it's still in the expected
+ * state, which lets a poller move a job from RUNNING to COMPLETED without overwriting an update made by another
+ * poller in the meantime.
+ * <p>
+ * {@link #entries()} is in the order the jobs were first added. Iterating it is weakly consistent, like the
+ * iterators of {@link ConcurrentHashMap}: it never throws {@link java.util.ConcurrentModificationException}, and
+ * reflects each job's state as of when the iterator reaches it, but may or may not include jobs added after
+ * iteration started.
+ * <p>
+ * The entries are also indexed by state, so {@link #withState(JobState)} and {@link #running()} only cost as much
+ * as the number of entries in that state. Those views are weakly consistent in the same way, and in no particular
+ * order.
+ * <p>
+ * When {@link PollingJobMonitor} polls in parallel, each poll writes its job's status straight into one of these
+ * as it returns, rather than waiting for every poll in the cycle to return.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ConcurrentJobStatusCache implements JobStatusCache {
+    private final ConcurrentMap<HostJobKey, HostJobState> hostJobStates = new ConcurrentHashMap<>();
+
+    /**
+     * Each job's key, in the order they were first added. Jobs are never removed, so every key here has an entry.
+     */
+    private final Queue<HostJobKey> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final Collection<HostJobState> entries = new EntriesView();
+
+    /**
+     * Updated while holding the lock {@link #hostJobStates} has on the job's key, so a job is only ever in the map
+     * for its current state.
+     */
+    private final Map<JobState, ConcurrentMap<HostJobKey, HostJobState>> hostJobStatesByState =
+        new EnumMap<>(JobState.class);
+
+
+    public ConcurrentJobStatusCache() {
+        for (JobState state : JobState.values()) {
+            hostJobStatesByState.put(state, new ConcurrentHashMap<>());
+        }
+    }
+
+
+    /**
+     * Creates a cache and {@link #put(HostJobState) puts} each of the given entries in it.
+     */
+    public ConcurrentJobStatusCache(Iterable<HostJobState> initialEntries) {
+        this();
+        initialEntries.forEach(this::put);
+    }
+
+
+    /**
+     * A read-only, live view of the entries, in the order they were first added.
+     */
+    @Override
+    public Collection<HostJobState> entries() {
+        return entries;
+    }
+
+
+    /**
+     * Puts the given entry in the cache, returning the value it's replacing.
+     *
+     * @return null if it's a new location/jobId combination
+     */
+    @Override
+    public @Nullable HostJobState put(HostJobState entry) {
+        val key = HostJobKey.of(entry);
+        final @Nullable HostJobState[] existing = new HostJobState[1];
+        hostJobStates.compute(key, (k, oldEntry) -> {
+            existing[0] = oldEntry;
+            reindex(k, oldEntry, entry);
+            return entry;
+        });
+        if (existing[0] == null) {
+            insertionOrder.add(key);
+        }
+        return existing[0];
+    }
+
+
+    /**
+     * A read-only, live view of the entries in the given state.
+     */
+    @Override
+    public Collection<HostJobState> withState(JobState state) {
+        return Collections.unmodifiableCollection(byState(state).values());
+    }
+
+
+    /**
+     * Atomically changes the job's state to the update, but only if it's currently in the expected state.
+     *
+     * @return false if the job isn't in the cache, or is in some other state
+     */
+    public boolean compareAndSet(HostJobKey key, JobState expected, JobState update) {
+        val updated = new boolean[1];
+        hostJobStates.computeIfPresent(key, (k, oldEntry) -> {
+            if (oldEntry.state() != expected) {
+                return oldEntry;
+            }
+            val newEntry = new HostJobState(k.location(), k.jobId(), update);
+            reindex(k, oldEntry, newEntry);
+            updated[0] = true;
+            return newEntry;
+        });
+        return updated[0];
+    }
+
+
+    /**
+     * Atomically changes the job's state to the update, but only if it's currently in the expected state.
+     *
+     * @return false if the job isn't in the cache, or is in some other state
+     */
+    public boolean compareAndSet(URI location, long jobId, JobState expected, JobState update) {
+        return compareAndSet(new HostJobKey(location, jobId), expected, update);
+    }
+
+
+    /**
+     * The entry for the job, if it's in the cache.
+     */
+    public @Nullable HostJobState get(HostJobKey key) {
+        return hostJobStates.get(key);
+    }
+
+
+    private void reindex(HostJobKey key, @Nullable HostJobState oldEntry, HostJobState newEntry) {
+        if (oldEntry != null && oldEntry.state() != newEntry.state()) {
+            byState(oldEntry.state()).remove(key);
+        }
+        byState(newEntry.state()).put(key, newEntry);
+    }
+
+
+    @SuppressWarnings("nullness") // there's a map for every state
+    private ConcurrentMap<HostJobKey, HostJobState> byState(JobState state) {
+        return hostJobStatesByState.get(state);
+    }
+
+
+    private final class EntriesView extends AbstractCollection<HostJobState> {
+        @Override
+        public Iterator<HostJobState> iterator() {
+            val keys = insertionOrder.iterator();
+            return new Iterator<HostJobState>() {
+                private @Nullable HostJobState next;
+
+
+                @Override
+                public boolean hasNext() {
+                    // a key is queued just after its entry is put, so there's always an entry for it
+                    while (next == null && keys.hasNext()) {
+                        next = hostJobStates.get(keys.next());
+                    }
+                    return next != null;
+                }
+
+
+                @Override
+                public HostJobState next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    val result = next;
+                    next = null;
+                    return result;
+                }
+            };
+        }
+
+
+        @Override
+        public int size() {
+            return hostJobStates.size();
+        }
+    }
+
+}
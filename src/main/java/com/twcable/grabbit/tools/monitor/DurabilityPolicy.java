@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+/**
+ * How hard a file-based {@link JobStatusCache} works to make changes survive a crash when it's
+ * {@link JobStatusCache#flush() flushed}.
+ *
+ * @see GroupCommitPolicy
+ */
+@SuppressWarnings("WeakerAccess")
+public enum DurabilityPolicy {
+    /**
+     * Flushing does nothing; changes are only written once the {@link GroupCommitPolicy#maxLatencyMs() maximum
+     * latency} has passed, or when the cache is closed. The fastest, but a crash of the process can lose recent
+     * changes.
+     */
+    NONE,
+
+    /**
+     * Flushing writes the changes to the file, so they survive the process crashing, but not necessarily the
+     * machine crashing.
+     */
+    FLUSH,
+
+    /**
+     * Flushing writes the changes to the file and waits for them to reach the disk, so they survive the machine
+     * crashing as well.
+     */
+    FSYNC
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.Value;
+
+import java.util.Locale;
+
+/**
+ * Settings for a file-based {@link JobStatusCache} that buffers its changes and writes them together when it's
+ * {@link JobStatusCache#flush() flushed}, which {@link PollingJobMonitor} does at the end of every poll cycle.
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class GroupCommitPolicy {
+    /**
+     * Uses the "jobCacheDurability" system property for the {@link DurabilityPolicy} (defaults to FLUSH), and
+     * "jobCacheMaxLatency" for the maximum latency (defaults to 5 seconds).
+     */
+    public static final GroupCommitPolicy DEFAULT = new GroupCommitPolicy(
+        DurabilityPolicy.valueOf(System.getProperty("jobCacheDurability", "FLUSH").toUpperCase(Locale.ROOT)),
+        Long.parseLong(System.getProperty("jobCacheMaxLatency", "5000")));
+
+    DurabilityPolicy durability;
+
+    /**
+     * The longest a change is held in memory before it's written, even if the cache hasn't been flushed.
+     */
+    long maxLatencyMs;
+
+
+    /**
+     * Whether changes that have been pending since the given time have to be written now.
+     *
+     * @param pendingSinceMs when the oldest unwritten change was made, or a negative number if there isn't one
+     */
+    boolean isOverdue(long pendingSinceMs, long nowMs) {
+        return pendingSinceMs >= 0 && (nowMs - pendingSinceMs) >= maxLatencyMs;
+    }
+}
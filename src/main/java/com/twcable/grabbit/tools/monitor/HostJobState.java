@@ -15,8 +15,10 @@
  */
 package com.twcable.grabbit.tools.monitor;
 
+import com.twcable.grabbit.tools.util.JsonWriter;
 import lombok.Value;
 
+import java.io.IOException;
 import java.net.URI;
 
 /**
@@ -28,4 +30,30 @@ public class HostJobState {
     URI location;
     long jobId;
     JobState state;
+
+
+    /**
+     * Writes the state as a JSON object, such as {"location":"http://host:4503","jobId":123,"state":"RUNNING"}.
+     */
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject().
+            name("location").value(location.toString()).
+            name("jobId").value(jobId).
+            name("state").value(state.name()).
+            endObject();
+    }
+
+
+    /**
+     * Writes the states as a JSON array of objects.
+     *
+     * @see #writeJson(JsonWriter)
+     */
+    public static void writeJsonArray(Iterable<HostJobState> hostJobStates, JsonWriter json) throws IOException {
+        json.beginArray();
+        for (HostJobState hostJobState : hostJobStates) {
+            hostJobState.writeJson(json);
+        }
+        json.endArray();
+    }
 }
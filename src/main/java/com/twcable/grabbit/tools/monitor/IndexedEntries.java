@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+/**
+ * Read-only, live views of the entries of a cache that keeps them by index, in the order they were first added,
+ * such as {@link CompactJobStatusCache} and {@link MappedJobStatusCache}. Each entry is created when it's asked for.
+ * <p>
+ * The indexes in each state are tracked in a {@link BitSet}, so {@link #withState(JobState)} doesn't have to look
+ * at every entry. The cache tells it about each entry with {@link #added(int, JobState)} and
+ * {@link #changed(int, JobState, JobState)}.
+ * <p>
+ * It explicitly is NOT designed for thread-safety.
+ */
+final class IndexedEntries {
+    private final IntSupplier size;
+    private final IntFunction<HostJobState> entryAt;
+    private final BitSet[] indexesByState = new BitSet[JobState.values().length];
+    private final Collection<HostJobState> all = new EntryList();
+
+
+    /**
+     * @param size    how many entries the cache has
+     * @param entryAt creates the entry at an index
+     */
+    IndexedEntries(IntSupplier size, IntFunction<HostJobState> entryAt) {
+        this.size = size;
+        this.entryAt = entryAt;
+        for (int i = 0; i < indexesByState.length; i++) {
+            indexesByState[i] = new BitSet();
+        }
+    }
+
+
+    Collection<HostJobState> all() {
+        return all;
+    }
+
+
+    Collection<HostJobState> withState(JobState state) {
+        return new StateEntries(indexesByState[state.ordinal()]);
+    }
+
+
+    void added(int index, JobState state) {
+        indexesByState[state.ordinal()].set(index);
+    }
+
+
+    void changed(int index, JobState oldState, JobState newState) {
+        indexesByState[oldState.ordinal()].clear(index);
+        indexesByState[newState.ordinal()].set(index);
+    }
+
+
+    private final class EntryList extends AbstractList<HostJobState> {
+        @Override
+        public HostJobState get(int index) {
+            val count = size();
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return entryAt.apply(index);
+        }
+
+
+        @Override
+        public int size() {
+            return size.getAsInt();
+        }
+    }
+
+
+    private final class StateEntries extends AbstractCollection<HostJobState> {
+        private final BitSet indexes;
+
+
+        StateEntries(BitSet indexes) {
+            this.indexes = indexes;
+        }
+
+
+        @Override
+        public Iterator<HostJobState> iterator() {
+            return new Iterator<HostJobState>() {
+                private int next = indexes.nextSetBit(0);
+
+
+                @Override
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+
+                @Override
+                public HostJobState next() {
+                    if (next < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    val entry = entryAt.apply(next);
+                    next = indexes.nextSetBit(next + 1);
+                    return entry;
+                }
+            };
+        }
+
+
+        @Override
+        public int size() {
+            return indexes.cardinality();
+        }
+    }
+
+}
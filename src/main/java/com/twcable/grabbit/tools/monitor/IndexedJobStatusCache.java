@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link JobStatusCache} indexed by location and job id, so {@link #put(HostJobState)} is a single hash lookup
+ * no matter how many jobs are tracked.
+ * <p>
+ * Changing the state of a job that's already in the cache replaces it in place, so {@link #entries()} stays in
+ * the order the jobs were first added.
+ * <p>
+ * It also keeps the entries indexed by state, so {@link #withState(JobState)} and {@link #running()} only cost as
+ * much as the number of entries in that state.
+ * <p>
+ * It explicitly is NOT designed for thread-safety.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IndexedJobStatusCache implements JobStatusCache {
+    private final Map<HostJobKey, HostJobState> hostJobStates = new LinkedHashMap<>();
+    private final Collection<HostJobState> entries = Collections.unmodifiableCollection(hostJobStates.values());
+    private final Map<JobState, Map<HostJobKey, HostJobState>> hostJobStatesByState = new EnumMap<>(JobState.class);
+
+
+    public IndexedJobStatusCache() {
+        for (JobState state : JobState.values()) {
+            hostJobStatesByState.put(state, new LinkedHashMap<>());
+        }
+    }
+
+
+    /**
+     * Creates a cache holding the given entries, {@link #put(HostJobState) put} in order.
+     */
+    public IndexedJobStatusCache(Iterable<HostJobState> initialEntries) {
+        this();
+        initialEntries.forEach(this::put);
+    }
+
+
+    /**
+     * A read-only, live view of the entries, in the order they were first added.
+     */
+    @Override
+    public Collection<HostJobState> entries() {
+        return entries;
+    }
+
+
+    /**
+     * A read-only, live view of the entries in the given state, in the order they entered it.
+     */
+    @Override
+    public Collection<HostJobState> withState(JobState state) {
+        return Collections.unmodifiableCollection(byState(state).values());
+    }
+
+
+    /**
+     * Puts the given entry in the cache, returning the value it's replacing.
+     *
+     * @return null if it's a new location/jobId combination
+     */
+    @Override
+    public @Nullable HostJobState put(HostJobState entry) {
+        val key = HostJobKey.of(entry);
+        val oldEntry = hostJobStates.put(key, entry);
+        if (oldEntry != null && oldEntry.state() != entry.state()) {
+            byState(oldEntry.state()).remove(key);
+        }
+        byState(entry.state()).put(key, entry);
+        return oldEntry;
+    }
+
+
+    /**
+     * The entry for the job, if it's in the cache.
+     */
+    public @Nullable HostJobState get(HostJobKey key) {
+        return hostJobStates.get(key);
+    }
+
+
+    @SuppressWarnings("nullness") // there's a map for every state
+    private Map<HostJobKey, HostJobState> byState(JobState state) {
+        return hostJobStatesByState.get(state);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.Value;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A {@link JobStatus} along with when the monitor saw it and how quickly the job was writing nodes since the
+ * previous time it was seen.
+ */
+@Value
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
+public class JobProgress {
+    JobStatus jobStatus;
+    /**
+     * When the status was retrieved, in epoch milliseconds.
+     */
+    long observedAtMs;
+    /**
+     * The number of JCR nodes written per millisecond since the previous observation, or {@link Double#NaN} if
+     * it is not known.
+     */
+    double nodesPerMs;
+
+
+    /**
+     * Creates the progress for a newly retrieved status, working out the write rate from the previous progress.
+     *
+     * @param previous     the last progress seen for the same job, or null if this is the first
+     * @param jobStatus    the newly retrieved status
+     * @param observedAtMs when the status was retrieved, in epoch milliseconds
+     */
+    public static JobProgress next(@Nullable JobProgress previous, JobStatus jobStatus, long observedAtMs) {
+        if (previous == null) {
+            return new JobProgress(jobStatus, observedAtMs, Double.NaN);
+        }
+
+        val elapsedMs = elapsedMs(previous, jobStatus, observedAtMs);
+        val previousNodes = previous.jobStatus.jcrNodesWritten();
+        val nodes = jobStatus.jcrNodesWritten();
+        val rate = (elapsedMs > 0 && previousNodes >= 0 && nodes >= 0) ?
+            (double)(nodes - previousNodes) / elapsedMs : Double.NaN;
+        return new JobProgress(jobStatus, observedAtMs, rate);
+    }
+
+
+    /**
+     * Prefers Grabbit's own account of the time between the two statuses, falling back to when the monitor saw
+     * them since Grabbit does not report the time taken until a job is done.
+     */
+    private static long elapsedMs(JobProgress previous, JobStatus jobStatus, long observedAtMs) {
+        val previousTimeTaken = previous.jobStatus.timeTaken();
+        val timeTaken = jobStatus.timeTaken();
+        return (previousTimeTaken > 0 && timeTaken > previousTimeTaken) ?
+            timeTaken - previousTimeTaken : observedAtMs - previous.observedAtMs;
+    }
+
+
+    /**
+     * Has the write rate been worked out?
+     */
+    public boolean hasRate() {
+        return !Double.isNaN(nodesPerMs);
+    }
+}
@@ -15,14 +15,21 @@
  */
 package com.twcable.grabbit.tools.monitor;
 
+import com.twcable.grabbit.tools.util.JsonWriter;
+import com.twcable.grabbit.tools.util.Utils;
 import lombok.Value;
 import lombok.val;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED;
@@ -42,6 +49,13 @@ public class JobStatus {
 
     public static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssxx");
 
+    /**
+     * The most bytes of a response that are kept so it can be parsed again by the YAML parser. Can change by
+     * setting the "jobStatusFallbackBytes" system property, otherwise defaults to 4MB.
+     */
+    public static final int FALLBACK_BYTES =
+        Integer.parseInt(System.getProperty("jobStatusFallbackBytes", String.valueOf(4 * 1024 * 1024)));
+
     URI uri;
     long transactionID;
     long jobExecutionId;
@@ -55,13 +69,112 @@ public class JobStatus {
     boolean running;
 
 
+    /**
+     * Reads the job status straight from the stream, which is closed when done.
+     * <p>
+     * The stream is decoded by {@link JobStatusReader}. If it's not the JSON that Grabbit normally returns, it's
+     * parsed again by {@link #fromJson(URI, String)}, as long as it's no longer than {@link #FALLBACK_BYTES}.
+     */
+    public static JobStatus fromJsonStream(URI uri, InputStream inputStream) throws IOException {
+        try (InputStream in = markable(inputStream)) {
+            try {
+                return JobStatusReader.read(uri, in);
+            }
+            catch (JobStatusReader.UnexpectedJsonException e) {
+                return fromJson(uri, reread(in, e));
+            }
+        }
+    }
+
+
+    /**
+     * Parses the job status with a general-purpose YAML parser, which is more forgiving but much slower than
+     * {@link #fromJsonStream(URI, InputStream)}.
+     */
     @SuppressWarnings("unchecked")
     public static JobStatus fromJson(URI uri, @Nullable String jsonStr) {
         val json = (jsonStr == null || jsonStr.trim().isEmpty()) ? "{}" : jsonStr;
 
-        val map = (Map<String, Object>)new Yaml().loadAs(json, Map.class);
-        val transactionId = (Long)map.getOrDefault("transactionID", -1L);
-        val jobExecutionId = (Long)map.getOrDefault("jobExecutionId", -1L);
+        return fromMap(uri, (Map<String, Object>)new Yaml().loadAs(json, Map.class));
+    }
+
+
+    /**
+     * Reads a JSON array of job statuses straight from the stream, which is closed when done.
+     *
+     * @throws IllegalArgumentException if the JSON is not an array of objects
+     * @see #fromJsonStream(URI, InputStream)
+     */
+    public static List<JobStatus> fromJsonArrayStream(URI uri, InputStream inputStream) throws IOException {
+        try (InputStream in = markable(inputStream)) {
+            try {
+                return JobStatusReader.readArray(uri, in);
+            }
+            catch (JobStatusReader.UnexpectedJsonException e) {
+                return fromJsonArray(uri, reread(in, e));
+            }
+        }
+    }
+
+
+    /**
+     * Marks the start of the stream so it can be re-read by the YAML parser.
+     */
+    private static InputStream markable(InputStream inputStream) {
+        val in = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream);
+        in.mark(FALLBACK_BYTES);
+        return in;
+    }
+
+
+    /**
+     * Goes back to the start of the stream and reads all of it.
+     *
+     * @param readerError why {@link JobStatusReader} couldn't read it, which is thrown if the stream was longer
+     *                    than {@link #FALLBACK_BYTES}
+     */
+    private static String reread(InputStream in, JobStatusReader.UnexpectedJsonException readerError)
+        throws IOException {
+        try {
+            in.reset();
+        }
+        catch (IOException e) {
+            readerError.addSuppressed(e);
+            throw readerError;
+        }
+        return Utils.toString(in);
+    }
+
+
+    /**
+     * Parses a JSON array of job statuses, such as Grabbit returns for the "all" pseudo-job id.
+     *
+     * @throws IllegalArgumentException if the JSON is not an array of objects
+     */
+    @SuppressWarnings("unchecked")
+    public static List<JobStatus> fromJsonArray(URI uri, @Nullable String jsonStr) {
+        val json = (jsonStr == null || jsonStr.trim().isEmpty()) ? "[]" : jsonStr;
+
+        val parsed = new Yaml().load(json);
+        if (!(parsed instanceof List)) {
+            throw new IllegalArgumentException("Expected a JSON array of job statuses from " + uri);
+        }
+        val jobStatuses = new ArrayList<JobStatus>();
+        for (Object element : (List<Object>)parsed) {
+            if (!(element instanceof Map)) {
+                throw new IllegalArgumentException("Expected a JSON array of job statuses from " + uri);
+            }
+            jobStatuses.add(fromMap(uri, (Map<String, Object>)element));
+        }
+        return jobStatuses;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static JobStatus fromMap(URI uri, Map<String, Object> map) {
+        // small numbers come back from the parser as Integer rather than Long
+        val transactionId = ((Number)map.getOrDefault("transactionID", -1L)).longValue();
+        val jobExecutionId = ((Number)map.getOrDefault("jobExecutionId", -1L)).longValue();
         val startTimeStr = (String)map.getOrDefault("startTime", DATE_TIME_FORMATTER.format(now()));
         val startTime = OffsetDateTime.parse(startTimeStr, DATE_TIME_FORMATTER);
         val endTimeStr = (String)map.get("endTime");
@@ -80,30 +193,58 @@ public class JobStatus {
     }
 
 
-    @SuppressWarnings("StringBufferReplaceableByString")
+    /**
+     * The status as a JSON string, in the same form as Grabbit returns it.
+     *
+     * @see #writeJson(JsonWriter)
+     */
     public String asJson() {
-        return new StringBuilder("{\"transactionID\": ").
-            append(transactionID).
-            append(", \"jobExecutionId\": ").
-            append(jobExecutionId).
-            append(", \"jcrNodesWritten\": ").
-            append(jcrNodesWritten).
-            append(", \"exitStatus\": ").
-            append("{ \"exitDescription\": \"").
-            append(exitDescription).
-            append("\", \"exitCode\":\"").
-            append(exitCode).
-            append("\", \"running\":").
-            append(running).
-            append("}, ").
-            append((endTime != null) ? "\"endTime\": \"" + endTime.format(DATE_TIME_FORMATTER) + "\", " : "").
-            append("\"timeTaken\": ").
-            append(timeTaken).
-            append(", \"path\": \"").
-            append(path).
-            append("\", \"startTime\": \"").
-            append(startTime.format(DATE_TIME_FORMATTER)).
-            append("\"}").toString();
+        val json = new StringBuilder(256);
+        try {
+            writeJson(new JsonWriter(json));
+        }
+        catch (IOException e) {
+            // appending to a StringBuilder doesn't throw IOException
+            throw Utils.softened(e);
+        }
+        return json.toString();
+    }
+
+
+    /**
+     * Writes the status as a JSON object, in the same form as Grabbit returns it.
+     */
+    public void writeJson(JsonWriter json) throws IOException {
+        json.beginObject().
+            name("transactionID").value(transactionID).
+            name("jobExecutionId").value(jobExecutionId).
+            name("jcrNodesWritten").value(jcrNodesWritten).
+            name("exitStatus").beginObject().
+            name("exitDescription").value(exitDescription).
+            name("exitCode").value(exitCode).
+            name("running").value(running).
+            endObject();
+        if (endTime != null) {
+            json.name("endTime").value(DATE_TIME_FORMATTER.format(endTime));
+        }
+        json.name("timeTaken").value(timeTaken).
+            name("path").value(path).
+            name("startTime").value(DATE_TIME_FORMATTER.format(startTime)).
+            endObject();
+    }
+
+
+    /**
+     * Writes the statuses as a JSON array of objects.
+     *
+     * @see #writeJson(JsonWriter)
+     */
+    public static void writeJsonArray(Iterable<JobStatus> jobStatuses, JsonWriter json) throws IOException {
+        json.beginArray();
+        for (JobStatus jobStatus : jobStatuses) {
+            jobStatus.writeJson(json);
+        }
+        json.endArray();
     }
 
 
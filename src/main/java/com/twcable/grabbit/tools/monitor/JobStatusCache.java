@@ -19,6 +19,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.net.URI;
 import java.util.Collection;
+import java.util.stream.Collectors;
 
 /**
  * A cache of the job status from the last time "start" was invoked. While monitoring the jobs, the status of the
@@ -29,6 +30,29 @@ public interface JobStatusCache {
     Collection<HostJobState> entries();
 
 
+    /**
+     * The entries that are in the given state.
+     * <p>
+     * By default this scans all of the {@link #entries()}. Caches that track a lot of jobs keep an index by state
+     * up to date as entries are put, so this only costs as much as the number of entries in the state.
+     */
+    default Collection<HostJobState> withState(JobState state) {
+        return entries().stream().
+            filter(entry -> entry.state() == state).
+            collect(Collectors.toList());
+    }
+
+
+    /**
+     * The entries for jobs that are still running, which are the ones {@link PollingJobMonitor} polls.
+     *
+     * @see #withState(JobState)
+     */
+    default Collection<HostJobState> running() {
+        return withState(JobState.RUNNING);
+    }
+
+
     /**
      * Puts the given entry in the cache, returning the value it's replacing.
      *
@@ -40,10 +64,25 @@ public interface JobStatusCache {
 
 
     /**
-     * Puts the given entry in the cache, returning the value it's replacing.
+     * Puts the given entry in the cache, returning the value it's replacing. If the location/jobId is already in
+     * the cache, the new entry takes its place; caches that keep their {@link #entries()} in order keep it in the
+     * position of the first one.
      *
      * @return null if it's a new location/jobId combination
      */
     @Nullable HostJobState put(HostJobState entry);
 
+
+    /**
+     * Persists any changes that have been buffered. {@link PollingJobMonitor} calls this at the end of each poll
+     * cycle, so a cache can write all the changes from a cycle together.
+     * <p>
+     * By default this does nothing, for caches that aren't persistent or that persist each change as it's made.
+     *
+     * @see GroupCommitPolicy
+     */
+    default void flush() {
+        // nothing to do by default
+    }
+
 }
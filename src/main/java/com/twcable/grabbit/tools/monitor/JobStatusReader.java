@@ -0,0 +1,646 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.twcable.grabbit.tools.monitor.JobStatus.DATE_TIME_FORMATTER;
+import static java.time.ZonedDateTime.now;
+
+/**
+ * Reads Grabbit's job status JSON straight off of a stream into {@link JobStatus} instances.
+ * <p>
+ * Only the fields that {@link JobStatus} has are decoded; everything else is skipped over without being turned
+ * into objects, and field names are matched as bytes. Anything that isn't the expected shape of JSON causes an
+ * {@link UnexpectedJsonException}, so the caller can fall back to a general purpose parser.
+ * <p>
+ * An instance reads a single document and is not thread-safe.
+ */
+@SuppressWarnings({"checkstyle:MagicNumber", "PMD.AvoidLiteralsInIfCondition", "PMD.CyclomaticComplexity"})
+final class JobStatusReader {
+    private static final int TRANSACTION_ID = 0;
+    private static final int JOB_EXECUTION_ID = 1;
+    private static final int START_TIME = 2;
+    private static final int END_TIME = 3;
+    private static final int PATH = 4;
+    private static final int TIME_TAKEN = 5;
+    private static final int JCR_NODES_WRITTEN = 6;
+    private static final int EXIT_STATUS = 7;
+    private static final int EXIT_DESCRIPTION = 8;
+    private static final int EXIT_CODE = 9;
+    private static final int RUNNING = 10;
+    private static final int UNKNOWN_FIELD = -1;
+
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+    // indexed by the constants above
+    private static final byte[][] FIELD_NAMES = {
+        ascii("transactionID"), ascii("jobExecutionId"), ascii("startTime"), ascii("endTime"), ascii("path"),
+        ascii("timeTaken"), ascii("jcrNodesWritten"), ascii("exitStatus"),
+        ascii("exitDescription"), ascii("exitCode"), ascii("running"),
+    };
+
+    private final URI uri;
+    private final InputStream in;
+    private final byte[] buffer = new byte[4096];
+    private int position;
+    private int limit;
+
+    // holds the bytes of the string currently being read
+    private byte[] scratch = new byte[128];
+    private int scratchLength;
+
+    // the fields of the job status currently being read
+    private long transactionId;
+    private long jobExecutionId;
+    private @Nullable String startTime;
+    private @Nullable String endTime;
+    private @Nullable String path;
+    private long timeTaken;
+    private long jcrNodesWritten;
+    private @Nullable String exitDescription;
+    private @Nullable String exitCode;
+    private boolean running;
+
+
+    private JobStatusReader(URI uri, InputStream in) {
+        this.uri = uri;
+        this.in = in;
+        resetFields();
+    }
+
+
+    /**
+     * Reads a single job status object. An empty stream is treated as an empty object.
+     *
+     * @throws UnexpectedJsonException if the stream is not a single JSON object of the expected shape
+     */
+    static JobStatus read(URI uri, InputStream in) throws IOException {
+        val reader = new JobStatusReader(uri, in);
+        if (reader.peek() < 0) {
+            return reader.jobStatus();
+        }
+        val jobStatus = reader.readObject();
+        reader.expectEnd();
+        return jobStatus;
+    }
+
+
+    /**
+     * Reads an array of job status objects. An empty stream is treated as an empty array.
+     *
+     * @throws UnexpectedJsonException if the stream is not a JSON array of objects of the expected shape
+     */
+    static List<JobStatus> readArray(URI uri, InputStream in) throws IOException {
+        val reader = new JobStatusReader(uri, in);
+        val jobStatuses = new ArrayList<JobStatus>();
+        if (reader.peek() < 0) {
+            return jobStatuses;
+        }
+        reader.expect('[');
+        if (reader.peek() == ']') {
+            reader.position++;
+        }
+        else {
+            do {
+                jobStatuses.add(reader.readObject());
+            }
+            while (reader.nextIs(',', ']'));
+        }
+        reader.expectEnd();
+        return jobStatuses;
+    }
+
+
+    private JobStatus readObject() throws IOException {
+        resetFields();
+        readFields(false);
+        return jobStatus();
+    }
+
+
+    private void resetFields() {
+        transactionId = -1L;
+        jobExecutionId = -1L;
+        startTime = null;
+        endTime = null;
+        path = null;
+        timeTaken = -1L;
+        jcrNodesWritten = -1L;
+        exitDescription = null;
+        exitCode = null;
+        running = false;
+    }
+
+
+    /**
+     * Reads the fields of an object, either a job status or its "exitStatus".
+     */
+    private void readFields(boolean exitStatus) throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            position++;
+            return;
+        }
+        do {
+            expect('"');
+            readStringContent();
+            val field = fieldIndex();
+            expect(':');
+            if (exitStatus) {
+                readExitStatusField(field);
+            }
+            else {
+                readJobStatusField(field);
+            }
+        }
+        while (nextIs(',', '}'));
+    }
+
+
+    private void readJobStatusField(int field) throws IOException {
+        switch (field) {
+            case TRANSACTION_ID:
+                transactionId = readLong(transactionId);
+                break;
+            case JOB_EXECUTION_ID:
+                jobExecutionId = readLong(jobExecutionId);
+                break;
+            case START_TIME:
+                startTime = readString();
+                break;
+            case END_TIME:
+                endTime = readString();
+                break;
+            case PATH:
+                path = readString();
+                break;
+            case TIME_TAKEN:
+                timeTaken = readLong(timeTaken);
+                break;
+            case JCR_NODES_WRITTEN:
+                jcrNodesWritten = readLong(jcrNodesWritten);
+                break;
+            case EXIT_STATUS:
+                if (peek() == 'n') {
+                    expectLiteral("null");
+                }
+                else {
+                    readFields(true);
+                }
+                break;
+            default:
+                skipValue();
+        }
+    }
+
+
+    private void readExitStatusField(int field) throws IOException {
+        switch (field) {
+            case EXIT_DESCRIPTION:
+                exitDescription = readString();
+                break;
+            case EXIT_CODE:
+                exitCode = readString();
+                break;
+            case RUNNING:
+                running = readBoolean();
+                break;
+            default:
+                skipValue();
+        }
+    }
+
+
+    private JobStatus jobStatus() {
+        val start = OffsetDateTime.parse((startTime != null) ? startTime : DATE_TIME_FORMATTER.format(now()),
+            DATE_TIME_FORMATTER);
+        val end = (endTime != null) ? OffsetDateTime.parse(endTime, DATE_TIME_FORMATTER) : null;
+
+        return new JobStatus(uri, transactionId, jobExecutionId, start, end,
+            (path != null) ? path : "/MISSING_PATH", timeTaken, jcrNodesWritten,
+            (exitDescription != null) ? exitDescription : "",
+            (exitCode != null) ? exitCode : "UNKNOWN",
+            running);
+    }
+
+    // **********************************************************************
+    //
+    // VALUES
+    //
+    // **********************************************************************
+
+    /**
+     * Reads a number, or a string holding a number. A null leaves the value as it was.
+     */
+    private long readLong(long currentValue) throws IOException {
+        val c = peek();
+        if (c == 'n') {
+            expectLiteral("null");
+            return currentValue;
+        }
+        if (c == '"') {
+            position++;
+            readStringContent();
+        }
+        else {
+            scratchLength = 0;
+            while (fill() && isNumberChar(buffer[position])) {
+                appendScratch(buffer[position++]);
+            }
+        }
+        return parseLong();
+    }
+
+
+    private @Nullable String readString() throws IOException {
+        val c = peek();
+        if (c == 'n') {
+            expectLiteral("null");
+            return null;
+        }
+        expect('"');
+        readStringContent();
+        return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+    }
+
+
+    private boolean readBoolean() throws IOException {
+        switch (peek()) {
+            case 't':
+                expectLiteral("true");
+                return true;
+            case 'f':
+                expectLiteral("false");
+                return false;
+            case 'n':
+                expectLiteral("null");
+                return false;
+            default:
+                throw unexpected("a boolean");
+        }
+    }
+
+
+    private void skipValue() throws IOException {
+        val c = peek();
+        if (c == '"') {
+            position++;
+            readStringContent();
+        }
+        else if (c == '{' || c == '[') {
+            skipContainer();
+        }
+        else if (c == 't') {
+            expectLiteral("true");
+        }
+        else if (c == 'f') {
+            expectLiteral("false");
+        }
+        else if (c == 'n') {
+            expectLiteral("null");
+        }
+        else if (c >= 0 && isNumberChar((byte)c)) {
+            while (fill() && isNumberChar(buffer[position])) {
+                position++;
+            }
+        }
+        else {
+            throw unexpected("a value");
+        }
+    }
+
+
+    private void skipContainer() throws IOException {
+        int depth = 0;
+        do {
+            if (!fill()) {
+                throw unexpected("the end of an object or array");
+            }
+            val c = buffer[position++];
+            if (c == '"') {
+                readStringContent();
+            }
+            else if (c == '{' || c == '[') {
+                depth++;
+            }
+            else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        while (depth > 0);
+    }
+
+
+    /**
+     * Reads the rest of a string whose opening quote has been consumed, putting its UTF-8 bytes into
+     * {@link #scratch}. A surrogate escape that isn't part of a pair is read as U+FFFD.
+     */
+    private void readStringContent() throws IOException {
+        scratchLength = 0;
+        int pendingHighSurrogate = -1;
+        while (true) {
+            if (!fill()) {
+                throw unexpected("the end of a string");
+            }
+            val b = buffer[position++];
+            if (b == '"') {
+                replaceUnpaired(pendingHighSurrogate);
+                return;
+            }
+            if (b != '\\') {
+                pendingHighSurrogate = replaceUnpaired(pendingHighSurrogate);
+                appendScratch(b);
+                continue;
+            }
+            if (!fill()) {
+                throw unexpected("an escape sequence");
+            }
+            val escaped = buffer[position++];
+            if (escaped != 'u') {
+                pendingHighSurrogate = replaceUnpaired(pendingHighSurrogate);
+            }
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    appendScratch(escaped);
+                    break;
+                case 'b':
+                    appendScratch((byte)'\b');
+                    break;
+                case 'f':
+                    appendScratch((byte)'\f');
+                    break;
+                case 'n':
+                    appendScratch((byte)'\n');
+                    break;
+                case 'r':
+                    appendScratch((byte)'\r');
+                    break;
+                case 't':
+                    appendScratch((byte)'\t');
+                    break;
+                case 'u':
+                    val codeUnit = readHex4();
+                    if (Character.isLowSurrogate((char)codeUnit) && pendingHighSurrogate >= 0) {
+                        appendCodePoint(Character.toCodePoint((char)pendingHighSurrogate, (char)codeUnit));
+                        pendingHighSurrogate = -1;
+                    }
+                    else {
+                        pendingHighSurrogate = replaceUnpaired(pendingHighSurrogate);
+                        if (Character.isHighSurrogate((char)codeUnit)) {
+                            pendingHighSurrogate = codeUnit;
+                        }
+                        else {
+                            appendCodePoint(Character.isLowSurrogate((char)codeUnit) ? REPLACEMENT_CHARACTER :
+                                codeUnit);
+                        }
+                    }
+                    break;
+                default:
+                    throw unexpected("a valid escape sequence");
+            }
+        }
+    }
+
+
+    /**
+     * Writes U+FFFD for a high surrogate that wasn't followed by its low surrogate.
+     *
+     * @return -1, for there no longer being a pending high surrogate
+     */
+    private int replaceUnpaired(int pendingHighSurrogate) {
+        if (pendingHighSurrogate >= 0) {
+            appendCodePoint(REPLACEMENT_CHARACTER);
+        }
+        return -1;
+    }
+
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            if (!fill()) {
+                throw unexpected("a unicode escape");
+            }
+            val digit = Character.digit(buffer[position++], 16);
+            if (digit < 0) {
+                throw unexpected("a unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+
+    private long parseLong() throws UnexpectedJsonException {
+        if (scratchLength == 0) {
+            throw unexpected("a number");
+        }
+        boolean negative = scratch[0] == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < scratchLength; i++) {
+            val digit = scratch[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                // a fraction, an exponent, or too big to be a long
+                return parseDecimal();
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+
+    private long parseDecimal() throws UnexpectedJsonException {
+        try {
+            return (long)Double.parseDouble(new String(scratch, 0, scratchLength, StandardCharsets.US_ASCII));
+        }
+        catch (NumberFormatException e) {
+            throw unexpected("a number");
+        }
+    }
+
+    // **********************************************************************
+    //
+    // LOW LEVEL READING
+    //
+    // **********************************************************************
+
+    /**
+     * Makes sure there's at least one byte in the buffer.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    private boolean fill() throws IOException {
+        if (position < limit) {
+            return true;
+        }
+        limit = in.read(buffer, 0, buffer.length);
+        position = 0;
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Skips whitespace and returns the next byte without consuming it, or -1 at the end of the stream.
+     */
+    private int peek() throws IOException {
+        while (fill()) {
+            val b = buffer[position];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                return b & 0xFF;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+
+    private void expect(char expected) throws IOException {
+        if (peek() != expected) {
+            throw unexpected("'" + expected + "'");
+        }
+        position++;
+    }
+
+
+    /**
+     * Consumes either the separator, returning true, or the terminator, returning false.
+     */
+    private boolean nextIs(char separator, char terminator) throws IOException {
+        val c = peek();
+        if (c == separator) {
+            position++;
+            return true;
+        }
+        if (c == terminator) {
+            position++;
+            return false;
+        }
+        throw unexpected("'" + separator + "' or '" + terminator + "'");
+    }
+
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (!fill() || buffer[position++] != literal.charAt(i)) {
+                throw unexpected(literal);
+            }
+        }
+    }
+
+
+    private void expectEnd() throws IOException {
+        if (peek() >= 0) {
+            throw unexpected("the end of the document");
+        }
+    }
+
+
+    private int fieldIndex() {
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            val name = FIELD_NAMES[i];
+            if (name.length == scratchLength && regionMatches(name)) {
+                return i;
+            }
+        }
+        return UNKNOWN_FIELD;
+    }
+
+
+    private boolean regionMatches(byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (scratch[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void appendScratch(byte b) {
+        if (scratchLength == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[scratchLength++] = b;
+    }
+
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            appendScratch((byte)codePoint);
+        }
+        else if (codePoint < 0x800) {
+            appendScratch((byte)(0xC0 | (codePoint >> 6)));
+            appendScratch((byte)(0x80 | (codePoint & 0x3F)));
+        }
+        else if (codePoint < 0x10000) {
+            appendScratch((byte)(0xE0 | (codePoint >> 12)));
+            appendScratch((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+            appendScratch((byte)(0x80 | (codePoint & 0x3F)));
+        }
+        else {
+            appendScratch((byte)(0xF0 | (codePoint >> 18)));
+            appendScratch((byte)(0x80 | ((codePoint >> 12) & 0x3F)));
+            appendScratch((byte)(0x80 | ((codePoint >> 6) & 0x3F)));
+            appendScratch((byte)(0x80 | (codePoint & 0x3F)));
+        }
+    }
+
+
+    private static boolean isNumberChar(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+
+    private static byte[] ascii(String str) {
+        return str.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    private UnexpectedJsonException unexpected(String expected) {
+        return new UnexpectedJsonException("Expected " + expected + " in the job status JSON from " + uri);
+    }
+
+
+    /**
+     * The JSON is not in the shape of a Grabbit job status.
+     */
+    static final class UnexpectedJsonException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+
+        UnexpectedJsonException(String message) {
+            super(message);
+        }
+    }
+
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import com.twcable.grabbit.tools.util.Utils;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.twcable.grabbit.tools.util.Utils.softened;
+import static java.nio.charset.Charset.defaultCharset;
+
+/**
+ * A file-based {@link JobStatusCache} that appends a line to the file for every state change, rather than
+ * rewriting the whole file.
+ * <p>
+ * The lines are in the same "location,jobId,state" form as {@link SimpleFileJobStatusCache}, and when the file is
+ * replayed the last line for a job wins, so a file written by {@link SimpleFileJobStatusCache} opens as-is. Once
+ * the file has more than {@link #JOURNAL_COMPACTION_THRESHOLD} lines, and most of them are out of date, it is
+ * compacted on a background thread: the current entries are written to a temporary file that then atomically
+ * replaces the journal.
+ * <p>
+ * By default each line is written to the file as soon as it's appended. When created with a
+ * {@link GroupCommitPolicy}, lines are instead buffered and written together when the cache is
+ * {@link #flush() flushed}.
+ * <p>
+ * It is NOT designed for use by multiple threads or multiple processes; the background compaction is the only
+ * concurrency it handles.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+public final class JournaledFileJobStatusCache extends IndexedJobStatusCache implements Closeable {
+
+    /**
+     * How many lines the journal can have before it's considered for compaction. Can change by setting the
+     * "jobCacheCompactionThreshold" system property, otherwise defaults to 10,000.
+     */
+    public static final int JOURNAL_COMPACTION_THRESHOLD =
+        Integer.parseInt(System.getProperty("jobCacheCompactionThreshold", "10000"));
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {
+        val thread = new Thread(runnable, "JournaledFileJobStatusCache compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File file;
+    private final int compactionThreshold;
+    private final @Nullable GroupCommitPolicy groupCommitPolicy;
+    private final Object journalLock = new Object();
+
+    private boolean replayed;
+
+    // all guarded by journalLock
+    private @Nullable Writer journal;
+    private @Nullable FileOutputStream journalStream;
+    private long pendingSinceMs = -1;
+    private int journalLines;
+    private @Nullable List<String> linesSinceSnapshot;
+    private boolean endsPartWayThroughLine;
+    private Future<?> compaction = CompletableFuture.completedFuture(null);
+
+
+    private JournaledFileJobStatusCache(File file, int compactionThreshold,
+                                        @Nullable GroupCommitPolicy groupCommitPolicy) {
+        this.file = file;
+        this.compactionThreshold = compactionThreshold;
+        this.groupCommitPolicy = groupCommitPolicy;
+    }
+
+
+    /**
+     * Opens an existing journal, or a file written by {@link SimpleFileJobStatusCache}.
+     */
+    public static JournaledFileJobStatusCache open(File file) throws IOException {
+        return open(file, JOURNAL_COMPACTION_THRESHOLD);
+    }
+
+
+    /**
+     * Opens an existing journal, or a file written by {@link SimpleFileJobStatusCache}.
+     *
+     * @param compactionThreshold how many lines the journal can have before it's considered for compaction
+     */
+    public static JournaledFileJobStatusCache open(File file, int compactionThreshold) throws IOException {
+        return open(file, compactionThreshold, null);
+    }
+
+
+    /**
+     * Opens an existing journal, or a file written by {@link SimpleFileJobStatusCache}.
+     *
+     * @param groupCommitPolicy if not null, lines are buffered until {@link #flush()} rather than written
+     *                          immediately
+     */
+    public static JournaledFileJobStatusCache open(File file,
+                                                   @Nullable GroupCommitPolicy groupCommitPolicy) throws IOException {
+        return open(file, JOURNAL_COMPACTION_THRESHOLD, groupCommitPolicy);
+    }
+
+
+    private static JournaledFileJobStatusCache open(File file, int compactionThreshold,
+                                                    @Nullable GroupCommitPolicy groupCommitPolicy)
+        throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("\"" + file.getCanonicalPath() + "\" does not exist");
+        }
+        return new JournaledFileJobStatusCache(file, compactionThreshold, groupCommitPolicy);
+    }
+
+
+    public static JournaledFileJobStatusCache createEmpty(File file) throws IOException {
+        return createEmpty(file, null);
+    }
+
+
+    /**
+     * @param groupCommitPolicy if not null, lines are buffered until {@link #flush()} rather than written
+     *                          immediately
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
+    public static JournaledFileJobStatusCache createEmpty(File file,
+                                                          @Nullable GroupCommitPolicy groupCommitPolicy)
+        throws IOException {
+        Files.deleteIfExists(file.toPath());
+        file.createNewFile();
+        return new JournaledFileJobStatusCache(file, JOURNAL_COMPACTION_THRESHOLD, groupCommitPolicy);
+    }
+
+
+    @Override
+    public Collection<HostJobState> entries() {
+        replay();
+        return super.entries();
+    }
+
+
+    @Override
+    public Collection<HostJobState> withState(JobState state) {
+        replay();
+        return super.withState(state);
+    }
+
+
+    /**
+     * Puts the given entry in the cache, returning the value it's replacing. A line is appended to the journal
+     * only if the entry was added or its state changed.
+     *
+     * @return null if it's a new location/jobId combination
+     */
+    @Override
+    public @Nullable HostJobState put(HostJobState entry) {
+        replay();
+        val oldEntry = super.put(entry);
+
+        if (oldEntry == null || oldEntry.state() != entry.state()) {
+            append(SimpleFileJobStatusCache.asCsvLine(entry));
+        }
+
+        return oldEntry;
+    }
+
+
+    /**
+     * Rewrites the journal on a background thread so it has a single line per job.
+     *
+     * @return completes when the compaction is done
+     */
+    public Future<?> compact() {
+        replay();
+        synchronized (journalLock) {
+            if (linesSinceSnapshot != null) {
+                // already compacting
+                return compaction;
+            }
+            val snapshot = new ArrayList<HostJobState>(super.entries());
+            linesSinceSnapshot = new ArrayList<>();
+            compaction = COMPACTOR.submit(() -> writeCompacted(snapshot));
+            return compaction;
+        }
+    }
+
+
+    /**
+     * Writes any buffered lines, as the {@link GroupCommitPolicy}'s {@link DurabilityPolicy} calls for.
+     */
+    @Override
+    public void flush() {
+        if (groupCommitPolicy != null && groupCommitPolicy.durability() != DurabilityPolicy.NONE) {
+            synchronized (journalLock) {
+                writePending();
+            }
+        }
+    }
+
+
+    /**
+     * Waits for any compaction to finish, then writes any buffered lines, whatever the {@link DurabilityPolicy},
+     * and closes the journal.
+     */
+    @Override
+    public void close() throws IOException {
+        final Future<?> pending;
+        synchronized (journalLock) {
+            pending = compaction;
+        }
+        try {
+            pending.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Could not compact " + file, e.getCause());
+        }
+        synchronized (journalLock) {
+            writePending();
+            Utils.close(journal);
+            journal = null;
+            journalStream = null;
+        }
+    }
+
+
+    private void append(String line) {
+        synchronized (journalLock) {
+            try {
+                val writer = journal();
+                if (endsPartWayThroughLine) {
+                    // don't run on from a line left partly written by a crash
+                    writer.write(System.lineSeparator());
+                    endsPartWayThroughLine = false;
+                }
+                writer.write(line);
+                writer.write(System.lineSeparator());
+                if (groupCommitPolicy == null) {
+                    writer.flush();
+                }
+                else {
+                    val now = System.currentTimeMillis();
+                    if (pendingSinceMs < 0) {
+                        pendingSinceMs = now;
+                    }
+                    if (groupCommitPolicy.isOverdue(pendingSinceMs, now)) {
+                        writePending();
+                    }
+                }
+            }
+            catch (IOException e) {
+                throw softened(e);
+            }
+            journalLines++;
+            if (linesSinceSnapshot != null) {
+                linesSinceSnapshot.add(line);
+            }
+            else if (journalLines > compactionThreshold && journalLines > 2 * super.entries().size()) {
+                // more than half the lines are out of date
+                compact();
+            }
+        }
+    }
+
+
+    private Writer journal() throws FileNotFoundException {
+        Writer writer = journal;
+        if (writer == null) {
+            val stream = new FileOutputStream(file, true);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, defaultCharset()));
+            journalStream = stream;
+            journal = writer;
+        }
+        return writer;
+    }
+
+
+    /**
+     * Writes any buffered lines to the file, syncing it if the policy is {@link DurabilityPolicy#FSYNC}. The caller
+     * must hold {@link #journalLock}.
+     */
+    private void writePending() {
+        if (pendingSinceMs < 0 || journal == null) {
+            return;
+        }
+        try {
+            journal.flush();
+            if (journalStream != null && isSyncing()) {
+                journalStream.getFD().sync();
+            }
+        }
+        catch (IOException e) {
+            throw softened(e);
+        }
+        pendingSinceMs = -1;
+    }
+
+
+    private boolean isSyncing() {
+        return groupCommitPolicy != null && groupCommitPolicy.durability() == DurabilityPolicy.FSYNC;
+    }
+
+
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
+    private void writeCompacted(List<HostJobState> snapshot) {
+        val tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".compacting");
+        try {
+            try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(tempFile), defaultCharset()))) {
+                for (HostJobState entry : snapshot) {
+                    writer.write(SimpleFileJobStatusCache.asCsvLine(entry));
+                    writer.write(System.lineSeparator());
+                }
+            }
+
+            // anything appended while the snapshot was being written goes in as well, then the files are swapped
+            // before anything else can be appended
+            synchronized (journalLock) {
+                val linesSince = linesSinceSnapshot != null ? linesSinceSnapshot : new ArrayList<String>();
+                try (FileOutputStream outputStream = new FileOutputStream(tempFile, true);
+                     Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, defaultCharset()))) {
+                    for (String line : linesSince) {
+                        writer.write(line);
+                        writer.write(System.lineSeparator());
+                    }
+                    writer.flush();
+                    if (isSyncing()) {
+                        outputStream.getFD().sync();
+                    }
+                }
+
+                Utils.close(journal);
+                journal = null;
+                journalStream = null;
+                SimpleFileJobStatusCache.replaceFile(tempFile.toPath(), file.toPath(), isSyncing());
+                journalLines = snapshot.size() + linesSince.size();
+                linesSinceSnapshot = null;
+                pendingSinceMs = -1;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            synchronized (journalLock) {
+                linesSinceSnapshot = null;
+            }
+            tempFile.delete();
+            throw softened(e);
+        }
+    }
+
+
+    /**
+     * Loads the journal the first time the entries are needed. A partly-written last line, as left by a crash
+     * part way through an append, is cut off the end of the file.
+     */
+    @SuppressWarnings("PMD.AssignmentInOperand")
+    private void replay() {
+        if (replayed) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), defaultCharset()))) {
+            int lines = 0;
+            String line;
+            @Nullable RuntimeException badLine = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                if (badLine != null) {
+                    throw badLine;
+                }
+                try {
+                    super.put(SimpleFileJobStatusCache.fromCsvLine(line));
+                    lines++;
+                }
+                catch (RuntimeException e) {
+                    badLine = new IllegalStateException("Could not read \"" + line + "\" in " + file, e);
+                }
+            }
+            if (badLine != null) {
+                if (endsWithNewline()) {
+                    // a complete line that doesn't make sense, rather than one cut short
+                    throw badLine;
+                }
+                truncateAfterLastNewline();
+            }
+            synchronized (journalLock) {
+                journalLines = lines;
+                endsPartWayThroughLine = !endsWithNewline();
+            }
+            // only once it's all been read, so a failure is thrown again rather than leaving half the jobs
+            replayed = true;
+        }
+        catch (IOException e) {
+            throw softened(e);
+        }
+    }
+
+
+    private void truncateAfterLastNewline() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            while (length > 0) {
+                raf.seek(length - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                length--;
+            }
+            raf.setLength(length);
+        }
+    }
+
+
+    private boolean endsWithNewline() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() == 0) {
+                return true;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+}
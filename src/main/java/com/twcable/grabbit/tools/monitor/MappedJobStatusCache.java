@@ -0,0 +1,384 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import com.twcable.grabbit.tools.util.Utils;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.twcable.grabbit.tools.util.Utils.softened;
+import static java.nio.charset.Charset.defaultCharset;
+
+/**
+ * A {@link JobStatusCache} backed by a memory-mapped file of fixed-size records, so changing the state of a job is
+ * a single byte written in place.
+ * <p>
+ * The file starts with a {@value #HEADER_SIZE} byte header (magic number, version, host table size, host count,
+ * record count), followed by a table of the distinct host URIs and then the records. Each record is
+ * {@value #RECORD_SIZE} bytes: the index of its host in the table, the job id, and the state.
+ * <p>
+ * {@link #fromCsv(File, File)} and {@link #toCsv(File)} convert to and from the form used by
+ * {@link SimpleFileJobStatusCache} and {@link JournaledFileJobStatusCache}.
+ * <p>
+ * The records in each state are tracked in memory, so {@link #withState(JobState)} and {@link #running()} don't
+ * have to read every record.
+ * <p>
+ * It explicitly is NOT designed for thread-safety or multiple processes.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MagicNumber"})
+public final class MappedJobStatusCache implements JobStatusCache, Closeable {
+    /**
+     * "GJC1"
+     */
+    static final int MAGIC = 0x474A4331;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+
+    /**
+     * How much room the header leaves for the host table. The host URIs are stored as UTF-8, each preceded by a
+     * two-byte length.
+     */
+    static final int DEFAULT_HOST_TABLE_SIZE = 64 * 1024;
+
+    private static final int HOST_TABLE_SIZE_OFFSET = 8;
+    private static final int HOST_COUNT_OFFSET = 12;
+    private static final int RECORD_COUNT_OFFSET = 16;
+    private static final int STATE_OFFSET = 12;
+    private static final int INITIAL_RECORD_CAPACITY = 1024;
+
+    // the byte stored for each state; these must never change, since they're in the files
+    private static final JobState[] STATES = {JobState.RUNNING, JobState.COMPLETED, JobState.FAILED, JobState.UNKNOWN};
+
+    private final File file;
+    private final FileChannel channel;
+    private final int hostTableSize;
+    private MappedByteBuffer buffer;
+
+    private final List<URI> hosts = new ArrayList<>();
+    private final Map<URI, Integer> hostIndexes = new HashMap<>();
+    private final Map<HostJobKey, Integer> recordIndexes = new HashMap<>();
+    private int hostTableUsed;
+    private int recordCount;
+    private final IndexedEntries entries = new IndexedEntries(() -> recordCount, this::entryAt);
+
+
+    private MappedJobStatusCache(File file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.hostTableSize = buffer.getInt(HOST_TABLE_SIZE_OFFSET);
+        load();
+    }
+
+
+    /**
+     * Creates a new, empty cache file, replacing any existing file.
+     */
+    public static MappedJobStatusCache createEmpty(File file) throws IOException {
+        return createEmpty(file, DEFAULT_HOST_TABLE_SIZE);
+    }
+
+
+    /**
+     * Creates a new, empty cache file, replacing any existing file.
+     *
+     * @param hostTableSize how many bytes to set aside for the host URIs
+     */
+    public static MappedJobStatusCache createEmpty(File file, int hostTableSize) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        val channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + hostTableSize + (long)INITIAL_RECORD_CAPACITY * RECORD_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(HOST_TABLE_SIZE_OFFSET, hostTableSize);
+            buffer.putInt(HOST_COUNT_OFFSET, 0);
+            buffer.putInt(RECORD_COUNT_OFFSET, 0);
+            return new MappedJobStatusCache(file, channel, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Opens an existing cache file.
+     *
+     * @throws IOException if the file doesn't exist, isn't a cache file of this kind, or is shorter than its header
+     *                     says it is
+     * @see #isMappedFile(File)
+     */
+    public static MappedJobStatusCache open(File file) throws IOException {
+        if (!file.exists()) {
+            throw new FileNotFoundException("\"" + file.getCanonicalPath() + "\" does not exist");
+        }
+        if (!isMappedFile(file)) {
+            throw new IOException("\"" + file.getCanonicalPath() + "\" is not a mapped job status cache");
+        }
+        val channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unknown version " + buffer.getInt(4) + " of \"" + file + "\"");
+            }
+            val hostTableSize = buffer.getInt(HOST_TABLE_SIZE_OFFSET);
+            val recordCount = buffer.getInt(RECORD_COUNT_OFFSET);
+            val expectedSize = HEADER_SIZE + (long)hostTableSize + (long)recordCount * RECORD_SIZE;
+            if (hostTableSize < 0 || recordCount < 0 || channel.size() < expectedSize) {
+                throw new IOException("\"" + file + "\" is " + channel.size() + " bytes, but its header says it " +
+                    "has a " + hostTableSize + " byte host table and " + recordCount + " records");
+            }
+            return new MappedJobStatusCache(file, channel, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Whether the file starts with the magic number of a mapped cache file, as opposed to being CSV.
+     */
+    public static boolean isMappedFile(File file) throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.readInt() == MAGIC;
+        }
+    }
+
+
+    /**
+     * Creates a mapped cache file holding the entries of a CSV file, which can be from either
+     * {@link SimpleFileJobStatusCache} or {@link JournaledFileJobStatusCache}. The CSV file is only read; if a job
+     * is on more than one line, as in a journal, the last line wins.
+     *
+     * @param csvFile    the file to read
+     * @param mappedFile the file to create, replacing any existing file
+     */
+    public static MappedJobStatusCache fromCsv(File csvFile, File mappedFile) throws IOException {
+        val cache = createEmpty(mappedFile);
+        try (BufferedReader reader = Files.newBufferedReader(csvFile.toPath(), defaultCharset())) {
+            reader.lines().
+                filter(line -> !line.trim().isEmpty()).
+                map(SimpleFileJobStatusCache::fromCsvLine).
+                forEach(cache::put);
+            return cache;
+        }
+        catch (IOException | RuntimeException e) {
+            cache.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Writes the entries to a file in the CSV form used by {@link SimpleFileJobStatusCache}, replacing any
+     * existing file.
+     */
+    public void toCsv(File csvFile) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(csvFile), defaultCharset())) {
+            val lineWriter = Utils.lineWriter(writer);
+            entries().stream().map(SimpleFileJobStatusCache::asCsvLine).forEach(lineWriter);
+        }
+    }
+
+
+    /**
+     * A read-only, live view of the entries, in the order they were added. Each entry is created from its record
+     * when it's asked for.
+     */
+    @Override
+    public Collection<HostJobState> entries() {
+        return entries.all();
+    }
+
+
+    /**
+     * A read-only, live view of the entries in the given state, in the order they were added.
+     */
+    @Override
+    public Collection<HostJobState> withState(JobState state) {
+        return entries.withState(state);
+    }
+
+
+    /**
+     * Puts the given entry in the cache, returning the value it's replacing. A change of state for a job that's
+     * already in the cache only writes the state byte of its record.
+     *
+     * @return null if it's a new location/jobId combination
+     * @throws IllegalStateException if it's a new host and there's no more room in the host table
+     */
+    @Override
+    public @Nullable HostJobState put(HostJobState entry) {
+        val recordIndex = recordIndexes.get(HostJobKey.of(entry));
+        if (recordIndex != null) {
+            val offset = recordOffset(recordIndex);
+            val oldState = STATES[buffer.get(offset + STATE_OFFSET)];
+            if (oldState != entry.state()) {
+                buffer.put(offset + STATE_OFFSET, stateByte(entry.state()));
+                entries.changed(recordIndex, oldState, entry.state());
+            }
+            return new HostJobState(entry.location(), entry.jobId(), oldState);
+        }
+
+        val hostIndex = hostIndex(entry.location());
+        ensureRecordCapacity(recordCount + 1);
+        val offset = recordOffset(recordCount);
+        buffer.putInt(offset, hostIndex);
+        buffer.putLong(offset + 4, entry.jobId());
+        buffer.put(offset + STATE_OFFSET, stateByte(entry.state()));
+        recordIndexes.put(HostJobKey.of(entry), recordCount);
+        entries.added(recordCount, entry.state());
+        recordCount++;
+        buffer.putInt(RECORD_COUNT_OFFSET, recordCount);
+        return null;
+    }
+
+
+    /**
+     * Writes any changes out to the file, then closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+
+    @Override
+    public String toString() {
+        return "MappedJobStatusCache(" + file + ", " + recordCount + " jobs on " + hosts.size() + " hosts)";
+    }
+
+
+    private void load() {
+        val hostCount = buffer.getInt(HOST_COUNT_OFFSET);
+        int position = HEADER_SIZE;
+        for (int i = 0; i < hostCount; i++) {
+            val length = buffer.getShort(position) & 0xFFFF;
+            val bytes = new byte[length];
+            val view = buffer.duplicate();
+            view.position(position + 2);
+            view.get(bytes);
+            val host = URI.create(new String(bytes, StandardCharsets.UTF_8));
+            hostIndexes.put(host, hosts.size());
+            hosts.add(host);
+            position += 2 + length;
+        }
+        hostTableUsed = position - HEADER_SIZE;
+
+        recordCount = buffer.getInt(RECORD_COUNT_OFFSET);
+        for (int i = 0; i < recordCount; i++) {
+            val offset = recordOffset(i);
+            recordIndexes.put(new HostJobKey(hosts.get(buffer.getInt(offset)), buffer.getLong(offset + 4)), i);
+            entries.added(i, STATES[buffer.get(offset + STATE_OFFSET)]);
+        }
+    }
+
+
+    private int hostIndex(URI location) {
+        val existing = hostIndexes.get(location);
+        if (existing != null) {
+            return existing;
+        }
+
+        val bytes = location.toString().getBytes(StandardCharsets.UTF_8);
+        if (hostTableUsed + 2 + bytes.length > hostTableSize) {
+            throw new IllegalStateException("No more room for hosts in " + file + " to add " + location);
+        }
+        val position = HEADER_SIZE + hostTableUsed;
+        buffer.putShort(position, (short)bytes.length);
+        val view = buffer.duplicate();
+        view.position(position + 2);
+        view.put(bytes);
+        hostTableUsed += 2 + bytes.length;
+
+        val index = hosts.size();
+        hosts.add(location);
+        hostIndexes.put(location, index);
+        buffer.putInt(HOST_COUNT_OFFSET, hosts.size());
+        return index;
+    }
+
+
+    private void ensureRecordCapacity(int records) {
+        val needed = (long)recordOffset(0) + (long)records * RECORD_SIZE;
+        if (needed <= buffer.capacity()) {
+            return;
+        }
+        val newSize = Math.max(needed, (long)recordOffset(0) + 2L * (buffer.capacity() - recordOffset(0)));
+        try {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        }
+        catch (IOException e) {
+            throw softened(e);
+        }
+    }
+
+
+    private int recordOffset(int recordIndex) {
+        return HEADER_SIZE + hostTableSize + recordIndex * RECORD_SIZE;
+    }
+
+
+    private static byte stateByte(JobState state) {
+        for (byte i = 0; i < STATES.length; i++) {
+            if (STATES[i] == state) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown state " + state);
+    }
+
+
+    private HostJobState entryAt(int recordIndex) {
+        val offset = recordOffset(recordIndex);
+        return new HostJobState(hosts.get(buffer.getInt(offset)), buffer.getLong(offset + 4),
+            STATES[buffer.get(offset + STATE_OFFSET)]);
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import com.twcable.grabbit.tools.environment.Environment;
+import com.twcable.grabbit.tools.http.HttpResponse;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.twcable.grabbit.tools.util.Utils.softened;
+
+/**
+ * An {@link AsyncJobStatusPoller} that talks HTTP/1.1 over non-blocking sockets, so that any number of
+ * outstanding status requests are multiplexed over the small, fixed pool of threads in its
+ * {@link AsynchronousChannelGroup}. No thread is parked while waiting on a host to respond.
+ * <p>
+ * Only plain "http" hosts are handled on the non-blocking path. Anything else (i.e., "https") is handed to a
+ * {@link RemoteJobStatusPoller} running on a separate, small executor.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MultipleStringLiterals"})
+public final class NioJobStatusPoller implements AsyncJobStatusPoller, JobStatusPoller, AutoCloseable {
+    /**
+     * How long to wait for a host to accept a connection or send more of its response before giving up. Can
+     * change by setting the "pollReadTimeout" system property, otherwise defaults to 60,000ms.
+     */
+    public static final long READ_TIMEOUT_MS = Long.parseLong(System.getProperty("pollReadTimeout", "60000"));
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final AsynchronousChannelGroup channelGroup;
+    private final RemoteJobStatusPoller blockingPoller;
+    private final ExecutorService blockingExecutor;
+    private final ScheduledExecutorService connectTimeouts;
+    private final long connectTimeoutMs;
+
+
+    private NioJobStatusPoller(Environment environment, AsynchronousChannelGroup channelGroup,
+                               long connectTimeoutMs) {
+        this.channelGroup = channelGroup;
+        this.blockingPoller = new RemoteJobStatusPoller(environment);
+        this.blockingExecutor = Executors.newFixedThreadPool(2, daemonThreads("NioJobStatusPoller blocking"));
+        this.connectTimeouts =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("NioJobStatusPoller connect timeouts"));
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+
+    /**
+     * Creates a poller for the hosts in the environment, doing its I/O on the given number of threads.
+     */
+    public static NioJobStatusPoller create(Environment environment, int ioThreads) throws IOException {
+        return create(environment, ioThreads, READ_TIMEOUT_MS);
+    }
+
+
+    static NioJobStatusPoller create(Environment environment, int ioThreads, long connectTimeoutMs)
+        throws IOException {
+        val channelGroup =
+            AsynchronousChannelGroup.withFixedThreadPool(ioThreads, daemonThreads("NioJobStatusPoller I/O"));
+        return new NioJobStatusPoller(environment, channelGroup, connectTimeoutMs);
+    }
+
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            val thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+
+    @Override
+    public CompletableFuture<JobStatus> pollJobStatusAsync(URI location, long jobId) {
+        if (!"http".equalsIgnoreCase(location.getScheme())) {
+            return CompletableFuture.supplyAsync(() -> blockingPoller.pollJobStatus(location, jobId),
+                blockingExecutor);
+        }
+
+        val result = new CompletableFuture<JobStatus>();
+        try {
+            new Exchange(location, jobId, result).start();
+        }
+        catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+
+    /**
+     * Blocks until {@link #pollJobStatusAsync(URI, long)} completes.
+     */
+    @Override
+    public JobStatus pollJobStatus(URI location, long jobId) {
+        try {
+            return pollJobStatusAsync(location, jobId).get();
+        }
+        catch (InterruptedException e) {
+            throw softened(e);
+        }
+        catch (ExecutionException e) {
+            throw softened(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+
+    @Override
+    public void close() {
+        channelGroup.shutdown();
+        blockingExecutor.shutdown();
+        connectTimeouts.shutdownNow();
+    }
+
+
+    // **********************************************************************
+    //
+    // HELPER CLASSES
+    //
+    // **********************************************************************
+
+    /**
+     * A single request/response conversation with a host: connect, write the whole request, then read until the
+     * host closes the connection (the request asks for "Connection: close").
+     */
+    private final class Exchange {
+        private final URI location;
+        private final long jobId;
+        private final CompletableFuture<JobStatus> result;
+        private final AsynchronousSocketChannel channel;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final ByteArrayOutputStream response = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+        private @MonotonicNonNull ScheduledFuture<?> connectTimeout;
+        private volatile boolean connected;
+
+
+        Exchange(URI location, long jobId, CompletableFuture<JobStatus> result) throws IOException {
+            this.location = location;
+            this.jobId = jobId;
+            this.result = result;
+            this.channel = AsynchronousSocketChannel.open(channelGroup);
+        }
+
+
+        /**
+         * Connecting has no timeout of its own, so one is scheduled that closes the channel, which fails the
+         * pending connect.
+         */
+        void start() {
+            val port = (location.getPort() < 0) ? 80 : location.getPort();
+            val address = new InetSocketAddress(location.getHost(), port);
+            try {
+                connectTimeout = connectTimeouts.schedule(() -> {
+                    if (!connected) {
+                        fail(new SocketTimeoutException("Timed out connecting to " + location));
+                    }
+                }, connectTimeoutMs, TimeUnit.MILLISECONDS);
+                channel.connect(address, null, handler(ignored -> {
+                    connected = true;
+                    connectTimeout.cancel(false);
+                    write(request());
+                }));
+            }
+            catch (RuntimeException e) {
+                // e.g., an unresolvable host or a poller that has been closed
+                fail(e);
+            }
+        }
+
+
+        private ByteBuffer request() {
+            val hostHeader = (location.getPort() < 0) ?
+                location.getHost() : (location.getHost() + ":" + location.getPort());
+            val request = "GET /grabbit/job/" + jobId + ".json HTTP/1.1\r\n" +
+                "Host: " + hostHeader + "\r\n" +
+                "Authorization: " + blockingPoller.authorizationFor(location) + "\r\n" +
+                "Accept: application/json\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+            return ByteBuffer.wrap(request.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+
+        private void write(ByteBuffer request) {
+            channel.write(request, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS, null, handler(written -> {
+                if (request.hasRemaining()) {
+                    write(request);
+                }
+                else {
+                    read();
+                }
+            }));
+        }
+
+
+        private void read() {
+            channel.read(readBuffer, READ_TIMEOUT_MS, TimeUnit.MILLISECONDS, null, handler(count -> {
+                if (count < 0) {
+                    finish();
+                }
+                else {
+                    readBuffer.flip();
+                    response.write(readBuffer.array(), readBuffer.position(), readBuffer.remaining());
+                    readBuffer.clear();
+                    read();
+                }
+            }));
+        }
+
+
+        private void finish() {
+            closeQuietly();
+            try {
+                val description = location + " job " + jobId;
+                val body = HttpResponse.read(new ByteArrayInputStream(response.toByteArray()), description).
+                    successBody(description);
+                result.complete(JobStatus.fromJsonStream(location, new ByteArrayInputStream(body)));
+            }
+            catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+
+        private void fail(Throwable exp) {
+            if (connectTimeout != null) {
+                connectTimeout.cancel(false);
+            }
+            // closing the channel fails anything pending on it, so the cause is recorded first
+            result.completeExceptionally(exp);
+            closeQuietly();
+        }
+
+
+        private void closeQuietly() {
+            try {
+                channel.close();
+            }
+            catch (IOException ignored) {
+                // nothing useful to do; the response, if any, has already been read
+            }
+        }
+
+
+        private <V> CompletionHandler<V, Void> handler(Consumer<V> onCompleted) {
+            return new CompletionHandler<V, Void>() {
+                @Override
+                public void completed(V value, Void attachment) {
+                    try {
+                        onCompleted.accept(value);
+                    }
+                    catch (RuntimeException e) {
+                        fail(e);
+                    }
+                }
+
+
+                @Override
+                public void failed(Throwable exc, Void attachment) {
+                    fail(exc);
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Decides how long to wait before polling a running job again.
+ *
+ * @see #fixed(long)
+ * @see AdaptivePollInterval
+ */
+@SuppressWarnings("WeakerAccess")
+public interface PollIntervalStrategy {
+
+    /**
+     * The number of milliseconds to wait before polling the job again.
+     *
+     * @param previous the progress from the previous poll of the job, or null if this is the first
+     * @param current  the progress from the poll that just finished; the job is still running
+     */
+    long nextPollDelayMs(@Nullable JobProgress previous, JobProgress current);
+
+
+    /**
+     * Always waits the same amount of time, regardless of the job's progress.
+     */
+    static PollIntervalStrategy fixed(long delayMs) {
+        return (previous, current) -> delayMs;
+    }
+
+}
@@ -16,9 +16,12 @@
 package com.twcable.grabbit.tools.monitor;
 
 import com.twcable.grabbit.tools.environment.Environment;
+import com.twcable.grabbit.tools.jobstarter.HostAndJobIds;
 import com.twcable.grabbit.tools.monitor.event.CompletedJobsMonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.EndMonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.FailedJobsMonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.JobsStartedMonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.MonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.PollingMonitoringEvent;
 import com.twcable.grabbit.tools.monitor.event.SleepMonitoringEvent;
@@ -26,21 +29,37 @@ import com.twcable.grabbit.tools.monitor.event.StartMonitoringEvent;
 import lombok.val;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.reactivestreams.Processor;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import reactor.core.publisher.WorkQueueProcessor;
 
+import java.net.URI;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED;
 import static com.twcable.grabbit.tools.monitor.JobState.FAILED;
 import static com.twcable.grabbit.tools.monitor.JobState.RUNNING;
 import static com.twcable.grabbit.tools.util.Utils.softened;
+import static java.util.Collections.singletonList;
 
 /**
  * A job monitor that continually polls hosts to get their current status.
@@ -58,21 +77,107 @@ public final class PollingJobMonitor {
      */
     public static final int POLLING_TIME = Integer.parseInt(System.getProperty("pollTime", "15000"));
 
+    /**
+     * The default number of worker threads used to poll jobs. Can change by setting the "pollParallelism" system
+     * property, otherwise defaults to 1, which polls every job in turn on the monitoring thread.
+     *
+     * @see B.Build#parallelism(int)
+     */
+    public static final int POLLING_PARALLELISM = Integer.parseInt(System.getProperty("pollParallelism", "1"));
+
+    /**
+     * The default maximum number of polls in flight against a single host when polling in parallel. Can change by
+     * setting the "pollMaxPerHost" system property, otherwise defaults to 4.
+     *
+     * @see B.Build#maxInFlightPerHost(int)
+     */
+    public static final int POLLING_MAX_PER_HOST = Integer.parseInt(System.getProperty("pollMaxPerHost", "4"));
+
+    /**
+     * The default maximum number of outstanding polls across all hosts when using an {@link AsyncJobStatusPoller}.
+     * Can change by setting the "pollMaxInFlight" system property, otherwise defaults to 256.
+     *
+     * @see B.Build#maxInFlight(int)
+     */
+    public static final int ASYNC_POLLING_MAX_IN_FLIGHT =
+        Integer.parseInt(System.getProperty("pollMaxInFlight", "256"));
+
+    /**
+     * Whether, by default, to retrieve all of a host's jobs in a single request. Can change by setting the
+     * "pollBatchPerHost" system property to "true", otherwise defaults to false.
+     *
+     * @see B.Build#batchPerHost(boolean)
+     */
+    public static final boolean POLLING_BATCH_PER_HOST = Boolean.getBoolean("pollBatchPerHost");
+
+    /**
+     * The longest period in milliseconds to wait between status requests for a job when the interval adapts to the
+     * job's progress. Can change by setting the "pollMaxTime" system property. If it is not more than
+     * {@link #POLLING_TIME} (the default) every job is polled every {@link #POLLING_TIME}.
+     *
+     * @see AdaptivePollInterval
+     */
+    public static final long POLLING_MAX_TIME = Long.parseLong(System.getProperty("pollMaxTime", "0"));
+
+    /**
+     * The shortest period in milliseconds to wait between status requests for a job when the interval adapts to the
+     * job's progress. Can change by setting the "pollMinTime" system property, otherwise defaults to
+     * {@link #POLLING_TIME}.
+     *
+     * @see AdaptivePollInterval
+     */
+    public static final long POLLING_MIN_TIME =
+        Long.parseLong(System.getProperty("pollMinTime", String.valueOf(POLLING_TIME)));
+
+    /**
+     * Whether, by default, to poll each job on its own schedule instead of in cycles. Can change by setting the
+     * "pollScheduled" system property to "true", otherwise defaults to false.
+     *
+     * @see B.Build#scheduler(ScheduledExecutorService)
+     */
+    public static final boolean POLLING_SCHEDULED = Boolean.getBoolean("pollScheduled");
+
     private final JobStatusCache jobStatusCache;
     private final ExecutorService executor;
     private final JobStatusPoller jobStatusPoller;
-    private final long sleepMs;
+    private final AsyncJobStatusPoller asyncJobStatusPoller;
+    private final @Nullable ScheduledExecutorService scheduler;
+    private final @Nullable BoundedParallelPoller parallelPoller;
+    private final @Nullable BatchJobStatusPoller batchPoller;
+    private final PollIntervalStrategy pollIntervalStrategy;
+    private final @Nullable Publisher<HostAndJobIds> startedJobs;
+    private final @Nullable AimdConcurrencyController concurrencyController;
 
 
     /**
      * Create a monitoring instance that uses polling to get the status of jobs.
+     *
+     * @param parallelPoller        if not null, the running jobs are polled through it rather than one at a time
+     * @param batchPoller           if not null, each host's jobs are retrieved with a single request when the
+     *                              host supports it
+     * @param scheduler             if not null, each job is polled on its own schedule using it, rather than in
+     *                              cycles
+     * @param startedJobs           if not null, jobs to add to the cache and monitor as they are started
+     * @param concurrencyController if not null, is told about every poll and decides how many jobs hosts run
      */
     private PollingJobMonitor(JobStatusCache jobStatusCache, JobStatusPoller jobStatusPoller,
-                              long sleepMs, ExecutorService executor) {
+                              AsyncJobStatusPoller asyncJobStatusPoller,
+                              @Nullable BoundedParallelPoller parallelPoller,
+                              @Nullable BatchJobStatusPoller batchPoller,
+                              PollIntervalStrategy pollIntervalStrategy, ExecutorService executor,
+                              @Nullable ScheduledExecutorService scheduler,
+                              @Nullable Publisher<HostAndJobIds> startedJobs,
+                              @Nullable AimdConcurrencyController concurrencyController) {
         this.jobStatusCache = jobStatusCache;
-        this.sleepMs = sleepMs;
+        this.startedJobs = startedJobs;
+        this.concurrencyController = concurrencyController;
+        this.pollIntervalStrategy = pollIntervalStrategy;
         this.executor = executor;
+        this.scheduler = scheduler;
         this.jobStatusPoller = jobStatusPoller;
+        this.asyncJobStatusPoller = asyncJobStatusPoller;
+        this.parallelPoller = parallelPoller;
+        this.batchPoller = batchPoller;
     }
 
 
@@ -103,6 +208,17 @@ public final class PollingJobMonitor {
      * PollingJobMonitor -->[ : EndMonitoringEvent
      * ....
      *
+     * When built with a {@link B.Build#scheduler(ScheduledExecutorService) scheduler}, each job is instead polled
+     * on its own schedule by {@link ScheduledMonitoring}.
+     *
+     * When built with {@link B.Build#startedJobs(Publisher) started jobs}, each host's jobs are added to the
+     * {@link JobStatusCache} and monitored as soon as they are started, with a {@link JobsStartedMonitoringEvent}
+     * (or a {@link com.twcable.grabbit.tools.monitor.event.StartFailedMonitoringEvent}), and monitoring carries on
+     * until every host has started its jobs and none are still running.
+     *
+     * When built with a {@link B.Build#concurrencyController(AimdConcurrencyController) concurrency controller},
+     * each of its decisions is published as a {@link ConcurrencyMonitoringEvent}.
+     *
      * @return the {@link Publisher} to send status updates out on
      * @see StartMonitoringEvent
      * @see PollingMonitoringEvent
@@ -110,11 +226,18 @@ public final class PollingJobMonitor {
      * @see FailedJobsMonitoringEvent
      * @see SleepMonitoringEvent
      * @see EndMonitoringEvent
+     * @see JobsStartedMonitoringEvent
      */
     public Publisher<MonitoringEvent> monitor() {
         final Processor<MonitoringEvent, MonitoringEvent> processor = WorkQueueProcessor.share(executor);
 
-        executor.execute(new MonitoringRunnable(processor));
+        if (scheduler != null) {
+            val scheduledMonitoring = new ScheduledMonitoring(processor, scheduler);
+            scheduler.execute(scheduledMonitoring::start);
+        }
+        else {
+            executor.execute(new MonitoringRunnable(processor));
+        }
 
         return processor;
     }
@@ -134,6 +257,23 @@ public final class PollingJobMonitor {
     public class MonitoringRunnable implements Runnable {
         private final Subscriber<MonitoringEvent> monitoringEventSubscriber;
 
+        /**
+         * Hosts that have shown they can not report all of their jobs at once.
+         */
+        private final Set<URI> unbatchedHosts = new HashSet<>();
+
+        /**
+         * The last progress seen for each running job.
+         */
+        private final Map<HostJobKey, JobProgress> progress = new HashMap<>();
+
+        /**
+         * When each running job is next due to be polled, in epoch milliseconds. A job that is not here is due now.
+         */
+        private final Map<HostJobKey, Long> nextPollTimes = new HashMap<>();
+
+        private @Nullable StartedJobsFeed startedJobsFeed;
+
 
         /**
          * @param monitoringEventSubscriber where to send monitoring results
@@ -146,20 +286,30 @@ public final class PollingJobMonitor {
         /**
          * At the start of each poll, will send a {@link StartMonitoringEvent}, followed by
          * {@link CompletedJobsMonitoringEvent} and {@link FailedJobsMonitoringEvent} with jobs populated as
-         * appropriate. As long as there are still running jobs, it will sleep and then poll again.
+         * appropriate. As long as there are still running jobs, it will sleep until the next job is due and then
+         * poll the jobs that are due.
          *
-         * When there are no more running jobs, an {@link EndMonitoringEvent} is sent and
-         * {@link Subscriber#onComplete()} is called.
+         * When there are no more running jobs, and no more are being started, an {@link EndMonitoringEvent} is
+         * sent and {@link Subscriber#onComplete()} is called.
          */
         @Override
         @SuppressWarnings("checkstyle:EmptyForIteratorPad")
         public void run() {
             val startTime = Instant.now();
+            if (startedJobs != null) {
+                startedJobsFeed = StartedJobsFeed.subscribe(startedJobs, () -> { });
+            }
 
             for (boolean hasRunningJobs = true; hasRunningJobs; ) {
                 hasRunningJobs = poll();
             }
 
+            val startedJobsError = (startedJobsFeed != null) ? startedJobsFeed.error() : null;
+            if (startedJobsError != null) {
+                monitoringEventSubscriber.onError(startedJobsError);
+                return;
+            }
+
             monitoringEventSubscriber.onNext(new EndMonitoringEvent(startTime, Instant.now()));
             monitoringEventSubscriber.onComplete();
         }
@@ -168,11 +318,30 @@ public final class PollingJobMonitor {
         private boolean poll() {
             monitoringEventSubscriber.onNext(new StartMonitoringEvent());
 
-            val jobResults = jobStatusesForRunningJobs(monitoringEventSubscriber);
+            if (startedJobsFeed != null) {
+                takeStartedJobs(monitoringEventSubscriber, startedJobsFeed);
+            }
+
+            val now = System.currentTimeMillis();
+            val runningEntries = jobStatusCache.running().stream().
+                collect(Collectors.<@NonNull HostJobState>toList());
+            val dueEntries = runningEntries.stream().
+                filter(entry -> nextPollTimes.getOrDefault(HostJobKey.of(entry), now) <= now).
+                collect(Collectors.<@NonNull HostJobState>toList());
+
+            val jobResults = jobStatusesForRunningJobs(monitoringEventSubscriber, dueEntries);
 
             publishCompletionReports(monitoringEventSubscriber, jobResults);
 
-            val hasRunningJobs = jobResults.stream().anyMatch(this::isRunning);
+            publishConcurrencyDecisions(monitoringEventSubscriber);
+
+            // persist everything this cycle changed in one write
+            jobStatusCache.flush();
+
+            scheduleNextPolls(jobResults);
+
+            val hasRunningJobs = jobResults.stream().anyMatch(this::isRunning) ||
+                runningEntries.size() > dueEntries.size() || isStartingJobs();
 
             if (hasRunningJobs) {
                 sleep(monitoringEventSubscriber);
@@ -181,6 +350,32 @@ public final class PollingJobMonitor {
         }
 
 
+        private boolean isStartingJobs() {
+            return startedJobsFeed != null && !startedJobsFeed.isDone();
+        }
+
+
+        /**
+         * Works out when each of the jobs that were just polled is next due, forgetting about those that are done.
+         */
+        private void scheduleNextPolls(Collection<JobStatus> jobResults) {
+            val polledAt = System.currentTimeMillis();
+            for (JobStatus jobStatus : jobResults) {
+                val key = new HostJobKey(jobStatus.uri(), jobStatus.jobExecutionId());
+                if (isRunning(jobStatus)) {
+                    val previous = progress.get(key);
+                    val current = JobProgress.next(previous, jobStatus, polledAt);
+                    progress.put(key, current);
+                    nextPollTimes.put(key, polledAt + pollIntervalStrategy.nextPollDelayMs(previous, current));
+                }
+                else {
+                    progress.remove(key);
+                    nextPollTimes.remove(key);
+                }
+            }
+        }
+
+
         private boolean isRunning(JobStatus jobStatus) {
             return jobStatus.state() == RUNNING;
         }
@@ -200,12 +395,27 @@ public final class PollingJobMonitor {
         }
 
 
-        private Collection<JobStatus> jobStatusesForRunningJobs(Subscriber<MonitoringEvent> subscriber) {
-            return jobStatusCache.entries().stream().
-                filter(entry -> entry.state() == RUNNING).
+        private Collection<JobStatus> jobStatusesForRunningJobs(Subscriber<MonitoringEvent> subscriber,
+                                                                List<HostJobState> runningEntries) {
+            if (batchPoller != null) {
+                return jobStatusesByHost(subscriber, runningEntries, batchPoller);
+            }
+            return jobStatusesForEntries(subscriber, runningEntries);
+        }
+
+
+        private Collection<JobStatus> jobStatusesForEntries(Subscriber<MonitoringEvent> subscriber,
+                                                            List<HostJobState> entries) {
+            if (parallelPoller != null) {
+                return jobStatusesInParallel(subscriber, entries, parallelPoller);
+            }
+
+            return entries.stream().
                 map(entry -> {
                     subscriber.onNext(new PollingMonitoringEvent(entry.location(), entry.jobId()));
+                    val pollStartMs = System.currentTimeMillis();
                     final JobStatus jobStatus = jobStatusPoller.pollJobStatus(entry.location(), entry.jobId());
+                    observePoll(jobStatus, pollStartMs);
                     jobStatusCache.put(entry.location(), jobStatus.jobExecutionId(), jobStatus.state());
                     return jobStatus;
                 }).
@@ -213,10 +423,110 @@ public final class PollingJobMonitor {
         }
 
 
+        /**
+         * Retrieves all of each host's jobs with one request, picking out the entries' jobs from it. Any job the
+         * host did not report on, and every job on a host that does not support it, is polled individually. A host
+         * that reports no jobs at all while it's known to have running ones is taken to not support it.
+         */
+        private Collection<JobStatus> jobStatusesByHost(Subscriber<MonitoringEvent> subscriber,
+                                                        List<HostJobState> entries, BatchJobStatusPoller poller) {
+            val entriesByHost = entries.stream().collect(Collectors.groupingBy(HostJobState::location,
+                LinkedHashMap::new, Collectors.<@NonNull HostJobState>toList()));
+
+            val jobStatuses = new ArrayList<JobStatus>(entries.size());
+            val individualEntries = new ArrayList<HostJobState>();
+
+            entriesByHost.forEach((location, hostEntries) -> {
+                if (unbatchedHosts.contains(location)) {
+                    individualEntries.addAll(hostEntries);
+                    return;
+                }
+
+                hostEntries.forEach(entry -> subscriber.onNext(new PollingMonitoringEvent(location, entry.jobId())));
+                final Map<Long, JobStatus> hostJobStatuses;
+                val pollStartMs = System.currentTimeMillis();
+                try {
+                    hostJobStatuses = poller.pollAllJobStatuses(location).stream().
+                        collect(Collectors.toMap(JobStatus::jobExecutionId, Function.identity(), (a, b) -> b));
+                }
+                catch (UnsupportedOperationException e) {
+                    unbatchedHosts.add(location);
+                    individualEntries.addAll(hostEntries);
+                    return;
+                }
+                if (hostJobStatuses.isEmpty()) {
+                    unbatchedHosts.add(location);
+                    individualEntries.addAll(hostEntries);
+                    return;
+                }
+
+                for (HostJobState entry : hostEntries) {
+                    val jobStatus = hostJobStatuses.get(entry.jobId());
+                    if (jobStatus == null) {
+                        individualEntries.add(entry);
+                    }
+                    else {
+                        observePoll(jobStatus, pollStartMs);
+                        jobStatusCache.put(location, jobStatus.jobExecutionId(), jobStatus.state());
+                        jobStatuses.add(jobStatus);
+                    }
+                }
+            });
+
+            jobStatuses.addAll(jobStatusesForEntries(subscriber, individualEntries));
+            return jobStatuses;
+        }
+
+
+        /**
+         * Polls all the entries at once. A {@link ConcurrentJobStatusCache} is updated by each poll as it returns;
+         * any other cache only after every poll in the cycle has returned, so it's never touched by more than one
+         * thread.
+         */
+        private Collection<JobStatus> jobStatusesInParallel(Subscriber<MonitoringEvent> subscriber,
+                                                            List<HostJobState> runningEntries,
+                                                            BoundedParallelPoller poller) {
+            final Consumer<HostJobState> onDispatch = entry ->
+                subscriber.onNext(new PollingMonitoringEvent(entry.location(), entry.jobId()));
+            val concurrentCache = (jobStatusCache instanceof ConcurrentJobStatusCache) ?
+                (ConcurrentJobStatusCache)jobStatusCache : null;
+
+            // the polls overlap, so each is taken to have taken as long as all of them
+            val pollStartMs = System.currentTimeMillis();
+            val jobStatuses = (concurrentCache != null) ?
+                poller.pollAll(runningEntries, onDispatch, (entry, jobStatus) ->
+                    concurrentCache.put(entry.location(), jobStatus.jobExecutionId(), jobStatus.state())) :
+                poller.pollAll(runningEntries, onDispatch);
+
+            for (int i = 0; i < jobStatuses.size(); i++) {
+                val location = runningEntries.get(i).location();
+                val jobStatus = jobStatuses.get(i);
+                observePoll(jobStatus, pollStartMs);
+                if (concurrentCache == null) {
+                    jobStatusCache.put(location, jobStatus.jobExecutionId(), jobStatus.state());
+                }
+            }
+            return jobStatuses;
+        }
+
+
+        /**
+         * Sleeps until the next running job is due to be polled.
+         */
         private void sleep(Subscriber<MonitoringEvent> subscriber) {
+            val now = System.currentTimeMillis();
+            val nextPollTime = nextPollTimes.values().stream().mapToLong(Long::longValue).min().orElse(now);
+            val sleepMs = Math.max(0L, nextPollTime - now);
+
             subscriber.onNext(new SleepMonitoringEvent(sleepMs));
             try {
-                Thread.sleep(sleepMs);
+                if (startedJobsFeed != null && isStartingJobs()) {
+                    // wake up early for jobs that have just been started; with nothing to poll, wait for them
+                    startedJobsFeed.awaitArrival(nextPollTimes.isEmpty() ? 0L : Math.max(sleepMs, 1L));
+                }
+                else {
+                    Thread.sleep(sleepMs);
+                }
             }
             catch (InterruptedException e) {
                 throw softened(e);
@@ -225,6 +535,202 @@ public final class PollingJobMonitor {
     }
 
 
+    /**
+     * Polls each running job on its own schedule, using a {@link ScheduledExecutorService} to keep a next-poll
+     * deadline per job. A slow host only delays its own jobs, and no thread is held while waiting for a job to be
+     * due.
+     * <p>
+     * A {@link StartMonitoringEvent} is sent once at the start. Each poll sends a {@link PollingMonitoringEvent},
+     * and a job is reported in its own {@link CompletedJobsMonitoringEvent} or {@link FailedJobsMonitoringEvent}
+     * as soon as it is seen to be done. When no jobs are left running an {@link EndMonitoringEvent} is sent and
+     * {@link Subscriber#onComplete()} is called. If a poll fails, {@link Subscriber#onError(Throwable)} is called
+     * and no further polls are made.
+     * <p>
+     * Results are handled under a lock, so neither the {@link JobStatusCache} nor the {@link Subscriber} sees more
+     * than one thread at a time.
+     */
+    public class ScheduledMonitoring {
+        private final Subscriber<MonitoringEvent> monitoringEventSubscriber;
+        private final ScheduledExecutorService scheduler;
+        private final Map<HostJobKey, JobProgress> progress = new HashMap<>();
+        private final Instant startTime = Instant.now();
+        private int outstanding;
+        private boolean stopped;
+        private @Nullable StartedJobsFeed startedJobsFeed;
+
+
+        /**
+         * @param monitoringEventSubscriber where to send monitoring results
+         * @param scheduler                 what to schedule the polls with
+         */
+        public ScheduledMonitoring(Subscriber<MonitoringEvent> monitoringEventSubscriber,
+                                   ScheduledExecutorService scheduler) {
+            this.monitoringEventSubscriber = monitoringEventSubscriber;
+            this.scheduler = scheduler;
+        }
+
+
+        /**
+         * Schedules an immediate poll of every running job, and of each job that is started from then on.
+         */
+        public synchronized void start() {
+            monitoringEventSubscriber.onNext(new StartMonitoringEvent());
+
+            val runningEntries = jobStatusCache.running().stream().
+                map(HostJobKey::of).
+                collect(Collectors.<@NonNull HostJobKey>toList());
+
+            outstanding = runningEntries.size();
+            runningEntries.forEach(key -> schedule(key, 0L));
+
+            if (startedJobs != null) {
+                startedJobsFeed = StartedJobsFeed.subscribe(startedJobs,
+                    () -> scheduler.execute(this::addStartedJobs));
+            }
+            addStartedJobs();
+        }
+
+
+        private synchronized void addStartedJobs() {
+            if (stopped) {
+                return;
+            }
+            if (startedJobsFeed != null) {
+                takeStartedJobs(monitoringEventSubscriber, startedJobsFeed).forEach(key -> {
+                    outstanding++;
+                    schedule(key, 0L);
+                });
+            }
+            endIfDone();
+        }
+
+
+        private void endIfDone() {
+            if (stopped) {
+                return;
+            }
+            val startedJobsError = (startedJobsFeed != null) ? startedJobsFeed.error() : null;
+            if (startedJobsError != null) {
+                stopped = true;
+                monitoringEventSubscriber.onError(startedJobsError);
+            }
+            else if (outstanding == 0 && (startedJobsFeed == null || startedJobsFeed.isDone())) {
+                end();
+            }
+        }
+
+
+        private void schedule(HostJobKey key, long delayMs) {
+            scheduler.schedule(() -> poll(key), delayMs, TimeUnit.MILLISECONDS);
+        }
+
+
+        private void poll(HostJobKey key) {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                monitoringEventSubscriber.onNext(new PollingMonitoringEvent(key.location(), key.jobId()));
+            }
+
+            val pollStartMs = System.currentTimeMillis();
+            try {
+                asyncJobStatusPoller.pollJobStatusAsync(key.location(), key.jobId()).
+                    whenComplete((jobStatus, exp) -> polled(key, jobStatus, exp, pollStartMs));
+            }
+            catch (RuntimeException e) {
+                polled(key, null, e, pollStartMs);
+            }
+        }
+
+
+        private synchronized void polled(HostJobKey key, @Nullable JobStatus jobStatus, @Nullable Throwable exp,
+                                         long pollStartMs) {
+            if (stopped) {
+                return;
+            }
+            if (jobStatus == null) {
+                stopped = true;
+                val cause = (exp instanceof CompletionException && exp.getCause() != null) ? exp.getCause() : exp;
+                monitoringEventSubscriber.onError(cause != null ? cause :
+                    new IllegalStateException("No status returned for job " + key.jobId() + " on " + key.location()));
+                return;
+            }
+
+            jobStatusCache.put(key.location(), jobStatus.jobExecutionId(), jobStatus.state());
+            observePoll(jobStatus, pollStartMs);
+            publishConcurrencyDecisions(monitoringEventSubscriber);
+
+            if (jobStatus.state() == RUNNING) {
+                val previous = progress.get(key);
+                val current = JobProgress.next(previous, jobStatus, System.currentTimeMillis());
+                progress.put(key, current);
+                schedule(key, pollIntervalStrategy.nextPollDelayMs(previous, current));
+                return;
+            }
+
+            progress.remove(key);
+            if (jobStatus.state() == COMPLETED) {
+                monitoringEventSubscriber.onNext(new CompletedJobsMonitoringEvent(singletonList(jobStatus)));
+            }
+            else if (jobStatus.state() == FAILED) {
+                monitoringEventSubscriber.onNext(new FailedJobsMonitoringEvent(singletonList(jobStatus)));
+            }
+
+            outstanding--;
+            endIfDone();
+        }
+
+
+        private void end() {
+            stopped = true;
+            jobStatusCache.flush();
+            monitoringEventSubscriber.onNext(new EndMonitoringEvent(startTime, Instant.now()));
+            monitoringEventSubscriber.onComplete();
+        }
+    }
+
+
+    private void observePoll(JobStatus jobStatus, long pollStartMs) {
+        if (concurrencyController != null) {
+            val now = System.currentTimeMillis();
+            concurrencyController.observe(jobStatus, now - pollStartMs, now);
+        }
+    }
+
+
+    /**
+     * Publishes the decisions the {@link AimdConcurrencyController}, if there is one, has come to.
+     */
+    private void publishConcurrencyDecisions(Subscriber<MonitoringEvent> subscriber) {
+        if (concurrencyController != null) {
+            concurrencyController.decide(System.currentTimeMillis()).forEach(subscriber::onNext);
+        }
+    }
+
+
+    /**
+     * Adds the jobs that have been started since the last time this was called to the {@link JobStatusCache} as
+     * RUNNING, publishing an event for each host.
+     *
+     * @return the jobs that were added
+     */
+    private List<HostJobKey> takeStartedJobs(Subscriber<MonitoringEvent> subscriber, StartedJobsFeed feed) {
+        val added = new ArrayList<HostJobKey>();
+        for (MonitoringEvent event : feed.drain()) {
+            if (event instanceof JobsStartedMonitoringEvent) {
+                val jobsStarted = (JobsStartedMonitoringEvent)event;
+                for (Long jobId : jobsStarted.jobIds) {
+                    jobStatusCache.put(jobsStarted.location, jobId, RUNNING);
+                    added.add(new HostJobKey(jobsStarted.location, jobId));
+                }
+            }
+            subscriber.onNext(event);
+        }
+        return added;
+    }
+
+
     /**
      * Simple namespace for builder classes/interfaces.
      *
@@ -237,8 +743,18 @@ public final class PollingJobMonitor {
             private @MonotonicNonNull JobStatusCache jobStatusCache;
             private @MonotonicNonNull ExecutorService executorService;
             private @MonotonicNonNull JobStatusPoller jobStatusPoller;
+            private @MonotonicNonNull AsyncJobStatusPoller asyncJobStatusPoller;
             private @MonotonicNonNull Environment environment;
+            private @MonotonicNonNull ExecutorService pollingExecutor;
             private long sleepMs = -1;
+            private @MonotonicNonNull PollIntervalStrategy pollIntervalStrategy;
+            private @MonotonicNonNull ScheduledExecutorService scheduler;
+            private int parallelism = POLLING_PARALLELISM;
+            private int maxInFlight = -1;
+            private int maxInFlightPerHost = POLLING_MAX_PER_HOST;
+            private boolean batchPerHost = POLLING_BATCH_PER_HOST;
+            private @MonotonicNonNull Publisher<HostAndJobIds> startedJobs;
+            private @MonotonicNonNull AimdConcurrencyController concurrencyController;
 
 
             @SuppressWarnings({"RedundantCast", "PMD.AvoidLiteralsInIfCondition"})
@@ -252,6 +768,29 @@ public final class PollingJobMonitor {
                     Runtime.getRuntime().addShutdownHook(shutdownThread);
                 }
 
+                if (sleepMs < 1L) {
+                    sleepMs = POLLING_TIME;
+                }
+
+                if (pollIntervalStrategy == null) {
+                    pollIntervalStrategy = (POLLING_MAX_TIME > sleepMs) ?
+                        new AdaptivePollInterval(Math.min(POLLING_MIN_TIME, sleepMs), POLLING_MAX_TIME) :
+                        PollIntervalStrategy.fixed(sleepMs);
+                }
+
+                if (scheduler == null && POLLING_SCHEDULED) {
+                    val scheduler = Executors.newScheduledThreadPool(Math.max(parallelism, 1));
+                    this.scheduler = scheduler;
+
+                    // make sure the Executor shuts down cleanly
+                    val shutdownThread = new Thread(scheduler::shutdown, "PollingJobMonitor scheduler shutdown");
+                    Runtime.getRuntime().addShutdownHook(shutdownThread);
+                }
+
+                if (asyncJobStatusPoller != null) {
+                    return buildAsync(asyncJobStatusPoller, pollIntervalStrategy);
+                }
+
                 if (jobStatusPoller == null) {
                     if (environment == null) {
                         // should be impossible
@@ -260,12 +799,55 @@ public final class PollingJobMonitor {
                     jobStatusPoller = new RemoteJobStatusPoller(environment);
                 }
 
-                if (sleepMs < 1L) {
-                    sleepMs = POLLING_TIME;
+                val batchPoller = (batchPerHost && jobStatusPoller instanceof BatchJobStatusPoller) ?
+                    (BatchJobStatusPoller)jobStatusPoller : null;
+
+                // blocking polls made on a schedule run on the polling pool if there is one, otherwise the scheduler
+                final Executor blockingPollExecutor = (pollingExecutor != null) ? pollingExecutor :
+                    (scheduler != null) ? scheduler : (@NonNull ExecutorService)executorService;
+                val asyncPoller = AsyncJobStatusPoller.fromBlocking(jobStatusPoller, blockingPollExecutor);
+
+                return new PollingJobMonitor((@NonNull JobStatusCache)jobStatusCache, jobStatusPoller, asyncPoller,
+                    parallelPoller(jobStatusPoller), batchPoller, pollIntervalStrategy,
+                    (@NonNull ExecutorService)executorService, scheduler, startedJobs, concurrencyController);
+            }
+
+
+            /**
+             * With a non-blocking poller the running jobs are always polled in parallel, with no worker pool.
+             */
+            @SuppressWarnings("RedundantCast")
+            private PollingJobMonitor buildAsync(AsyncJobStatusPoller asyncPoller,
+                                                 PollIntervalStrategy pollIntervalStrategy) {
+                val inFlight = (maxInFlight < 1) ? ASYNC_POLLING_MAX_IN_FLIGHT : maxInFlight;
+                val parallelPoller = new BoundedParallelPoller(asyncPoller, inFlight, maxInFlightPerHost);
+                final JobStatusPoller blockingPoller = (location, jobId) ->
+                    asyncPoller.pollJobStatusAsync(location, jobId).join();
+
+                return new PollingJobMonitor((@NonNull JobStatusCache)jobStatusCache, blockingPoller, asyncPoller,
+                    parallelPoller, null, pollIntervalStrategy, (@NonNull ExecutorService)executorService, scheduler,
+                    startedJobs, concurrencyController);
+            }
+
+
+            @SuppressWarnings("PMD.AvoidLiteralsInIfCondition")
+            private @Nullable BoundedParallelPoller parallelPoller(JobStatusPoller poller) {
+                if (parallelism <= 1 && pollingExecutor == null) {
+                    return null;
+                }
+
+                if (pollingExecutor == null) {
+                    val pollingExecutor = Executors.newFixedThreadPool(parallelism);
+                    this.pollingExecutor = pollingExecutor;
+
+                    // make sure the Executor shuts down cleanly
+                    val shutdownThread = new Thread(pollingExecutor::shutdown, "PollingJobMonitor polling shutdown");
+                    Runtime.getRuntime().addShutdownHook(shutdownThread);
                 }
 
-                return new PollingJobMonitor((@NonNull JobStatusCache)jobStatusCache, jobStatusPoller,
-                    sleepMs, (@NonNull ExecutorService)executorService);
+                val inFlight = (maxInFlight < 1) ? Math.max(parallelism, 1) : maxInFlight;
+                return new BoundedParallelPoller(poller, (@NonNull ExecutorService)pollingExecutor,
+                    inFlight, maxInFlightPerHost);
             }
 
 
@@ -294,10 +876,70 @@ public final class PollingJobMonitor {
             }
 
 
+            public Build asyncPoller(AsyncJobStatusPoller asyncJobStatusPoller) {
+                this.asyncJobStatusPoller = asyncJobStatusPoller;
+                return this;
+            }
+
+
             public Build sleep(long sleepMs) {
                 this.sleepMs = sleepMs;
                 return this;
             }
+
+
+            public Build pollInterval(PollIntervalStrategy pollIntervalStrategy) {
+                this.pollIntervalStrategy = pollIntervalStrategy;
+                return this;
+            }
+
+
+            public Build scheduler(ScheduledExecutorService scheduler) {
+                this.scheduler = scheduler;
+                return this;
+            }
+
+
+            public Build parallelism(int parallelism) {
+                this.parallelism = parallelism;
+                return this;
+            }
+
+
+            public Build pollingExecutor(ExecutorService pollingExecutor) {
+                this.pollingExecutor = pollingExecutor;
+                return this;
+            }
+
+
+            public Build maxInFlight(int maxInFlight) {
+                this.maxInFlight = maxInFlight;
+                return this;
+            }
+
+
+            public Build maxInFlightPerHost(int maxInFlightPerHost) {
+                this.maxInFlightPerHost = maxInFlightPerHost;
+                return this;
+            }
+
+
+            public Build batchPerHost(boolean batchPerHost) {
+                this.batchPerHost = batchPerHost;
+                return this;
+            }
+
+
+            public Build startedJobs(Publisher<HostAndJobIds> startedJobs) {
+                this.startedJobs = startedJobs;
+                return this;
+            }
+
+
+            public Build concurrencyController(AimdConcurrencyController concurrencyController) {
+                this.concurrencyController = concurrencyController;
+                return this;
+            }
         }
 
         interface Build {
@@ -309,10 +951,99 @@ public final class PollingJobMonitor {
             Build poller(JobStatusPoller jobStatusPoller);
 
 
+            /**
+             * A non-blocking strategy to use for polling. Takes precedence over a blocking {@link JobStatusPoller},
+             * and always polls the running jobs in parallel within the {@link #maxInFlight(int)} and
+             * {@link #maxInFlightPerHost(int)} limits.
+             *
+             * @see NioJobStatusPoller
+             */
+            Build asyncPoller(AsyncJobStatusPoller asyncJobStatusPoller);
+
+
             /**
              * The number of milliseconds to sleep between polling requests.
              */
             Build sleep(long sleepMs);
+
+
+            /**
+             * How to decide when each running job is next polled. Defaults to polling every job every
+             * {@link #sleep(long)} milliseconds, unless {@link PollingJobMonitor#POLLING_MAX_TIME} is set.
+             *
+             * @see AdaptivePollInterval
+             */
+            Build pollInterval(PollIntervalStrategy pollIntervalStrategy);
+
+
+            /**
+             * Poll each running job on its own schedule using the given {@link ScheduledExecutorService}, instead
+             * of polling all of the jobs that are due in cycles with a sleep in between. Blocking polls run on the
+             * {@link #pollingExecutor(ExecutorService)} if there is one, otherwise on the scheduler.
+             * <p>
+             * Host batching and the in-flight limits only apply to polling in cycles.
+             *
+             * @see ScheduledMonitoring
+             * @see PollingJobMonitor#POLLING_SCHEDULED
+             */
+            Build scheduler(ScheduledExecutorService scheduler);
+
+
+            /**
+             * The number of worker threads to poll jobs with. Anything more than 1 polls the running jobs in
+             * parallel, with the completed and failed jobs still reported once per polling cycle.
+             *
+             * @see PollingJobMonitor#POLLING_PARALLELISM
+             */
+            Build parallelism(int parallelism);
+
+
+            /**
+             * The {@link ExecutorService} to run parallel polls on, instead of creating one sized by
+             * {@link #parallelism(int)}. Providing one turns on parallel polling.
+             */
+            Build pollingExecutor(ExecutorService pollingExecutor);
+
+
+            /**
+             * The maximum number of polls in flight at once across all hosts when polling in parallel. Defaults
+             * to the {@link #parallelism(int)}, or {@link PollingJobMonitor#ASYNC_POLLING_MAX_IN_FLIGHT} for an
+             * {@link AsyncJobStatusPoller}.
+             */
+            Build maxInFlight(int maxInFlight);
+
+
+            /**
+             * The maximum number of polls in flight at once against a single host when polling in parallel.
+             *
+             * @see PollingJobMonitor#POLLING_MAX_PER_HOST
+             */
+            Build maxInFlightPerHost(int maxInFlightPerHost);
+
+
+            /**
+             * Whether to retrieve all of a host's jobs with a single request instead of a request per job. Only
+             * takes effect if the {@link JobStatusPoller} is a {@link BatchJobStatusPoller}; hosts that do not
+             * support it are polled a job at a time.
+             *
+             * @see PollingJobMonitor#POLLING_BATCH_PER_HOST
+             */
+            Build batchPerHost(boolean batchPerHost);
+
+
+            /**
+             * Jobs that are being started, such as from {@link com.twcable.grabbit.tools.jobstarter.JobStarter}.
+             * Each host's jobs are added to the {@link JobStatusCache} and monitored as soon as they are started,
+             * rather than waiting for every host, and monitoring doesn't end until every host has started its jobs.
+             */
+            Build startedJobs(Publisher<HostAndJobIds> startedJobs);
+
+
+            /**
+             * Tells the controller about every poll, publishing each decision it makes about how many jobs a host
+             * should run as a {@link ConcurrencyMonitoringEvent}.
+             */
+            Build concurrencyController(AimdConcurrencyController concurrencyController);
         }
 
         interface WithExecutor {
@@ -16,38 +16,54 @@
 package com.twcable.grabbit.tools.monitor;
 
 import com.twcable.grabbit.tools.environment.Environment;
-import com.twcable.grabbit.tools.environment.HostInfo;
-import com.twcable.grabbit.tools.environment.UsernameAndPassword;
+import com.twcable.grabbit.tools.environment.HostIndex;
+import com.twcable.grabbit.tools.http.HttpTransport;
 import com.twcable.grabbit.tools.util.Utils;
 import lombok.Value;
 import lombok.val;
 
-import java.io.BufferedInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.ConnectException;
-import java.net.HttpURLConnection;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.Collection;
 
 /**
  * A {@link JobStatusPoller} that connects to a remote instance for job information.
+ * <p>
+ * All of the jobs on a host can be retrieved at once using Grabbit's "all" pseudo-job id.
+ * <p>
+ * Requests go through an {@link HttpTransport}, so connections to a host are kept open between polls. The hosts are
+ * indexed, with their "Authorization" headers, when the poller is created.
  */
 @Value
 @SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier", "PMD.CommentDefaultAccessModifier"})
-public class RemoteJobStatusPoller implements JobStatusPoller {
+public class RemoteJobStatusPoller implements BatchJobStatusPoller {
     Environment environment;
+    HttpTransport transport;
+    HostIndex hostIndex;
+
+
+    /**
+     * Uses the {@link HttpTransport#shared() shared} transport.
+     */
+    public RemoteJobStatusPoller(Environment environment) {
+        this(environment, HttpTransport.shared());
+    }
+
+
+    public RemoteJobStatusPoller(Environment environment, HttpTransport transport) {
+        this.environment = environment;
+        this.transport = transport;
+        this.hostIndex = HostIndex.of(environment);
+    }
 
 
     @Override
     public JobStatus pollJobStatus(URI location, long jobId) {
         try {
-            val jobStatusStream = jobStatusOnClient(location, jobId);
-            val jobStatusStr = Utils.toString(jobStatusStream);
-
-            // may be needed for psuedo-jobs ids like "all", but that's not used here...
-            // jobStatusStr = jobStatusStr.replaceFirst("\\[", "").replaceFirst("\\]", ""));
-
-            return JobStatus.fromJson(location, jobStatusStr);
+            return JobStatus.fromJsonStream(location, jobStatusOnClient(location, String.valueOf(jobId)));
         }
         catch (IOException e) {
             throw Utils.softened(e);
@@ -55,32 +71,41 @@ public class RemoteJobStatusPoller implements JobStatusPoller {
     }
 
 
-    @SuppressWarnings("PMD.PreserveStackTrace")
-    private BufferedInputStream jobStatusOnClient(URI baseUri, long jobId) throws IOException {
-        val url = new URL(baseUri.toURL(), "/grabbit/job/" + jobId + ".json");
+    /**
+     * Retrieves every job on the host using the "all" pseudo-job id.
+     *
+     * @throws UnsupportedOperationException if the host does not know about the "all" pseudo-job id, or what
+     *                                       it returns is not an array of job statuses
+     */
+    @Override
+    public Collection<JobStatus> pollAllJobStatuses(URI location) {
         try {
-            val httpCon = (HttpURLConnection)url.openConnection();
-            httpCon.setDoOutput(true);
-            httpCon.setRequestMethod("GET");
-            // httpCon.setRequestProperty("Content-Type", "application/json");
-            val credentials = credentialsFor(baseUri);
-            httpCon.setRequestProperty("Authorization", "Basic " + credentials.basicAuthEncode());
-            return new BufferedInputStream(httpCon.getInputStream());
+            return JobStatus.fromJsonArrayStream(location, jobStatusOnClient(location, "all"));
+        }
+        catch (FileNotFoundException | IllegalArgumentException e) {
+            throw new UnsupportedOperationException(location + " does not support retrieving all jobs: " +
+                e.getMessage(), e);
         }
-        catch (ConnectException e) {
-            val newExp = new ConnectException(e.getMessage() + " when trying to connect to " + url);
-            newExp.setStackTrace(e.getStackTrace());
-            throw newExp;
+        catch (IOException e) {
+            throw Utils.softened(e);
         }
     }
 
 
-    private UsernameAndPassword credentialsFor(URI baseUri) {
-        return environment.allHosts().
-            filter(hostInfo -> hostInfo.baseUri().equals(baseUri)).
-            map(HostInfo::credentials).
-            findFirst().
-            orElseThrow(() -> new IllegalStateException("Could not find a match for " + baseUri));
+    private InputStream jobStatusOnClient(URI baseUri, String jobId) throws IOException {
+        val url = new URL(baseUri.toURL(), "/grabbit/job/" + jobId + ".json");
+        val response = transport.get(url, authorizationFor(baseUri));
+        return response.successBodyStream(url.toString());
+    }
+
+
+    /**
+     * The "Authorization" header value for the host.
+     *
+     * @throws IllegalStateException if the host is not in the environment
+     */
+    String authorizationFor(URI baseUri) {
+        return hostIndex.authorizationFor(baseUri);
     }
 
 }
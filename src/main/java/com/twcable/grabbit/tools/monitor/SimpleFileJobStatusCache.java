@@ -24,6 +24,8 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -31,9 +33,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -44,40 +50,71 @@ import static java.nio.charset.Charset.defaultCharset;
 /**
  * A simple file-based persistent implementation of {@link JobStatusCache}.
  * <p>
+ * By default the whole file is rewritten on every change. When created with a {@link GroupCommitPolicy}, changes
+ * are instead buffered and written together when the cache is {@link #flush() flushed}. Either way the file is
+ * written to a temporary file that then replaces it, so a crash part way through a write never leaves a
+ * half-written file.
+ * <p>
  * It explicitly is NOT designed for performance, thread-safety, or multiple processes.
  */
 @SuppressWarnings({"WeakerAccess", "RedundantTypeArguments", "checkstyle:MultipleStringLiterals"})
-public final class SimpleFileJobStatusCache extends SimpleMapJobStatusCache {
+public final class SimpleFileJobStatusCache extends SimpleMapJobStatusCache implements Closeable {
     private final File file;
+    private final @Nullable GroupCommitPolicy groupCommitPolicy;
+    private boolean loaded;
+    private long pendingSinceMs = -1;
 
 
-    private SimpleFileJobStatusCache(File file) {
+    private SimpleFileJobStatusCache(File file, @Nullable GroupCommitPolicy groupCommitPolicy) {
         this.file = file;
+        this.groupCommitPolicy = groupCommitPolicy;
     }
 
 
     public static SimpleFileJobStatusCache open(File file) throws IOException {
+        return open(file, null);
+    }
+
+
+    /**
+     * @param groupCommitPolicy if not null, changes are buffered until {@link #flush()} rather than written
+     *                          immediately
+     */
+    public static SimpleFileJobStatusCache open(File file,
+                                                @Nullable GroupCommitPolicy groupCommitPolicy) throws IOException {
         if (!file.exists()) {
             throw new FileNotFoundException("\"" + file.getCanonicalPath() + "\" does not exist");
         }
-        return new SimpleFileJobStatusCache(file);
+        return new SimpleFileJobStatusCache(file, groupCommitPolicy);
     }
 
 
+    public static SimpleFileJobStatusCache createEmpty(File file) throws IOException {
+        return createEmpty(file, null);
+    }
+
+
+    /**
+     * @param groupCommitPolicy if not null, changes are buffered until {@link #flush()} rather than written
+     *                          immediately
+     */
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
-    public static SimpleFileJobStatusCache createEmpty(File file) throws IOException {
+    public static SimpleFileJobStatusCache createEmpty(File file,
+                                                       @Nullable GroupCommitPolicy groupCommitPolicy)
+        throws IOException {
         Files.deleteIfExists(file.toPath());
         file.createNewFile();
-        return new SimpleFileJobStatusCache(file);
+        return new SimpleFileJobStatusCache(file, groupCommitPolicy);
     }
 
 
     @Override
     @EnsuresNonNull("hostJobStates")
     public Collection<HostJobState> entries() {
-        if (hostJobStates == null) {
+        if (!loaded) {
             hostJobStates = readFile();
+            loaded = true;
         }
         return hostJobStates;
     }
@@ -95,26 +132,62 @@ public final class SimpleFileJobStatusCache extends SimpleMapJobStatusCache {
 
         // only pay the price of writing if the entry was added/changed
         if (oldEntry == null || (oldEntry.state() != entry.state())) {
-            writeFile();
+            if (groupCommitPolicy == null) {
+                writeFile(false);
+            }
+            else {
+                val now = System.currentTimeMillis();
+                if (pendingSinceMs < 0) {
+                    pendingSinceMs = now;
+                }
+                if (groupCommitPolicy.isOverdue(pendingSinceMs, now)) {
+                    writePending();
+                }
+            }
         }
 
         return oldEntry;
     }
 
 
+    /**
+     * Writes any buffered changes, as the {@link GroupCommitPolicy}'s {@link DurabilityPolicy} calls for.
+     */
+    @Override
+    public void flush() {
+        if (groupCommitPolicy != null && groupCommitPolicy.durability() != DurabilityPolicy.NONE) {
+            writePending();
+        }
+    }
+
+
+    /**
+     * Writes any buffered changes, whatever the {@link DurabilityPolicy}.
+     */
+    @Override
+    public void close() {
+        writePending();
+    }
+
+
+    @SuppressWarnings("contracts")
+    private void writePending() {
+        if (pendingSinceMs >= 0) {
+            writeFile(groupCommitPolicy != null && groupCommitPolicy.durability() == DurabilityPolicy.FSYNC);
+            pendingSinceMs = -1;
+        }
+    }
+
+
     protected List<HostJobState> readFile() {
         try {
             val inputStream = new FileInputStream(file);
             val inputStreamReader = new InputStreamReader(inputStream, defaultCharset());
             val fileReader = new BufferedReader(inputStreamReader);
             try {
-                return fileReader.lines().map(line -> {
-                    final String[] data = line.split(",");
-                    final String location = data[0].trim();
-                    final long jobId = Long.parseLong(data[1].trim());
-                    final String state = data[2].trim();
-                    return new HostJobState(URI.create(location), jobId, JobState.valueOf(state));
-                }).collect(Collectors.<@NonNull HostJobState>toList());
+                return fileReader.lines().
+                    map(SimpleFileJobStatusCache::fromCsvLine).
+                    collect(Collectors.<@NonNull HostJobState>toList());
             }
             finally {
                 Utils.close(fileReader);
@@ -126,20 +199,80 @@ public final class SimpleFileJobStatusCache extends SimpleMapJobStatusCache {
     }
 
 
+    /**
+     * Writes all of the entries to a temporary file, which then replaces the file.
+     *
+     * @param sync whether to wait for the data to reach the disk
+     */
     @RequiresNonNull("hostJobStates")
-    protected void writeFile() {
-        Writer fileWriter = null;
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    @SuppressFBWarnings("RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
+    protected void writeFile(boolean sync) {
+        val tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".writing");
         try {
-            fileWriter = new OutputStreamWriter(new FileOutputStream(file), defaultCharset());
-            val lineWriter = Utils.lineWriter(fileWriter);
-            hostJobStates.stream().map(e -> e.location() + "," + e.jobId() + "," + e.state()).forEach(lineWriter);
+            try (FileOutputStream outputStream = new FileOutputStream(tempFile)) {
+                val fileWriter = new BufferedWriter(new OutputStreamWriter(outputStream, defaultCharset()));
+                val lineWriter = Utils.lineWriter(fileWriter);
+                hostJobStates.stream().map(SimpleFileJobStatusCache::asCsvLine).forEach(lineWriter);
+                fileWriter.flush();
+                if (sync) {
+                    outputStream.getFD().sync();
+                }
+            }
+            replaceFile(tempFile.toPath(), file.toPath(), sync);
         }
-        catch (IOException e) {
+        catch (IOException | RuntimeException e) {
+            tempFile.delete();
             throw softened(e);
         }
-        finally {
-            Utils.flushAndClose(fileWriter);
+    }
+
+
+    /**
+     * Atomically moves the source over the target, where the file system allows it.
+     *
+     * @param sync whether to wait for the rename to reach the disk
+     */
+    static void replaceFile(Path source, Path target, boolean sync) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (sync) {
+            val directory = target.toAbsolutePath().getParent();
+            if (directory != null) {
+                try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                    channel.force(true);
+                }
+                catch (IOException ignored) {
+                    // not every platform can sync a directory; the file itself has already been synced
+                }
+            }
         }
     }
 
+
+    /**
+     * Parses a line of the file, such as "http://host:4503,123,RUNNING".
+     *
+     * @throws RuntimeException if the line is not in that form
+     */
+    static HostJobState fromCsvLine(String line) {
+        final String[] data = line.split(",");
+        final String location = data[0].trim();
+        final long jobId = Long.parseLong(data[1].trim());
+        final String state = data[2].trim();
+        return new HostJobState(URI.create(location), jobId, JobState.valueOf(state));
+    }
+
+
+    /**
+     * Formats the entry as a line of the file, without the line separator.
+     */
+    static String asCsvLine(HostJobState entry) {
+        return entry.location() + "," + entry.jobId() + "," + entry.state();
+    }
+
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor;
+
+import com.twcable.grabbit.tools.jobstarter.HostAndJobIds;
+import com.twcable.grabbit.tools.monitor.event.JobsStartedMonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.MonitoringEvent;
+import com.twcable.grabbit.tools.monitor.event.StartFailedMonitoringEvent;
+import lombok.val;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the jobs as they are started on each host, so {@link PollingJobMonitor} can start monitoring a host's
+ * jobs as soon as they exist instead of waiting for every host.
+ * <p>
+ * Each host is turned into a {@link JobsStartedMonitoringEvent}, or a {@link StartFailedMonitoringEvent} if its
+ * jobs could not be started, which the monitor {@link #drain() drains} and adds to its {@link JobStatusCache}.
+ */
+final class StartedJobsFeed {
+    private final Runnable onChange;
+    private final List<MonitoringEvent> arrived = new ArrayList<>();
+    private int hostsStarting;
+    private boolean allHostsPublished;
+    private @Nullable Throwable error;
+
+
+    private StartedJobsFeed(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+
+    /**
+     * Subscribes to the started jobs.
+     *
+     * @param onChange called, without holding any lock, whenever a host arrives and when the feed is done
+     */
+    static StartedJobsFeed subscribe(Publisher<HostAndJobIds> startedJobs, Runnable onChange) {
+        val feed = new StartedJobsFeed(onChange);
+        Flux.from(startedJobs).subscribe(feed::hostPublished, feed::failed, feed::allHostsPublished);
+        return feed;
+    }
+
+
+    /**
+     * Takes the hosts that have arrived since the last time this was called.
+     */
+    synchronized List<MonitoringEvent> drain() {
+        val drained = new ArrayList<MonitoringEvent>(arrived);
+        arrived.clear();
+        return drained;
+    }
+
+
+    /**
+     * Whether every host has arrived and been {@link #drain() drained}.
+     */
+    synchronized boolean isDone() {
+        return (error != null || (allHostsPublished && hostsStarting == 0)) && arrived.isEmpty();
+    }
+
+
+    /**
+     * If the started jobs publisher itself failed, rather than just one host, why.
+     */
+    synchronized @Nullable Throwable error() {
+        return error;
+    }
+
+
+    /**
+     * Waits until a host arrives or the feed is done, for no more than the given time.
+     *
+     * @param timeoutMs how long to wait at most; 0 to wait for as long as it takes
+     */
+    synchronized void awaitArrival(long timeoutMs) throws InterruptedException {
+        if (arrived.isEmpty() && !isDone()) {
+            wait(timeoutMs);
+        }
+    }
+
+
+    private void hostPublished(HostAndJobIds hostAndJobIds) {
+        synchronized (this) {
+            hostsStarting++;
+        }
+        val location = hostAndJobIds.uri();
+        Flux.from(hostAndJobIds.jobIds()).collect(ArrayList<Long>::new, ArrayList::add).subscribe(
+            jobIds -> arrive(new JobsStartedMonitoringEvent(location, jobIds)),
+            e -> arrive(new StartFailedMonitoringEvent(location, e)));
+    }
+
+
+    private void arrive(MonitoringEvent event) {
+        synchronized (this) {
+            arrived.add(event);
+            hostsStarting--;
+            notifyAll();
+        }
+        onChange.run();
+    }
+
+
+    private void failed(Throwable e) {
+        synchronized (this) {
+            error = e;
+            notifyAll();
+        }
+        onChange.run();
+    }
+
+
+    private void allHostsPublished() {
+        synchronized (this) {
+            allHostsPublished = true;
+            notifyAll();
+        }
+        onChange.run();
+    }
+
+}
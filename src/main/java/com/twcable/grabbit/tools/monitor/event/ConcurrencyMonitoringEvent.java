@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor.event;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * A decision about how many jobs to run at once on a Grabbit client, along with what it was based on.
+ *
+ * @see com.twcable.grabbit.tools.monitor.AimdConcurrencyController
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier"})
+public class ConcurrencyMonitoringEvent implements MonitoringEvent {
+    /**
+     * What was done to the limit.
+     */
+    public enum Action {
+        INCREASE, DECREASE, HOLD
+    }
+
+    /**
+     * The base URI of the Grabbit client.
+     */
+    public final URI location;
+    public final Action action;
+    /**
+     * The number of jobs allowed before the decision.
+     */
+    public final int previousLimit;
+    /**
+     * The number of jobs allowed from now on.
+     */
+    public final int limit;
+    /**
+     * The JCR nodes written per second across the host's jobs since the last decision.
+     */
+    public final double throughput;
+    /**
+     * The average time in milliseconds a poll of the host took since the last decision.
+     */
+    public final long pollLatencyMs;
+    /**
+     * Why the decision was made.
+     */
+    public final String reason;
+
+
+    public ConcurrencyMonitoringEvent(URI location, Action action, int previousLimit, int limit,
+                                      double throughput, long pollLatencyMs, String reason) {
+        this.location = location;
+        this.action = action;
+        this.previousLimit = previousLimit;
+        this.limit = limit;
+        this.throughput = throughput;
+        this.pollLatencyMs = pollLatencyMs;
+        this.reason = reason;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Concurrency %s for %s: %d -> %d jobs (%.1f nodes/second, %dms polls; %s)",
+            action, location, previousLimit, limit, throughput, pollLatencyMs, reason);
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor.event;
+
+import java.net.URI;
+import java.util.Collection;
+
+/**
+ * An event indicating that a Grabbit client has started jobs, which are now being monitored.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier"})
+public class JobsStartedMonitoringEvent implements MonitoringEvent {
+    /**
+     * The base URI of the Grabbit client the jobs were started on.
+     */
+    public final URI location;
+    /**
+     * The IDs of the jobs that were started.
+     */
+    public final Collection<Long> jobIds;
+
+
+    public JobsStartedMonitoringEvent(URI location, Collection<Long> jobIds) {
+        this.location = location;
+        this.jobIds = jobIds;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Started Grabbit jobs " + jobIds + " on " + location;
+    }
+}
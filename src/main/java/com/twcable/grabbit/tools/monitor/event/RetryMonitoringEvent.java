@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor.event;
+
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * An event indicating that a failed job's path will be resubmitted to its Grabbit client. The new job is monitored
+ * alongside the failed one once it starts.
+ *
+ * @see com.twcable.grabbit.tools.jobstarter.JobRetrier
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier"})
+public class RetryMonitoringEvent implements MonitoringEvent {
+    /**
+     * The base URI of the Grabbit client the path is retried on.
+     */
+    public final URI location;
+    public final String path;
+    /**
+     * The id of the job that failed.
+     */
+    public final long failedJobId;
+    /**
+     * 1 for the first retry of the path on the client, 2 for the second, and so on.
+     */
+    public final int attempt;
+    public final int maxAttempts;
+    /**
+     * How many milliseconds until the path is resubmitted.
+     */
+    public final long backoffMs;
+
+
+    public RetryMonitoringEvent(URI location, String path, long failedJobId, int attempt, int maxAttempts,
+                                long backoffMs) {
+        this.location = location;
+        this.path = path;
+        this.failedJobId = failedJobId;
+        this.attempt = attempt;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Retrying %s on %s after job %d failed: retry %d of %d in %.1f seconds",
+            path, location, failedJobId, attempt, maxAttempts, backoffMs / 1000.0);
+    }
+}
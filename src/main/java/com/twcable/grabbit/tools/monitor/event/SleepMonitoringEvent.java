@@ -16,7 +16,7 @@
 package com.twcable.grabbit.tools.monitor.event;
 
 /**
- * An event indicating that the poller is about to sleep.
+ * An event indicating that the poller is about to sleep until the next running job is due to be polled.
  */
 @SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier"})
 public class SleepMonitoringEvent implements MonitoringEvent {
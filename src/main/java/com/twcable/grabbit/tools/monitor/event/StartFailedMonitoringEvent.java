@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor.event;
+
+import java.net.URI;
+
+/**
+ * An event indicating that jobs could not be started on a Grabbit client. The other clients are still monitored.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:VisibilityModifier"})
+public class StartFailedMonitoringEvent implements MonitoringEvent {
+    /**
+     * The base URI of the Grabbit client the jobs could not be started on.
+     */
+    public final URI location;
+    /**
+     * Why the jobs could not be started.
+     */
+    public final Throwable error;
+
+
+    public StartFailedMonitoringEvent(URI location, Throwable error) {
+        this.location = location;
+        this.error = error;
+    }
+
+
+    @Override
+    public String toString() {
+        return "Could not start the Grabbit jobs on " + location + ": " + error;
+    }
+}
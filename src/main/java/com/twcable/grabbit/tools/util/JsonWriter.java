@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.util;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes JSON a token at a time to an {@link Appendable} or an {@link OutputStream}, without building the document
+ * (or any part of it) as a String first.
+ * <p>
+ * Strings are escaped as they're written, and commas and colons are added as needed, so the output is always valid
+ * JSON as long as the begin/end calls are balanced. When writing to an {@link OutputStream} the text is encoded as
+ * UTF-8 into a buffer that is reused for the life of the writer; call {@link #flush()} when done.
+ * <p>
+ * Not thread-safe.
+ */
+@SuppressWarnings({"WeakerAccess", "checkstyle:MagicNumber", "PMD.AvoidLiteralsInIfCondition"})
+public final class JsonWriter implements Flushable {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Appendable out;
+
+    // for each open object or array, whether anything has been written in it yet
+    private boolean[] hasElements = new boolean[8];
+    private int depth;
+    private boolean afterName;
+
+    // reused for formatting numbers
+    private final char[] digits = new char[20];
+
+
+    /**
+     * @param out where to write the JSON
+     */
+    public JsonWriter(Appendable out) {
+        this.out = out;
+    }
+
+
+    /**
+     * Creates a writer that encodes the JSON as UTF-8 into the stream, through a reusable buffer.
+     */
+    public static JsonWriter utf8(OutputStream outputStream) {
+        return new JsonWriter(new Utf8Appendable(outputStream));
+    }
+
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.append('{');
+        push();
+        return this;
+    }
+
+
+    public JsonWriter endObject() throws IOException {
+        pop();
+        out.append('}');
+        return this;
+    }
+
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.append('[');
+        push();
+        return this;
+    }
+
+
+    public JsonWriter endArray() throws IOException {
+        pop();
+        out.append(']');
+        return this;
+    }
+
+
+    /**
+     * Writes the name of the next field in the current object.
+     */
+    public JsonWriter name(String name) throws IOException {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("A name has to be inside of an object, followed by a value");
+        }
+        separate();
+        writeString(name);
+        out.append(':');
+        afterName = true;
+        return this;
+    }
+
+
+    /**
+     * Writes a string value, or "null" if it's null.
+     */
+    public JsonWriter value(@Nullable CharSequence value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            out.append("-9223372036854775808");
+            return this;
+        }
+        long remaining = Math.abs(value);
+        int pos = digits.length;
+        do {
+            digits[--pos] = (char)('0' + (remaining % 10));
+            remaining /= 10;
+        }
+        while (remaining > 0);
+        if (value < 0) {
+            out.append('-');
+        }
+        for (int i = pos; i < digits.length; i++) {
+            out.append(digits[i]);
+        }
+        return this;
+    }
+
+
+    /**
+     * Writes a floating point number.
+     *
+     * @throws IllegalArgumentException if it's NaN or infinite, which JSON can't represent
+     */
+    public JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("JSON can not represent " + value);
+        }
+        beforeValue();
+        out.append(Double.toString(value));
+        return this;
+    }
+
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.append(value ? "true" : "false");
+        return this;
+    }
+
+
+    public JsonWriter nullValue() throws IOException {
+        beforeValue();
+        out.append("null");
+        return this;
+    }
+
+
+    /**
+     * Writes out anything buffered, and flushes the underlying destination if it's {@link Flushable}.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (out instanceof Flushable) {
+            ((Flushable)out).flush();
+        }
+    }
+
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        }
+        else if (depth > 0) {
+            separate();
+        }
+    }
+
+
+    private void separate() throws IOException {
+        if (hasElements[depth - 1]) {
+            out.append(',');
+        }
+        else {
+            hasElements[depth - 1] = true;
+        }
+    }
+
+
+    private void push() {
+        if (depth == hasElements.length) {
+            hasElements = Arrays.copyOf(hasElements, depth * 2);
+        }
+        hasElements[depth++] = false;
+    }
+
+
+    private void pop() {
+        if (depth == 0 || afterName) {
+            throw new IllegalStateException("Nothing to end, or a name is missing its value");
+        }
+        depth--;
+    }
+
+
+    private void writeString(CharSequence str) throws IOException {
+        out.append('"');
+        int start = 0;
+        final int length = str.length();
+        for (int i = 0; i < length; i++) {
+            final char c = str.charAt(i);
+            // U+2028 and U+2029 are valid in JSON but not in JavaScript source, so they're escaped too
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            // write the run of characters that don't need escaping, then the escaped one
+            out.append(str, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u").
+                        append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF]).
+                        append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        out.append(str, start, length);
+        out.append('"');
+    }
+
+
+    /**
+     * Encodes characters as UTF-8 into a fixed buffer, writing it to the stream whenever it fills up.
+     */
+    private static final class Utf8Appendable implements Appendable, Flushable {
+        private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+        private final OutputStream outputStream;
+        private final byte[] buffer = new byte[8 * 1024];
+        private int count;
+        private char highSurrogate;
+
+
+        Utf8Appendable(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+
+        @Override
+        public Appendable append(@Nullable CharSequence csq) throws IOException {
+            return (csq == null) ? append("null", 0, 4) : append(csq, 0, csq.length());
+        }
+
+
+        @Override
+        public Appendable append(@Nullable CharSequence csq, int start, int end) throws IOException {
+            if (csq == null) {
+                return append("null", start, end);
+            }
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+
+        /**
+         * A surrogate that isn't half of a pair can't be encoded, so it's written as U+FFFD, the replacement
+         * character, the same as {@link String#getBytes(java.nio.charset.Charset)} does.
+         */
+        @Override
+        public Appendable append(char c) throws IOException {
+            // room for a replacement character followed by a three-byte character
+            if (count > buffer.length - 6) {
+                flushBuffer();
+            }
+            if (highSurrogate != 0) {
+                final char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    final int codePoint = Character.toCodePoint(high, c);
+                    buffer[count++] = (byte)(0xF0 | (codePoint >> 18));
+                    buffer[count++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[count++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[count++] = (byte)(0x80 | (codePoint & 0x3F));
+                    return this;
+                }
+                encode(REPLACEMENT_CHARACTER);
+            }
+
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            }
+            else {
+                encode(Character.isLowSurrogate(c) ? REPLACEMENT_CHARACTER : c);
+            }
+            return this;
+        }
+
+
+        /**
+         * Anything written so far has been a whole document or value, so a high surrogate still waiting for its
+         * other half never gets one.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                flushBuffer();
+                encode(REPLACEMENT_CHARACTER);
+            }
+            flushBuffer();
+            outputStream.flush();
+        }
+
+
+        /**
+         * Encodes a character that isn't a surrogate.
+         */
+        private void encode(char c) {
+            if (c < 0x80) {
+                buffer[count++] = (byte)c;
+            }
+            else if (c < 0x800) {
+                buffer[count++] = (byte)(0xC0 | (c >> 6));
+                buffer[count++] = (byte)(0x80 | (c & 0x3F));
+            }
+            else {
+                buffer[count++] = (byte)(0xE0 | (c >> 12));
+                buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte)(0x80 | (c & 0x3F));
+            }
+        }
+
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                outputStream.write(buffer, 0, count);
+                count = 0;
+            }
+        }
+    }
+
+}
@@ -140,6 +140,16 @@ public final class Utils {
     }
 
 
+    /**
+     * Copies the {@link InputStream} to a byte array. The stream is closed upon completion.
+     */
+    public static byte[] toByteArray(InputStream inputStream) throws IOException {
+        val sink = new ByteArrayOutputStream();
+        copy(inputStream, sink);
+        return sink.toByteArray();
+    }
+
+
     /**
      * Copies the {@link InputStream} into the {@link OutputStream}, closing both when complete.
      */
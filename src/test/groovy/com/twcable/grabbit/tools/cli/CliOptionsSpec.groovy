@@ -15,6 +15,8 @@
  */
 package com.twcable.grabbit.tools.cli
 
+import com.twcable.grabbit.tools.jobstarter.LaunchSettings
+import com.twcable.grabbit.tools.jobstarter.RetryPolicy
 import spock.lang.Specification
 import spock.lang.Unroll
 
@@ -39,6 +41,64 @@ class CliOptionsSpec extends Specification {
         ["-m", "gconf.json", "envconf.json", "localhost"]       | true
         ["-sm", "gconf.json", "envconf.json", "localhost"]      | true
         ["-m", "-s", "gconf.json", "envconf.json", "localhost"] | true
+        ["-s", "--launch-rate", "2.5", "gconf.json", "envconf.json", "localhost"] | true
+        ["-s", "--launch-rate", "fast", "gconf.json", "envconf.json", "localhost"] | false
+        ["-s", "--launch-rate", "-1", "gconf.json", "envconf.json", "localhost"]  | false
+        ["-s", "--launch-burst", "0", "gconf.json", "envconf.json", "localhost"]  | false
+        ["-s", "--launch-jitter", "-5", "gconf.json", "envconf.json", "localhost"] | false
+        ["-sm", "--max-jobs-per-host", "2", "gconf.json", "envconf.json", "localhost"] | true
+        ["-s", "--max-jobs-per-host", "2", "gconf.json", "envconf.json", "localhost"]  | false
+        ["-sm", "--max-jobs-per-host", "-1", "gconf.json", "envconf.json", "localhost"] | false
+        ["-sm", "--max-jobs-per-host", "2", "--adaptive-max-jobs-per-host", "6", "g.json", "e.json", "l"] | true
+        ["-sm", "--max-jobs-per-host", "2", "--adaptive-max-jobs-per-host", "1", "g.json", "e.json", "l"] | false
+        ["-sm", "--adaptive-max-jobs-per-host", "6", "gconf.json", "envconf.json", "localhost"]           | false
+        ["-s", "--shards", "4", "--node-counts", "counts.json", "gconf.json", "envconf.json", "localhost"] | true
+        ["-s", "--shards", "-4", "gconf.json", "envconf.json", "localhost"]                               | false
+        ["-s", "--node-counts", "counts.json", "gconf.json", "envconf.json", "localhost"]                 | false
+        ["-sm", "--retries", "3", "--retry-budget", "5", "gconf.json", "envconf.json", "localhost"]       | true
+        ["-s", "--retries", "3", "gconf.json", "envconf.json", "localhost"]                               | false
+        ["-sm", "--retries", "-1", "gconf.json", "envconf.json", "localhost"]                             | false
+        ["-sm", "--retry-backoff", "5", "gconf.json", "envconf.json", "localhost"]                        | false
+    }
+
+
+    def "launch settings"() {
+        when:
+        def options = CliOptions.create(["-s", "--launch-rate", "2.5", "--launch-burst", "4",
+                                         "--launch-ramp-up", "1.5", "--launch-jitter", "200",
+                                         "gconf.json", "envconf.json", "localhost"] as String[]).get()
+
+        then:
+        options.launchSettings().startsPerSecond() == 2.5d
+        options.launchSettings().burst() == 4
+        options.launchSettings().rampUpMs() == 1500L
+        options.launchSettings().jitterMs() == 200L
+    }
+
+
+    def "launch is unlimited by default"() {
+        expect:
+        CliOptions.create(["-s", "gconf.json", "envconf.json", "localhost"] as String[]).get().
+            launchSettings() == LaunchSettings.UNLIMITED
+    }
+
+
+    def "retry policy"() {
+        when:
+        def options = CliOptions.create(["-sm", "--retries", "3", "--retry-backoff", "2.5",
+                                         "gconf.json", "envconf.json", "localhost"] as String[]).get()
+
+        then:
+        options.retryPolicy().maxRetriesPerJob() == 3
+        options.retryPolicy().maxRetries() == RetryPolicy.MAX_RETRIES
+        options.retryPolicy().initialBackoffMs() == 2500L
+    }
+
+
+    def "failed jobs are not retried by default"() {
+        expect:
+        CliOptions.create(["-sm", "gconf.json", "envconf.json", "localhost"] as String[]).get().
+            retryPolicy() == RetryPolicy.NONE
     }
 
 }
@@ -15,6 +15,8 @@
  */
 package com.twcable.grabbit.tools.cli
 
+import com.twcable.grabbit.tools.jobstarter.HostAndJobIds
+import reactor.core.publisher.Flux
 import spock.lang.Ignore
 import spock.lang.Specification
 
@@ -35,4 +37,20 @@ class GrabbitCliSpec extends Specification {
         true
     }
 
+
+    def "a host that can't start its jobs fails the run after the other hosts are printed"() {
+        def out = new ByteArrayOutputStream()
+        def startedJobs = Flux.just(
+            new HostAndJobIds(URI.create("http://bad"), Flux.<Long> error(new IOException("refused"))),
+            new HostAndJobIds(URI.create("http://good"), Flux.just(1L, 2L)))
+
+        when:
+        GrabbitCli.printStartedJobs(startedJobs, new PrintStream(out, true))
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message == "Could not start the jobs on 1 host(s)"
+        out.toString().readLines() == ["http://good, 1", "http://good, 2"]
+    }
+
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.environment
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.AUTHOR
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
+
+@Subject(HostIndex)
+class HostIndexSpec extends Specification {
+
+    def "looks up hosts and their Authorization headers by base URI"() {
+        def author = URI.create("http://author.test:4502")
+        def publisher = URI.create("http://publisher.test:4503")
+        def env = new MapSourcedEnvironment([
+            new HostInfo(AUTHOR, author, new UsernameAndPassword("admin", "admin")),
+            new HostInfo(PUBLISHER, publisher, new UsernameAndPassword("pub", "secret"))
+        ])
+
+        when:
+        def index = HostIndex.of(env)
+
+        then:
+        index.hostFor(publisher).nodeType() == PUBLISHER
+        index.authorizationFor(author) == "Basic " + "admin:admin".bytes.encodeBase64()
+        index.authorizationFor(publisher) == "Basic " + "pub:secret".bytes.encodeBase64()
+        index.authorizationFor(URI.create("http://publisher.test:4503")).is(index.authorizationFor(publisher))
+    }
+
+
+    def "an unknown host is an error"() {
+        when:
+        HostIndex.of(new MapSourcedEnvironment([])).authorizationFor(URI.create("http://unknown.test"))
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+}
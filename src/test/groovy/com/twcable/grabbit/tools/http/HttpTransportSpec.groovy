@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.http
+
+import com.sun.net.httpserver.HttpServer
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.atomic.AtomicInteger
+
+@Subject(HttpTransport)
+class HttpTransportSpec extends Specification {
+
+    HttpServer server
+
+    @AutoCleanup
+    HttpTransport transport
+
+    URL baseUrl
+
+    AtomicInteger requests = new AtomicInteger()
+
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/echo") { exchange ->
+            requests.incrementAndGet()
+            def body = "${exchange.requestMethod} ${exchange.requestBody.text} ${exchange.requestHeaders.getFirst("Authorization")}".getBytes("UTF-8")
+            exchange.sendResponseHeaders(200, body.length)
+            exchange.responseBody.withStream { it.write(body) }
+        }
+        server.createContext("/chunked") { exchange ->
+            // a zero length means the response is chunked
+            exchange.sendResponseHeaders(200, 0)
+            exchange.responseBody.withStream { it.write(("x" * 10000).bytes) }
+        }
+        server.createContext("/slow") { exchange ->
+            Thread.sleep(1000)
+            exchange.sendResponseHeaders(200, -1)
+            exchange.close()
+        }
+        server.start()
+
+        baseUrl = new URL("http://127.0.0.1:${server.address.port}")
+        transport = new HttpTransport(2, 1000, 5000, 60000)
+    }
+
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+
+    def "reuses the connection across requests"() {
+        when:
+        def responses = (1..4).collect { transport.get(new URL(baseUrl, "/echo"), "Basic abc") }
+
+        then:
+        responses*.statusCode == [200, 200, 200, 200]
+        new String(responses[0].body, "UTF-8") == "GET  Basic abc"
+
+        def metrics = transport.metrics()
+        metrics.connectionsOpened == 1
+        metrics.connectionsReused == 3
+        metrics.openConnections == 1
+        metrics.idleConnections == 1
+        metrics.reuseRatio() == 0.75d
+        metrics.summary() == "Opened 1 connections and reused them for 3 requests (75%)"
+    }
+
+
+    def "sends requests that are not safe to repeat on a new connection"() {
+        transport.get(new URL(baseUrl, "/echo"), "Basic abc")
+        server.stop(0)
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", baseUrl.port), 0)
+        server.createContext("/echo") { exchange ->
+            requests.incrementAndGet()
+            exchange.sendResponseHeaders(200, 2)
+            exchange.responseBody.withStream { it.write("ok".bytes) }
+        }
+        server.start()
+
+        when: "the pooled connection has been closed by the server"
+        def put = transport.put(new URL(baseUrl, "/echo"), "Basic abc", "application/json", "{}".bytes)
+
+        then: "it isn't used, so the request is only sent once"
+        new String(put.body, "UTF-8") == "ok"
+        requests.get() == 2
+        transport.metrics().connectionsReused == 0
+    }
+
+
+    def "sends requests through an HTTP proxy"() {
+        def proxied = []
+        def proxy = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        proxy.createContext("/") { exchange ->
+            proxied << exchange.requestURI.toString()
+            exchange.sendResponseHeaders(200, 2)
+            exchange.responseBody.withStream { it.write("ok".bytes) }
+        }
+        proxy.start()
+        def proxySelector = new ProxySelector() {
+            List<Proxy> select(URI uri) {
+                [new Proxy(Proxy.Type.HTTP, proxy.address)]
+            }
+
+
+            void connectFailed(URI uri, SocketAddress address, IOException e) {
+            }
+        }
+        def proxiedTransport = new HttpTransport(2, 1000, 5000, 60000, proxySelector)
+
+        when:
+        def response = proxiedTransport.get(new URL("http://grabbit.test:4503/echo?x=1"), "Basic abc")
+
+        then:
+        new String(response.body, "UTF-8") == "ok"
+        proxied == ["http://grabbit.test:4503/echo?x=1"]
+
+        cleanup:
+        proxiedTransport.close()
+        proxy.stop(0)
+    }
+
+
+    def "skips interim responses"() {
+        def raw = "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+
+        when:
+        def response = HttpResponse.read(new ByteArrayInputStream(raw.bytes), "test")
+
+        then:
+        response.statusCode == 200
+        new String(response.body, "UTF-8") == "ok"
+    }
+
+
+    def "doesn't read a body for a HEAD response"() {
+        def raw = "HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nHTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok"
+        def stream = new ByteArrayInputStream(raw.bytes)
+
+        when:
+        def head = HttpResponse.read(stream, "HEAD", "test")
+        def get = HttpResponse.read(stream, "GET", "test")
+
+        then:
+        head.statusCode == 200
+        head.body.length == 0
+        head.keepAlive()
+        new String(get.body, "UTF-8") == "ok"
+    }
+
+
+    def "reads chunked responses"() {
+        when:
+        def first = transport.get(new URL(baseUrl, "/chunked"), "Basic abc")
+        def second = transport.get(new URL(baseUrl, "/echo"), "Basic abc")
+
+        then:
+        first.body.length == 10000
+        second.statusCode == 200
+        transport.metrics().connectionsReused == 1
+    }
+
+
+    def "closes connections that have been idle too long"() {
+        def shortIdleTransport = new HttpTransport(2, 1000, 5000, 1)
+        shortIdleTransport.get(new URL(baseUrl, "/echo"), "Basic abc")
+
+        when:
+        Thread.sleep(20)
+        shortIdleTransport.evictIdle()
+
+        then:
+        shortIdleTransport.metrics().openConnections == 0
+
+        cleanup:
+        shortIdleTransport.close()
+    }
+
+
+    def "retries on a new connection when the server has closed a pooled one"() {
+        transport.get(new URL(baseUrl, "/echo"), "Basic abc")
+        server.stop(0)
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", baseUrl.port), 0)
+        server.createContext("/echo") { exchange ->
+            exchange.sendResponseHeaders(200, 2)
+            exchange.responseBody.withStream { it.write("ok".bytes) }
+        }
+        server.start()
+
+        when:
+        def response = transport.get(new URL(baseUrl, "/echo"), "Basic abc")
+
+        then:
+        new String(response.body, "UTF-8") == "ok"
+        transport.metrics().connectionsOpened == 2
+    }
+
+
+    def "gives up when the server is too slow"() {
+        def impatientTransport = new HttpTransport(2, 1000, 100, 60000)
+
+        when:
+        impatientTransport.get(new URL(baseUrl, "/slow"), "Basic abc")
+
+        then:
+        thrown(SocketTimeoutException)
+        impatientTransport.metrics().openConnections == 0
+
+        cleanup:
+        impatientTransport.close()
+    }
+
+
+    def "reports a 404 as not found"() {
+        when:
+        transport.get(new URL(baseUrl, "/missing"), "Basic abc").successBody("missing")
+
+        then:
+        thrown(FileNotFoundException)
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import com.twcable.grabbit.tools.environment.HostInfo
+import com.twcable.grabbit.tools.environment.UsernameAndPassword
+import com.twcable.grabbit.tools.http.HttpTransport
+import reactor.core.publisher.Flux
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
+
+@Subject(JobQueue)
+class JobQueueSpec extends Specification {
+
+    def hosts = ["one", "two"].collect {
+        new HostInfo(PUBLISHER, URI.create("http://${it}.test"), new UsernameAndPassword("test", "testpw"))
+    }
+
+    def config = JobsConfig.parse("test", ('{"clientNodeType": "publish", "pathConfigurations": ' +
+        '[{"path": "/a"}, {"path": "/b"}, {"path": "/c"}]}').bytes)
+
+    // "host:path" for each job, by job id
+    def jobs = new ConcurrentHashMap<Long, String>()
+
+    File file
+
+
+    def setup() {
+        file = File.createTempFile("jobqueue", "spec")
+    }
+
+
+    def cleanup() {
+        file.delete()
+    }
+
+
+    JobStarter jobStarter(Closure<String> respond) {
+        def nextJobId = new AtomicLong(100)
+        return new JobStarter(new JobsConfigFileReader(file), hosts, HttpTransport.shared(), 4, 1000) {
+            protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials,
+                                                           JobsConfig jobsConfig) throws IOException {
+                def path = jobsConfig.pathConfigurations()[0].path
+                def response = respond(url.host, path)
+                if (response == null) {
+                    def jobId = nextJobId.incrementAndGet()
+                    jobs.put(jobId, "${url.host}:${path}".toString())
+                    response = "[${jobId}]"
+                }
+                return new BufferedInputStream(new ByteArrayInputStream(response.bytes))
+            }
+        }
+    }
+
+
+    def "keeps no more than the limit running on each host, starting the next path as one finishes"() {
+        def jobQueue = new JobQueue(jobStarter({ host, path -> null }), hosts, config.splitByPath(), 2)
+        def published = new CopyOnWriteArrayList<Long>()
+        def done = new CountDownLatch(1)
+
+        when:
+        Flux.from(jobQueue.startJobs()).
+            flatMap({ it.jobIds }).
+            subscribe({ published.add(it) }, { throw it }, { done.countDown() })
+        waitFor { published.size() == 4 }
+
+        then:
+        jobs.values() as Set == ["one.test:/a", "one.test:/b", "two.test:/a", "two.test:/b"] as Set
+        hosts.every { jobQueue.running(it.baseUri()) == 2 && jobQueue.queued(it.baseUri()) == 1 }
+        done.count == 1
+
+        when: "a job on the first host finishes"
+        jobQueue.jobFinished(hosts[0].baseUri(), jobIdOf("one.test:/a"))
+        waitFor { published.size() == 5 }
+
+        then: "only that host starts its next path"
+        jobs.values().contains("one.test:/c")
+        jobQueue.running(hosts[0].baseUri()) == 2
+        jobQueue.queued(hosts[0].baseUri()) == 0
+        jobQueue.queued(hosts[1].baseUri()) == 1
+        done.count == 1
+
+        when: "unknown jobs are ignored, and the second host gets its last path"
+        jobQueue.jobFinished(hosts[1].baseUri(), 999L)
+        jobQueue.jobFinished(hosts[1].baseUri(), jobIdOf("two.test:/b"))
+
+        then: "it completes once every path has started"
+        done.await(5, TimeUnit.SECONDS)
+        published.size() == 6
+    }
+
+
+    def "a path that fails to start frees its place"() {
+        def jobQueue = new JobQueue(jobStarter({ host, path -> path == "/a" ? "oops" : null }), hosts.take(1),
+            config.splitByPath(), 1)
+        def results = new CopyOnWriteArrayList<String>()
+        def done = new CountDownLatch(1)
+
+        when:
+        Flux.from(jobQueue.startJobs()).
+            flatMap({ hostAndJobIds ->
+                Flux.from(hostAndJobIds.jobIds).
+                    map({ it.toString() }).
+                    onErrorResumeWith({ Flux.just(it.class.simpleName) })
+            }).
+            subscribe({ results.add(it) }, { throw it }, { done.countDown() })
+        waitFor { results.size() == 2 }
+
+        then:
+        results[0] == "IllegalStateException"
+        jobs.values() as List == ["one.test:/b"]
+
+        when:
+        jobQueue.jobFinished(hosts[0].baseUri(), jobIdOf("one.test:/b"))
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        jobs.values() as Set == ["one.test:/b", "one.test:/c"] as Set
+    }
+
+
+    def "raising a host's limit starts more of its paths straight away"() {
+        def jobQueue = new JobQueue(jobStarter({ host, path -> null }), hosts.take(1), config.splitByPath(), 1)
+        def published = new CopyOnWriteArrayList<Long>()
+
+        when:
+        Flux.from(jobQueue.startJobs()).flatMap({ it.jobIds }).subscribe({ published.add(it) })
+        waitFor { published.size() == 1 }
+        jobQueue.maxRunning(hosts[0].baseUri(), 3)
+        waitFor { published.size() == 3 }
+
+        then:
+        jobQueue.maxRunning(hosts[0].baseUri()) == 3
+        jobQueue.queued(hosts[0].baseUri()) == 0
+    }
+
+
+    def "starts each job group once the groups it depends on have completed, longest critical path first"() {
+        def grouped = JobsConfig.parse("test", ('{"clientNodeType": "publish", "pathConfigurations": ' +
+            '[{"path": "/assets"}, {"path": "/conf"}, {"path": "/tags"}, {"path": "/content"}], "jobGroups": {' +
+            '"assets": {"paths": ["/assets"]}, "config": {"paths": ["/conf"]}, "tags": {"paths": ["/tags"]}, ' +
+            '"content": {"paths": ["/content"], "dependsOn": ["config", "tags"]}}}').bytes)
+        def jobQueue = JobQueue.forJobGroups(jobStarter({ host, path -> null }), hosts.take(1), grouped, 1)
+        def host = hosts[0].baseUri()
+        def started = new CopyOnWriteArrayList<String>()
+        def done = new CountDownLatch(1)
+
+        when:
+        Flux.from(jobQueue.startJobs()).
+            flatMap({ it.jobIds }).
+            subscribe({ started.add(jobs[it]) }, { throw it }, { done.countDown() })
+        waitFor { started.size() == 1 }
+
+        then: "a group on the critical path goes ahead of one declared before it"
+        started == ["one.test:/conf"]
+        jobQueue.waiting(host) == ["content"]
+
+        when:
+        jobQueue.jobFinished(host, jobIdOf("one.test:/conf"), true)
+        waitFor { started.size() == 2 }
+        jobQueue.jobFinished(host, jobIdOf("one.test:/tags"), true)
+        waitFor { started.size() == 3 }
+
+        then: "the dependent group is queued behind the group that was already waiting"
+        started == ["one.test:/conf", "one.test:/tags", "one.test:/assets"]
+        jobQueue.waiting(host).isEmpty()
+        jobQueue.queued(host) == 1
+        done.count == 1
+
+        when:
+        jobQueue.jobFinished(host, jobIdOf("one.test:/assets"), true)
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        started[3] == "one.test:/content"
+    }
+
+
+    def "skips the groups that depend on a group with a failed job"() {
+        def grouped = JobsConfig.parse("test", ('{"clientNodeType": "publish", "pathConfigurations": ' +
+            '[{"path": "/conf"}, {"path": "/content"}, {"path": "/more"}], "jobGroups": {' +
+            '"config": {"paths": ["/conf"]}, "content": {"paths": ["/content"], "dependsOn": ["config"]}, ' +
+            '"more": {"paths": ["/more"], "dependsOn": ["content"]}}}').bytes)
+        def jobQueue = JobQueue.forJobGroups(jobStarter({ host, path -> null }), hosts.take(1), grouped, 2)
+        def results = new CopyOnWriteArrayList<String>()
+        def done = new CountDownLatch(1)
+
+        when:
+        Flux.from(jobQueue.startJobs()).
+            flatMap({ hostAndJobIds ->
+                Flux.from(hostAndJobIds.jobIds).
+                    map({ jobs[it] }).
+                    onErrorResumeWith({ Flux.just(it.message) })
+            }).
+            subscribe({ results.add(it) }, { throw it }, { done.countDown() })
+        waitFor { results.size() == 1 }
+        jobQueue.jobFinished(hosts[0].baseUri(), jobIdOf("one.test:/conf"), false)
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        results == ["one.test:/conf",
+                    "Skipped job group \"content\" because \"config\" did not complete",
+                    "Skipped job group \"more\" because \"content\" did not complete"]
+        jobs.values() as List == ["one.test:/conf"]
+    }
+
+
+    def "a replacement job keeps the place of the job it replaces"() {
+        def jobQueue = new JobQueue(jobStarter({ host, path -> null }), hosts.take(1), config.splitByPath(), 1)
+        def host = hosts[0].baseUri()
+        def published = new CopyOnWriteArrayList<Long>()
+
+        when:
+        Flux.from(jobQueue.startJobs()).flatMap({ it.jobIds }).subscribe({ published.add(it) })
+        waitFor { published.size() == 1 }
+        jobQueue.jobReplaced(host, jobIdOf("one.test:/a"), [500L])
+        jobQueue.jobFinished(host, jobIdOf("one.test:/a"))
+
+        then: "the replaced job no longer holds the place"
+        jobQueue.running(host) == 1
+        jobQueue.queued(host) == 2
+
+        when:
+        jobQueue.jobFinished(host, 500L)
+        waitFor { published.size() == 2 }
+
+        then:
+        jobs.values().contains("one.test:/b")
+    }
+
+
+    def "rejects a limit of less than one"() {
+        when:
+        new JobQueue(jobStarter({ host, path -> null }), hosts, config.splitByPath(), 0)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+
+    private long jobIdOf(String hostAndPath) {
+        return jobs.find { it.value == hostAndPath }.key
+    }
+
+
+    private static void waitFor(Closure<Boolean> condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assert condition()
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import com.twcable.grabbit.tools.environment.HostInfo
+import com.twcable.grabbit.tools.environment.UsernameAndPassword
+import com.twcable.grabbit.tools.http.HttpTransport
+import reactor.core.publisher.Flux
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
+
+@Subject(JobRetrier)
+class JobRetrierSpec extends Specification {
+
+    def host = new HostInfo(PUBLISHER, URI.create("http://one.test"), new UsernameAndPassword("test", "testpw"))
+
+    def location = host.baseUri()
+
+    def config = JobsConfig.parse("test", ('{"clientNodeType": "publish", "pathConfigurations": ' +
+        '[{"path": "/a", "excludePaths": ["x"]}, {"path": "/b"}]}').bytes)
+
+    // "host:path" for each retried job, by job id
+    def jobs = new ConcurrentHashMap<Long, String>()
+
+    // the path configurations each retry was sent
+    def sent = new CopyOnWriteArrayList<List>()
+
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor()
+
+    File file
+
+
+    def setup() {
+        file = File.createTempFile("jobretrier", "spec")
+    }
+
+
+    def cleanup() {
+        file.delete()
+        scheduler.shutdownNow()
+    }
+
+
+    JobStarter jobStarter() {
+        def nextJobId = new AtomicLong(100)
+        return new JobStarter(new JobsConfigFileReader(file), [host], HttpTransport.shared(), 4, 1000) {
+            protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials,
+                                                           JobsConfig jobsConfig) throws IOException {
+                sent.add(jobsConfig.pathConfigurations())
+                def jobId = nextJobId.incrementAndGet()
+                jobs.put(jobId, "${url.host}:${jobsConfig.pathConfigurations()[0].path}".toString())
+                return new BufferedInputStream(new ByteArrayInputStream("[${jobId}]".bytes))
+            }
+        }
+    }
+
+
+    def "resubmits a failed job's path to its host, backing off, until the path's budget runs out"() {
+        def retrier = new JobRetrier(jobStarter(), [host], [config], new RetryPolicy(2, 10, 10, 1000), null,
+            scheduler)
+        def published = new CopyOnWriteArrayList<Long>()
+        def done = new CountDownLatch(1)
+
+        when:
+        Flux.from(retrier.withRetries(Flux.just(new HostAndJobIds(location, Flux.just(1L, 2L))))).
+            flatMap({ it.jobIds }).
+            subscribe({ published.add(it) }, { throw it }, { done.countDown() })
+        waitFor { published.size() == 2 }
+        def first = retrier.jobFailed(location, 1L, "/a")
+        waitFor { published.size() == 3 }
+
+        then: "only the failed path is sent, with its own settings"
+        first == new JobRetrier.Retry(location, "/a", 1L, 1, 2, 10L)
+        sent == [[[path: "/a", excludePaths: ["x"]]]]
+        jobs[published[2]] == "one.test:/a"
+        done.count == 1
+
+        when: "the retry fails too"
+        def second = retrier.jobFailed(location, published[2], "/a")
+        waitFor { published.size() == 4 }
+        def third = retrier.jobFailed(location, published[3], "/a")
+
+        then: "it backs off for longer, then gives up"
+        second.attempt() == 2
+        second.backoffMs() == 20L
+        third == null
+        retrier.retries() == 2
+        done.count == 1
+
+        when: "the other job completes"
+        retrier.jobCompleted(location, 2L)
+
+        then: "there's nothing left to retry"
+        done.await(5, TimeUnit.SECONDS)
+    }
+
+
+    def "stops retrying once the overall budget runs out"() {
+        def retrier = new JobRetrier(jobStarter(), [host], config.splitByPath(), new RetryPolicy(5, 1, 0, 0), null,
+            scheduler)
+        def published = new CopyOnWriteArrayList<Long>()
+        def done = new CountDownLatch(1)
+        Flux.from(retrier.withRetries(Flux.just(new HostAndJobIds(location, Flux.just(1L, 2L))))).
+            flatMap({ it.jobIds }).
+            subscribe({ published.add(it) }, { throw it }, { done.countDown() })
+
+        expect:
+        retrier.jobFailed(location, 1L, "/a") != null
+        retrier.jobFailed(location, 2L, "/b") == null
+
+        and: "jobs it didn't see started are not retried"
+        retrier.jobFailed(location, 999L, "/a") == null
+
+        when:
+        waitFor { published.size() == 3 }
+        retrier.jobCompleted(location, published[2])
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+    }
+
+
+    def "a retry and a queued path that finish starting at the same time don't block each other"() {
+        def paths = JobsConfig.parse("test", ('{"clientNodeType": "publish", "pathConfigurations": ' +
+            '[{"path": "/a"}, {"path": "/b"}, {"path": "/c"}]}').bytes).splitByPath()
+
+        expect:
+        // run off the spec's thread so that a deadlock fails the feature instead of hanging it
+        (1..20).every { CompletableFuture.supplyAsync { retryWhileQueueStarts(paths) }.get(10, TimeUnit.SECONDS) }
+    }
+
+
+    /**
+     * Fails "/a" and completes "/b" on a queue of two running jobs, so the retry of "/a" and the start of "/c"
+     * are let through together, then checks that everything finishes.
+     */
+    private boolean retryWhileQueueStarts(List<JobsConfig> paths) {
+        def together = new CyclicBarrier(2)
+        def jobIds = new ConcurrentHashMap<String, Long>()
+        def nextJobId = new AtomicLong(100)
+        def starter = new JobStarter(new JobsConfigFileReader(file), [host], HttpTransport.shared(), 4, 1000) {
+            protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials,
+                                                           JobsConfig jobsConfig) throws IOException {
+                def path = jobsConfig.pathConfigurations()[0].path
+                if (path == "/c" || jobIds.containsKey(path)) {
+                    together.await(5, TimeUnit.SECONDS)
+                }
+                def jobId = nextJobId.incrementAndGet()
+                jobIds.put(jobIds.containsKey(path) ? "${path} retry".toString() : path, jobId)
+                return new BufferedInputStream(new ByteArrayInputStream("[${jobId}]".bytes))
+            }
+        }
+        def jobQueue = new JobQueue(starter, [host], paths, 2)
+        def retrier = new JobRetrier(starter, [host], paths, new RetryPolicy(1, 1, 0, 0), jobQueue, scheduler)
+        def published = new CopyOnWriteArrayList<Long>()
+        def done = new CountDownLatch(1)
+
+        Flux.from(retrier.withRetries(jobQueue.startJobs())).
+            flatMap({ it.jobIds }).
+            subscribe({ published.add(it) }, { throw it }, { done.countDown() })
+        waitFor { published.size() == 2 }
+
+        retrier.jobFailed(location, jobIds["/a"], "/a")
+        retrier.jobCompleted(location, jobIds["/b"])
+        jobQueue.jobFinished(location, jobIds["/b"])
+        waitFor { published.size() == 4 }
+
+        [jobIds["/a retry"], jobIds["/c"]].each {
+            retrier.jobCompleted(location, it)
+            jobQueue.jobFinished(location, it)
+        }
+        return done.await(5, TimeUnit.SECONDS) && jobQueue.running(location) == 0
+    }
+
+
+    def "the backoff doubles up to its maximum"() {
+        def retryPolicy = new RetryPolicy(5, 10, 100, 250)
+
+        expect:
+        (1..4).collect { retryPolicy.backoffMs(it) } == [100L, 200L, 250L, 250L]
+        !RetryPolicy.NONE.isEnabled()
+
+        when:
+        new RetryPolicy(1, 1, 500, 100)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+
+    private static void waitFor(Closure<Boolean> condition) {
+        def deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assert condition()
+    }
+
+}
@@ -17,10 +17,15 @@ package com.twcable.grabbit.tools.jobstarter
 
 import com.twcable.grabbit.tools.environment.HostInfo
 import com.twcable.grabbit.tools.environment.UsernameAndPassword
+import com.twcable.grabbit.tools.http.HttpTransport
 import reactor.core.publisher.Flux
 import spock.lang.Specification
 import spock.lang.Subject
 
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.stream.Collectors
 
 import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
@@ -50,4 +55,59 @@ class JobStarterSpec extends Specification {
         file.delete()
     }
 
+
+    def "starts hosts concurrently, publishing them as they finish, and isolates failures"() {
+        def hosts = ["slow", "fast", "broken", "stuck"].collect {
+            new HostInfo(PUBLISHER, URI.create("http://${it}.test"), new UsernameAndPassword("test", "testpw"))
+        }
+        def file = File.createTempFile("jobstarter", "spec")
+        def running = new AtomicInteger()
+        def maxRunning = new AtomicInteger()
+        def allStarted = new CountDownLatch(3)
+        def jobStarter = new JobStarter(new JobsConfigFileReader(file), hosts, HttpTransport.shared(), 4, 500) {
+            protected BufferedInputStream startJobOnClient(URL url, UsernameAndPassword credentials) throws IOException {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math.&max)
+                allStarted.countDown()
+                try {
+                    switch (url.host) {
+                        case "slow.test":
+                            allStarted.await(1, TimeUnit.SECONDS)
+                            Thread.sleep(200)
+                            return new BufferedInputStream(new ByteArrayInputStream("[1,2]".bytes))
+                        case "fast.test":
+                            allStarted.await(1, TimeUnit.SECONDS)
+                            return new BufferedInputStream(new ByteArrayInputStream("[3]".bytes))
+                        case "broken.test":
+                            throw new IOException("no such job")
+                        default:
+                            Thread.sleep(5000)
+                            return new BufferedInputStream(new ByteArrayInputStream("[4]".bytes))
+                    }
+                }
+                finally {
+                    running.decrementAndGet()
+                }
+            }
+        }
+
+        when:
+        def results = Flux.from(jobStarter.startJobs()).
+            flatMap({ hostAndJobIds ->
+                Flux.from(hostAndJobIds.jobIds).
+                    map({ "${hostAndJobIds.uri.host}:${it}".toString() }).
+                    onErrorResumeWith({ Flux.just("${hostAndJobIds.uri.host}:${it.class.simpleName}".toString()) })
+            }).
+            collect(Collectors.toList()).block(Duration.ofSeconds(5))
+
+        then:
+        maxRunning.get() >= 3
+        results as Set == ["broken.test:IOException", "fast.test:3", "slow.test:1", "slow.test:2",
+                           "stuck.test:TimeoutException"] as Set
+        results.indexOf("fast.test:3") < results.indexOf("slow.test:1")
+        results.last() == "stuck.test:TimeoutException"
+
+        cleanup:
+        file.delete()
+    }
+
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+@Subject(JobsConfigSharder)
+class JobsConfigSharderSpec extends Specification {
+
+    def history = NodeCountHistory.empty()
+
+
+    def setup() {
+        history.record("/content/dam", 1000)
+        history.record("/content/dam/a", 400)
+        history.record("/content/dam/b", 300)
+        history.record("/content/dam/b/x", 100)
+        history.record("/content/site", 100)
+    }
+
+
+    def "splits heavy paths into subtrees and balances the pieces across the shards"() {
+        def config = config('{"path": "/content/dam", "excludePaths": ["a/old"]}, {"path": "/content/site"}, ' +
+            '{"path": "/content/modals"}')
+
+        when:
+        def shards = new JobsConfigSharder(history, 3).shard(config)
+
+        then: "the unknown path gets the average weight, and the heaviest shard is close to a third of the total"
+        shards*.pathConfigurations()*.path == [["/content/modals"], ["/content/dam/a", "/content/site"],
+                                               ["/content/dam", "/content/dam/b"]]
+        shards*.source() == ["test (shard 1 of 3, 550 nodes)", "test (shard 2 of 3, 500 nodes)",
+                             "test (shard 3 of 3, 600 nodes)"]
+
+        and: "the rest of the split path excludes its subtrees, which keep the excludes under them"
+        def pieces = shards*.pathConfigurations().flatten().collectEntries { [(it.path): it] }
+        pieces["/content/dam"].excludePaths == ["a/old", "a", "b"]
+        pieces["/content/dam/a"].excludePaths == ["old"]
+        !pieces["/content/dam/b"].containsKey("excludePaths")
+
+        and: "every shard is a complete configuration"
+        shards.every { JobsConfig.parse("shard", it.payloadBytes()).settings().serverPort == 4503 }
+    }
+
+
+    def "doesn't split a path that deletes before writing"() {
+        def config = config('{"path": "/content/dam", "deleteBeforeWrite": true}, {"path": "/content/site"}')
+
+        expect:
+        new JobsConfigSharder(history, 4).shard(config)*.pathConfigurations()*.path ==
+            [["/content/dam"], ["/content/site"]]
+    }
+
+
+    def "records a split path's count including its subtrees"() {
+        def sharder = new JobsConfigSharder(history, 3)
+        sharder.shard(config('{"path": "/content/dam"}, {"path": "/content/site"}'))
+
+        when:
+        sharder.recordCompleted("/content/dam", 250)
+        sharder.recordCompleted("/content/site", 120)
+
+        then:
+        history.nodeCount("/content/dam") == 950
+        history.nodeCount("/content/site") == 120
+    }
+
+
+    def "paths with no nodes still get a shard each"() {
+        def emptyHistory = NodeCountHistory.empty()
+        emptyHistory.record("/a", 0)
+        emptyHistory.record("/b", 0)
+
+        expect:
+        new JobsConfigSharder(emptyHistory, 2).shard(config('{"path": "/a"}, {"path": "/b"}'))*.
+            pathConfigurations()*.path == [["/a"], ["/b"]]
+    }
+
+
+    def "with no history the paths are spread evenly"() {
+        def config = config('{"path": "/a"}, {"path": "/b"}, {"path": "/c"}')
+
+        expect:
+        new JobsConfigSharder(NodeCountHistory.empty(), 2).shard(config)*.pathConfigurations()*.path ==
+            [["/a", "/c"], ["/b"]]
+    }
+
+    // **********************************************************************
+    //
+    // HELPER METHODS
+    //
+    // **********************************************************************
+
+    static JobsConfig config(String pathConfigurations) {
+        return JobsConfig.parse("test", ('{"clientNodeType": "publish", "serverPort": 4503, ' +
+            '"pathConfigurations": [' + pathConfigurations + ']}').bytes)
+    }
+
+}
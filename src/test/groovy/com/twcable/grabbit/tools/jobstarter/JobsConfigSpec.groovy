@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.nio.ReadOnlyBufferException
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.AUTHOR
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
+
+@Subject(JobsConfig)
+class JobsConfigSpec extends Specification {
+
+    def "parses the configuration once, keeping the exact payload"() {
+        def file = new File(getClass().classLoader.getResource("publish-content.json").file)
+        def reader = new JobsConfigFileReader(file)
+
+        when:
+        def config = reader.jobsConfig()
+
+        then:
+        reader.jobsConfig().is(config)
+        reader.configNodeType() == PUBLISHER
+        config.pathConfigurations()*.path == ["/content/site", "/content/modals"]
+        config.settings().serverPort == 4503
+        reader.inputStream().bytes == file.bytes
+        config.payloadBytes().is(config.payloadBytes())
+
+        when:
+        def payload = config.payload()
+        payload.put(0, (byte)0)
+
+        then:
+        thrown(ReadOnlyBufferException)
+        payload.remaining() == file.length()
+    }
+
+
+    def "validates the configuration"() {
+        when:
+        JobsConfig.parse("test", json.bytes)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains(message)
+
+        where:
+        json                                                               | message
+        '["not", "a", "map"]'                                              | "map of settings"
+        '{"pathConfigurations": []}'                                       | "clientNodeType"
+        '{"clientNodeType": "dispatcher"}'                                 | "dispatcher"
+        '{"clientNodeType": "author", "pathConfigurations": [{"x": "y"}]}' | "\"path\""
+    }
+
+
+    def "splits by path, keeping the other settings"() {
+        def config = JobsConfig.parse("test", ('{"clientNodeType": "author", "serverPort": 4503, "ratio": 0.5, ' +
+            '"pathConfigurations": [{"path": "/content/a", "excludePaths": ["x"]}, {"path": "/content/b"}]}').bytes)
+
+        when:
+        def split = config.splitByPath()
+
+        then:
+        split.size() == 2
+        split*.pathConfigurations()*.path == [["/content/a"], ["/content/b"]]
+        split.every { it.clientNodeType() == AUTHOR && it.settings().serverPort == 4503 }
+
+        and: "each payload is a complete configuration"
+        def reparsed = JobsConfig.parse("split", split[0].payloadBytes())
+        reparsed.settings().ratio == 0.5d
+        reparsed.pathConfigurations() == [[path: "/content/a", excludePaths: ["x"]]]
+        split[0].source() == "test (/content/a)"
+    }
+
+
+    def "a single path configuration is not split"() {
+        def config = JobsConfig.parse("test", '{"clientNodeType": "author", "pathConfigurations": [{"path": "/a"}]}'.bytes)
+
+        expect:
+        config.splitByPath() == [config]
+    }
+
+
+    def "allows a configuration without path configurations"() {
+        expect:
+        JobsConfig.parse("test", '{"clientNodeType": "Author"}'.bytes).clientNodeType() == AUTHOR
+    }
+
+
+    def "parses the job groups, leaving them out of split configurations"() {
+        def config = JobsConfig.parse("test", ('{"clientNodeType": "author", "pathConfigurations": ' +
+            '[{"path": "/conf"}, {"path": "/etc/tags"}, {"path": "/content"}], "jobGroups": {' +
+            '"config": {"paths": ["/conf"]}, "tags": {"paths": ["/etc/tags"]}, ' +
+            '"content": {"paths": ["/content"], "dependsOn": ["config", "tags"]}}}').bytes)
+
+        expect:
+        config.jobGroups()*.name() == ["config", "tags", "content"]
+        config.jobGroups()[2] == new JobGroup("content", ["/content"], ["config", "tags"])
+        config.splitByPath().every { it.jobGroups().isEmpty() && !it.settings().containsKey("jobGroups") }
+
+        and: "groups at the start of longer chains have longer critical paths"
+        JobGroup.criticalPathLengths(config.jobGroups()) == [config: 2, tags: 2, content: 1]
+    }
+
+
+    def "validates the job groups"() {
+        when:
+        JobsConfig.parse("test", ('{"clientNodeType": "author", "pathConfigurations": [{"path": "/a"}, ' +
+            '{"path": "/b"}], "jobGroups": ' + jobGroups + '}').bytes)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.contains(message)
+
+        where:
+        jobGroups                                                                          | message
+        '["a"]'                                                                            | "map of names"
+        '{"(no group)": {"paths": ["/a"]}}'                                                | "is reserved"
+        '{"a": {}}'                                                                        | "at least one"
+        '{"a": {"paths": ["/x"]}}'                                                         | "\"/x\", which is not"
+        '{"a": {"paths": ["/a"]}, "b": {"paths": ["/a"]}}'                                 | "in both"
+        '{"a": {"paths": ["/a"], "dependsOn": ["c"]}}'                                     | "not a job group"
+        '{"a": {"paths": ["/a"], "dependsOn": ["b"]}, "b": {"paths": ["/b"], "dependsOn": ["a"]}}' | "a -> b -> a"
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import spock.lang.Specification
+
+class LaunchSchedulerSpec extends Specification {
+
+    def "starts are spaced out at the rate once the burst is used"() {
+        given:
+        def scheduler = new LaunchScheduler(new LaunchSettings(2, 2, 0, 0))
+
+        expect:
+        (0..4).collect { scheduler.reserve(1000L) } == [1000L, 1000L, 1500L, 2000L, 2500L]
+    }
+
+
+    def "the bucket refills while idle, up to the burst"() {
+        given:
+        def scheduler = new LaunchScheduler(new LaunchSettings(10, 2, 0, 0))
+        scheduler.reserve(0L)
+        scheduler.reserve(0L)
+
+        expect:
+        scheduler.reserve(60_000L) == 60_000L
+        scheduler.reserve(60_000L) == 60_000L
+        scheduler.reserve(60_000L) == 60_100L
+    }
+
+
+    def "ramp-up starts slower and reaches the full rate"() {
+        given:
+        def scheduler = new LaunchScheduler(new LaunchSettings(10, 1, 10_000, 0))
+        scheduler.reserve(0L)
+
+        expect:
+        scheduler.rateAt(0L) == 1.0d
+        scheduler.rateAt(5_000L) == 5.5d
+        scheduler.rateAt(10_000L) == 10.0d
+        scheduler.reserve(0L) == 1_000L
+    }
+
+
+    def "jitter stays within its bound"() {
+        given:
+        def scheduler = new LaunchScheduler(new LaunchSettings(0, 1, 0, 50))
+
+        expect:
+        (1..100).collect { scheduler.reserve(1000L) }.every { it >= 1000L && it <= 1050L }
+    }
+
+
+    def "reports the effective rate"() {
+        given:
+        def scheduler = new LaunchScheduler(new LaunchSettings(20, 1, 0, 0))
+
+        when:
+        4.times { scheduler.acquire() }
+
+        then:
+        scheduler.launches() == 4
+        scheduler.effectiveRate() > 0d
+        scheduler.effectiveRate() <= 20.5d
+        scheduler.summary() ==~ /Made 4 job starts at [0-9.]+ starts\/second \(limit 20\.00\)/
+    }
+
+
+    def "unlimited starts don't wait"() {
+        given:
+        def scheduler = new LaunchScheduler(LaunchSettings.UNLIMITED)
+
+        expect:
+        (0..9).collect { scheduler.reserve(1000L) }.every { it == 1000L }
+        scheduler.summary().endsWith("(no limit)")
+    }
+
+
+    def "invalid settings are rejected"() {
+        when:
+        new LaunchSettings(rate, burst, 0, 0)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        rate       | burst
+        -1d        | 1
+        Double.NaN | 1
+        1d         | 0
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.jobstarter
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+@Subject(NodeCountHistory)
+class NodeCountHistorySpec extends Specification {
+
+    def "finds the top-most subtrees under a path"() {
+        def history = NodeCountHistory.empty()
+        ["/a", "/a/b", "/a/b/c", "/a/b-x", "/a/d/", "/ab"].each { history.record(it, 1) }
+
+        expect:
+        history.subtrees("/a") == ["/a/b", "/a/b-x", "/a/d"]
+        history.subtrees("/a/b") == ["/a/b/c"]
+        history.subtrees("/z").isEmpty()
+        history.nodeCount("/a/d") == 1
+        history.nodeCount("/z") == -1
+    }
+
+
+    def "saves and loads the counts"() {
+        def file = File.createTempFile("node-counts", ".json")
+        file.delete()
+
+        when:
+        def history = NodeCountHistory.load(file)
+        history.record("/content/dam", 1_250_000)
+        history.record("/content/site", 40_000)
+        history.save()
+
+        then:
+        NodeCountHistory.load(file).nodeCount("/content/dam") == 1_250_000
+        file.text == '{"/content/dam":1250000,"/content/site":40000}'
+
+        cleanup:
+        file.delete()
+    }
+
+
+    def "rejects a count that isn't a number"() {
+        def file = File.createTempFile("node-counts", ".json")
+        file.text = '{"/content/dam": "lots"}'
+
+        when:
+        NodeCountHistory.load(file)
+
+        then:
+        thrown(IllegalStateException)
+
+        cleanup:
+        file.delete()
+    }
+
+}
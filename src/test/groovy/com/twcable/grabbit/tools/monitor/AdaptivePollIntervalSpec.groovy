@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.OffsetDateTime
+
+@Subject(AdaptivePollInterval)
+class AdaptivePollIntervalSpec extends Specification {
+    def uri = URI.create("http://test.test")
+    def strategy = new AdaptivePollInterval(1_000L, 60_000L)
+
+
+    def "a job seen for the first time is polled again quickly"() {
+        expect:
+        strategy.nextPollDelayMs(null, progress(100, 0)) == 1_000L
+    }
+
+
+    def "the delay grows with how long the job has been running, up to the maximum"() {
+        def previous = JobProgress.next(null, status(100, 10), nowMs() - 1_000)
+
+        expect:
+        strategy.nextPollDelayMs(previous, JobProgress.next(previous, status(200, 100), nowMs())) in (9_000L..11_000L)
+        strategy.nextPollDelayMs(previous, JobProgress.next(previous, status(200, 3_600), nowMs())) == 60_000L
+    }
+
+
+    def "a job that stops writing or slows down sharply is polled again quickly"() {
+        def first = JobProgress.next(null, status(100, 3_600), nowMs() - 2_000)
+        def second = JobProgress.next(first, status(1_100, 3_600), nowMs() - 1_000)
+
+        expect:
+        strategy.nextPollDelayMs(second, JobProgress.next(second, status(1_100, 3_600), nowMs())) == 1_000L
+        strategy.nextPollDelayMs(second, JobProgress.next(second, status(1_200, 3_600), nowMs())) == 1_000L
+        strategy.nextPollDelayMs(second, JobProgress.next(second, status(2_100, 3_600), nowMs())) == 60_000L
+    }
+
+    // **********************************************************************
+    //
+    // HELPER METHODS
+    //
+    // **********************************************************************
+
+    JobProgress progress(long nodesWritten, long runningSeconds) {
+        return JobProgress.next(null, status(nodesWritten, runningSeconds), nowMs())
+    }
+
+
+    JobStatus status(long nodesWritten, long runningSeconds) {
+        return new JobStatus(uri, 1L, 2L, OffsetDateTime.now().minusSeconds(runningSeconds), null, "/content",
+            -1L, nodesWritten, "", "UNKNOWN", true)
+    }
+
+
+    static long nowMs() {
+        return System.currentTimeMillis()
+    }
+
+}
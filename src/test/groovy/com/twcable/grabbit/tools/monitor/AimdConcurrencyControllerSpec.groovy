@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.OffsetDateTime
+
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.DECREASE
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.HOLD
+import static com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent.Action.INCREASE
+
+@Subject(AimdConcurrencyController)
+class AimdConcurrencyControllerSpec extends Specification {
+    def uri = URI.create("http://test.test")
+    def limits = []
+    def controller = new AimdConcurrencyController(2, 1, 4, 1_000L, 0.5d, { location, limit -> limits << limit })
+
+
+    def "raises the limit while throughput improves and cuts it back when it flattens or polls slow down"() {
+        when:
+        controller.observe(status(1L, 0L), 10L, 0L)
+        def decisions = [
+            windowWith(1L, 1_000L, 10L, 1_000L),  // 1,000 nodes/second, probes upwards
+            windowWith(1L, 3_000L, 10L, 2_000L),  // 2,000 nodes/second, better
+            windowWith(1L, 5_000L, 10L, 3_000L),  // 2,000 nodes/second, flat
+            windowWith(1L, 8_000L, 500L, 4_000L), // polls are much slower
+            windowWith(1L, 9_000L, 10L, 5_000L),  // probes upwards again
+        ]
+
+        then:
+        decisions*.action == [INCREASE, INCREASE, DECREASE, DECREASE, INCREASE]
+        decisions*.limit == [3, 4, 2, 1, 2]
+        decisions*.throughput == [1_000d, 2_000d, 2_000d, 3_000d, 1_000d]
+        decisions[3].pollLatencyMs == 500L
+        limits == [3, 4, 2, 1, 2]
+        controller.limit(uri) == 2
+    }
+
+
+    def "holds at the maximum, and while nothing is being written"() {
+        def capped = new AimdConcurrencyController(4, 1, 4, 1_000L, 0.5d, { location, limit -> limits << limit })
+
+        when:
+        capped.observe(status(1L, 0L), 10L, 0L)
+        capped.observe(status(1L, 0L), 10L, 1_000L)
+        def idle = capped.decide(1_000L)
+        capped.observe(status(1L, 500L), 10L, 2_000L)
+        def atMax = capped.decide(2_000L)
+
+        then:
+        idle*.action == [HOLD]
+        idle[0].reason == "nothing written yet"
+        atMax*.action == [HOLD]
+        atMax[0].reason.endsWith("already at the maximum")
+        atMax[0].limit == 4
+        limits.isEmpty()
+    }
+
+
+    def "only decides once a host's window has passed"() {
+        when:
+        controller.observe(status(1L, 100L), 10L, 0L)
+
+        then:
+        controller.decide(999L).isEmpty()
+        controller.decide(1_000L).size() == 1
+        controller.decide(5_000L).isEmpty()
+    }
+
+
+    def "counts a finished job's last nodes, and each job separately"() {
+        when:
+        controller.observe(status(1L, 100L), 10L, 0L)
+        controller.observe(status(2L, 300L), 10L, 0L)
+        controller.observe(status(1L, 600L, false), 10L, 500L)
+        def decision = controller.decide(1_000L)[0]
+
+        then:
+        decision.throughput == 900d
+        decision.toString().contains("INCREASE for http://test.test: 2 -> 3 jobs")
+    }
+
+
+    def "rejects invalid limits"() {
+        when:
+        new AimdConcurrencyController(initial, 1, max, 1_000L, factor, { location, limit -> })
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        initial | max | factor
+        0       | 4   | 0.5d
+        5       | 4   | 0.5d
+        2       | 4   | 1.0d
+    }
+
+    // **********************************************************************
+    //
+    // HELPER METHODS
+    //
+    // **********************************************************************
+
+    ConcurrencyMonitoringEvent windowWith(long jobId, long nodesWritten, long latencyMs, long nowMs) {
+        controller.observe(status(jobId, nodesWritten), latencyMs, nowMs)
+        def decisions = controller.decide(nowMs)
+        assert decisions.size() == 1
+        return decisions[0]
+    }
+
+
+    JobStatus status(long jobId, long nodesWritten, boolean running = true) {
+        return new JobStatus(uri, 1L, jobId, OffsetDateTime.now().minusMinutes(1), null, "/content",
+            -1L, nodesWritten, "", running ? "UNKNOWN" : "COMPLETED", running)
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.time.OffsetDateTime
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(BoundedParallelPoller)
+class BoundedParallelPollerSpec extends Specification {
+
+    @AutoCleanup("shutdown")
+    ExecutorService executor = Executors.newFixedThreadPool(8)
+
+
+    def "respects the global and per-host limits"() {
+        def hosts = (1..3).collect { URI.create("http://host${it}.test") }
+        def entries = hosts.collectMany { host -> (1..10).collect { new HostJobState(host, it, RUNNING) } }
+
+        def inFlight = new AtomicInteger()
+        def maxInFlight = new AtomicInteger()
+        def inFlightPerHost = new ConcurrentHashMap<URI, AtomicInteger>()
+        def maxInFlightPerHost = new ConcurrentHashMap<URI, Integer>()
+
+        def jobStatusPoller = { URI location, long jobId ->
+            def hostCount = inFlightPerHost.computeIfAbsent(location, { new AtomicInteger() }).incrementAndGet()
+            maxInFlightPerHost.merge(location, hostCount, { a, b -> Math.max(a, b) })
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), { a, b -> Math.max(a, b) })
+            Thread.sleep(5)
+            inFlight.decrementAndGet()
+            inFlightPerHost.get(location).decrementAndGet()
+            return PollingJobMonitorSpec.createJobStatus(location, jobId, OffsetDateTime.now(), RUNNING)
+        } as JobStatusPoller
+
+        def poller = new BoundedParallelPoller(jobStatusPoller, executor, 5, 2)
+        def dispatched = []
+
+        when:
+        def results = poller.pollAll(entries, { dispatched << it })
+
+        then: "results come back in the order of the entries"
+        results*.jobExecutionId() == entries*.jobId()
+        dispatched.size() == entries.size()
+
+        and:
+        maxInFlight.get() <= 5
+        maxInFlightPerHost.values().every { it <= 2 }
+    }
+
+
+    def "reports a failed poll after the cycle finishes"() {
+        def host = URI.create("http://host.test")
+        def entries = (1..4).collect { new HostJobState(host, it, RUNNING) }
+        def polled = new AtomicInteger()
+
+        def jobStatusPoller = { URI location, long jobId ->
+            polled.incrementAndGet()
+            if (jobId == 2) throw new IllegalStateException("boom")
+            return PollingJobMonitorSpec.createJobStatus(location, jobId, OffsetDateTime.now(), RUNNING)
+        } as JobStatusPoller
+
+        when:
+        new BoundedParallelPoller(jobStatusPoller, executor, 4, 4).pollAll(entries, {})
+
+        then:
+        def exp = thrown(IllegalStateException)
+        exp.message == "boom"
+        polled.get() == 4
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(CompactJobStatusCache)
+class CompactJobStatusCacheSpec extends Specification {
+
+    def "tells the same job id on different hosts apart"() {
+        def host1 = URI.create("http://host1.test")
+        def host2 = URI.create("http://host2.test")
+        def cache = new CompactJobStatusCache()
+
+        when:
+        cache.put(host1, 1L, RUNNING)
+        cache.put(host2, 1L, RUNNING)
+        cache.put(host1, 2L, RUNNING)
+        def existing = cache.put(host2, 1L, COMPLETED)
+
+        then:
+        existing == new HostJobState(host2, 1L, RUNNING)
+        cache.get(new HostJobKey(host1, 1L)).state == RUNNING
+        cache.get(new HostJobKey(host2, 1L)).state == COMPLETED
+        cache.get(new HostJobKey(host2, 2L)) == null
+        cache.get(new HostJobKey(URI.create("http://other.test"), 1L)) == null
+        cache.entries().size() == 3
+        cache.toString() == "CompactJobStatusCache(3 jobs on 2 hosts)"
+    }
+
+
+    def "holds many jobs across many hosts"() {
+        def hosts = (0..<50).collect { URI.create("http://host${it}.test:4503") }
+        def cache = new CompactJobStatusCache()
+
+        when:
+        for (long jobId = 0; jobId < 200_000L; jobId++) {
+            cache.put(hosts[(int)(jobId % 50)], jobId, RUNNING)
+        }
+        for (long jobId = 0; jobId < 200_000L; jobId += 2) {
+            cache.put(hosts[(int)(jobId % 50)], jobId, jobId % 4 == 0 ? COMPLETED : FAILED)
+        }
+
+        then:
+        cache.entries().size() == 200_000
+        cache.entries()[123_457] == new HostJobState(hosts[7], 123_457L, RUNNING)
+        cache.get(new HostJobKey(hosts[0], 100_000L)).state == COMPLETED
+        cache.get(new HostJobKey(hosts[1], 100_000L)) == null
+        cache.running().size() == 100_000
+        cache.withState(COMPLETED).size() == 50_000
+        cache.withState(FAILED).first() == new HostJobState(hosts[2], 2L, FAILED)
+    }
+
+}
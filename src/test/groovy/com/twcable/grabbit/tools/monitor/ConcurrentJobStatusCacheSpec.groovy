@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(ConcurrentJobStatusCache)
+class ConcurrentJobStatusCacheSpec extends Specification {
+    def host = URI.create("http://host.test")
+
+
+    def "an iterator sees the state a job is in when it reaches it"() {
+        def cache = new ConcurrentJobStatusCache([new HostJobState(host, 1L, RUNNING),
+                                                  new HostJobState(host, 2L, RUNNING)])
+
+        when:
+        def entries = cache.entries().iterator()
+        def first = entries.next()
+        cache.put(host, 2L, COMPLETED)
+        cache.put(host, 3L, RUNNING)
+        def second = entries.next()
+
+        then:
+        first == new HostJobState(host, 1L, RUNNING)
+        second == new HostJobState(host, 2L, COMPLETED)
+        cache.running()*.jobId as Set == [1L, 3L] as Set
+        cache.withState(COMPLETED) as List == [second]
+    }
+
+
+    def "compareAndSet only changes the state from the expected one"() {
+        def cache = new ConcurrentJobStatusCache([new HostJobState(host, 1L, RUNNING)])
+
+        expect:
+        !cache.compareAndSet(host, 1L, COMPLETED, FAILED)
+        cache.compareAndSet(host, 1L, RUNNING, COMPLETED)
+        !cache.compareAndSet(host, 1L, RUNNING, FAILED)
+        !cache.compareAndSet(host, 2L, RUNNING, FAILED)
+        cache.get(new HostJobKey(host, 1L)).state == COMPLETED
+        cache.entries().size() == 1
+    }
+
+
+    def "stays consistent under concurrent puts, transitions and iteration"() {
+        def threads = 8
+        def jobsPerThread = 2_000
+        def cache = new ConcurrentJobStatusCache()
+        def executor = Executors.newFixedThreadPool(threads + 1)
+        def start = new CountDownLatch(1)
+        def completed = new AtomicInteger()
+        def failed = new AtomicInteger()
+        def iterations = new AtomicInteger()
+        def done = false
+
+        when:
+        // every thread adds its own jobs, then races all the others to finish every job
+        def futures = (0..<threads).collect { thread ->
+            executor.submit {
+                start.await()
+                (0L..<jobsPerThread).each { cache.put(host, thread * jobsPerThread + it, RUNNING) }
+                (0L..<threads * jobsPerThread).each { jobId ->
+                    if (cache.compareAndSet(host, jobId, RUNNING, thread % 2 == 0 ? COMPLETED : FAILED)) {
+                        thread % 2 == 0 ? completed.incrementAndGet() : failed.incrementAndGet()
+                    }
+                }
+            }
+        }
+        def reader = executor.submit {
+            start.await()
+            while (!done) {
+                def seen = new HashSet<HostJobKey>()
+                cache.entries().each { assert seen.add(HostJobKey.of(it)) }
+                iterations.incrementAndGet()
+            }
+        }
+        start.countDown()
+        futures*.get(30, TimeUnit.SECONDS)
+        done = true
+        reader.get(30, TimeUnit.SECONDS)
+
+        then:
+        cache.entries().size() == threads * jobsPerThread
+        cache.entries().collect { it.jobId }.toSet().size() == threads * jobsPerThread
+        cache.entries().every { it.state != RUNNING }
+        cache.running().empty
+        cache.withState(COMPLETED).size() == completed.get()
+        cache.withState(FAILED).size() == failed.get()
+        completed.get() + failed.get() == threads * jobsPerThread
+        cache.entries().count { it.state == COMPLETED } == completed.get()
+        iterations.get() > 0
+
+        cleanup:
+        executor?.shutdownNow()
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(IndexedEntries)
+class IndexedEntriesSpec extends Specification {
+    def host = URI.create("http://host.test")
+    List<HostJobState> backing = []
+    def entries = new IndexedEntries({ backing.size() }, { int index -> backing[index] })
+
+
+    def "views are live and keep each state in the order the entries were first added"() {
+        def all = entries.all()
+        def completed = entries.withState(COMPLETED)
+
+        when:
+        add(1L, RUNNING)
+        add(2L, RUNNING)
+        add(3L, RUNNING)
+        change(3L, COMPLETED)
+        change(1L, COMPLETED)
+
+        then:
+        all*.jobId == [1L, 2L, 3L]
+        completed*.jobId == [1L, 3L]
+        completed.size() == 2
+        entries.withState(RUNNING)*.jobId == [2L]
+        entries.withState(FAILED).empty
+    }
+
+
+    def "views are bounded by the cache's size"() {
+        add(1L, RUNNING)
+
+        when:
+        entries.all().get(1)
+
+        then:
+        thrown(IndexOutOfBoundsException)
+
+        when:
+        def iterator = entries.withState(RUNNING).iterator()
+        iterator.next()
+        iterator.next()
+
+        then:
+        thrown(NoSuchElementException)
+    }
+
+
+    private void add(long jobId, JobState state) {
+        backing << new HostJobState(host, jobId, state)
+        entries.added(backing.size() - 1, state)
+    }
+
+
+    private void change(long jobId, JobState state) {
+        def index = backing.findIndexOf { it.jobId == jobId }
+        entries.changed(index, backing[index].state, state)
+        backing[index] = new HostJobState(host, jobId, state)
+    }
+
+}
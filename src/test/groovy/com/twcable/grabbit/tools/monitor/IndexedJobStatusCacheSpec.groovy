@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(IndexedJobStatusCache)
+class IndexedJobStatusCacheSpec extends Specification {
+
+    def "lists each state in the order the jobs entered it"() {
+        def host = URI.create("http://host.test")
+        def cache = new IndexedJobStatusCache()
+
+        when:
+        (1L..3L).each { cache.put(host, it, RUNNING) }
+        cache.put(host, 3L, COMPLETED)
+        cache.put(host, 1L, COMPLETED)
+
+        then:
+        cache.withState(COMPLETED)*.jobId == [3L, 1L]
+        cache.entries()*.jobId == [1L, 2L, 3L]
+        cache.running()*.jobId == [2L]
+        cache.withState(FAILED).empty
+    }
+
+
+    def "stays fast with many jobs"() {
+        def host = URI.create("http://host.test")
+        def cache = new IndexedJobStatusCache()
+
+        when:
+        (0L..<100_000L).each { cache.put(host, it, RUNNING) }
+        (0L..<100_000L).each { cache.put(host, it, (it % 2 == 0) ? COMPLETED : FAILED) }
+
+        then:
+        cache.entries().size() == 100_000
+        cache.entries().first().state == COMPLETED
+        cache.entries().last().jobId == 99_999L
+        cache.running().empty
+        cache.withState(FAILED).size() == 50_000
+    }
+
+}
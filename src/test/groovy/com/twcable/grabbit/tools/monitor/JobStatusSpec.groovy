@@ -15,6 +15,7 @@
  */
 package com.twcable.grabbit.tools.monitor
 
+import com.twcable.grabbit.tools.util.JsonWriter
 import spock.lang.Specification
 
 import java.time.OffsetDateTime
@@ -74,4 +75,117 @@ class JobStatusSpec extends Specification {
         JobStatus.fromJson(uri, jobStatusStr) != null
     }
 
+
+    def "streaming reader gives the same result as the YAML parser"() {
+        def jobStatusStr = '''
+{
+  "transactionID": 5700257125617303512,
+  "jobExecutionId": 42,
+  "jcrNodesWritten": "1234",
+  "extra": {"nested": [1, 2.5e3, {"deep": "\\"quoted\\""}], "flag": false},
+  "exitStatus": {
+    "exitDescription": "caf\\u00e9 \\ud83d\\ude00 \\n done",
+    "exitCode": "COMPLETED",
+    "running": false
+  },
+  "endTime": "2016-06-03T13:20:57+0000",
+  "timeTaken": 60,
+  "path": "/content/d\u00e9mo",
+  "startTime": "2016-06-03T13:19:57+0000"
+}'''
+
+        when:
+        def streamed = JobStatus.fromJsonStream(uri, new ByteArrayInputStream(jobStatusStr.getBytes("UTF-8")))
+
+        then:
+        streamed == JobStatus.fromJson(uri, jobStatusStr)
+        streamed.jobExecutionId == 42L
+        streamed.jcrNodesWritten == 1234L
+        streamed.exitDescription == "caf\u00e9 \ud83d\ude00 \n done"
+        streamed.path == "/content/d\u00e9mo"
+        streamed.state() == JobState.COMPLETED
+    }
+
+
+    def "streaming reader falls back to YAML for payloads that are not plain JSON"() {
+        def stream = { String str -> new ByteArrayInputStream(str.getBytes("UTF-8")) }
+
+        expect:
+        JobStatus.fromJsonStream(uri, stream("{'jobExecutionId': 7, 'exitStatus': {'exitCode': 'FAILED'}}")).state() == JobState.FAILED
+        JobStatus.fromJsonStream(uri, stream("")).jobExecutionId == -1L
+        JobStatus.fromJsonArrayStream(uri, stream("[{\"jobExecutionId\": 1}, {\"jobExecutionId\": 2}]"))*.jobExecutionId == [1L, 2L]
+        JobStatus.fromJsonArrayStream(uri, stream(" [ ] ")).empty
+
+        when:
+        JobStatus.fromJsonArrayStream(uri, stream("{\"jobExecutionId\": 1}"))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+
+    def "streaming reader only falls back to YAML for a response it could keep"() {
+        def tooLong = '{"path": "' + ('x' * (JobStatus.FALLBACK_BYTES + 1)) + '", "running": \'yes\'}'
+        def notMarkable = new FilterInputStream(new ByteArrayInputStream(tooLong.getBytes("UTF-8"))) {
+            @Override
+            boolean markSupported() {
+                false
+            }
+        }
+
+        when:
+        JobStatus.fromJsonStream(uri, notMarkable)
+
+        then:
+        thrown(IOException)
+    }
+
+
+    def "streaming reader reads unpaired surrogate escapes as replacement characters"() {
+        def jobStatusStr = '{"path": "a\\ud800b\\udc00c\\ud83d\\ude00\\ud800\\n\\ud800\\ud83d\\ude00\\ud800"}'
+
+        expect:
+        JobStatus.fromJsonStream(uri, new ByteArrayInputStream(jobStatusStr.getBytes("UTF-8"))).path ==
+            "a\uFFFDb\uFFFDc\uD83D\uDE00\uFFFD\n\uFFFD\uD83D\uDE00\uFFFD"
+    }
+
+
+    def "serialized statuses are valid JSON, even with stack traces in them"() {
+        def stackTrace = "java.lang.IllegalStateException: \"bad\" path\n\tat com.example.Foo(Foo.java:42)\r\n\u0001 \u2028 caf\u00e9"
+        def jobStatus = new JobStatus(uri, 1L, 2L,
+            OffsetDateTime.parse("2016-06-03T13:19:57+0000", JobStatus.DATE_TIME_FORMATTER), null,
+            "/content/\"quoted\"\\path", 1, 2L, stackTrace, "FAILED", false)
+        def hostJobState = new HostJobState(uri, 2L, JobState.FAILED)
+
+        when:
+        def out = new ByteArrayOutputStream()
+        def json = JsonWriter.utf8(out)
+        JobStatus.writeJsonArray([jobStatus, jobStatus], json)
+        json.flush()
+
+        def hostJobStates = new StringBuilder()
+        HostJobState.writeJsonArray([hostJobState], new JsonWriter(hostJobStates))
+
+        then:
+        !jobStatus.asJson().contains("\n")
+        JobStatus.fromJsonStream(uri, new ByteArrayInputStream(jobStatus.asJson().getBytes("UTF-8"))) == jobStatus
+        JobStatus.fromJson(uri, jobStatus.asJson()) == jobStatus
+        JobStatus.fromJsonArrayStream(uri, new ByteArrayInputStream(out.toByteArray())) == [jobStatus, jobStatus]
+        hostJobStates.toString() == '[{"location":"http://test.test","jobId":2,"state":"FAILED"}]'
+    }
+
+
+
+    def "unpaired surrogates are written as replacement characters"() {
+        def out = new ByteArrayOutputStream()
+        def json = JsonWriter.utf8(out)
+
+        when:
+        json.beginArray().value("a\uD800b\uDC00c\uD83D\uDE00\uD800").endArray()
+        json.flush()
+
+        then:
+        new String(out.toByteArray(), "UTF-8") == '["a\uFFFDb\uFFFDc\uD83D\uDE00\uFFFD"]'
+    }
+
 }
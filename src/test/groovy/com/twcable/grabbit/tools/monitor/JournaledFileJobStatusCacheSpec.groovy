@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.util.concurrent.TimeUnit
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(JournaledFileJobStatusCache)
+class JournaledFileJobStatusCacheSpec extends Specification {
+    def host = URI.create("http://test.com")
+    File file = File.createTempFile("JournaledFileJobStatusCacheSpec", "test")
+
+
+    def cleanup() {
+        file.delete()
+    }
+
+
+    def "appends a line per state change and replays the last one"() {
+        def cache = JournaledFileJobStatusCache.createEmpty(file)
+
+        when:
+        cache.put(host, 1L, RUNNING)
+        cache.put(host, 2L, RUNNING)
+        cache.put(host, 1L, RUNNING)
+        cache.put(host, 1L, COMPLETED)
+        cache.close()
+
+        then:
+        file.readLines() == ["http://test.com,1,RUNNING", "http://test.com,2,RUNNING", "http://test.com,1,COMPLETED"]
+        JournaledFileJobStatusCache.open(file).entries()*.state == [COMPLETED, RUNNING]
+        JournaledFileJobStatusCache.open(file).running()*.jobId == [2L]
+    }
+
+
+    def "opens the plain file format, ignoring a partly written last line"() {
+        def simpleCache = SimpleFileJobStatusCache.createEmpty(file)
+        simpleCache.put(host, 1L, RUNNING)
+        simpleCache.put(host, 2L, FAILED)
+        file << "http://test.com,3,RUNN"
+
+        when:
+        def cache = JournaledFileJobStatusCache.open(file)
+        cache.put(host, 1L, COMPLETED)
+        cache.close()
+
+        then:
+        cache.entries()*.jobId == [1L, 2L]
+        JournaledFileJobStatusCache.open(file).entries()*.state == [COMPLETED, FAILED]
+    }
+
+
+    def "keeps failing to read a journal with a bad line, rather than using the jobs before it"() {
+        file.text = "http://test.com,1,RUNNING\nnot a job\nhttp://test.com,2,RUNNING\n"
+        def cache = JournaledFileJobStatusCache.open(file)
+
+        when:
+        cache.entries()
+
+        then:
+        thrown(IllegalStateException)
+
+        when:
+        cache.running()
+
+        then:
+        thrown(IllegalStateException)
+
+        when:
+        file.text = "http://test.com,1,RUNNING\nhttp://test.com,2,RUNNING\n"
+
+        then:
+        cache.entries()*.jobId == [1L, 2L]
+    }
+
+
+    def "compacts once most of the journal is out of date"() {
+        def cache = JournaledFileJobStatusCache.open(file, 10)
+
+        when:
+        (1L..5L).each { cache.put(host, it, RUNNING) }
+        (1L..5L).each { cache.put(host, it, COMPLETED) }
+        cache.put(host, 1L, FAILED)
+        cache.compact().get(5, TimeUnit.SECONDS)
+        cache.put(host, 6L, RUNNING)
+        cache.close()
+
+        then:
+        file.readLines().size() == 6
+        JournaledFileJobStatusCache.open(file).entries()*.state == [FAILED, COMPLETED, COMPLETED, COMPLETED, COMPLETED, RUNNING]
+    }
+
+
+    def "group commit buffers lines until flushed"() {
+        def cache = JournaledFileJobStatusCache.createEmpty(file, new GroupCommitPolicy(DurabilityPolicy.FSYNC, 60000))
+
+        when:
+        cache.put(host, 1L, RUNNING)
+        cache.put(host, 1L, COMPLETED)
+
+        then:
+        file.readLines().isEmpty()
+
+        when:
+        cache.flush()
+        cache.put(host, 2L, RUNNING)
+
+        then:
+        file.readLines() == ["http://test.com,1,RUNNING", "http://test.com,1,COMPLETED"]
+
+        when:
+        cache.close()
+
+        then:
+        JournaledFileJobStatusCache.open(file).entries()*.state == [COMPLETED, RUNNING]
+    }
+
+}
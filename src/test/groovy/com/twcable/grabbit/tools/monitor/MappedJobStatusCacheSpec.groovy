@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import spock.lang.Specification
+import spock.lang.Subject
+
+import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
+import static com.twcable.grabbit.tools.monitor.JobState.FAILED
+import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
+
+@Subject(MappedJobStatusCache)
+class MappedJobStatusCacheSpec extends Specification {
+    def host1 = URI.create("http://host1.test:4503")
+    def host2 = URI.create("http://host2.test:4503")
+    File file = File.createTempFile("MappedJobStatusCacheSpec", "test")
+    File csvFile = File.createTempFile("MappedJobStatusCacheSpec", "csv")
+
+
+    def cleanup() {
+        file.delete()
+        csvFile.delete()
+    }
+
+
+    def "updates records in place and reopens with the same entries"() {
+        def cache = MappedJobStatusCache.createEmpty(file)
+
+        when:
+        (1L..3000L).each { cache.put(it % 2 ? host1 : host2, it, RUNNING) }
+        def lengthBefore = file.length()
+        def existing = cache.put(host2, 2L, COMPLETED)
+        cache.put(host1, 2999L, FAILED)
+        cache.close()
+
+        then:
+        existing == new HostJobState(host2, 2L, RUNNING)
+        file.length() == lengthBefore
+        MappedJobStatusCache.isMappedFile(file)
+
+        when:
+        def reopened = MappedJobStatusCache.open(file)
+
+        then:
+        reopened.entries().size() == 3000
+        reopened.entries()[1] == new HostJobState(host2, 2L, COMPLETED)
+        reopened.entries()[2998] == new HostJobState(host1, 2999L, FAILED)
+        reopened.running().size() == 2998
+        reopened.withState(COMPLETED) as List == [new HostJobState(host2, 2L, COMPLETED)]
+        reopened.withState(FAILED)*.jobId == [2999L]
+        reopened.put(host1, 1L, RUNNING) == new HostJobState(host1, 1L, RUNNING)
+
+        cleanup:
+        reopened?.close()
+    }
+
+
+    def "converts to and from CSV"() {
+        def simpleCache = SimpleFileJobStatusCache.createEmpty(csvFile)
+        simpleCache.put(host1, 1L, RUNNING)
+        simpleCache.put(host2, 2L, FAILED)
+
+        when:
+        def cache = MappedJobStatusCache.fromCsv(csvFile, file)
+        cache.put(host1, 1L, COMPLETED)
+        cache.toCsv(csvFile)
+        cache.close()
+
+        then:
+        !MappedJobStatusCache.isMappedFile(csvFile)
+        JournaledFileJobStatusCache.open(csvFile).entries() as List ==
+            [new HostJobState(host1, 1L, COMPLETED), new HostJobState(host2, 2L, FAILED)]
+    }
+
+
+    def "converts a journal from CSV without changing it"() {
+        csvFile.text = ["${host1},1,RUNNING", "${host2},2,RUNNING", "${host1},1,COMPLETED", ""].
+            join(System.lineSeparator())
+        def journal = csvFile.text
+
+        when:
+        def cache = MappedJobStatusCache.fromCsv(csvFile, file)
+
+        then:
+        cache.entries() as List == [new HostJobState(host1, 1L, COMPLETED), new HostJobState(host2, 2L, RUNNING)]
+        csvFile.text == journal
+
+        cleanup:
+        cache?.close()
+    }
+
+
+    def "will not open a file shorter than its header says"() {
+        def cache = MappedJobStatusCache.createEmpty(file, 30)
+        cache.put(host1, 1L, RUNNING)
+        cache.close()
+        new RandomAccessFile(file, "rw").withCloseable { it.length = MappedJobStatusCache.HEADER_SIZE + 30 + 8 }
+
+        when:
+        MappedJobStatusCache.open(file)
+
+        then:
+        def exp = thrown(IOException)
+        exp.message.contains("1 records")
+    }
+
+
+    def "runs out of room for hosts"() {
+        def cache = MappedJobStatusCache.createEmpty(file, 30)
+
+        when:
+        cache.put(host1, 1L, RUNNING)
+        cache.put(host2, 1L, RUNNING)
+
+        then:
+        thrown(IllegalStateException)
+
+        cleanup:
+        cache.close()
+    }
+
+}
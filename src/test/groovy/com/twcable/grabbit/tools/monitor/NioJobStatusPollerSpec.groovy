@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-2016 Time Warner Cable, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twcable.grabbit.tools.monitor
+
+import com.sun.net.httpserver.HttpServer
+import com.twcable.grabbit.tools.environment.HostInfo
+import com.twcable.grabbit.tools.environment.MapSourcedEnvironment
+import com.twcable.grabbit.tools.environment.UsernameAndPassword
+import spock.lang.AutoCleanup
+import spock.lang.Specification
+import spock.lang.Subject
+
+import java.nio.channels.UnresolvedAddressException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
+
+@Subject(NioJobStatusPoller)
+class NioJobStatusPollerSpec extends Specification {
+
+    static final String JOB_STATUS_JSON = '''
+{
+  "transactionID": 5700257125617303512,
+  "jobExecutionId": 6599420059518545859,
+  "jcrNodesWritten": 42,
+  "exitStatus": {
+    "exitDescription": "",
+    "exitCode": "COMPLETED",
+    "running": false
+  },
+  "timeTaken": 1000,
+  "path": "/content/modals",
+  "startTime": "2016-06-03T13:19:57+0000"
+}'''
+
+    HttpServer server
+
+    @AutoCleanup
+    NioJobStatusPoller poller
+
+    URI location
+
+
+    def setup() {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/grabbit/job/6599420059518545859.json") { exchange ->
+            assert exchange.requestHeaders.getFirst("Authorization") == "Basic " + "admin:admin".bytes.encodeBase64()
+            // a zero length means the response is chunked
+            exchange.sendResponseHeaders(200, 0)
+            exchange.responseBody.withStream { it.write(JOB_STATUS_JSON.getBytes("UTF-8")) }
+        }
+        server.start()
+
+        location = URI.create("http://127.0.0.1:${server.address.port}")
+        def env = new MapSourcedEnvironment([new HostInfo(PUBLISHER, location, new UsernameAndPassword("admin", "admin"))])
+        poller = NioJobStatusPoller.create(env, 1)
+    }
+
+
+    def cleanup() {
+        server.stop(0)
+    }
+
+
+    def "polls the job status without blocking"() {
+        when:
+        def jobStatus = poller.pollJobStatusAsync(location, 6599420059518545859L).get(5, TimeUnit.SECONDS)
+
+        then:
+        jobStatus.jobExecutionId == 6599420059518545859L
+        jobStatus.jcrNodesWritten == 42
+        jobStatus.state() == JobState.COMPLETED
+    }
+
+
+    def "an unknown job completes exceptionally"() {
+        when:
+        poller.pollJobStatusAsync(location, 999).get(5, TimeUnit.SECONDS)
+
+        then:
+        def exp = thrown(ExecutionException)
+        exp.cause instanceof FileNotFoundException
+    }
+
+
+
+    def "an unresolvable host completes exceptionally"() {
+        when:
+        poller.pollJobStatusAsync(URI.create("http://no-such-host.invalid"), 1).get(5, TimeUnit.SECONDS)
+
+        then:
+        def exp = thrown(ExecutionException)
+        exp.cause instanceof UnresolvedAddressException
+    }
+
+
+    def "a host that does not accept the connection times out"() {
+        // with its backlog full, the server stops answering new connections
+        def serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"))
+        def backlog = (1..8).collect {
+            def socket = new Socket()
+            try {
+                socket.connect(serverSocket.localSocketAddress, 200)
+            }
+            catch (SocketTimeoutException ignored) {
+            }
+            socket
+        }
+        def env = new MapSourcedEnvironment([])
+        def timingOutPoller = NioJobStatusPoller.create(env, 1, 200)
+
+        when:
+        timingOutPoller.pollJobStatusAsync(URI.create("http://127.0.0.1:${serverSocket.localPort}"), 1).
+            get(5, TimeUnit.SECONDS)
+
+        then:
+        def exp = thrown(ExecutionException)
+        exp.cause instanceof SocketTimeoutException
+
+        cleanup:
+        timingOutPoller?.close()
+        backlog*.close()
+        serverSocket?.close()
+    }
+
+}
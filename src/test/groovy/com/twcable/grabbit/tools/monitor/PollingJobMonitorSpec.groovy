@@ -15,24 +15,41 @@
  */
 package com.twcable.grabbit.tools.monitor
 
+import com.sun.net.httpserver.HttpServer
+import com.twcable.grabbit.tools.environment.HostInfo
+import com.twcable.grabbit.tools.environment.MapSourcedEnvironment
+import com.twcable.grabbit.tools.environment.UsernameAndPassword
+import com.twcable.grabbit.tools.jobstarter.HostAndJobIds
+import com.twcable.grabbit.tools.monitor.event.CompletedJobsMonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.ConcurrencyMonitoringEvent
 import com.twcable.grabbit.tools.monitor.event.EndMonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.FailedJobsMonitoringEvent
 import com.twcable.grabbit.tools.monitor.event.JobStatusMonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.JobsStartedMonitoringEvent
 import com.twcable.grabbit.tools.monitor.event.MonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.PollingMonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.SleepMonitoringEvent
+import com.twcable.grabbit.tools.monitor.event.StartFailedMonitoringEvent
 import com.twcable.grabbit.tools.monitor.event.StartMonitoringEvent
 import groovy.transform.CompileStatic
 import org.reactivestreams.Publisher
 import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
 import reactor.core.publisher.WorkQueueProcessor
 import spock.lang.AutoCleanup
 import spock.lang.Specification
 import spock.lang.Subject
+import spock.lang.Unroll
 
 import java.time.Duration
 import java.time.OffsetDateTime
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
 import java.util.stream.Collectors
 
+import static com.twcable.grabbit.tools.environment.HostInfo.NodeType.PUBLISHER
 import static com.twcable.grabbit.tools.monitor.JobState.COMPLETED
 import static com.twcable.grabbit.tools.monitor.JobState.FAILED
 import static com.twcable.grabbit.tools.monitor.JobState.RUNNING
@@ -64,6 +81,299 @@ class PollingJobMonitorSpec extends Specification {
         events.last().class == EndMonitoringEvent
     }
 
+
+    def "monitors with a non-blocking poller"() {
+        def server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/grabbit/job/6599420059518545859.json") { exchange ->
+            exchange.sendResponseHeaders(200, 0)
+            exchange.responseBody.withStream { it.write(NioJobStatusPollerSpec.JOB_STATUS_JSON.getBytes("UTF-8")) }
+        }
+        server.start()
+        def location = URI.create("http://127.0.0.1:${server.address.port}")
+        def env = new MapSourcedEnvironment([new HostInfo(PUBLISHER, location, new UsernameAndPassword("admin", "admin"))])
+        def nioPoller = NioJobStatusPoller.create(env, 1)
+        def jobStatusCache = new SimpleMapJobStatusCache()
+        jobStatusCache.put(location, 6599420059518545859L, RUNNING)
+
+        when:
+        def nioMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            asyncPoller(nioPoller).sleep(1L).build()
+        def events = consumeToEventList(nioMonitor.monitor())
+
+        then:
+        nioMonitor.asyncJobStatusPoller.is(nioPoller)
+        events.find { it instanceof CompletedJobsMonitoringEvent }
+        events.last().class == EndMonitoringEvent
+        jobStatusCache.running().empty
+
+        cleanup:
+        nioPoller?.close()
+        server?.stop(0)
+    }
+
+
+    def "parallel polls update a concurrent cache as each one returns"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def host = URI.create("http://test.com")
+        def jobStatusCache = new ConcurrentJobStatusCache()
+        jobStatusCache.put(host, 1L, RUNNING)
+        jobStatusCache.put(host, 2L, RUNNING)
+
+        def poller = { URI location, long jobId ->
+            if (jobId == 2L) {
+                // only returns once the first job's status is already in the cache
+                def deadline = System.currentTimeMillis() + 5000
+                while (jobStatusCache.get(new HostJobKey(location, 1L)).state() != COMPLETED &&
+                    System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10)
+                }
+            }
+            return createJobStatus(location, jobId, startTime, COMPLETED)
+        } as JobStatusPoller
+
+        def parallelMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).parallelism(2).sleep(1L).build()
+
+        when:
+        def events = consumeToEventList(parallelMonitor.monitor())
+
+        then:
+        events.find { it instanceof CompletedJobsMonitoringEvent }.completedJobs.size() == 2
+        jobStatusCache.running().empty
+    }
+
+
+    def "batched polling uses one request per host, falling back when unsupported"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def batchedHost = URI.create("http://batched.com")
+        def unbatchedHost = URI.create("http://unbatched.com")
+        def jobStatusCache = new SimpleMapJobStatusCache()
+        jobStatusCache.put(batchedHost, 1L, RUNNING)
+        jobStatusCache.put(batchedHost, 2L, RUNNING)
+        jobStatusCache.put(unbatchedHost, 3L, RUNNING)
+
+        def batchRequests = [].asSynchronized()
+        def individualRequests = [].asSynchronized()
+        def poller = new BatchJobStatusPoller() {
+            @Override
+            Collection<JobStatus> pollAllJobStatuses(URI location) {
+                batchRequests << location
+                if (location == unbatchedHost) throw new UnsupportedOperationException("no \"all\" here")
+                return [createJobStatus(location, 1L, startTime, COMPLETED), createJobStatus(location, 2L, startTime, COMPLETED)]
+            }
+
+
+            @Override
+            JobStatus pollJobStatus(URI location, long jobId) {
+                individualRequests << jobId
+                return createJobStatus(location, jobId, startTime, COMPLETED)
+            }
+        }
+
+        def batchingMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).batchPerHost(true).sleep(1L).build()
+
+        when:
+        consumeToEventList(batchingMonitor.monitor())
+
+        then:
+        batchRequests == [batchedHost, unbatchedHost]
+        individualRequests == [3L]
+        jobStatusCache.entries()*.state == [COMPLETED, COMPLETED, COMPLETED]
+    }
+
+    def "batched polling falls back for a host that reports no jobs"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def host = URI.create("http://empty.com")
+        def jobStatusCache = new SimpleMapJobStatusCache()
+        jobStatusCache.put(host, 1L, RUNNING)
+
+        def batchRequests = 0
+        def individualRequests = 0
+        def poller = new BatchJobStatusPoller() {
+            @Override
+            Collection<JobStatus> pollAllJobStatuses(URI location) {
+                batchRequests++
+                return []
+            }
+
+
+            @Override
+            JobStatus pollJobStatus(URI location, long jobId) {
+                individualRequests++
+                return createJobStatus(location, jobId, startTime, individualRequests < 3 ? RUNNING : COMPLETED)
+            }
+        }
+
+        def batchingMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).batchPerHost(true).sleep(1L).build()
+
+        when:
+        consumeToEventList(batchingMonitor.monitor())
+
+        then:
+        batchRequests == 1
+        individualRequests == 3
+        jobStatusCache.entries()*.state == [COMPLETED]
+    }
+
+    def "publishes the concurrency controller's decisions"() {
+        def host = URI.create("http://test.com")
+        def jobStatusCache = new SimpleMapJobStatusCache()
+        jobStatusCache.put(host, 1L, RUNNING)
+
+        def polls = 0
+        def poller = { URI location, long jobId ->
+            polls++
+            new JobStatus(location, 1L, jobId, OffsetDateTime.now().minusMinutes(1), null, "/content", -1L,
+                polls * 1000L, "", polls < 5 ? "UNKNOWN" : "COMPLETED", polls < 5)
+        } as JobStatusPoller
+
+        def limits = []
+        def controller = new AimdConcurrencyController(1, 1, 8, 1L, 0.5d, { uri, limit -> limits << limit })
+
+        def adaptingMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).sleep(2L).concurrencyController(controller).build()
+
+        when:
+        def events = consumeToEventList(adaptingMonitor.monitor())
+        def decisions = events.findAll { it instanceof ConcurrencyMonitoringEvent }
+
+        then:
+        !decisions.isEmpty()
+        decisions.every { it.location == host }
+        decisions.first().action == ConcurrencyMonitoringEvent.Action.INCREASE
+        limits.first() == 2
+        controller.limit(host) == decisions.last().limit
+        events.last().class == EndMonitoringEvent
+    }
+
+
+    def "scheduled polling reports each job as soon as it finishes"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def host = URI.create("http://test.com")
+        def jobStatusCache = new SimpleMapJobStatusCache()
+        jobStatusCache.put(host, 1L, RUNNING)
+        jobStatusCache.put(host, 2L, RUNNING)
+
+        def polls = [:].withDefault { 0 }
+        def poller = new JobStatusPoller() {
+            @Override
+            synchronized JobStatus pollJobStatus(URI location, long jobId) {
+                def count = ++polls[jobId]
+                // job 1 finishes on its second poll, job 2 fails on its fourth
+                def state = (jobId == 1L) ? (count < 2 ? RUNNING : COMPLETED) : (count < 4 ? RUNNING : FAILED)
+                return createJobStatus(location, jobId, startTime, state)
+            }
+        }
+
+        def scheduler = Executors.newScheduledThreadPool(2)
+        def scheduledMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).sleep(1L).scheduler(scheduler).build()
+
+        when:
+        def events = consumeToEventList(scheduledMonitor.monitor())
+
+        then:
+        events.first().class == StartMonitoringEvent
+        events.last().class == EndMonitoringEvent
+        events.findAll { it.class == SleepMonitoringEvent }.empty
+        events.findAll { it.class == CompletedJobsMonitoringEvent }*.completedJobs*.jobExecutionId.flatten() == [1L]
+        events.findAll { it.class == FailedJobsMonitoringEvent }*.failedJobs*.jobExecutionId.flatten() == [2L]
+        polls == [1L: 2, 2L: 4]
+        jobStatusCache.entries()*.state == [COMPLETED, FAILED]
+
+        cleanup:
+        scheduler?.shutdown()
+    }
+
+
+    def "flushes the cache once per poll cycle"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def host = URI.create("http://test.com")
+        def flushes = 0
+        def jobStatusCache = new SimpleMapJobStatusCache() {
+            @Override
+            void flush() {
+                flushes++
+            }
+        }
+        jobStatusCache.put(host, 1L, RUNNING)
+        jobStatusCache.put(host, 2L, RUNNING)
+
+        def polls = [:].withDefault { 0 }
+        def poller = new JobStatusPoller() {
+            @Override
+            JobStatus pollJobStatus(URI location, long jobId) {
+                // both jobs finish on their third poll
+                return createJobStatus(location, jobId, startTime, ++polls[jobId] < 3 ? RUNNING : COMPLETED)
+            }
+        }
+
+        def flushingMonitor = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).sleep(1L).build()
+
+        when:
+        consumeToEventList(flushingMonitor.monitor())
+
+        then:
+        polls == [1L: 3, 2L: 3]
+        flushes == 3
+    }
+
+
+    @Unroll
+    def "monitors each host's jobs as soon as they are started (scheduled: #scheduled)"() {
+        def startTime = OffsetDateTime.now().minusHours(1)
+        def fastHost = URI.create("http://fast.test")
+        def slowHost = URI.create("http://slow.test")
+        def brokenHost = URI.create("http://broken.test")
+        def jobStatusCache = new IndexedJobStatusCache()
+        def fastJobDone = new CountDownLatch(1)
+
+        def poller = new JobStatusPoller() {
+            @Override
+            JobStatus pollJobStatus(URI location, long jobId) {
+                if (location == fastHost) fastJobDone.countDown()
+                return createJobStatus(location, jobId, startTime, COMPLETED)
+            }
+        }
+
+        // the slow host only finishes starting its jobs once the fast host's job has been polled
+        def slowHostStarted = CompletableFuture.supplyAsync({
+            fastJobDone.await()
+            new HostAndJobIds(slowHost, Flux.just(2L, 3L))
+        })
+        def startedJobs = Flux.merge(
+            Mono.just(new HostAndJobIds(fastHost, Flux.just(1L))),
+            Mono.just(new HostAndJobIds(brokenHost, Flux.<Long>error(new IOException("no jobs")))),
+            Mono.fromFuture(slowHostStarted))
+
+        def scheduler = scheduled ? Executors.newScheduledThreadPool(2) : null
+        def builder = PollingJobMonitor.builder().jobStatusCache(jobStatusCache).executor(executor).
+            poller(poller).sleep(1L).startedJobs(startedJobs)
+        def pipelinedMonitor = (scheduled ? builder.scheduler(scheduler) : builder).build()
+
+        when:
+        def events = consumeToEventList(pipelinedMonitor.monitor())
+        def completedJobIds = events.findAll { it.class == CompletedJobsMonitoringEvent }*.completedJobs*.jobExecutionId.flatten()
+        def slowHostStartedAt = events.findIndexOf { it.class == JobsStartedMonitoringEvent && it.location == slowHost }
+        def fastJobPolledAt = events.findIndexOf { it.class == PollingMonitoringEvent && it.location == fastHost }
+
+        then:
+        events.last().class == EndMonitoringEvent
+        completedJobIds as Set == [1L, 2L, 3L] as Set
+        fastJobPolledAt < slowHostStartedAt
+        events.find { it.class == StartFailedMonitoringEvent }.location == brokenHost
+        jobStatusCache.entries()*.state == [COMPLETED, COMPLETED, COMPLETED]
+
+        cleanup:
+        scheduler?.shutdown()
+
+        where:
+        scheduled << [false, true]
+    }
+
     // **********************************************************************
     //
     // HELPER METHODS
@@ -44,4 +44,56 @@ class SimpleFileJobStatusCacheSpec extends Specification {
         file.delete()
     }
 
+
+    def "group commit only writes when flushed or overdue"() {
+        def file = File.createTempFile("SimpleFileJobStatusCacheSpec", "test")
+        def cache = SimpleFileJobStatusCache.createEmpty(file, new GroupCommitPolicy(DurabilityPolicy.FLUSH, 60000))
+
+        when:
+        cache.put(URI.create("http://test.com"), 1L, JobState.RUNNING)
+        cache.put(URI.create("http://test.com"), 2L, JobState.RUNNING)
+
+        then:
+        file.readLines().isEmpty()
+
+        when:
+        cache.flush()
+
+        then:
+        file.readLines() == ["http://test.com,1,RUNNING", "http://test.com,2,RUNNING"]
+        !new File(file.path + ".writing").exists()
+
+        when:
+        def overdueCache = SimpleFileJobStatusCache.open(file, new GroupCommitPolicy(DurabilityPolicy.FLUSH, 0))
+        overdueCache.put(URI.create("http://test.com"), 1L, JobState.COMPLETED)
+
+        then:
+        file.readLines() == ["http://test.com,1,COMPLETED", "http://test.com,2,RUNNING"]
+
+        cleanup:
+        file.delete()
+    }
+
+
+    def "with no durability changes are only written on close"() {
+        def file = File.createTempFile("SimpleFileJobStatusCacheSpec", "test")
+        def cache = SimpleFileJobStatusCache.createEmpty(file, new GroupCommitPolicy(DurabilityPolicy.NONE, 60000))
+
+        when:
+        cache.put(URI.create("http://test.com"), 1L, JobState.RUNNING)
+        cache.flush()
+
+        then:
+        file.readLines().isEmpty()
+
+        when:
+        cache.close()
+
+        then:
+        file.readLines() == ["http://test.com,1,RUNNING"]
+
+        cleanup:
+        file.delete()
+    }
+
 }